@@ -0,0 +1,88 @@
+package eu.isas.peptideshaker.benchmarks;
+
+import com.compomics.util.experiment.identification.spectrum_annotation.spectrum_annotators.PeptideSpectrumAnnotator;
+import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
+import com.compomics.util.preferences.IdentificationParameters;
+import eu.isas.peptideshaker.scoring.psm_scoring.BestMatchSelection;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks the selection of the best hit among equally scoring peptide
+ * assumptions, where ties are resolved using the protein count and the
+ * spectrum annotation.
+ *
+ * @author Marc Vaudel
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class BestMatchSelectionBenchmark {
+
+    /**
+     * The first hits of the spectra.
+     */
+    @State(Scope.Benchmark)
+    public static class FirstHitsState {
+
+        /**
+         * The keys of the spectra.
+         */
+        public ArrayList<String> spectrumKeys;
+        /**
+         * The first hits of the spectra.
+         */
+        public ArrayList<ArrayList<PeptideAssumption>> firstHits;
+
+        /**
+         * Builds the first hits of the spectra of the project.
+         *
+         * @param projectState the project state
+         */
+        @Setup
+        public void setUp(ProjectState projectState) {
+            SyntheticDataset dataset = projectState.dataset;
+            spectrumKeys = new ArrayList<String>(dataset.getPsms().size());
+            firstHits = new ArrayList<ArrayList<PeptideAssumption>>(dataset.getPsms().size());
+            for (SyntheticDataset.SyntheticPsm psm : dataset.getPsms()) {
+                spectrumKeys.add(dataset.getSpectrumKey(psm));
+                firstHits.add(dataset.getFirstHits(psm));
+            }
+        }
+    }
+
+    /**
+     * Selects the best hit of every spectrum.
+     *
+     * @param projectState the project state
+     * @param firstHitsState the first hits
+     * @param blackhole the blackhole consuming the results
+     *
+     * @throws Exception exception thrown whenever an error occurred while
+     * selecting the best hits
+     */
+    @Benchmark
+    public void getBestHit(ProjectState projectState, FirstHitsState firstHitsState, Blackhole blackhole) throws Exception {
+        IdentificationParameters identificationParameters = projectState.dataset.getIdentificationParameters();
+        HashMap<String, Integer> proteinCount = projectState.dataset.getProteinCount();
+        PeptideSpectrumAnnotator spectrumAnnotator = new PeptideSpectrumAnnotator();
+        for (int i = 0; i < firstHitsState.spectrumKeys.size(); i++) {
+            blackhole.consume(BestMatchSelection.getBestHit(firstHitsState.spectrumKeys.get(i), firstHitsState.firstHits.get(i), proteinCount,
+                    identificationParameters.getSequenceMatchingPreferences(), identificationParameters, spectrumAnnotator));
+        }
+    }
+}
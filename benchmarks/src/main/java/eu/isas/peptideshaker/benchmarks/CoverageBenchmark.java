@@ -0,0 +1,97 @@
+package eu.isas.peptideshaker.benchmarks;
+
+import com.compomics.util.exceptions.exception_handlers.CommandLineExceptionHandler;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks the estimation of the amino acid coverage of the proteins.
+ *
+ * @author Marc Vaudel
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class CoverageBenchmark {
+
+    /**
+     * The keys of the protein matches of the project.
+     */
+    @State(Scope.Benchmark)
+    public static class ProteinKeysState {
+
+        /**
+         * The keys of the protein matches.
+         */
+        public ArrayList<String> proteinKeys;
+
+        /**
+         * Collects the keys of the protein matches.
+         *
+         * @param projectState the project state
+         */
+        @Setup
+        public void setUp(ProjectState projectState) {
+            proteinKeys = new ArrayList<String>(projectState.identification.getProteinIdentification());
+        }
+    }
+
+    /**
+     * The threading settings of the bulk coverage estimation.
+     */
+    @State(Scope.Benchmark)
+    public static class ThreadsState {
+
+        /**
+         * The number of threads to use.
+         */
+        @Param({"1", "4"})
+        public int nThreads;
+    }
+
+    /**
+     * Estimates the coverage of every protein by enzymatic peptides.
+     *
+     * @param projectState the project state
+     * @param proteinKeysState the protein keys
+     * @param blackhole the blackhole consuming the results
+     *
+     * @throws Exception exception thrown whenever an error occurred while
+     * estimating the coverage
+     */
+    @Benchmark
+    public void estimateAACoverage(ProjectState projectState, ProteinKeysState proteinKeysState, Blackhole blackhole) throws Exception {
+        for (String proteinKey : proteinKeysState.proteinKeys) {
+            blackhole.consume(projectState.identificationFeaturesGenerator.estimateAACoverage(proteinKey, true));
+        }
+    }
+
+    /**
+     * Estimates the coverage of all validated proteins in bulk.
+     *
+     * @param projectState the project state
+     * @param threadsState the threading settings
+     *
+     * @throws Exception exception thrown whenever an error occurred while
+     * estimating the coverage
+     */
+    @Benchmark
+    public void estimateSequenceCoverages(ProjectState projectState, ThreadsState threadsState) throws Exception {
+        projectState.identificationFeaturesGenerator.clearSequenceCoverages();
+        projectState.identificationFeaturesGenerator.estimateSequenceCoverages(threadsState.nThreads, null, new CommandLineExceptionHandler());
+    }
+}
@@ -0,0 +1,121 @@
+package eu.isas.peptideshaker.benchmarks;
+
+import com.compomics.util.db.ObjectsCache;
+import com.compomics.util.experiment.identification.Identification;
+import eu.isas.peptideshaker.preferences.SpectrumCountingPreferences;
+import eu.isas.peptideshaker.utils.IdentificationFeaturesGenerator;
+import eu.isas.peptideshaker.utils.Metrics;
+import java.io.File;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Benchmark state holding a synthetic project: the sequences and spectra are
+ * loaded in the factories and the matches are stored in an identification
+ * database.
+ *
+ * @author Marc Vaudel
+ */
+@State(Scope.Benchmark)
+public class ProjectState {
+
+    /**
+     * The seed used to generate the dataset, fixed so that results are
+     * comparable across commits.
+     */
+    public static final long SEED = 20161018L;
+    /**
+     * The number of target proteins.
+     */
+    @Param({"500"})
+    public int nProteins;
+    /**
+     * The number of spectra.
+     */
+    @Param({"2000"})
+    public int nSpectra;
+    /**
+     * The dataset.
+     */
+    public SyntheticDataset dataset;
+    /**
+     * The identification.
+     */
+    public Identification identification;
+    /**
+     * The identification features generator.
+     */
+    public IdentificationFeaturesGenerator identificationFeaturesGenerator;
+    /**
+     * The metrics.
+     */
+    public Metrics metrics;
+    /**
+     * The folder where the files of the project are written.
+     */
+    private File folder;
+    /**
+     * The number of identification databases created.
+     */
+    private int nDatabases = 0;
+
+    /**
+     * Generates the dataset, loads the files and creates the identification.
+     *
+     * @throws Exception exception thrown whenever an error occurred while
+     * creating the project
+     */
+    @Setup
+    public void setUp() throws Exception {
+        folder = File.createTempFile("peptideshaker_benchmark", "");
+        if (!folder.delete() || !folder.mkdir()) {
+            throw new IllegalStateException("Impossible to create the benchmark folder " + folder + ".");
+        }
+        dataset = new SyntheticDataset(folder, SEED, nProteins, nSpectra, 0.2);
+        dataset.writeAndLoadFiles();
+        createIdentification();
+    }
+
+    /**
+     * Replaces the identification by a new one populated with the matches of
+     * the dataset. Used by benchmarks modifying the identification.
+     *
+     * @throws Exception exception thrown whenever an error occurred while
+     * creating the identification
+     */
+    public void createIdentification() throws Exception {
+        closeIdentification();
+        File dbFolder = new File(folder, "matches_" + nDatabases++);
+        identification = dataset.createIdentification(dbFolder, new ObjectsCache());
+        metrics = new Metrics();
+        identificationFeaturesGenerator = new IdentificationFeaturesGenerator(identification, dataset.getIdentificationParameters(), metrics, new SpectrumCountingPreferences());
+    }
+
+    /**
+     * Closes the identification and deletes the files of the project.
+     *
+     * @throws Exception exception thrown whenever an error occurred while
+     * closing the project
+     */
+    @TearDown
+    public void tearDown() throws Exception {
+        closeIdentification();
+        dataset.clear();
+    }
+
+    /**
+     * Closes the connection to the current identification database if any.
+     *
+     * @throws Exception exception thrown whenever an error occurred while
+     * closing the connection
+     */
+    private void closeIdentification() throws Exception {
+        if (identification != null) {
+            identification.close();
+            identification = null;
+        }
+    }
+}
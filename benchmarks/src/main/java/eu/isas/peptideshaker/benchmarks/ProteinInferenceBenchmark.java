@@ -0,0 +1,73 @@
+package eu.isas.peptideshaker.benchmarks;
+
+import eu.isas.peptideshaker.protein_inference.ProteinInference;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the simplification of protein groups. The simplification
+ * modifies the identification, every measurement is therefore conducted on a
+ * newly created identification database.
+ *
+ * @author Marc Vaudel
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ProteinInferenceBenchmark {
+
+    /**
+     * State providing a new identification for every iteration.
+     */
+    @State(Scope.Benchmark)
+    public static class FreshIdentificationState {
+
+        /**
+         * The number of threads to use.
+         */
+        @Param({"1", "4"})
+        public int nThreads;
+
+        /**
+         * Recreates the identification of the project.
+         *
+         * @param projectState the project state
+         *
+         * @throws Exception exception thrown whenever an error occurred while
+         * creating the identification
+         */
+        @Setup(Level.Iteration)
+        public void setUp(ProjectState projectState) throws Exception {
+            projectState.createIdentification();
+        }
+    }
+
+    /**
+     * Removes the redundant protein groups.
+     *
+     * @param projectState the project state
+     * @param freshIdentificationState the state recreating the identification
+     *
+     * @throws Exception exception thrown whenever an error occurred while
+     * simplifying the groups
+     */
+    @Benchmark
+    public void removeRedundantGroups(ProjectState projectState, FreshIdentificationState freshIdentificationState) throws Exception {
+        ProteinInference proteinInference = new ProteinInference();
+        proteinInference.removeRedundantGroups(projectState.identification, projectState.dataset.getIdentificationParameters(),
+                projectState.identificationFeaturesGenerator, freshIdentificationState.nThreads, null);
+    }
+}
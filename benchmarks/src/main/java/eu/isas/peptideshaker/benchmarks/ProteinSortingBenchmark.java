@@ -0,0 +1,59 @@
+package eu.isas.peptideshaker.benchmarks;
+
+import eu.isas.peptideshaker.utils.IdentificationFeaturesGenerator;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks the sorting of the protein keys displayed in the protein table.
+ *
+ * @author Marc Vaudel
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ProteinSortingBenchmark {
+
+    /**
+     * The threading settings of the protein sorting.
+     */
+    @State(Scope.Benchmark)
+    public static class ThreadsState {
+
+        /**
+         * The number of threads to use.
+         */
+        @Param({"1", "4"})
+        public int nThreads;
+    }
+
+    /**
+     * Sorts the protein keys.
+     *
+     * @param projectState the project state
+     * @param threadsState the threading settings
+     * @param blackhole the blackhole consuming the results
+     *
+     * @throws Exception exception thrown whenever an error occurred while
+     * sorting the proteins
+     */
+    @Benchmark
+    public void getProcessedProteinKeys(ProjectState projectState, ThreadsState threadsState, Blackhole blackhole) throws Exception {
+        IdentificationFeaturesGenerator identificationFeaturesGenerator = projectState.identificationFeaturesGenerator;
+        identificationFeaturesGenerator.setProteinKeys(null);
+        identificationFeaturesGenerator.getIdentificationFeaturesCache().clearFilterDependentObjects();
+        blackhole.consume(identificationFeaturesGenerator.getProcessedProteinKeys(null, null, threadsState.nThreads));
+    }
+}
@@ -0,0 +1,114 @@
+package eu.isas.peptideshaker.benchmarks;
+
+import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import com.compomics.util.experiment.identification.spectrum_annotation.spectrum_annotators.PeptideSpectrumAnnotator;
+import com.compomics.util.gui.waiting.waitinghandlers.WaitingHandlerCLIImpl;
+import com.compomics.util.waiting.WaitingHandler;
+import eu.isas.peptideshaker.export.exportfeatures.PsPsmFeature;
+import eu.isas.peptideshaker.export.sections.PsPsmSection;
+import eu.isas.peptideshaker.parameters.PSParameter;
+import eu.isas.peptideshaker.ptm.ModificationSiteIndex;
+import eu.isas.peptideshaker.ptm.PtmScorer;
+import eu.isas.peptideshaker.scoring.maps.PsmPTMMap;
+import eu.isas.peptideshaker.utils.SpectrumAnnotationCache;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks the export of the PSM features as done for every line of the
+ * PSM reports.
+ *
+ * @author Marc Vaudel
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class PsmExportBenchmark {
+
+    /**
+     * The spectrum matches of the project with their scored PTMs and
+     * PeptideShaker parameters.
+     */
+    @State(Scope.Benchmark)
+    public static class ExportState {
+
+        /**
+         * The spectrum matches.
+         */
+        public ArrayList<SpectrumMatch> spectrumMatches;
+        /**
+         * The PeptideShaker parameters of the spectrum matches.
+         */
+        public ArrayList<PSParameter> psParameters;
+        /**
+         * The waiting handler.
+         */
+        public WaitingHandler waitingHandler;
+
+        /**
+         * Loads the spectrum matches of the project and scores their PTMs.
+         *
+         * @param projectState the project state
+         *
+         * @throws Exception exception thrown whenever an error occurred while
+         * loading the matches
+         */
+        @Setup
+        public void setUp(ProjectState projectState) throws Exception {
+            SyntheticDataset dataset = projectState.dataset;
+            waitingHandler = new WaitingHandlerCLIImpl();
+            PtmScorer ptmScorer = new PtmScorer(new PsmPTMMap());
+            PeptideSpectrumAnnotator peptideSpectrumAnnotator = new PeptideSpectrumAnnotator();
+            SpectrumAnnotationCache spectrumAnnotationCache = new SpectrumAnnotationCache();
+            ModificationSiteIndex modificationSiteIndex = new ModificationSiteIndex(dataset.getIdentificationParameters());
+            spectrumMatches = new ArrayList<SpectrumMatch>(dataset.getPsms().size());
+            psParameters = new ArrayList<PSParameter>(dataset.getPsms().size());
+            for (SyntheticDataset.SyntheticPsm psm : dataset.getPsms()) {
+                String spectrumKey = dataset.getSpectrumKey(psm);
+                SpectrumMatch spectrumMatch = projectState.identification.getSpectrumMatch(spectrumKey);
+                if (psm.modifiedSite != -1) {
+                    ptmScorer.scorePsmPtms(projectState.identification, spectrumMatch, dataset.getAssumptions(psm), dataset.getIdentificationParameters(),
+                            modificationSiteIndex, waitingHandler, peptideSpectrumAnnotator, spectrumAnnotationCache);
+                }
+                spectrumMatches.add(spectrumMatch);
+                psParameters.add((PSParameter) projectState.identification.getSpectrumMatchParameter(spectrumKey, new PSParameter()));
+            }
+        }
+    }
+
+    /**
+     * Exports all PSM features of every spectrum match.
+     *
+     * @param projectState the project state
+     * @param exportState the spectrum matches
+     * @param blackhole the blackhole consuming the results
+     *
+     * @throws Exception exception thrown whenever an error occurred while
+     * exporting the features
+     */
+    @Benchmark
+    public void getFeature(ProjectState projectState, ExportState exportState, Blackhole blackhole) throws Exception {
+        for (int i = 0; i < exportState.spectrumMatches.size(); i++) {
+            SpectrumMatch spectrumMatch = exportState.spectrumMatches.get(i);
+            PSParameter psParameter = exportState.psParameters.get(i);
+            for (PsPsmFeature psmFeature : PsPsmFeature.values()) {
+                blackhole.consume(PsPsmSection.getFeature(projectState.identification, projectState.identificationFeaturesGenerator,
+                        projectState.dataset.getIdentificationParameters(), null, "", spectrumMatch, psParameter, psmFeature, false, true,
+                        exportState.waitingHandler));
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package eu.isas.peptideshaker.benchmarks;
+
+import com.compomics.util.experiment.identification.SpectrumIdentificationAssumption;
+import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import com.compomics.util.experiment.identification.spectrum_annotation.spectrum_annotators.PeptideSpectrumAnnotator;
+import com.compomics.util.gui.waiting.waitinghandlers.WaitingHandlerCLIImpl;
+import com.compomics.util.waiting.WaitingHandler;
+import eu.isas.peptideshaker.ptm.ModificationSiteIndex;
+import eu.isas.peptideshaker.ptm.PtmScorer;
+import eu.isas.peptideshaker.scoring.maps.PsmPTMMap;
+import eu.isas.peptideshaker.utils.SpectrumAnnotationCache;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the scoring of the PTM localization in spectrum matches: D-score
+ * and probabilistic score.
+ *
+ * @author Marc Vaudel
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class PtmScorerBenchmark {
+
+    /**
+     * The modified spectrum matches of the project and their assumptions.
+     */
+    @State(Scope.Benchmark)
+    public static class SpectrumMatchesState {
+
+        /**
+         * The modified spectrum matches.
+         */
+        public ArrayList<SpectrumMatch> spectrumMatches;
+        /**
+         * The assumptions of the modified spectrum matches.
+         */
+        public ArrayList<HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>>> assumptions;
+        /**
+         * The PTM scorer.
+         */
+        public PtmScorer ptmScorer;
+        /**
+         * The waiting handler.
+         */
+        public WaitingHandler waitingHandler;
+
+        /**
+         * Builds the modified spectrum matches of the project.
+         *
+         * @param projectState the project state
+         */
+        @Setup
+        public void setUp(ProjectState projectState) {
+            SyntheticDataset dataset = projectState.dataset;
+            spectrumMatches = new ArrayList<SpectrumMatch>();
+            assumptions = new ArrayList<HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>>>();
+            for (SyntheticDataset.SyntheticPsm psm : dataset.getPsms()) {
+                if (psm.modifiedSite != -1) {
+                    SpectrumMatch spectrumMatch = new SpectrumMatch(dataset.getSpectrumKey(psm));
+                    spectrumMatch.setBestPeptideAssumption(dataset.getFirstHits(psm).get(0));
+                    spectrumMatches.add(spectrumMatch);
+                    assumptions.add(dataset.getAssumptions(psm));
+                }
+            }
+            ptmScorer = new PtmScorer(new PsmPTMMap());
+            waitingHandler = new WaitingHandlerCLIImpl();
+        }
+    }
+
+    /**
+     * Scores the PTMs of every modified spectrum match using a new index of
+     * the modification sites, as done for every processing step.
+     *
+     * @param projectState the project state
+     * @param spectrumMatchesState the spectrum matches
+     *
+     * @throws Exception exception thrown whenever an error occurred while
+     * scoring the PTMs
+     */
+    @Benchmark
+    public void scorePTMs(ProjectState projectState, SpectrumMatchesState spectrumMatchesState) throws Exception {
+        PeptideSpectrumAnnotator peptideSpectrumAnnotator = new PeptideSpectrumAnnotator();
+        SpectrumAnnotationCache spectrumAnnotationCache = new SpectrumAnnotationCache();
+        ModificationSiteIndex modificationSiteIndex = new ModificationSiteIndex(projectState.dataset.getIdentificationParameters());
+        for (int i = 0; i < spectrumMatchesState.spectrumMatches.size(); i++) {
+            spectrumMatchesState.ptmScorer.scorePTMs(projectState.identification, spectrumMatchesState.spectrumMatches.get(i), spectrumMatchesState.assumptions.get(i),
+                    projectState.dataset.getIdentificationParameters(), modificationSiteIndex, spectrumMatchesState.waitingHandler, peptideSpectrumAnnotator, spectrumAnnotationCache);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package eu.isas.peptideshaker.benchmarks;
+
+import com.compomics.util.exceptions.exception_handlers.CommandLineExceptionHandler;
+import eu.isas.peptideshaker.preferences.SpectrumCountingPreferences;
+import eu.isas.peptideshaker.utils.IdentificationFeaturesGenerator;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks the estimation of the spectrum counting indexes of the proteins.
+ *
+ * @author Marc Vaudel
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class SpectrumCountingBenchmark {
+
+    /**
+     * The keys of the protein matches of the project.
+     */
+    @State(Scope.Benchmark)
+    public static class ProteinKeysState {
+
+        /**
+         * The keys of the protein matches.
+         */
+        public ArrayList<String> proteinKeys;
+
+        /**
+         * Collects the keys of the protein matches.
+         *
+         * @param projectState the project state
+         */
+        @Setup
+        public void setUp(ProjectState projectState) {
+            proteinKeys = new ArrayList<String>(projectState.identification.getProteinIdentification());
+        }
+    }
+
+    /**
+     * The threading settings of the spectrum counting pass.
+     */
+    @State(Scope.Benchmark)
+    public static class ThreadsState {
+
+        /**
+         * The number of threads to use.
+         */
+        @Param({"1", "4"})
+        public int nThreads;
+    }
+
+    /**
+     * Estimates the NSAF and emPAI of every protein one protein at a time.
+     *
+     * @param projectState the project state
+     * @param proteinKeysState the protein keys
+     * @param blackhole the blackhole consuming the results
+     *
+     * @throws Exception exception thrown whenever an error occurred while
+     * estimating the spectrum counting
+     */
+    @Benchmark
+    public void estimateSpectrumCounting(ProjectState projectState, ProteinKeysState proteinKeysState, Blackhole blackhole) throws Exception {
+        IdentificationFeaturesGenerator identificationFeaturesGenerator = projectState.identificationFeaturesGenerator;
+        identificationFeaturesGenerator.clearSpectrumCounting();
+        for (String proteinKey : proteinKeysState.proteinKeys) {
+            for (SpectrumCountingPreferences.SpectralCountingMethod method : SpectrumCountingPreferences.SpectralCountingMethod.values()) {
+                blackhole.consume(identificationFeaturesGenerator.getSpectrumCounting(proteinKey, method));
+            }
+        }
+    }
+
+    /**
+     * Estimates the NSAF and emPAI of all proteins in a single pass.
+     *
+     * @param projectState the project state
+     * @param threadsState the threading settings
+     *
+     * @throws Exception exception thrown whenever an error occurred while
+     * estimating the spectrum counting
+     */
+    @Benchmark
+    public void estimateSpectrumCountings(ProjectState projectState, ThreadsState threadsState) throws Exception {
+        IdentificationFeaturesGenerator identificationFeaturesGenerator = projectState.identificationFeaturesGenerator;
+        identificationFeaturesGenerator.clearSpectrumCounting();
+        identificationFeaturesGenerator.estimateSpectrumCountings(threadsState.nThreads, null, new CommandLineExceptionHandler());
+    }
+}
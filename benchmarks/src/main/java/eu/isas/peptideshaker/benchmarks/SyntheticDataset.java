@@ -0,0 +1,648 @@
+package eu.isas.peptideshaker.benchmarks;
+
+import com.compomics.util.Util;
+import com.compomics.util.db.ObjectsCache;
+import com.compomics.util.experiment.biology.PTMFactory;
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.identification.Advocate;
+import com.compomics.util.experiment.identification.Identification;
+import com.compomics.util.experiment.identification.SpectrumIdentificationAssumption;
+import com.compomics.util.experiment.identification.identification_parameters.SearchParameters;
+import com.compomics.util.experiment.identification.identifications.Ms2Identification;
+import com.compomics.util.experiment.identification.matches.ModificationMatch;
+import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import com.compomics.util.experiment.identification.protein_sequences.SequenceFactory;
+import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
+import com.compomics.util.experiment.massspectrometry.Charge;
+import com.compomics.util.experiment.massspectrometry.Spectrum;
+import com.compomics.util.experiment.massspectrometry.SpectrumFactory;
+import com.compomics.util.gui.waiting.waitinghandlers.WaitingHandlerCLIImpl;
+import com.compomics.util.preferences.DigestionPreferences;
+import com.compomics.util.preferences.IdentificationParameters;
+import com.compomics.util.preferences.SequenceMatchingPreferences;
+import com.compomics.util.waiting.WaitingHandler;
+import eu.isas.peptideshaker.parameters.PSParameter;
+import eu.isas.peptideshaker.scoring.MatchValidationLevel;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Synthetic but realistic dataset used by the benchmarks: a concatenated
+ * target/decoy FASTA file of tryptic proteins sharing peptides, an mgf file
+ * with annotated fragment ions and noise, and the corresponding PSMs. The
+ * dataset is generated from a seed so that results are comparable across
+ * commits.
+ *
+ * @author Marc Vaudel
+ */
+public class SyntheticDataset {
+
+    /**
+     * The variable modifications searched.
+     */
+    public static final String[] VARIABLE_MODIFICATIONS = {"Phosphorylation of S", "Phosphorylation of T"};
+    /**
+     * The amino acids used to build the sequences, excluding the cleavage
+     * sites and cysteines.
+     */
+    private static final char[] AMINO_ACIDS = "ADEFGHILMNPQSTVWY".toCharArray();
+    /**
+     * The monoisotopic residue masses indexed by amino acid.
+     */
+    private static final double[] RESIDUE_MASSES = new double[128];
+    /**
+     * The mass of a phosphorylation.
+     */
+    private static final double PHOSPHO_MASS = 79.966331;
+    /**
+     * The mass of water.
+     */
+    private static final double WATER_MASS = 18.010565;
+    /**
+     * The mass of a proton.
+     */
+    private static final double PROTON_MASS = 1.007276;
+    /**
+     * The suffix of the decoy accessions.
+     */
+    private static final String DECOY_ACCESSION_SUFFIX = "_REVERSED";
+    /**
+     * The suffix of the decoy descriptions.
+     */
+    private static final String DECOY_DESCRIPTION_SUFFIX = "-REVERSED";
+    /**
+     * The name of the spectrum file.
+     */
+    public static final String SPECTRUM_FILE_NAME = "benchmark.mgf";
+    /**
+     * The advocate used for the synthetic search engine results.
+     */
+    private static final int ADVOCATE = Advocate.xtandem.getIndex();
+
+    static {
+        String aminoAcids = "ARNDCEQGHILKMFPSTWYV";
+        double[] masses = {71.03711, 156.10111, 114.04293, 115.02694, 103.00919, 129.04259, 128.05858, 57.02146, 137.05891, 113.08406,
+            113.08406, 128.09496, 131.04049, 147.06841, 97.05276, 87.03203, 101.04768, 186.07931, 163.06333, 99.06841};
+        for (int i = 0; i < masses.length; i++) {
+            RESIDUE_MASSES[aminoAcids.charAt(i)] = masses[i];
+        }
+    }
+
+    /**
+     * The folder where the files are written.
+     */
+    private final File folder;
+    /**
+     * The random generator.
+     */
+    private final Random random;
+    /**
+     * The target peptide sequences.
+     */
+    private final ArrayList<String> peptides = new ArrayList<String>();
+    /**
+     * The accessions of the target proteins containing every peptide.
+     */
+    private final HashMap<String, ArrayList<String>> peptideToProteins = new HashMap<String, ArrayList<String>>();
+    /**
+     * The target protein sequences indexed by accession.
+     */
+    private final HashMap<String, String> proteins = new HashMap<String, String>();
+    /**
+     * The number of peptides of every target protein.
+     */
+    private final HashMap<String, Integer> proteinCount = new HashMap<String, Integer>();
+    /**
+     * The synthetic PSMs in the order of the spectra.
+     */
+    private final ArrayList<SyntheticPsm> psms = new ArrayList<SyntheticPsm>();
+    /**
+     * The identification parameters.
+     */
+    private final IdentificationParameters identificationParameters;
+    /**
+     * The FASTA file.
+     */
+    private File fastaFile;
+    /**
+     * The spectrum file.
+     */
+    private File spectrumFile;
+
+    /**
+     * Constructor, generates the dataset in memory.
+     *
+     * @param folder the folder where to write the files
+     * @param seed the seed of the random generator
+     * @param nProteins the number of target proteins
+     * @param nSpectra the number of spectra
+     * @param decoyShare the share of PSMs mapping to decoy peptides
+     */
+    public SyntheticDataset(File folder, long seed, int nProteins, int nSpectra, double decoyShare) {
+        this.folder = folder;
+        this.random = new Random(seed);
+
+        SearchParameters searchParameters = new SearchParameters();
+        searchParameters.setDigestionPreferences(DigestionPreferences.getDefaultPreferences());
+        searchParameters.setFragmentIonAccuracy(0.02);
+        PTMFactory ptmFactory = PTMFactory.getInstance();
+        for (String ptmName : VARIABLE_MODIFICATIONS) {
+            searchParameters.getPtmSettings().addVariableModification(ptmFactory.getPTM(ptmName));
+        }
+        identificationParameters = new IdentificationParameters(searchParameters);
+
+        generateProteins(nProteins);
+        generatePsms(nSpectra, decoyShare);
+    }
+
+    /**
+     * Generates the target proteins as concatenations of peptides drawn from a
+     * common pool, so that a share of the peptides is shared between proteins.
+     *
+     * @param nProteins the number of proteins
+     */
+    private void generateProteins(int nProteins) {
+        int nPeptides = 6 * nProteins;
+        for (int i = 0; i < nPeptides; i++) {
+            String sequence = generatePeptide();
+            if (!peptideToProteins.containsKey(sequence)) {
+                peptides.add(sequence);
+                peptideToProteins.put(sequence, new ArrayList<String>(1));
+            }
+        }
+        for (int i = 0; i < nProteins; i++) {
+            String accession = String.format(Locale.US, "SYN%05d", i);
+            int proteinLength = 5 + random.nextInt(16);
+            StringBuilder sequence = new StringBuilder("M");
+            for (int j = 0; j < proteinLength; j++) {
+                String peptide = peptides.get(random.nextInt(peptides.size()));
+                sequence.append(peptide);
+                ArrayList<String> accessions = peptideToProteins.get(peptide);
+                if (!accessions.contains(accession)) {
+                    accessions.add(accession);
+                }
+            }
+            proteins.put(accession, sequence.toString());
+            proteinCount.put(accession, proteinLength);
+        }
+        ArrayList<String> mappedPeptides = new ArrayList<String>(peptides.size());
+        for (String peptide : peptides) {
+            if (!peptideToProteins.get(peptide).isEmpty()) {
+                mappedPeptides.add(peptide);
+            }
+        }
+        peptides.clear();
+        peptides.addAll(mappedPeptides);
+    }
+
+    /**
+     * Generates a tryptic peptide sequence with at least two
+     * phosphorylation sites.
+     *
+     * @return a peptide sequence
+     */
+    private String generatePeptide() {
+        int length = 8 + random.nextInt(11);
+        char[] sequence = new char[length];
+        for (int i = 0; i < length - 1; i++) {
+            sequence[i] = AMINO_ACIDS[random.nextInt(AMINO_ACIDS.length)];
+        }
+        sequence[random.nextInt(length - 1)] = 'S';
+        sequence[random.nextInt(length - 1)] = 'T';
+        sequence[length - 1] = random.nextBoolean() ? 'K' : 'R';
+        return new String(sequence);
+    }
+
+    /**
+     * Generates the PSMs. Decoy PSMs are matched to reversed target peptides,
+     * which are present in the reversed protein sequences.
+     *
+     * @param nSpectra the number of spectra
+     * @param decoyShare the share of decoy PSMs
+     */
+    private void generatePsms(int nSpectra, double decoyShare) {
+        for (int i = 0; i < nSpectra; i++) {
+            String targetSequence = peptides.get(random.nextInt(peptides.size()));
+            boolean decoy = random.nextDouble() < decoyShare;
+            String sequence;
+            ArrayList<String> accessions = peptideToProteins.get(targetSequence);
+            ArrayList<String> parentProteins = new ArrayList<String>(accessions.size());
+            if (decoy) {
+                sequence = new StringBuilder(targetSequence).reverse().toString();
+                for (String accession : accessions) {
+                    parentProteins.add(accession + DECOY_ACCESSION_SUFFIX);
+                }
+            } else {
+                sequence = targetSequence;
+                parentProteins.addAll(accessions);
+            }
+            int[] sites = getPhosphoSites(sequence);
+            int modifiedSite = random.nextDouble() < 0.5 ? sites[random.nextInt(sites.length)] : -1;
+            double score = decoy ? 5 * random.nextDouble() : 3 + 15 * random.nextDouble();
+            score = Math.round(score * 100) / 100.0;
+            psms.add(new SyntheticPsm("spectrum_" + i, sequence, parentProteins, modifiedSite, sites, score, 2 + random.nextInt(2)));
+        }
+    }
+
+    /**
+     * Returns the possible phosphorylation sites of a sequence, one-based.
+     *
+     * @param sequence the peptide sequence
+     *
+     * @return the possible phosphorylation sites
+     */
+    private static int[] getPhosphoSites(String sequence) {
+        int[] sites = new int[sequence.length()];
+        int nSites = 0;
+        for (int i = 0; i < sequence.length(); i++) {
+            char aa = sequence.charAt(i);
+            if (aa == 'S' || aa == 'T') {
+                sites[nSites++] = i + 1;
+            }
+        }
+        return Arrays.copyOf(sites, nSites);
+    }
+
+    /**
+     * Writes the FASTA and mgf files and loads them in the sequence and
+     * spectrum factories.
+     *
+     * @throws Exception exception thrown whenever an error occurred while
+     * writing or loading the files
+     */
+    public void writeAndLoadFiles() throws Exception {
+
+        if (!folder.exists() && !folder.mkdirs()) {
+            throw new IOException("Impossible to create folder " + folder + ".");
+        }
+
+        WaitingHandler waitingHandler = new WaitingHandlerCLIImpl();
+
+        fastaFile = new File(folder, "benchmark_concatenated_target_decoy.fasta");
+        BufferedWriter bw = new BufferedWriter(new FileWriter(fastaFile));
+        try {
+            ArrayList<String> accessions = new ArrayList<String>(proteins.keySet());
+            Collections.sort(accessions);
+            for (String accession : accessions) {
+                String sequence = proteins.get(accession);
+                bw.write(">sp|" + accession + "|" + accession + "_SYNTH Synthetic protein " + accession + " OS=Synthetic organism GN=" + accession);
+                bw.newLine();
+                bw.write(sequence);
+                bw.newLine();
+                bw.write(">sp|" + accession + DECOY_ACCESSION_SUFFIX + "|" + accession + "_SYNTH" + DECOY_DESCRIPTION_SUFFIX + " Synthetic protein " + accession + DECOY_DESCRIPTION_SUFFIX);
+                bw.newLine();
+                bw.write(new StringBuilder(sequence).reverse().toString());
+                bw.newLine();
+            }
+        } finally {
+            bw.close();
+        }
+        SequenceFactory.getInstance().loadFastaFile(fastaFile, waitingHandler);
+
+        spectrumFile = new File(folder, SPECTRUM_FILE_NAME);
+        bw = new BufferedWriter(new FileWriter(spectrumFile));
+        try {
+            for (SyntheticPsm psm : psms) {
+                writeSpectrum(bw, psm);
+            }
+        } finally {
+            bw.close();
+        }
+        SpectrumFactory.getInstance().addSpectra(spectrumFile, waitingHandler);
+    }
+
+    /**
+     * Writes the spectrum of a PSM in the mgf format: singly charged b and y
+     * ions of the peptide and noise peaks.
+     *
+     * @param bw the writer
+     * @param psm the PSM
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the spectrum
+     */
+    private void writeSpectrum(BufferedWriter bw, SyntheticPsm psm) throws IOException {
+
+        String sequence = psm.sequence;
+        double[] residueMasses = new double[sequence.length()];
+        double peptideMass = WATER_MASS;
+        for (int i = 0; i < sequence.length(); i++) {
+            residueMasses[i] = RESIDUE_MASSES[sequence.charAt(i)];
+            if (i + 1 == psm.modifiedSite) {
+                residueMasses[i] += PHOSPHO_MASS;
+            }
+            peptideMass += residueMasses[i];
+        }
+
+        ArrayList<double[]> peaks = new ArrayList<double[]>(2 * sequence.length() + 30);
+        double bIon = PROTON_MASS;
+        for (int i = 0; i < sequence.length() - 1; i++) {
+            bIon += residueMasses[i];
+            if (random.nextDouble() < 0.8) {
+                peaks.add(new double[]{bIon, 100 + 900 * random.nextDouble()});
+            }
+            double yIon = peptideMass - bIon + 2 * PROTON_MASS;
+            if (random.nextDouble() < 0.9) {
+                peaks.add(new double[]{yIon, 200 + 1800 * random.nextDouble()});
+            }
+        }
+        for (int i = 0; i < 30; i++) {
+            peaks.add(new double[]{100 + (peptideMass - 100) * random.nextDouble(), 10 + 200 * random.nextDouble()});
+        }
+        Collections.sort(peaks, new Comparator<double[]>() {
+            @Override
+            public int compare(double[] peak1, double[] peak2) {
+                return Double.compare(peak1[0], peak2[0]);
+            }
+        });
+
+        double precursorMz = (peptideMass + psm.charge * PROTON_MASS) / psm.charge;
+        bw.write("BEGIN IONS");
+        bw.newLine();
+        bw.write("TITLE=" + psm.spectrumTitle);
+        bw.newLine();
+        bw.write(String.format(Locale.US, "PEPMASS=%.6f", precursorMz));
+        bw.newLine();
+        bw.write("CHARGE=" + psm.charge + "+");
+        bw.newLine();
+        bw.write(String.format(Locale.US, "RTINSECONDS=%.2f", 600 + 3000 * random.nextDouble()));
+        bw.newLine();
+        for (double[] peak : peaks) {
+            bw.write(String.format(Locale.US, "%.5f %.1f", peak[0], peak[1]));
+            bw.newLine();
+        }
+        bw.write("END IONS");
+        bw.newLine();
+        bw.newLine();
+    }
+
+    /**
+     * Creates a new identification database containing the PSMs, peptides
+     * and proteins of the dataset with their PeptideShaker parameters.
+     *
+     * @param dbFolder the folder where to store the database
+     * @param objectsCache the objects cache to use
+     *
+     * @return the identification
+     *
+     * @throws Exception exception thrown whenever an error occurred while
+     * populating the database
+     */
+    public Identification createIdentification(File dbFolder, ObjectsCache objectsCache) throws Exception {
+
+        Identification identification = new Ms2Identification("benchmark_" + dbFolder.getName());
+        identification.establishConnection(dbFolder.getAbsolutePath(), true, objectsCache);
+
+        SequenceMatchingPreferences sequenceMatchingPreferences = identificationParameters.getSequenceMatchingPreferences();
+
+        for (SyntheticPsm psm : psms) {
+            String spectrumKey = getSpectrumKey(psm);
+            HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptions = getAssumptions(psm);
+            PeptideAssumption bestAssumption = getFirstHits(psm).get(0);
+
+            SpectrumMatch spectrumMatch = new SpectrumMatch(spectrumKey);
+            spectrumMatch.setBestPeptideAssumption(bestAssumption);
+            identification.addAssumptions(spectrumKey, assumptions, true);
+            identification.addSpectrumMatch(spectrumMatch);
+
+            PSParameter psParameter = new PSParameter();
+            double p = Math.pow(10, -psm.score);
+            psParameter.setSpectrumProbabilityScore(p);
+            psParameter.setPsmProbability(p);
+            psParameter.setSpecificMapKey(psm.charge + "");
+            psParameter.setMatchValidationLevel(p < 0.01 ? MatchValidationLevel.confident : MatchValidationLevel.not_validated);
+            identification.addSpectrumMatchParameter(spectrumKey, psParameter);
+
+            identification.buildPeptidesAndProteins(spectrumKey, sequenceMatchingPreferences);
+        }
+
+        for (String peptideKey : identification.getPeptideIdentification()) {
+            PSParameter psParameter = new PSParameter();
+            psParameter.setPeptideProbabilityScore(0.001);
+            psParameter.setPeptideProbability(0.001);
+            psParameter.setMatchValidationLevel(MatchValidationLevel.confident);
+            identification.addPeptideMatchParameter(peptideKey, psParameter);
+        }
+        for (String proteinKey : identification.getProteinIdentification()) {
+            PSParameter psParameter = new PSParameter();
+            psParameter.setProteinProbabilityScore(0.001);
+            psParameter.setProteinProbability(0.001);
+            psParameter.setMatchValidationLevel(MatchValidationLevel.confident);
+            identification.addProteinMatchParameter(proteinKey, psParameter);
+        }
+
+        return identification;
+    }
+
+    /**
+     * Returns the spectrum key of a PSM.
+     *
+     * @param psm the PSM
+     *
+     * @return the spectrum key
+     */
+    public String getSpectrumKey(SyntheticPsm psm) {
+        return Spectrum.getSpectrumKey(SPECTRUM_FILE_NAME, psm.spectrumTitle);
+    }
+
+    /**
+     * Returns the search engine assumptions of a PSM: the peptide with the
+     * phosphorylation at every possible site, the best scoring assumption
+     * being the one of the spectrum.
+     *
+     * @param psm the PSM
+     *
+     * @return the search engine assumptions indexed by advocate and score
+     */
+    public HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> getAssumptions(SyntheticPsm psm) {
+        HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> advocateAssumptions = new HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>();
+        for (PeptideAssumption peptideAssumption : getAllHits(psm)) {
+            ArrayList<SpectrumIdentificationAssumption> assumptionsAtScore = advocateAssumptions.get(peptideAssumption.getScore());
+            if (assumptionsAtScore == null) {
+                assumptionsAtScore = new ArrayList<SpectrumIdentificationAssumption>(1);
+                advocateAssumptions.put(peptideAssumption.getScore(), assumptionsAtScore);
+            }
+            assumptionsAtScore.add(peptideAssumption);
+        }
+        HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptions = new HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>>(1);
+        assumptions.put(ADVOCATE, advocateAssumptions);
+        return assumptions;
+    }
+
+    /**
+     * Returns the equally scoring first hits of a PSM: the peptide of the
+     * spectrum and, if phosphorylated, the same peptide with the
+     * phosphorylation at the other sites.
+     *
+     * @param psm the PSM
+     *
+     * @return the first hits of the PSM
+     */
+    public ArrayList<PeptideAssumption> getFirstHits(SyntheticPsm psm) {
+        ArrayList<PeptideAssumption> firstHits = new ArrayList<PeptideAssumption>(psm.sites.length);
+        firstHits.add(getPeptideAssumption(psm, psm.modifiedSite, 1, psm.score));
+        if (psm.modifiedSite != -1) {
+            for (int site : psm.sites) {
+                if (site != psm.modifiedSite) {
+                    firstHits.add(getPeptideAssumption(psm, site, 1, psm.score));
+                }
+            }
+        }
+        return firstHits;
+    }
+
+    /**
+     * Returns all hits of a PSM with decreasing scores, the first one being
+     * the peptide of the spectrum.
+     *
+     * @param psm the PSM
+     *
+     * @return all hits of the PSM
+     */
+    private ArrayList<PeptideAssumption> getAllHits(SyntheticPsm psm) {
+        ArrayList<PeptideAssumption> hits = new ArrayList<PeptideAssumption>(psm.sites.length);
+        hits.add(getPeptideAssumption(psm, psm.modifiedSite, 1, psm.score));
+        if (psm.modifiedSite != -1) {
+            int rank = 2;
+            for (int site : psm.sites) {
+                if (site != psm.modifiedSite) {
+                    hits.add(getPeptideAssumption(psm, site, rank, psm.score - 0.5 * (rank - 1)));
+                    rank++;
+                }
+            }
+        }
+        return hits;
+    }
+
+    /**
+     * Returns a peptide assumption for a PSM.
+     *
+     * @param psm the PSM
+     * @param site the phosphorylation site, -1 if not modified
+     * @param rank the rank of the assumption
+     * @param score the score of the assumption
+     *
+     * @return the peptide assumption
+     */
+    private PeptideAssumption getPeptideAssumption(SyntheticPsm psm, int site, int rank, double score) {
+        ArrayList<ModificationMatch> modificationMatches = null;
+        if (site != -1) {
+            modificationMatches = new ArrayList<ModificationMatch>(1);
+            String ptmName = psm.sequence.charAt(site - 1) == 'S' ? VARIABLE_MODIFICATIONS[0] : VARIABLE_MODIFICATIONS[1];
+            modificationMatches.add(new ModificationMatch(ptmName, true, site));
+        }
+        Peptide peptide = new Peptide(psm.sequence, modificationMatches);
+        peptide.setParentProteins(new ArrayList<String>(psm.parentProteins));
+        PeptideAssumption peptideAssumption = new PeptideAssumption(peptide, rank, ADVOCATE, new Charge(Charge.PLUS, psm.charge), score);
+        PSParameter psParameter = new PSParameter();
+        psParameter.setSearchEngineProbability(Math.pow(10, -score));
+        peptideAssumption.addUrParam(psParameter);
+        return peptideAssumption;
+    }
+
+    /**
+     * Clears the sequence and spectrum factories and deletes the files of the
+     * dataset.
+     *
+     * @throws Exception exception thrown whenever an error occurred while
+     * closing the factories
+     */
+    public void clear() throws Exception {
+        SpectrumFactory.getInstance().clearFactory();
+        SequenceFactory.getInstance().clearFactory();
+        Util.deleteDir(folder);
+    }
+
+    /**
+     * Returns the synthetic PSMs.
+     *
+     * @return the synthetic PSMs
+     */
+    public ArrayList<SyntheticPsm> getPsms() {
+        return psms;
+    }
+
+    /**
+     * Returns the number of peptides of every target protein.
+     *
+     * @return the number of peptides of every target protein
+     */
+    public HashMap<String, Integer> getProteinCount() {
+        return proteinCount;
+    }
+
+    /**
+     * Returns the identification parameters.
+     *
+     * @return the identification parameters
+     */
+    public IdentificationParameters getIdentificationParameters() {
+        return identificationParameters;
+    }
+
+    /**
+     * A synthetic PSM.
+     */
+    public static class SyntheticPsm {
+
+        /**
+         * The title of the spectrum.
+         */
+        public final String spectrumTitle;
+        /**
+         * The peptide sequence.
+         */
+        public final String sequence;
+        /**
+         * The accessions of the proteins of the peptide.
+         */
+        public final ArrayList<String> parentProteins;
+        /**
+         * The phosphorylated site, one-based, -1 if not modified.
+         */
+        public final int modifiedSite;
+        /**
+         * The possible phosphorylation sites, one-based.
+         */
+        public final int[] sites;
+        /**
+         * The search engine score, the higher the better.
+         */
+        public final double score;
+        /**
+         * The precursor charge.
+         */
+        public final int charge;
+
+        /**
+         * Constructor.
+         *
+         * @param spectrumTitle the title of the spectrum
+         * @param sequence the peptide sequence
+         * @param parentProteins the accessions of the proteins of the peptide
+         * @param modifiedSite the phosphorylated site, one-based, -1 if not
+         * modified
+         * @param sites the possible phosphorylation sites, one-based
+         * @param score the search engine score
+         * @param charge the precursor charge
+         */
+        public SyntheticPsm(String spectrumTitle, String sequence, ArrayList<String> parentProteins, int modifiedSite, int[] sites, double score, int charge) {
+            this.spectrumTitle = spectrumTitle;
+            this.sequence = sequence;
+            this.parentProteins = parentProteins;
+            this.modifiedSite = modifiedSite;
+            this.sites = sites;
+            this.score = score;
+            this.charge = charge;
+        }
+    }
+}
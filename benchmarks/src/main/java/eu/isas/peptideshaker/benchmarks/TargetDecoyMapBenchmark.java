@@ -0,0 +1,98 @@
+package eu.isas.peptideshaker.benchmarks;
+
+import com.compomics.util.gui.waiting.waitinghandlers.WaitingHandlerCLIImpl;
+import com.compomics.util.waiting.WaitingHandler;
+import eu.isas.peptideshaker.scoring.targetdecoy.TargetDecoyMap;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks the estimation and lookup of posterior error probabilities in a
+ * target/decoy map.
+ *
+ * @author Marc Vaudel
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class TargetDecoyMapBenchmark {
+
+    /**
+     * The number of hits in the map.
+     */
+    @Param({"10000", "200000"})
+    public int nHits;
+    /**
+     * The number of scores queried per invocation.
+     */
+    private static final int N_QUERIES = 10000;
+    /**
+     * The target/decoy map.
+     */
+    private TargetDecoyMap targetDecoyMap;
+    /**
+     * The scores queried.
+     */
+    private double[] queries;
+    /**
+     * The waiting handler.
+     */
+    private WaitingHandler waitingHandler;
+
+    /**
+     * Fills the map with target and decoy scores drawn from overlapping
+     * distributions, scores are rounded so that points hold several hits.
+     */
+    @Setup
+    public void setUp() {
+        Random random = new Random(ProjectState.SEED);
+        targetDecoyMap = new TargetDecoyMap();
+        for (int i = 0; i < nHits; i++) {
+            boolean decoy = random.nextDouble() < 0.3;
+            double score = decoy ? 2 * random.nextGaussian() : 6 + 3 * random.nextGaussian();
+            targetDecoyMap.put(Math.round(score * 1000) / 1000.0, decoy);
+        }
+        waitingHandler = new WaitingHandlerCLIImpl();
+        targetDecoyMap.estimateProbabilities(waitingHandler);
+        queries = new double[N_QUERIES];
+        for (int i = 0; i < N_QUERIES; i++) {
+            queries[i] = i % 2 == 0 ? Math.round((-6 + 20 * random.nextDouble()) * 1000) / 1000.0 : -6 + 20 * random.nextDouble();
+        }
+    }
+
+    /**
+     * Estimates the probabilities of the map.
+     */
+    @Benchmark
+    public void estimateProbabilities() {
+        targetDecoyMap.estimateProbabilities(waitingHandler);
+    }
+
+    /**
+     * Queries the probabilities of exact and interpolated scores.
+     *
+     * @param blackhole the blackhole consuming the results
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public void getProbability(Blackhole blackhole) {
+        for (double score : queries) {
+            blackhole.consume(targetDecoyMap.getProbability(score));
+        }
+    }
+}
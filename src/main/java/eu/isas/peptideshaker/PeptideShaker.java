@@ -21,6 +21,7 @@ import com.compomics.util.experiment.identification.identifications.Ms2Identific
 import com.compomics.util.experiment.identification.matches.SpectrumMatch;
 import com.compomics.util.experiment.identification.matches_iterators.PsmIterator;
 import com.compomics.util.experiment.identification.amino_acid_tags.Tag;
+import com.compomics.util.experiment.identification.spectrum_annotation.spectrum_annotators.PeptideSpectrumAnnotator;
 import com.compomics.util.experiment.massspectrometry.Spectrum;
 import com.compomics.util.experiment.massspectrometry.SpectrumFactory;
 import com.compomics.util.experiment.personalization.UrParameter;
@@ -43,12 +44,16 @@ import com.compomics.util.waiting.Duration;
 import eu.isas.peptideshaker.preferences.ProjectDetails;
 import eu.isas.peptideshaker.preferences.SpectrumCountingPreferences;
 import eu.isas.peptideshaker.protein_inference.ProteinInference;
+import eu.isas.peptideshaker.ptm.ModificationSiteIndex;
 import eu.isas.peptideshaker.ptm.PtmScorer;
 import eu.isas.peptideshaker.scoring.maps.InputMap;
 import eu.isas.peptideshaker.scoring.psm_scoring.BestMatchSelection;
 import eu.isas.peptideshaker.scoring.psm_scoring.PsmScorer;
 import eu.isas.peptideshaker.utils.IdentificationFeaturesGenerator;
 import eu.isas.peptideshaker.utils.Metrics;
+import eu.isas.peptideshaker.utils.ProcessingStage;
+import eu.isas.peptideshaker.utils.ProcessingStatistics;
+import eu.isas.peptideshaker.utils.SpectrumAnnotationCache;
 import eu.isas.peptideshaker.validation.MatchesValidator;
 
 import java.io.File;
@@ -58,6 +63,10 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This class will be responsible for the identification import and the
@@ -151,6 +160,25 @@ public class PeptideShaker {
      * Object used to monitor the duration of the project creation.
      */
     private Duration projectCreationDuration;
+    /**
+     * The default value for the fused PSM processing.
+     */
+    public static final boolean DEFAULT_FUSED_PSM_PROCESSING = true;
+    /**
+     * If true, the assumptions probabilities, the best hit selection and the
+     * PSM PTM scoring are conducted in a single pass over the PSMs, loading
+     * every spectrum match once instead of once per stage.
+     */
+    private boolean fusedPsmProcessing = DEFAULT_FUSED_PSM_PROCESSING;
+    /**
+     * The time spent in the different stages of the fused PSM processing in
+     * milliseconds, summed over all threads, indexed by stage name.
+     */
+    private LinkedHashMap<String, Long> fusedStageTimes = new LinkedHashMap<String, Long>();
+    /**
+     * Statistics on the stages of the project creation.
+     */
+    private ProcessingStatistics processingStatistics = new ProcessingStatistics();
 
     /**
      * Empty constructor for instantiation purposes.
@@ -215,6 +243,7 @@ public class PeptideShaker {
 
         projectCreationDuration = new Duration();
         projectCreationDuration.start();
+        processingStatistics = new ProcessingStatistics();
 
         waitingHandler.appendReport("Import process for " + experiment.getReference() + " (Sample: " + sample.getReference() + ", Replicate: " + replicateNumber + ")", true, true);
         waitingHandler.appendReportEndLine();
@@ -272,6 +301,9 @@ public class PeptideShaker {
         Identification identification = experiment.getAnalysisSet(sample).getProteomicAnalysis(replicateNumber).getIdentification(IdentificationMethod.MS2_IDENTIFICATION);
         identificationFeaturesGenerator = new IdentificationFeaturesGenerator(identification, identificationParameters, metrics, spectrumCountingPreferences);
 
+        // when using multiple threads, target/decoy hits are accumulated per thread while filling the maps and merged afterwards
+        boolean threadAccumulation = processingPreferences.getnThreads() > 1;
+
         if (!objectsCache.memoryCheck() && memoryWarning) {
             waitingHandler.appendReport("PeptideShaker is encountering memory issues! See http://compomics.github.io/projects/peptide-shaker.html for help.", true, true);
             waitingHandler.appendReport("You can edit the memory given to the tool via the \"Edit\" > \"Java Settings\" menu.", true, true);
@@ -282,6 +314,9 @@ public class PeptideShaker {
             return;
         }
 
+        int nPsms = identification.getSpectrumIdentificationSize();
+        ProcessingStage stage;
+
         PsmScoringPreferences psmScoringPreferences = identificationParameters.getPsmScoringPreferences();
 
         ArrayList<Integer> usedAlgorithms = projectDetails.getIdentificationAlgorithms();
@@ -290,19 +325,37 @@ public class PeptideShaker {
             PsmScorer psmScorer = new PsmScorer();
 
             waitingHandler.appendReport("Estimating PSM scores.", true, true);
-            psmScorer.estimateIntermediateScores(identification, inputMap, processingPreferences, identificationParameters, waitingHandler, exceptionHandler);
+            stage = processingStatistics.startStage("Estimating PSM scores");
+            inputMap.setThreadAccumulation(threadAccumulation);
+            try {
+                psmScorer.estimateIntermediateScores(identification, inputMap, processingPreferences, identificationParameters, waitingHandler, exceptionHandler);
+            } finally {
+                inputMap.mergeThreadHistograms();
+                inputMap.setThreadAccumulation(false);
+                processingStatistics.endStage(stage, nPsms);
+            }
 
             if (psmScoringPreferences.isTargetDecoyNeededForPsmScoring(usedAlgorithms)) {
                 if (sequenceFactory.concatenatedTargetDecoy()) {
                     waitingHandler.appendReport("Estimating intermediate scores probabilities.", true, true);
-                    psmScorer.estimateIntermediateScoreProbabilities(identification, inputMap, processingPreferences, waitingHandler);
+                    stage = processingStatistics.startStage("Estimating intermediate scores probabilities");
+                    try {
+                        psmScorer.estimateIntermediateScoreProbabilities(identification, inputMap, processingPreferences, waitingHandler);
+                    } finally {
+                        processingStatistics.endStage(stage, nPsms);
+                    }
                 } else {
                     waitingHandler.appendReport("No decoy sequences found. Impossible to estimate intermediate scores probabilities.", true, true);
                 }
             }
 
             waitingHandler.appendReport("Scoring PSMs.", true, true);
-            psmScorer.scorePsms(identification, inputMap, processingPreferences, identificationParameters, waitingHandler);
+            stage = processingStatistics.startStage("Scoring PSMs");
+            try {
+                psmScorer.scorePsms(identification, inputMap, processingPreferences, identificationParameters, waitingHandler);
+            } finally {
+                processingStatistics.endStage(stage, nPsms);
+            }
         }
 
         if (sequenceFactory.concatenatedTargetDecoy()) {
@@ -310,59 +363,144 @@ public class PeptideShaker {
         } else {
             waitingHandler.appendReport("Importing assumptions scores.", true, true);
         }
-        inputMap.estimateProbabilities(waitingHandler);
-        waitingHandler.increasePrimaryProgressCounter();
-        if (waitingHandler.isRunCanceled()) {
-            return;
-        }
-
-        if (sequenceFactory.concatenatedTargetDecoy()) {
-            waitingHandler.appendReport("Saving assumptions probabilities.", true, true);
-        } else {
-            waitingHandler.appendReport("No decoy sequences found. Impossible to estimate assumptions probabilities.", true, true);
+        stage = processingStatistics.startStage("Computing assumptions probabilities");
+        try {
+            inputMap.estimateProbabilities(waitingHandler, processingPreferences.getnThreads());
+        } finally {
+            processingStatistics.endStage(stage, nPsms);
         }
-        attachAssumptionsProbabilities(inputMap, identificationParameters.getSequenceMatchingPreferences(), waitingHandler);
         waitingHandler.increasePrimaryProgressCounter();
         if (waitingHandler.isRunCanceled()) {
             return;
         }
 
-        waitingHandler.appendReport("Selecting best peptide per spectrum.", true, true);
-        BestMatchSelection bestMatchSelection = new BestMatchSelection(identification, proteinCount, matchesValidator, metrics);
-        bestMatchSelection.selectBestHitAndFillPsmMap(inputMap, waitingHandler, identificationParameters);
         IdMatchValidationPreferences idMatchValidationPreferences = identificationParameters.getIdValidationPreferences();
-        if (idMatchValidationPreferences.getMergeSmallSubgroups()) {
-            matchesValidator.getPsmMap().clean(idMatchValidationPreferences.getDefaultPsmFDR() / 100);
-        }
-        waitingHandler.increasePrimaryProgressCounter();
-        if (waitingHandler.isRunCanceled()) {
-            return;
-        }
-        if (MemoryConsumptionStatus.memoryUsed() > 0.9) {
-            metrics.clearSpectrumKeys();
+        PTMScoringPreferences ptmScoringPreferences = identificationParameters.getPtmScoringPreferences();
+        String ptmReport = "Scoring PTMs in PSMs (D-score";
+        if (ptmScoringPreferences.isProbabilitsticScoreCalculation()) {
+            ptmReport += " and " + ptmScoringPreferences.getSelectedProbabilisticScore().getName();
         }
+        ptmReport += ")";
+
+        if (fusedPsmProcessing) {
+
+            if (sequenceFactory.concatenatedTargetDecoy()) {
+                waitingHandler.appendReport("Saving assumptions probabilities.", true, true);
+            } else {
+                waitingHandler.appendReport("No decoy sequences found. Impossible to estimate assumptions probabilities.", true, true);
+            }
+            waitingHandler.appendReport("Selecting best peptide per spectrum.", true, true);
+            waitingHandler.appendReport(ptmReport, true, true);
+            BestMatchSelection bestMatchSelection = new BestMatchSelection(identification, proteinCount, matchesValidator, metrics);
+            stage = processingStatistics.startStage("Processing PSMs");
+            matchesValidator.getPsmMap().setThreadAccumulation(threadAccumulation);
+            ptmScorer.getPsmPTMMap().setThreadAccumulation(threadAccumulation);
+            try {
+                processPsms(identification, inputMap, bestMatchSelection, identificationParameters, processingPreferences, waitingHandler, exceptionHandler);
+            } finally {
+                matchesValidator.getPsmMap().mergeThreadHistograms();
+                matchesValidator.getPsmMap().setThreadAccumulation(false);
+                ptmScorer.getPsmPTMMap().mergeThreadHistograms();
+                ptmScorer.getPsmPTMMap().setThreadAccumulation(false);
+                processingStatistics.endStage(stage, nPsms);
+            }
+            waitingHandler.increasePrimaryProgressCounter();
+            waitingHandler.increasePrimaryProgressCounter();
+            if (idMatchValidationPreferences.getMergeSmallSubgroups()) {
+                matchesValidator.getPsmMap().clean(idMatchValidationPreferences.getDefaultPsmFDR() / 100);
+            }
+            waitingHandler.increasePrimaryProgressCounter();
+            if (waitingHandler.isRunCanceled()) {
+                return;
+            }
+            if (MemoryConsumptionStatus.memoryUsed() > 0.9) {
+                metrics.clearSpectrumKeys();
+            }
+
+            if (sequenceFactory.concatenatedTargetDecoy()) {
+                waitingHandler.appendReport("Computing PSM probabilities.", true, true);
+            } else {
+                waitingHandler.appendReport("No decoy sequences found. Impossible to estimate PSM probabilities.", true, true);
+            }
+            stage = processingStatistics.startStage("Computing PSM probabilities");
+            try {
+                matchesValidator.getPsmMap().estimateProbabilities(waitingHandler, processingPreferences.getnThreads());
+            } finally {
+                processingStatistics.endStage(stage, nPsms);
+            }
+            if (waitingHandler.isRunCanceled()) {
+                return;
+            }
 
-        if (sequenceFactory.concatenatedTargetDecoy()) {
-            waitingHandler.appendReport("Computing PSM probabilities.", true, true);
         } else {
-            waitingHandler.appendReport("No decoy sequences found. Impossible to estimate PSM probabilities.", true, true);
-        }
-        matchesValidator.getPsmMap().estimateProbabilities(waitingHandler);
-        if (waitingHandler.isRunCanceled()) {
-            return;
-        }
 
-        String report = "Scoring PTMs in PSMs (D-score";
-        PTMScoringPreferences ptmScoringPreferences = identificationParameters.getPtmScoringPreferences();
-        if (ptmScoringPreferences.isProbabilitsticScoreCalculation()) {
-            report += " and " + ptmScoringPreferences.getSelectedProbabilisticScore().getName();
-        }
-        report += ")";
-        waitingHandler.appendReport(report, true, true);
-        ptmScorer.scorePsmPtms(identification, waitingHandler, exceptionHandler, identificationParameters, metrics, processingPreferences);
-        waitingHandler.increasePrimaryProgressCounter();
-        if (waitingHandler.isRunCanceled()) {
-            return;
+            if (sequenceFactory.concatenatedTargetDecoy()) {
+                waitingHandler.appendReport("Saving assumptions probabilities.", true, true);
+            } else {
+                waitingHandler.appendReport("No decoy sequences found. Impossible to estimate assumptions probabilities.", true, true);
+            }
+            stage = processingStatistics.startStage("Saving assumptions probabilities");
+            try {
+                attachAssumptionsProbabilities(inputMap, identificationParameters.getSequenceMatchingPreferences(), waitingHandler);
+            } finally {
+                processingStatistics.endStage(stage, nPsms);
+            }
+            waitingHandler.increasePrimaryProgressCounter();
+            if (waitingHandler.isRunCanceled()) {
+                return;
+            }
+
+            waitingHandler.appendReport("Selecting best peptide per spectrum.", true, true);
+            BestMatchSelection bestMatchSelection = new BestMatchSelection(identification, proteinCount, matchesValidator, metrics);
+            stage = processingStatistics.startStage("Selecting best peptide per spectrum");
+            matchesValidator.getPsmMap().setThreadAccumulation(threadAccumulation);
+            try {
+                bestMatchSelection.selectBestHitAndFillPsmMap(inputMap, waitingHandler, exceptionHandler, identificationParameters, processingPreferences.getnThreads());
+            } finally {
+                matchesValidator.getPsmMap().mergeThreadHistograms();
+                matchesValidator.getPsmMap().setThreadAccumulation(false);
+                processingStatistics.endStage(stage, nPsms);
+            }
+            if (idMatchValidationPreferences.getMergeSmallSubgroups()) {
+                matchesValidator.getPsmMap().clean(idMatchValidationPreferences.getDefaultPsmFDR() / 100);
+            }
+            waitingHandler.increasePrimaryProgressCounter();
+            if (waitingHandler.isRunCanceled()) {
+                return;
+            }
+            if (MemoryConsumptionStatus.memoryUsed() > 0.9) {
+                metrics.clearSpectrumKeys();
+            }
+
+            if (sequenceFactory.concatenatedTargetDecoy()) {
+                waitingHandler.appendReport("Computing PSM probabilities.", true, true);
+            } else {
+                waitingHandler.appendReport("No decoy sequences found. Impossible to estimate PSM probabilities.", true, true);
+            }
+            stage = processingStatistics.startStage("Computing PSM probabilities");
+            try {
+                matchesValidator.getPsmMap().estimateProbabilities(waitingHandler, processingPreferences.getnThreads());
+            } finally {
+                processingStatistics.endStage(stage, nPsms);
+            }
+            if (waitingHandler.isRunCanceled()) {
+                return;
+            }
+
+            waitingHandler.appendReport(ptmReport, true, true);
+            stage = processingStatistics.startStage("Scoring PTMs in PSMs");
+            ptmScorer.getPsmPTMMap().setThreadAccumulation(threadAccumulation);
+            try {
+                ptmScorer.scorePsmPtms(identification, waitingHandler, exceptionHandler, identificationParameters, metrics, processingPreferences);
+            } finally {
+                ptmScorer.getPsmPTMMap().mergeThreadHistograms();
+                ptmScorer.getPsmPTMMap().setThreadAccumulation(false);
+                processingStatistics.endStage(stage, nPsms);
+            }
+            waitingHandler.increasePrimaryProgressCounter();
+            if (waitingHandler.isRunCanceled()) {
+                return;
+            }
         }
         if (MemoryConsumptionStatus.memoryUsed() > 0.9) {
             metrics.clearSpectrumKeys();
@@ -374,8 +512,13 @@ public class PeptideShaker {
             if (idMatchValidationPreferences.getMergeSmallSubgroups()) {
                 psmPTMMap.clean(ptmScoringPreferences.getFlrThreshold() / 100);
             }
-            psmPTMMap.estimateProbabilities(waitingHandler);
-            ptmScorer.computeLocalizationStatistics(waitingHandler, ptmScoringPreferences.getFlrThreshold());
+            stage = processingStatistics.startStage("Thresholding PTM localizations");
+            try {
+                psmPTMMap.estimateProbabilities(waitingHandler, processingPreferences.getnThreads());
+                ptmScorer.computeLocalizationStatistics(waitingHandler, ptmScoringPreferences.getFlrThreshold());
+            } finally {
+                processingStatistics.endStage(stage, nPsms);
+            }
         }
         waitingHandler.increasePrimaryProgressCounter();
         if (waitingHandler.isRunCanceled()) {
@@ -384,7 +527,12 @@ public class PeptideShaker {
 
         if (ptmScoringPreferences.getAlignNonConfidentPTMs()) {
             waitingHandler.appendReport("Resolving peptide inference issues.", true, true);
-            ptmScorer.peptideInference(identification, identificationParameters, waitingHandler);
+            stage = processingStatistics.startStage("Resolving peptide inference issues");
+            try {
+                ptmScorer.peptideInference(identification, identificationParameters, waitingHandler, exceptionHandler, processingPreferences);
+            } finally {
+                processingStatistics.endStage(stage, nPsms);
+            }
             waitingHandler.increasePrimaryProgressCounter();
             if (waitingHandler.isRunCanceled()) {
                 return;
@@ -395,7 +543,12 @@ public class PeptideShaker {
             metrics.clearSpectrumKeys();
         }
         waitingHandler.appendReport("Saving probabilities, building peptides and proteins.", true, true);
-        attachSpectrumProbabilitiesAndBuildPeptidesAndProteins(identificationParameters.getSequenceMatchingPreferences(), waitingHandler); // @TODO: this is very slow if memory is full!!
+        stage = processingStatistics.startStage("Saving probabilities, building peptides and proteins");
+        try {
+            attachSpectrumProbabilitiesAndBuildPeptidesAndProteins(identificationParameters.getSequenceMatchingPreferences(), waitingHandler); // @TODO: this is very slow if memory is full!!
+        } finally {
+            processingStatistics.endStage(stage, nPsms);
+        }
         waitingHandler.increasePrimaryProgressCounter();
         if (waitingHandler.isRunCanceled()) {
             return;
@@ -404,7 +557,12 @@ public class PeptideShaker {
         ProteinInference proteinInference = new ProteinInference();
         if (identificationParameters.getProteinInferencePreferences().getSimplifyGroups()) {
             waitingHandler.appendReport("Simplifying protein groups.", true, true);
-            proteinInference.removeRedundantGroups(identification, identificationParameters, identificationFeaturesGenerator, waitingHandler);
+            stage = processingStatistics.startStage("Simplifying protein groups");
+            try {
+                proteinInference.removeRedundantGroups(identification, identificationParameters, identificationFeaturesGenerator, processingPreferences.getnThreads(), waitingHandler);
+            } finally {
+                processingStatistics.endStage(stage, identification.getProteinIdentification().size());
+            }
             waitingHandler.increasePrimaryProgressCounter();
             if (waitingHandler.isRunCanceled()) {
                 return;
@@ -412,7 +570,13 @@ public class PeptideShaker {
         }
 
         waitingHandler.appendReport("Generating peptide map.", true, true);
-        matchesValidator.fillPeptideMaps(identification, metrics, waitingHandler, identificationParameters);
+        int nPeptides = identification.getPeptideIdentification().size();
+        stage = processingStatistics.startStage("Generating peptide map");
+        try {
+            matchesValidator.fillPeptideMaps(identification, metrics, waitingHandler, identificationParameters);
+        } finally {
+            processingStatistics.endStage(stage, nPeptides);
+        }
         if (idMatchValidationPreferences.getMergeSmallSubgroups()) {
             matchesValidator.getPeptideMap().clean(identificationParameters.getIdValidationPreferences().getDefaultPeptideFDR() / 100);
         }
@@ -425,27 +589,49 @@ public class PeptideShaker {
         } else {
             waitingHandler.appendReport("No decoy sequences found. Impossible to estimate peptide probabilities.", true, true);
         }
-        matchesValidator.getPeptideMap().estimateProbabilities(waitingHandler);
+        stage = processingStatistics.startStage("Computing peptide probabilities");
+        try {
+            matchesValidator.getPeptideMap().estimateProbabilities(waitingHandler, processingPreferences.getnThreads());
+        } finally {
+            processingStatistics.endStage(stage, nPeptides);
+        }
         if (waitingHandler.isRunCanceled()) {
             return;
         }
 
         waitingHandler.appendReport("Saving peptide probabilities.", true, true);
-        matchesValidator.attachPeptideProbabilities(identification, waitingHandler);
+        stage = processingStatistics.startStage("Saving peptide probabilities");
+        try {
+            matchesValidator.attachPeptideProbabilities(identification, waitingHandler);
+        } finally {
+            processingStatistics.endStage(stage, nPeptides);
+        }
         waitingHandler.increasePrimaryProgressCounter();
         if (waitingHandler.isRunCanceled()) {
             return;
         }
 
         waitingHandler.appendReport("Generating protein map.", true, true);
-        matchesValidator.fillProteinMap(identification, waitingHandler);
+        int nProteins = identification.getProteinIdentification().size();
+        stage = processingStatistics.startStage("Generating protein map");
+        try {
+            matchesValidator.fillProteinMap(identification, waitingHandler);
+        } finally {
+            processingStatistics.endStage(stage, nProteins);
+        }
         waitingHandler.increasePrimaryProgressCounter();
         if (waitingHandler.isRunCanceled()) {
             return;
         }
 
         waitingHandler.appendReport("Resolving protein inference issues, inferring peptide and protein PI status.", true, true); // could be slow
-        proteinInference.retainBestScoringGroups(identification, metrics, matchesValidator.getProteinMap(), identificationParameters, identificationFeaturesGenerator, waitingHandler);
+        stage = processingStatistics.startStage("Resolving protein inference issues");
+        try {
+            proteinInference.retainBestScoringGroups(identification, metrics, matchesValidator.getProteinMap(), identificationParameters, identificationFeaturesGenerator, processingPreferences.getnThreads(), waitingHandler);
+            nProteins = identification.getProteinIdentification().size();
+        } finally {
+            processingStatistics.endStage(stage, nProteins);
+        }
         waitingHandler.increasePrimaryProgressCounter();
         if (waitingHandler.isRunCanceled()) {
             return;
@@ -456,13 +642,23 @@ public class PeptideShaker {
         } else {
             waitingHandler.appendReport("No decoy sequences found. Impossible to estimate protein probabilities.", true, true);
         }
-        matchesValidator.getProteinMap().estimateProbabilities(waitingHandler);
+        stage = processingStatistics.startStage("Correcting protein probabilities");
+        try {
+            matchesValidator.getProteinMap().estimateProbabilities(waitingHandler);
+        } finally {
+            processingStatistics.endStage(stage, nProteins);
+        }
         if (waitingHandler.isRunCanceled()) {
             return;
         }
 
         waitingHandler.appendReport("Saving protein probabilities.", true, true);
-        matchesValidator.attachProteinProbabilities(identification, metrics, waitingHandler, identificationParameters.getFractionSettings());
+        stage = processingStatistics.startStage("Saving protein probabilities");
+        try {
+            matchesValidator.attachProteinProbabilities(identification, metrics, waitingHandler, identificationParameters.getFractionSettings());
+        } finally {
+            processingStatistics.endStage(stage, nProteins);
+        }
         waitingHandler.increasePrimaryProgressCounter();
         if (waitingHandler.isRunCanceled()) {
             return;
@@ -479,7 +675,12 @@ public class PeptideShaker {
         } else {
             waitingHandler.appendReport("No decoy sequences found. Impossible to estimate FDRs.", true, true);
         }
-        matchesValidator.validateIdentifications(identification, metrics, geneMaps, waitingHandler, exceptionHandler, identificationParameters, identificationFeaturesGenerator, inputMap, spectrumCountingPreferences, processingPreferences);
+        stage = processingStatistics.startStage("Validating identifications");
+        try {
+            matchesValidator.validateIdentifications(identification, metrics, geneMaps, waitingHandler, exceptionHandler, identificationParameters, identificationFeaturesGenerator, inputMap, spectrumCountingPreferences, processingPreferences);
+        } finally {
+            processingStatistics.endStage(stage, nPsms + nPeptides + nProteins);
+        }
         waitingHandler.increasePrimaryProgressCounter();
         metrics.clearSpectrumKeys();
         if (waitingHandler.isRunCanceled()) {
@@ -487,14 +688,24 @@ public class PeptideShaker {
         }
 
         waitingHandler.appendReport("Scoring PTMs in peptides.", true, true);
-        ptmScorer.scorePeptidePtms(identification, waitingHandler, identificationParameters);
+        stage = processingStatistics.startStage("Scoring PTMs in peptides");
+        try {
+            ptmScorer.scorePeptidePtms(identification, waitingHandler, exceptionHandler, identificationParameters, processingPreferences);
+        } finally {
+            processingStatistics.endStage(stage, nPeptides);
+        }
         waitingHandler.increasePrimaryProgressCounter();
         if (waitingHandler.isRunCanceled()) {
             return;
         }
 
         waitingHandler.appendReport("Scoring PTMs in proteins.", true, true);
-        ptmScorer.scoreProteinPtms(identification, metrics, waitingHandler, identificationParameters, identificationFeaturesGenerator);
+        stage = processingStatistics.startStage("Scoring PTMs in proteins");
+        try {
+            ptmScorer.scoreProteinPtms(identification, metrics, waitingHandler, exceptionHandler, identificationParameters, identificationFeaturesGenerator, processingPreferences);
+        } finally {
+            processingStatistics.endStage(stage, nProteins);
+        }
         waitingHandler.increasePrimaryProgressCounter();
         if (waitingHandler.isRunCanceled()) {
             return;
@@ -606,13 +817,13 @@ public class PeptideShaker {
         attachSpectrumProbabilitiesAndBuildPeptidesAndProteins(identificationParameters.getSequenceMatchingPreferences(), waitingHandler);
         matchesValidator.fillPeptideMaps(identification, metrics, waitingHandler, identificationParameters);
         peptideMap.clean(identificationParameters.getIdValidationPreferences().getDefaultPeptideFDR() / 100);
-        peptideMap.estimateProbabilities(waitingHandler);
+        peptideMap.estimateProbabilities(waitingHandler, processingPreferences.getnThreads());
         matchesValidator.attachPeptideProbabilities(identification, waitingHandler);
         matchesValidator.fillProteinMap(identification, waitingHandler);
         proteinMap.estimateProbabilities(waitingHandler);
         matchesValidator.attachProteinProbabilities(identification, metrics, waitingHandler, identificationParameters.getFractionSettings());
         ProteinInference proteinInference = new ProteinInference();
-        proteinInference.retainBestScoringGroups(identification, metrics, proteinMap, identificationParameters, identificationFeaturesGenerator, waitingHandler);
+        proteinInference.retainBestScoringGroups(identification, metrics, proteinMap, identificationParameters, identificationFeaturesGenerator, processingPreferences.getnThreads(), waitingHandler);
     }
 
     /**
@@ -654,6 +865,168 @@ public class PeptideShaker {
         matchesValidator.attachProteinProbabilities(identification, metrics, waitingHandler, fractionSettings);
     }
 
+    /**
+     * Attaches the assumptions probabilities, selects the best hit and scores
+     * the PTMs of every PSM in a single pass, loading every spectrum match and
+     * its assumptions once. The time spent in every stage is stored and
+     * reported.
+     *
+     * @param identification the identification
+     * @param inputMap map of the input scores
+     * @param bestMatchSelection the best match selection
+     * @param identificationParameters the identification parameters
+     * @param processingPreferences the processing preferences
+     * @param waitingHandler the handler displaying feedback to the user
+     * @param exceptionHandler handler for exceptions
+     *
+     * @throws Exception exception thrown whenever an error occurred while
+     * processing the PSMs
+     */
+    private void processPsms(Identification identification, InputMap inputMap, BestMatchSelection bestMatchSelection, IdentificationParameters identificationParameters,
+            ProcessingPreferences processingPreferences, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler) throws Exception {
+
+        long start = System.currentTimeMillis();
+
+        waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+        waitingHandler.resetSecondaryProgressCounter();
+        waitingHandler.setMaxSecondaryProgressCounter(identification.getSpectrumIdentificationSize());
+
+        int nThreads = processingPreferences.getnThreads();
+        boolean multiSE = inputMap.isMultipleAlgorithms();
+        ModificationSiteIndex modificationSiteIndex = new ModificationSiteIndex(identificationParameters);
+
+        // Keep a map of the spectrum keys grouped by peptide
+        HashMap<String, ArrayList<String>> orderedPsmMap = null;
+        if (MemoryConsumptionStatus.memoryUsed() < 0.8) {
+            orderedPsmMap = new HashMap<String, ArrayList<String>>(identification.getSpectrumIdentificationMap().size());
+        }
+
+        ArrayList<PsmProcessorRunnable> runnables = new ArrayList<PsmProcessorRunnable>(nThreads);
+
+        for (String spectrumFileName : identification.getSpectrumFiles()) {
+
+            PsmIterator psmIterator = identification.getPsmIterator(spectrumFileName, null, true, waitingHandler);
+            ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+            ArrayList<PsmProcessorRunnable> fileRunnables = new ArrayList<PsmProcessorRunnable>(nThreads);
+            for (int i = 1; i <= nThreads && !waitingHandler.isRunCanceled(); i++) {
+                PsmProcessorRunnable runnable = new PsmProcessorRunnable(psmIterator, identification, inputMap, bestMatchSelection, multiSE,
+                        orderedPsmMap != null, identificationParameters, modificationSiteIndex, waitingHandler, exceptionHandler);
+                fileRunnables.add(runnable);
+                pool.submit(runnable);
+            }
+            if (waitingHandler.isRunCanceled()) {
+                pool.shutdownNow();
+                return;
+            }
+            pool.shutdown();
+            if (!pool.awaitTermination(7, TimeUnit.DAYS)) {
+                throw new InterruptedException("PSM processing timed out. Please contact the developers.");
+            }
+            if (waitingHandler.isRunCanceled()) {
+                return;
+            }
+            runnables.addAll(fileRunnables);
+
+            if (orderedPsmMap != null) {
+                HashMap<String, ArrayList<String>> keysMap = new HashMap<String, ArrayList<String>>();
+                for (PsmProcessorRunnable runnable : fileRunnables) {
+                    for (String peptideKey : runnable.getKeysMap().keySet()) {
+                        ArrayList<String> spectrumKeys = keysMap.get(peptideKey);
+                        if (spectrumKeys == null) {
+                            keysMap.put(peptideKey, runnable.getKeysMap().get(peptideKey));
+                        } else {
+                            spectrumKeys.addAll(runnable.getKeysMap().get(peptideKey));
+                        }
+                    }
+                    runnable.getKeysMap().clear();
+                }
+                ArrayList<String> orderedKeys = new ArrayList<String>(identification.getSpectrumIdentification(spectrumFileName).size());
+                for (ArrayList<String> keys : keysMap.values()) {
+                    orderedKeys.addAll(keys);
+                }
+                orderedPsmMap.put(spectrumFileName, orderedKeys);
+
+                if (MemoryConsumptionStatus.memoryUsed() > 0.9) {
+                    orderedPsmMap = null;
+                }
+            }
+        }
+
+        bestMatchSelection.completeSelection(orderedPsmMap);
+
+        long loadingTime = 0, probabilitiesTime = 0, selectionTime = 0, ptmTime = 0;
+        for (PsmProcessorRunnable runnable : runnables) {
+            loadingTime += runnable.getLoadingTime();
+            probabilitiesTime += runnable.getProbabilitiesTime();
+            selectionTime += runnable.getSelectionTime();
+            ptmTime += runnable.getPtmTime();
+        }
+        fusedStageTimes.clear();
+        fusedStageTimes.put("Loading assumptions", loadingTime / 1000000);
+        fusedStageTimes.put("Saving assumptions probabilities", probabilitiesTime / 1000000);
+        fusedStageTimes.put("Selecting best peptide per spectrum", selectionTime / 1000000);
+        fusedStageTimes.put("Scoring PTMs in PSMs", ptmTime / 1000000);
+
+        long wallTime = System.currentTimeMillis() - start;
+        StringBuilder report = new StringBuilder();
+        report.append("PSM processing completed in ").append(wallTime / 1000).append(" s [");
+        boolean first = true;
+        for (String stage : fusedStageTimes.keySet()) {
+            if (first) {
+                first = false;
+            } else {
+                report.append(", ");
+            }
+            report.append(stage).append(": ").append(fusedStageTimes.get(stage) / 1000).append(" s");
+        }
+        report.append(" (summed over ").append(nThreads).append(" threads)]");
+        waitingHandler.appendReport(report.toString(), true, true);
+
+        waitingHandler.setSecondaryProgressCounterIndeterminate(true);
+    }
+
+    /**
+     * Returns the time spent in the different stages of the last fused PSM
+     * processing in milliseconds, summed over all threads, indexed by stage
+     * name.
+     *
+     * @return the time spent in the different stages of the fused PSM
+     * processing
+     */
+    public LinkedHashMap<String, Long> getFusedStageTimes() {
+        return fusedStageTimes;
+    }
+
+    /**
+     * Returns the statistics on the stages of the last project creation.
+     *
+     * @return the statistics on the stages of the last project creation
+     */
+    public ProcessingStatistics getProcessingStatistics() {
+        return processingStatistics;
+    }
+
+    /**
+     * Indicates whether the assumptions probabilities, best hit selection and
+     * PSM PTM scoring are conducted in a single pass over the PSMs.
+     *
+     * @return a boolean indicating whether the PSM processing is fused
+     */
+    public boolean isFusedPsmProcessing() {
+        return fusedPsmProcessing;
+    }
+
+    /**
+     * Sets whether the assumptions probabilities, best hit selection and PSM
+     * PTM scoring should be conducted in a single pass over the PSMs.
+     *
+     * @param fusedPsmProcessing a boolean indicating whether the PSM
+     * processing should be fused
+     */
+    public void setFusedPsmProcessing(boolean fusedPsmProcessing) {
+        this.fusedPsmProcessing = fusedPsmProcessing;
+    }
+
     /**
      * Attaches the spectrum posterior error probabilities to the peptide
      * assumptions.
@@ -681,119 +1054,133 @@ public class PeptideShaker {
                 String spectrumKey = spectrumMatch.getKey();
                 HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptionsMap = identification.getAssumptions(spectrumKey);
 
-                HashMap<Double, ArrayList<PSParameter>> pepToParameterMap = new HashMap<Double, ArrayList<PSParameter>>();
+                attachAssumptionsProbabilities(assumptionsMap, inputMap, sequenceMatchingPreferences);
 
-                for (int searchEngine : assumptionsMap.keySet()) {
+                identification.updateAssumptions(spectrumKey, assumptionsMap);
 
-                    HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> seMapping = assumptionsMap.get(searchEngine);
-                    ArrayList<Double> eValues = new ArrayList<Double>(seMapping.keySet());
-                    Collections.sort(eValues);
-                    double previousP = 0;
-                    ArrayList<PSParameter> previousAssumptionsParameters = new ArrayList<PSParameter>();
-                    SpectrumIdentificationAssumption previousAssumption = null;
+                if (waitingHandler != null) {
+                    waitingHandler.increaseSecondaryProgressCounter();
+                    if (waitingHandler.isRunCanceled()) {
+                        return;
+                    }
+                }
+            }
+        }
 
-                    for (double eValue : eValues) {
+        if (waitingHandler != null) {
+            waitingHandler.setSecondaryProgressCounterIndeterminate(true);
+        }
+    }
 
-                        for (SpectrumIdentificationAssumption assumption : seMapping.get(eValue)) {
-                            PSParameter psParameter = new PSParameter();
-                            psParameter = (PSParameter) assumption.getUrParam(psParameter);
-                            if (psParameter == null) {
-                                psParameter = new PSParameter();
-                            }
+    /**
+     * Attaches the spectrum posterior error probabilities to the peptide
+     * assumptions of a spectrum.
+     *
+     * @param assumptionsMap the assumptions of the spectrum
+     * @param inputMap map of the input scores
+     * @param sequenceMatchingPreferences the sequence matching preferences
+     */
+    public void attachAssumptionsProbabilities(HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptionsMap,
+            InputMap inputMap, SequenceMatchingPreferences sequenceMatchingPreferences) {
 
-                            if (sequenceFactory.concatenatedTargetDecoy()) {
+        HashMap<Double, ArrayList<PSParameter>> pepToParameterMap = new HashMap<Double, ArrayList<PSParameter>>();
 
-                                double newP = inputMap.getProbability(searchEngine, eValue);
-                                double pep = previousP;
+        for (int searchEngine : assumptionsMap.keySet()) {
 
-                                if (newP > previousP) {
-                                    pep = newP;
-                                    previousP = newP;
-                                }
+            HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> seMapping = assumptionsMap.get(searchEngine);
+            ArrayList<Double> eValues = new ArrayList<Double>(seMapping.keySet());
+            Collections.sort(eValues);
+            double previousP = 0;
+            ArrayList<PSParameter> previousAssumptionsParameters = new ArrayList<PSParameter>();
+            SpectrumIdentificationAssumption previousAssumption = null;
+
+            for (double eValue : eValues) {
+
+                for (SpectrumIdentificationAssumption assumption : seMapping.get(eValue)) {
+                    PSParameter psParameter = new PSParameter();
+                    psParameter = (PSParameter) assumption.getUrParam(psParameter);
+                    if (psParameter == null) {
+                        psParameter = new PSParameter();
+                    }
 
-                                psParameter.setSearchEngineProbability(pep);
+                    if (sequenceFactory.concatenatedTargetDecoy()) {
 
-                                ArrayList<PSParameter> pSParameters = pepToParameterMap.get(pep);
-                                if (pSParameters == null) {
-                                    pSParameters = new ArrayList<PSParameter>(1);
-                                    pepToParameterMap.put(pep, pSParameters);
+                        double newP = inputMap.getProbability(searchEngine, eValue);
+                        double pep = previousP;
+
+                        if (newP > previousP) {
+                            pep = newP;
+                            previousP = newP;
+                        }
+
+                        psParameter.setSearchEngineProbability(pep);
+
+                        ArrayList<PSParameter> pSParameters = pepToParameterMap.get(pep);
+                        if (pSParameters == null) {
+                            pSParameters = new ArrayList<PSParameter>(1);
+                            pepToParameterMap.put(pep, pSParameters);
+                        }
+                        pSParameters.add(psParameter);
+
+                        if (previousAssumption != null) {
+                            boolean same = false;
+                            if ((assumption instanceof PeptideAssumption) && (previousAssumption instanceof PeptideAssumption)) {
+                                Peptide newPeptide = ((PeptideAssumption) assumption).getPeptide();
+                                Peptide previousPeptide = ((PeptideAssumption) previousAssumption).getPeptide();
+                                if (newPeptide.isSameSequenceAndModificationStatus(previousPeptide, sequenceMatchingPreferences)) {
+                                    same = true;
                                 }
-                                pSParameters.add(psParameter);
-
-                                if (previousAssumption != null) {
-                                    boolean same = false;
-                                    if ((assumption instanceof PeptideAssumption) && (previousAssumption instanceof PeptideAssumption)) {
-                                        Peptide newPeptide = ((PeptideAssumption) assumption).getPeptide();
-                                        Peptide previousPeptide = ((PeptideAssumption) previousAssumption).getPeptide();
-                                        if (newPeptide.isSameSequenceAndModificationStatus(previousPeptide, sequenceMatchingPreferences)) {
-                                            same = true;
-                                        }
-                                    } else if ((assumption instanceof TagAssumption) && (previousAssumption instanceof TagAssumption)) {
-                                        Tag newTag = ((TagAssumption) assumption).getTag();
-                                        Tag previousTag = ((TagAssumption) previousAssumption).getTag();
-                                        if (newTag.isSameSequenceAndModificationStatusAs(previousTag, sequenceMatchingPreferences)) {
-                                            same = true;
-                                        }
-                                    }
-
-                                    if (!same) {
-                                        for (PSParameter previousParameter : previousAssumptionsParameters) {
-                                            double deltaPEP = pep - previousParameter.getSearchEngineProbability();
-                                            previousParameter.setAlgorithmDeltaPEP(deltaPEP);
-                                        }
-                                        previousAssumptionsParameters.clear();
-                                    }
+                            } else if ((assumption instanceof TagAssumption) && (previousAssumption instanceof TagAssumption)) {
+                                Tag newTag = ((TagAssumption) assumption).getTag();
+                                Tag previousTag = ((TagAssumption) previousAssumption).getTag();
+                                if (newTag.isSameSequenceAndModificationStatusAs(previousTag, sequenceMatchingPreferences)) {
+                                    same = true;
                                 }
-                                previousAssumption = assumption;
-                                previousAssumptionsParameters.add(psParameter);
-
-                            } else {
-                                psParameter.setSearchEngineProbability(1.0);
                             }
 
-                            assumption.addUrParam(psParameter);
+                            if (!same) {
+                                for (PSParameter previousParameter : previousAssumptionsParameters) {
+                                    double deltaPEP = pep - previousParameter.getSearchEngineProbability();
+                                    previousParameter.setAlgorithmDeltaPEP(deltaPEP);
+                                }
+                                previousAssumptionsParameters.clear();
+                            }
                         }
-                    }
+                        previousAssumption = assumption;
+                        previousAssumptionsParameters.add(psParameter);
 
-                    for (PSParameter previousParameter : previousAssumptionsParameters) {
-                        double deltaPEP = 1 - previousParameter.getSearchEngineProbability();
-                        previousParameter.setAlgorithmDeltaPEP(deltaPEP);
+                    } else {
+                        psParameter.setSearchEngineProbability(1.0);
                     }
-                }
 
-                // Compute the delta pep score accross all search engines
-                Double previousPEP = null;
-                ArrayList<PSParameter> previousParameters = new ArrayList<PSParameter>();
-                ArrayList<Double> peps = new ArrayList<Double>(pepToParameterMap.keySet());
-                Collections.sort(peps);
-                for (double pep : peps) {
-                    if (previousPEP != null) {
-                        for (PSParameter previousParameter : previousParameters) {
-                            double delta = pep - previousPEP;
-                            previousParameter.setDeltaPEP(delta);
-                        }
-                    }
-                    previousParameters = pepToParameterMap.get(pep);
-                    previousPEP = pep;
-                }
-                for (PSParameter previousParameter : previousParameters) {
-                    double delta = 1 - previousParameter.getSearchEngineProbability();
-                    previousParameter.setDeltaPEP(delta);
+                    assumption.addUrParam(psParameter);
                 }
+            }
 
-                identification.updateAssumptions(spectrumKey, assumptionsMap);
+            for (PSParameter previousParameter : previousAssumptionsParameters) {
+                double deltaPEP = 1 - previousParameter.getSearchEngineProbability();
+                previousParameter.setAlgorithmDeltaPEP(deltaPEP);
+            }
+        }
 
-                if (waitingHandler != null) {
-                    waitingHandler.increaseSecondaryProgressCounter();
-                    if (waitingHandler.isRunCanceled()) {
-                        return;
-                    }
+        // Compute the delta pep score accross all search engines
+        Double previousPEP = null;
+        ArrayList<PSParameter> previousParameters = new ArrayList<PSParameter>();
+        ArrayList<Double> peps = new ArrayList<Double>(pepToParameterMap.keySet());
+        Collections.sort(peps);
+        for (double pep : peps) {
+            if (previousPEP != null) {
+                for (PSParameter previousParameter : previousParameters) {
+                    double delta = pep - previousPEP;
+                    previousParameter.setDeltaPEP(delta);
                 }
             }
+            previousParameters = pepToParameterMap.get(pep);
+            previousPEP = pep;
         }
-
-        if (waitingHandler != null) {
-            waitingHandler.setSecondaryProgressCounterIndeterminate(true);
+        for (PSParameter previousParameter : previousParameters) {
+            double delta = 1 - previousParameter.getSearchEngineProbability();
+            previousParameter.setDeltaPEP(delta);
         }
     }
 
@@ -1091,4 +1478,202 @@ public class PeptideShaker {
         File file = new File(folder, PEPTIDESHAKER_CONFIGURATION_FILE);
         return new ConfigurationFile(file);
     }
+
+    /**
+     * Runnable attaching the assumptions probabilities, selecting the best hit
+     * and scoring the PTMs of the PSMs of an iterator.
+     *
+     * @author Marc Vaudel
+     */
+    private class PsmProcessorRunnable implements Runnable {
+
+        /**
+         * An iterator for the PSMs.
+         */
+        private PsmIterator psmIterator;
+        /**
+         * The identification.
+         */
+        private Identification identification;
+        /**
+         * The input map.
+         */
+        private InputMap inputMap;
+        /**
+         * The best match selection.
+         */
+        private BestMatchSelection bestMatchSelection;
+        /**
+         * Boolean indicating whether multiple search engines were used.
+         */
+        private boolean multiSE;
+        /**
+         * The spectrum keys of the processed PSMs indexed by peptide key, null
+         * if not needed.
+         */
+        private HashMap<String, ArrayList<String>> keysMap = null;
+        /**
+         * The identification parameters.
+         */
+        private IdentificationParameters identificationParameters;
+        /**
+         * The index of the modification sites.
+         */
+        private ModificationSiteIndex modificationSiteIndex;
+        /**
+         * The waiting handler.
+         */
+        private WaitingHandler waitingHandler;
+        /**
+         * Handler for the exceptions.
+         */
+        private ExceptionHandler exceptionHandler;
+        /**
+         * The peptide spectrum annotator.
+         */
+        private PeptideSpectrumAnnotator peptideSpectrumAnnotator = new PeptideSpectrumAnnotator();
+        /**
+         * The spectrum annotation cache, shared by the best match selection
+         * and the PTM scoring of a spectrum.
+         */
+        private SpectrumAnnotationCache spectrumAnnotationCache = new SpectrumAnnotationCache();
+        /**
+         * The time spent loading the assumptions in nanoseconds.
+         */
+        private long loadingTime = 0;
+        /**
+         * The time spent attaching the assumptions probabilities in
+         * nanoseconds.
+         */
+        private long probabilitiesTime = 0;
+        /**
+         * The time spent selecting the best hits in nanoseconds.
+         */
+        private long selectionTime = 0;
+        /**
+         * The time spent scoring PTMs in nanoseconds.
+         */
+        private long ptmTime = 0;
+
+        /**
+         * Constructor.
+         *
+         * @param psmIterator a PSM iterator
+         * @param identification the identification containing the matches
+         * @param inputMap the input map
+         * @param bestMatchSelection the best match selection
+         * @param multiSE boolean indicating whether multiple search engines
+         * were used
+         * @param orderKeys boolean indicating whether the spectrum keys should
+         * be stored by peptide
+         * @param identificationParameters the identification parameters
+         * @param modificationSiteIndex the index of the modification sites
+         * @param waitingHandler a waiting handler to display progress and allow
+         * canceling the process
+         * @param exceptionHandler handler for exceptions
+         */
+        public PsmProcessorRunnable(PsmIterator psmIterator, Identification identification, InputMap inputMap, BestMatchSelection bestMatchSelection, boolean multiSE,
+                boolean orderKeys, IdentificationParameters identificationParameters, ModificationSiteIndex modificationSiteIndex, WaitingHandler waitingHandler,
+                ExceptionHandler exceptionHandler) {
+            this.psmIterator = psmIterator;
+            this.identification = identification;
+            this.inputMap = inputMap;
+            this.bestMatchSelection = bestMatchSelection;
+            this.multiSE = multiSE;
+            if (orderKeys) {
+                keysMap = new HashMap<String, ArrayList<String>>();
+            }
+            this.identificationParameters = identificationParameters;
+            this.modificationSiteIndex = modificationSiteIndex;
+            this.waitingHandler = waitingHandler;
+            this.exceptionHandler = exceptionHandler;
+        }
+
+        @Override
+        public void run() {
+            try {
+                SequenceMatchingPreferences sequenceMatchingPreferences = identificationParameters.getSequenceMatchingPreferences();
+                while (psmIterator.hasNext() && !waitingHandler.isRunCanceled()) {
+
+                    long time0 = System.nanoTime();
+                    SpectrumMatch advocateMatch = psmIterator.next();
+                    if (advocateMatch == null) {
+                        continue;
+                    }
+                    String spectrumKey = advocateMatch.getKey();
+                    HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptionsMap = identification.getAssumptions(spectrumKey);
+
+                    long time1 = System.nanoTime();
+                    attachAssumptionsProbabilities(assumptionsMap, inputMap, sequenceMatchingPreferences);
+                    identification.updateAssumptions(spectrumKey, assumptionsMap);
+
+                    long time2 = System.nanoTime();
+                    SpectrumMatch spectrumMatch = bestMatchSelection.selectBestHit(spectrumKey, assumptionsMap, multiSE, identificationParameters, peptideSpectrumAnnotator, spectrumAnnotationCache, keysMap);
+
+                    long time3 = System.nanoTime();
+                    ptmScorer.scorePsmPtms(identification, spectrumMatch, assumptionsMap, identificationParameters, modificationSiteIndex, waitingHandler, peptideSpectrumAnnotator, spectrumAnnotationCache);
+
+                    long time4 = System.nanoTime();
+                    loadingTime += time1 - time0;
+                    probabilitiesTime += time2 - time1;
+                    selectionTime += time3 - time2;
+                    ptmTime += time4 - time3;
+
+                    waitingHandler.increaseSecondaryProgressCounter();
+                }
+            } catch (Exception e) {
+                exceptionHandler.catchException(e);
+                waitingHandler.setRunCanceled();
+            }
+        }
+
+        /**
+         * Returns the spectrum keys of the processed PSMs indexed by peptide
+         * key, null if not stored.
+         *
+         * @return the spectrum keys of the processed PSMs indexed by peptide
+         * key
+         */
+        public HashMap<String, ArrayList<String>> getKeysMap() {
+            return keysMap;
+        }
+
+        /**
+         * Returns the time spent loading the assumptions in nanoseconds.
+         *
+         * @return the time spent loading the assumptions in nanoseconds
+         */
+        public long getLoadingTime() {
+            return loadingTime;
+        }
+
+        /**
+         * Returns the time spent attaching the assumptions probabilities in
+         * nanoseconds.
+         *
+         * @return the time spent attaching the assumptions probabilities in
+         * nanoseconds
+         */
+        public long getProbabilitiesTime() {
+            return probabilitiesTime;
+        }
+
+        /**
+         * Returns the time spent selecting the best hits in nanoseconds.
+         *
+         * @return the time spent selecting the best hits in nanoseconds
+         */
+        public long getSelectionTime() {
+            return selectionTime;
+        }
+
+        /**
+         * Returns the time spent scoring PTMs in nanoseconds.
+         *
+         * @return the time spent scoring PTMs in nanoseconds
+         */
+        public long getPtmTime() {
+            return ptmTime;
+        }
+    }
 }
@@ -38,7 +38,9 @@ import eu.isas.peptideshaker.preferences.PeptideShakerPathPreferences;
 import eu.isas.peptideshaker.utils.CpsParent;
 import eu.isas.peptideshaker.preferences.ProjectDetails;
 import eu.isas.peptideshaker.preferences.SpectrumCountingPreferences;
+import eu.isas.peptideshaker.protein_inference.ProteinDescriptionIndex;
 import eu.isas.peptideshaker.utils.Properties;
+import eu.isas.peptideshaker.utils.ProcessingStatistics;
 import eu.isas.peptideshaker.utils.PsZipUtils;
 import eu.isas.peptideshaker.utils.Tips;
 import eu.isas.peptideshaker.validation.MatchesValidator;
@@ -83,6 +85,10 @@ public class PeptideShakerCLI extends CpsParent implements Callable {
      * The utilities user preferences.
      */
     private UtilitiesUserPreferences utilitiesUserPreferences;
+    /**
+     * Statistics on the stages of the project creation.
+     */
+    private ProcessingStatistics processingStatistics = null;
 
     /**
      * Construct a new PeptideShakerCLI runnable. When initialization is
@@ -249,6 +255,17 @@ public class PeptideShakerCLI extends CpsParent implements Callable {
                 waitingHandler.setRunCanceled();
             }
 
+            // export the processing statistics
+            if (cliInputBean.isProcessingStatistics() && processingStatistics != null) {
+                try {
+                    processingStatistics.writeReports(cpsFile);
+                    System.out.println(System.getProperty("line.separator") + processingStatistics.getReport());
+                } catch (Exception e) {
+                    waitingHandler.appendReport("An exception occurred while exporting the processing statistics.", true, true);
+                    e.printStackTrace();
+                }
+            }
+
             // finished
             waitingHandler.setPrimaryProgressCounterIndeterminate(false);
             waitingHandler.setSecondaryProgressCounterIndeterminate(false);
@@ -735,6 +752,7 @@ public class PeptideShakerCLI extends CpsParent implements Callable {
         peptideShaker.importFiles(waitingHandler, identificationFiles, spectrumFiles,
                 identificationParameters, projectDetails, processingPreferences,
                 spectrumCountingPreferences, false);
+        processingStatistics = peptideShaker.getProcessingStatistics();
 
         // show the warnings
         Iterator<String> iterator = peptideShaker.getWarnings().keySet().iterator();
@@ -830,6 +848,7 @@ public class PeptideShakerCLI extends CpsParent implements Callable {
         } catch (Exception e) {
             e.printStackTrace();
         }
+        ProteinDescriptionIndex.clearInstance();
 
         try {
             TempFilesManager.deleteTempFolders();
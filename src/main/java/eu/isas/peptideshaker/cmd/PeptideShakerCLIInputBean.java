@@ -77,6 +77,10 @@ public class PeptideShakerCLIInputBean {
      * The number of threads to use.
      */
     private Integer nThreads = null;
+    /**
+     * Boolean indicating whether the processing statistics shall be exported.
+     */
+    private boolean processingStatistics = false;
 
     /**
      * Construct a PeptideShakerCLIInputBean from an Apache CLI instance.
@@ -122,6 +126,14 @@ public class PeptideShakerCLIInputBean {
             nThreads = new Integer(aLine.getOptionValue(PeptideShakerCLIParams.THREADS.id));
         }
 
+        // processing statistics
+        if (aLine.hasOption(PeptideShakerCLIParams.PROCESSING_STATISTICS.id)) {
+            String statisticsOption = aLine.getOptionValue(PeptideShakerCLIParams.PROCESSING_STATISTICS.id);
+            if (statisticsOption.trim().equals("1")) {
+                processingStatistics = true;
+            }
+        }
+
         followUpCLIInputBean = new FollowUpCLIInputBean(aLine);
         reportCLIInputBean = new ReportCLIInputBean(aLine);
         pathSettingsCLIInputBean = new PathSettingsCLIInputBean(aLine);
@@ -371,6 +383,16 @@ public class PeptideShakerCLIInputBean {
         return nThreads;
     }
 
+    /**
+     * Indicates whether the processing statistics shall be exported.
+     *
+     * @return a boolean indicating whether the processing statistics shall be
+     * exported
+     */
+    public boolean isProcessingStatistics() {
+        return processingStatistics;
+    }
+
     /**
      * Verifies the command line start parameters.
      *
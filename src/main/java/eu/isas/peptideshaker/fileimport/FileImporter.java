@@ -40,6 +40,7 @@ import eu.isas.peptideshaker.protein_inference.PeptideMapper;
 import eu.isas.peptideshaker.protein_inference.TagMapper;
 import eu.isas.peptideshaker.scoring.maps.InputMap;
 import eu.isas.peptideshaker.utils.Metrics;
+import eu.isas.peptideshaker.utils.ProcessingStage;
 import org.xml.sax.SAXException;
 import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException;
 
@@ -49,6 +50,11 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * This class is responsible for the import of identifications.
@@ -102,6 +108,33 @@ public class FileImporter {
      * The identification parameters.
      */
     private IdentificationParameters identificationParameters;
+    /**
+     * The default number of spectrum matches mapped and imported at once when
+     * importing large identification files.
+     */
+    public static final int DEFAULT_STREAMING_BATCH_SIZE = 10000;
+    /**
+     * The number of spectrum matches mapped to the proteins and imported at
+     * once. Identification files with more matches are processed in batches
+     * of this size, releasing the matches as they are stored in the database.
+     * 0 or less to process all matches at once.
+     */
+    private int streamingBatchSize = DEFAULT_STREAMING_BATCH_SIZE;
+    /**
+     * The default maximal number of identification files parsed in parallel.
+     */
+    public static final int DEFAULT_PARALLEL_ID_FILES = 4;
+    /**
+     * The maximal number of identification files parsed in parallel, bounded
+     * by the number of threads. The next files are parsed while the matches
+     * of the current file are imported.
+     */
+    private int nParallelIdFiles = DEFAULT_PARALLEL_ID_FILES;
+    /**
+     * The share of the memory above which no additional identification file
+     * is parsed in advance.
+     */
+    public static final double PARALLEL_PARSING_MEMORY_SHARE = 0.5;
 
     /**
      * Constructor for the importer.
@@ -471,78 +504,131 @@ public class FileImporter {
                 if (!waitingHandler.isRunCanceled()) {
 
                     waitingHandler.appendReport("Reading identification files.", true, true);
+                    ProcessingStage importStage = peptideShaker.getProcessingStatistics().startStage("Importing identification files");
 
-                    for (File idFile : idFiles) {
-                        importPsms(idFile);
+                    try {
+                        inputMap.setThreadAccumulation(processingPreferences.getnThreads() > 1);
 
-                        if (waitingHandler.isRunCanceled()) {
+                        int nParsingThreads = Math.min(Math.min(nParallelIdFiles, processingPreferences.getnThreads()), idFiles.size());
+
+                        if (nParsingThreads <= 1) {
+
+                            for (File idFile : idFiles) {
+                                importPsms(idFile);
+
+                                if (waitingHandler.isRunCanceled()) {
+                                    try {
+                                        identification.close();
+                                    } catch (Exception e) {
+                                        e.printStackTrace(); // Let derby crash
+                                    }
+                                    return 1;
+                                }
+                            }
+
+                        } else {
+
+                            // parse the next files while importing the current one, the matches are imported in the order of the files
+                            ExecutorService pool = Executors.newFixedThreadPool(nParsingThreads);
                             try {
-                                identification.close();
-                            } catch (Exception e) {
-                                e.printStackTrace(); // Let derby crash
+                                LinkedList<Future<ParsedIdFile>> parsingQueue = new LinkedList<Future<ParsedIdFile>>();
+                                LinkedList<File> parsingFiles = new LinkedList<File>();
+                                Iterator<File> idFileIterator = idFiles.iterator();
+
+                                while (idFileIterator.hasNext() || !parsingQueue.isEmpty()) {
+
+                                    while (idFileIterator.hasNext()
+                                            && (parsingQueue.isEmpty()
+                                            || parsingQueue.size() < nParsingThreads && MemoryConsumptionStatus.memoryUsed() < PARALLEL_PARSING_MEMORY_SHARE)) {
+                                        File idFile = idFileIterator.next();
+                                        parsingQueue.add(pool.submit(new IdFileParser(idFile)));
+                                        parsingFiles.add(idFile);
+                                    }
+
+                                    // the files are parsed in the background without feedback, progress is reported from this thread only
+                                    waitingHandler.setSecondaryProgressCounterIndeterminate(true);
+                                    waitingHandler.appendReport("Parsing " + parsingFiles.pollFirst().getName() + ".", true, true);
+                                    ParsedIdFile parsedIdFile = getParsedIdFile(parsingQueue.pollFirst());
+                                    importPsms(parsedIdFile);
+
+                                    if (waitingHandler.isRunCanceled()) {
+                                        pool.shutdownNow();
+                                        try {
+                                            identification.close();
+                                        } catch (Exception e) {
+                                            e.printStackTrace(); // Let derby crash
+                                        }
+                                        return 1;
+                                    }
+                                }
+                            } finally {
+                                pool.shutdownNow();
                             }
-                            return 1;
                         }
-                    }
 
-                    while (!missingMgfFiles.isEmpty()) {
-                        if (hasGUI) {
-                            new MgfFilesNotFoundDialog((WaitingDialog) waitingHandler, missingMgfFiles);
-                            if (waitingHandler.isRunCanceled()) {
+                        while (!missingMgfFiles.isEmpty()) {
+                            if (hasGUI) {
+                                new MgfFilesNotFoundDialog((WaitingDialog) waitingHandler, missingMgfFiles);
+                                if (waitingHandler.isRunCanceled()) {
+                                    identification.close();
+                                    sequenceFactory.clearFactory();
+                                    return 1;
+                                }
+                            } else {
+                                String missingFiles = "";
+                                boolean first = true;
+                                for (File mgfFile : missingMgfFiles.keySet()) {
+                                    if (first) {
+                                        first = false;
+                                    } else {
+                                        missingFiles += ", ";
+                                    }
+                                    missingFiles += mgfFile.getName();
+                                }
+                                waitingHandler.appendReport("MGF files missing: " + missingFiles, true, true);
                                 identification.close();
                                 sequenceFactory.clearFactory();
                                 return 1;
                             }
-                        } else {
-                            String missingFiles = "";
-                            boolean first = true;
-                            for (File mgfFile : missingMgfFiles.keySet()) {
-                                if (first) {
-                                    first = false;
-                                } else {
-                                    missingFiles += ", ";
-                                }
-                                missingFiles += mgfFile.getName();
+                            waitingHandler.appendReport("Processing files with the new input.", true, true);
+                            ArrayList<File> filesToProcess = new ArrayList<File>(missingMgfFiles.keySet());
+
+                            for (String mgfName : missingMgfFiles.values()) {
+                                File newFile = spectrumFactory.getSpectrumFileFromIdName(mgfName);
+                                spectrumFiles.put(newFile.getName(), newFile);
+                                projectDetails.addSpectrumFile(newFile);
+                            }
+                            missingMgfFiles.clear();
+                            for (File idFile : filesToProcess) {
+                                importPsms(idFile);
+                            }
+                            if (waitingHandler.isRunCanceled()) {
+                                identification.close();
+                                sequenceFactory.clearFactory();
+                                return 1;
                             }
-                            waitingHandler.appendReport("MGF files missing: " + missingFiles, true, true);
-                            identification.close();
-                            sequenceFactory.clearFactory();
-                            return 1;
                         }
-                        waitingHandler.appendReport("Processing files with the new input.", true, true);
-                        ArrayList<File> filesToProcess = new ArrayList<File>(missingMgfFiles.keySet());
 
-                        for (String mgfName : missingMgfFiles.values()) {
-                            File newFile = spectrumFactory.getSpectrumFileFromIdName(mgfName);
-                            spectrumFiles.put(newFile.getName(), newFile);
-                            projectDetails.addSpectrumFile(newFile);
-                        }
-                        missingMgfFiles.clear();
-                        for (File idFile : filesToProcess) {
-                            importPsms(idFile);
-                        }
-                        if (waitingHandler.isRunCanceled()) {
+                        // clear the objects not needed anymore
+                        singleProteinList.clear();
+                        sequenceFactory.emptyCache();
+
+                        if (nRetained == 0) {
+                            waitingHandler.appendReport("No identifications retained.", true, true);
+                            waitingHandler.setRunCanceled();
                             identification.close();
                             sequenceFactory.clearFactory();
                             return 1;
                         }
-                    }
-
-                    // clear the objects not needed anymore
-                    singleProteinList.clear();
-                    sequenceFactory.emptyCache();
 
-                    if (nRetained == 0) {
-                        waitingHandler.appendReport("No identifications retained.", true, true);
-                        waitingHandler.setRunCanceled();
-                        identification.close();
-                        sequenceFactory.clearFactory();
-                        return 1;
+                        waitingHandler.appendReport("File import completed. "
+                                + nPSMs + " first hits imported (" + nSecondary + " secondary) from " + nSpectra + " spectra.", true, true);
+                        waitingHandler.appendReport("[" + nRetained + " first hits passed the initial filtering]", true, true);
+                    } finally {
+                        inputMap.mergeThreadHistograms();
+                        inputMap.setThreadAccumulation(false);
+                        peptideShaker.getProcessingStatistics().endStage(importStage, nPSMs + nSecondary);
                     }
-
-                    waitingHandler.appendReport("File import completed. "
-                            + nPSMs + " first hits imported (" + nSecondary + " secondary) from " + nSpectra + " spectra.", true, true);
-                    waitingHandler.appendReport("[" + nRetained + " first hits passed the initial filtering]", true, true);
                     waitingHandler.increaseSecondaryProgressCounter(spectrumFiles.size() - mgfUsed.size());
                     peptideShaker.processIdentifications(inputMap, proteinCount, waitingHandler, exceptionHandler, identificationParameters, processingPreferences, spectrumCountingPreferences, projectDetails);
                 }
@@ -649,42 +735,97 @@ public class FileImporter {
          * out of memory
          */
         public void importPsms(File idFile) throws FileNotFoundException, IOException, SAXException, MzMLUnmarshallerException, IllegalArgumentException, Exception, OutOfMemoryError {
-
-            identification = proteomicAnalysis.getIdentification(IdentificationMethod.MS2_IDENTIFICATION);
             waitingHandler.setSecondaryProgressCounterIndeterminate(true);
             waitingHandler.appendReport("Parsing " + idFile.getName() + ".", true, true);
+            importPsms(parseIdFile(idFile, waitingHandler));
+        }
+
+        /**
+         * Parses an identification file. This method only reads the file and
+         * can be called from different threads, the matches are stored in the
+         * project by importPsms. Nothing is written to the report, errors are
+         * stored in the parsed file and reported by importPsms.
+         *
+         * @param idFile the identification file
+         * @param parsingWaitingHandler the waiting handler displaying the
+         * progress of the parsing, null when parsing in the background
+         *
+         * @return the parsed identification file
+         *
+         * @throws OutOfMemoryError thrown if the parser if the id files runs
+         * out of memory
+         */
+        private ParsedIdFile parseIdFile(File idFile, WaitingHandler parsingWaitingHandler) throws OutOfMemoryError {
 
             IdfileReader fileReader = null;
             try {
                 fileReader = readerFactory.getFileReader(idFile);
             } catch (OutOfMemoryError error) {
-                waitingHandler.appendReport("Ran out of memory when parsing \'" + Util.getFileName(idFile) + "\'.", true, true);
                 throw new OutOfMemoryError("Ran out of memory when parsing \'" + Util.getFileName(idFile) + "\'.");
             }
 
             if (fileReader == null) {
-                waitingHandler.appendReport("Identification result file \'" + Util.getFileName(idFile) + "\' not recognized.", true, true);
-                waitingHandler.setRunCanceled();
-                return;
+                return new ParsedIdFile(idFile, null, null, null);
             }
 
-            waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+            if (parsingWaitingHandler != null) {
+                parsingWaitingHandler.setSecondaryProgressCounterIndeterminate(false);
+            }
 
             LinkedList<SpectrumMatch> idFileSpectrumMatches = null;
+            String parsingError = null;
             try {
                 if (peptideMapper != null && !peptideMapper.isCanceled()) {
-                    idFileSpectrumMatches = fileReader.getAllSpectrumMatches(waitingHandler, identificationParameters.getSearchParameters(), identificationParameters.getSequenceMatchingPreferences(), true);
+                    idFileSpectrumMatches = fileReader.getAllSpectrumMatches(parsingWaitingHandler, identificationParameters.getSearchParameters(), identificationParameters.getSequenceMatchingPreferences(), true);
                 } else {
-                    idFileSpectrumMatches = fileReader.getAllSpectrumMatches(waitingHandler, identificationParameters.getSearchParameters(), null, true);
+                    idFileSpectrumMatches = fileReader.getAllSpectrumMatches(parsingWaitingHandler, identificationParameters.getSearchParameters(), null, true);
                 }
             } catch (Exception e) {
-                waitingHandler.appendReport("An error occurred while loading spectrum matches from \'"
+                parsingError = "An error occurred while loading spectrum matches from \'"
                         + Util.getFileName(idFile)
                         + "\'. This file will be ignored. Error: " + e.toString()
-                        + " See resources/PeptideShaker.log for details.", true, true);
+                        + " See resources/PeptideShaker.log for details.";
                 e.printStackTrace();
             }
 
+            return new ParsedIdFile(idFile, fileReader, idFileSpectrumMatches, parsingError);
+        }
+
+        /**
+         * Imports the PSMs from a parsed identification file.
+         *
+         * @param parsedIdFile the parsed identification file
+         *
+         * @throws FileNotFoundException exception thrown whenever a file was
+         * not found
+         * @throws IOException exception thrown whenever an error occurred while
+         * reading or writing a file
+         * @throws SAXException exception thrown whenever an error occurred
+         * while parsing an XML file
+         * @throws MzMLUnmarshallerException exception thrown whenever an error
+         * occurred while reading an mzML file
+         * @throws OutOfMemoryError thrown if the parser if the id files runs
+         * out of memory
+         */
+        private void importPsms(ParsedIdFile parsedIdFile) throws FileNotFoundException, IOException, SAXException, MzMLUnmarshallerException, IllegalArgumentException, Exception, OutOfMemoryError {
+
+            identification = proteomicAnalysis.getIdentification(IdentificationMethod.MS2_IDENTIFICATION);
+
+            File idFile = parsedIdFile.getIdFile();
+            IdfileReader fileReader = parsedIdFile.getFileReader();
+
+            if (fileReader == null) {
+                waitingHandler.appendReport("Identification result file \'" + Util.getFileName(idFile) + "\' not recognized.", true, true);
+                waitingHandler.setRunCanceled();
+                return;
+            }
+
+            if (parsedIdFile.getParsingError() != null) {
+                waitingHandler.appendReport(parsedIdFile.getParsingError(), true, true);
+            }
+
+            LinkedList<SpectrumMatch> idFileSpectrumMatches = parsedIdFile.getSpectrumMatches();
+
             // set the search engine name and version for this file
             HashMap<String, ArrayList<String>> software = fileReader.getSoftwareVersions();
             projectDetails.setIdentificationAlgorithmsForFile(Util.getFileName(idFile), software);
@@ -733,50 +874,47 @@ public class FileImporter {
                             tagMapper.mapTags(fileReader, identification, waitingHandler, processingPreferences.getnThreads());
                         }
 
-                        // Batch map the peptides on protein sequences
-                        if (peptideMapper != null && !peptideMapper.isCanceled()) {
-                            try {
-                                // Get map of peptides likely to need protein mapping
-                                waitingHandler.resetSecondaryProgressCounter();
-                                waitingHandler.setMaxSecondaryProgressCounter(numberOfMatches);
-                                waitingHandler.appendReport("Collecting peptides to map.", true, true);
-                                HashMap<String, LinkedList<Peptide>> peptideMap = PeptideMapper.getPeptideMap(fileReader, idFileSpectrumMatches, identification, identificationParameters, waitingHandler);
-                                if (!peptideMapper.isCanceled()) {
-                                    peptideMapper.mapPeptides(peptideMap, processingPreferences.getnThreads(), waitingHandler);
-                                }
-                                if (peptideMapper.isCanceled()) {
-                                    peptideMap.clear();
+                        PsmImporter psmImporter = new PsmImporter(peptideShaker.getCache(), identificationParameters, processingPreferences, fileReader, idFile, identification,
+                                inputMap, proteinCount, singleProteinList, exceptionHandler);
+
+                        if (streamingBatchSize > 0 && numberOfMatches > streamingBatchSize) {
+
+                            // stream the matches through the peptide mapping and the import, the parsed list is emptied along the way
+                            waitingHandler.resetSecondaryProgressCounter();
+                            waitingHandler.setMaxSecondaryProgressCounter(numberOfMatches);
+                            waitingHandler.appendReport("Mapping and importing PSMs from " + idFile.getName() + " in batches of " + streamingBatchSize + " spectra.", true, true);
+
+                            while (!idFileSpectrumMatches.isEmpty()) {
+                                LinkedList<SpectrumMatch> batch = new LinkedList<SpectrumMatch>();
+                                while (batch.size() < streamingBatchSize && !idFileSpectrumMatches.isEmpty()) {
+                                    batch.add(idFileSpectrumMatches.pollFirst());
                                 }
-                            } catch (OutOfMemoryError e) {
-                                // Skip batch mapping and empty caches
-                                SequenceMatchingPreferences sequenceMatchingPreferences = identificationParameters.getSequenceMatchingPreferences();
-                                if (sequenceMatchingPreferences.getPeptideMapperType() == PeptideMapperType.tree) {
-                                    ProteinTreeComponentsFactory.getInstance().getCache().reduceMemoryConsumption(1, null);
-                                    sequenceFactory.getDefaultPeptideMapper().emptyCache();
+                                mapPeptides(fileReader, batch, numberOfMatches, false);
+                                psmImporter.importPsms(batch, processingPreferences.getnThreads(), waitingHandler);
+                                if (waitingHandler.isRunCanceled()) {
+                                    return;
                                 }
-                                peptideMapper.setCanceled(true);
-                            }
-                        }
-                        // empty protein caches
-                        if (MemoryConsumptionStatus.memoryUsed() > 0.8) {
-                            SequenceMatchingPreferences sequenceMatchingPreferences = identificationParameters.getSequenceMatchingPreferences();
-                            if (sequenceMatchingPreferences.getPeptideMapperType() == PeptideMapperType.tree) {
-                                ProteinTreeComponentsFactory.getInstance().getCache().reduceMemoryConsumption(1, null);
-                                sequenceFactory.emptyCache();
                             }
-                        }
 
-                        waitingHandler.setMaxSecondaryProgressCounter(numberOfMatches);
-                        waitingHandler.appendReport("Importing PSMs from " + idFile.getName(), true, true);
+                        } else {
 
-                        PsmImporter psmImporter = new PsmImporter(peptideShaker.getCache(), identificationParameters, processingPreferences, fileReader, idFile, identification,
-                                inputMap, proteinCount, singleProteinList, exceptionHandler);
-                        psmImporter.importPsms(idFileSpectrumMatches, processingPreferences.getnThreads(), waitingHandler);
+                            mapPeptides(fileReader, idFileSpectrumMatches, numberOfMatches, true);
+
+                            waitingHandler.setMaxSecondaryProgressCounter(numberOfMatches);
+                            waitingHandler.appendReport("Importing PSMs from " + idFile.getName(), true, true);
+
+                            psmImporter.importPsms(idFileSpectrumMatches, processingPreferences.getnThreads(), waitingHandler);
+                        }
 
                         if (waitingHandler.isRunCanceled()) {
                             return;
                         }
 
+                        waitingHandler.appendReport(psmImporter.getnImported() + " spectra imported from " + idFile.getName() + " in " + psmImporter.getImportTime() / 1000 + " s ("
+                                + Util.roundDouble(psmImporter.getImportThroughput(), 1) + " PSMs/s, "
+                                + Util.roundDouble(psmImporter.getThreadThroughput(), 1) + " PSMs/s per thread, "
+                                + psmImporter.getQueueWaitingTime() / 1000 + " s waiting for the import threads).", true, true);
+
                         nPSMs += psmImporter.getnPSMs();
                         nSecondary += psmImporter.getnSecondary();
                         nRetained += psmImporter.getnRetained();
@@ -934,6 +1072,120 @@ public class FileImporter {
             waitingHandler.increasePrimaryProgressCounter();
         }
 
+        /**
+         * Waits for the parsing of an identification file and returns the
+         * result.
+         *
+         * @param parsingResult the future result of the parsing
+         *
+         * @return the parsed identification file
+         *
+         * @throws Exception exception thrown whenever an error occurred while
+         * parsing the file
+         */
+        private ParsedIdFile getParsedIdFile(Future<ParsedIdFile> parsingResult) throws Exception {
+            try {
+                return parsingResult.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof Exception) {
+                    throw (Exception) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw e;
+            }
+        }
+
+        /**
+         * Private callable parsing an identification file.
+         */
+        private class IdFileParser implements Callable<ParsedIdFile> {
+
+            /**
+             * The identification file to parse.
+             */
+            private File idFile;
+
+            /**
+             * Constructor.
+             *
+             * @param idFile the identification file to parse
+             */
+            public IdFileParser(File idFile) {
+                this.idFile = idFile;
+            }
+
+            @Override
+            public ParsedIdFile call() throws Exception {
+                if (waitingHandler.isRunCanceled()) {
+                    return new ParsedIdFile(idFile, null, null, null);
+                }
+                return parseIdFile(idFile, null);
+            }
+        }
+
+        /**
+         * Batch maps the peptides of the given spectrum matches to the protein
+         * sequences and empties the protein caches if memory gets short.
+         *
+         * @param fileReader the reader of the identification file
+         * @param spectrumMatches the spectrum matches to map
+         * @param numberOfMatches the number of matches in the identification
+         * file
+         * @param displayProgress boolean indicating whether the progress
+         * should be displayed, false when mapping a batch of a larger file
+         *
+         * @throws SQLException exception thrown whenever an error occurred
+         * while interacting with the database
+         * @throws IOException exception thrown whenever an error occurred while
+         * reading or writing a file
+         * @throws ClassNotFoundException exception thrown whenever an error
+         * occurred while deserializing an object
+         * @throws InterruptedException exception thrown whenever a threading
+         * issue occurred while mapping the peptides
+         */
+        private void mapPeptides(IdfileReader fileReader, LinkedList<SpectrumMatch> spectrumMatches, int numberOfMatches, boolean displayProgress)
+                throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+
+            // Batch map the peptides on protein sequences
+            if (peptideMapper != null && !peptideMapper.isCanceled()) {
+                try {
+                    // Get map of peptides likely to need protein mapping
+                    WaitingHandler mappingWaitingHandler = null;
+                    if (displayProgress) {
+                        waitingHandler.resetSecondaryProgressCounter();
+                        waitingHandler.setMaxSecondaryProgressCounter(numberOfMatches);
+                        waitingHandler.appendReport("Collecting peptides to map.", true, true);
+                        mappingWaitingHandler = waitingHandler;
+                    }
+                    HashMap<String, LinkedList<Peptide>> peptideMap = PeptideMapper.getPeptideMap(fileReader, spectrumMatches, identification, identificationParameters, mappingWaitingHandler);
+                    if (!peptideMapper.isCanceled()) {
+                        peptideMapper.mapPeptides(peptideMap, processingPreferences.getnThreads(), waitingHandler, displayProgress);
+                    }
+                    if (peptideMapper.isCanceled()) {
+                        peptideMap.clear();
+                    }
+                } catch (OutOfMemoryError e) {
+                    // Skip batch mapping and empty caches
+                    SequenceMatchingPreferences sequenceMatchingPreferences = identificationParameters.getSequenceMatchingPreferences();
+                    if (sequenceMatchingPreferences.getPeptideMapperType() == PeptideMapperType.tree) {
+                        ProteinTreeComponentsFactory.getInstance().getCache().reduceMemoryConsumption(1, null);
+                        sequenceFactory.getDefaultPeptideMapper().emptyCache();
+                    }
+                    peptideMapper.setCanceled(true);
+                }
+            }
+            // empty protein caches
+            if (MemoryConsumptionStatus.memoryUsed() > 0.8) {
+                SequenceMatchingPreferences sequenceMatchingPreferences = identificationParameters.getSequenceMatchingPreferences();
+                if (sequenceMatchingPreferences.getPeptideMapperType() == PeptideMapperType.tree) {
+                    ProteinTreeComponentsFactory.getInstance().getCache().reduceMemoryConsumption(1, null);
+                    sequenceFactory.emptyCache();
+                }
+            }
+        }
+
         /**
          * Checks whether the spectrum file needed for the given spectrum match
          * is loaded and if the spectrum is present. Try to load it from the
@@ -1044,6 +1296,124 @@ public class FileImporter {
         }
     }
 
+    /**
+     * Returns the maximal number of identification files parsed in parallel.
+     *
+     * @return the maximal number of identification files parsed in parallel
+     */
+    public int getnParallelIdFiles() {
+        return nParallelIdFiles;
+    }
+
+    /**
+     * Sets the maximal number of identification files parsed in parallel. 1
+     * to parse the files one after the other.
+     *
+     * @param nParallelIdFiles the maximal number of identification files
+     * parsed in parallel
+     */
+    public void setnParallelIdFiles(int nParallelIdFiles) {
+        this.nParallelIdFiles = nParallelIdFiles;
+    }
+
+    /**
+     * Returns the number of spectrum matches mapped and imported at once.
+     *
+     * @return the number of spectrum matches mapped and imported at once
+     */
+    public int getStreamingBatchSize() {
+        return streamingBatchSize;
+    }
+
+    /**
+     * Sets the number of spectrum matches mapped and imported at once. 0 or
+     * less to process all matches of a file at once.
+     *
+     * @param streamingBatchSize the number of spectrum matches mapped and
+     * imported at once
+     */
+    public void setStreamingBatchSize(int streamingBatchSize) {
+        this.streamingBatchSize = streamingBatchSize;
+    }
+
+    /**
+     * The spectrum matches parsed from an identification file.
+     */
+    private static class ParsedIdFile {
+
+        /**
+         * The identification file.
+         */
+        private File idFile;
+        /**
+         * The reader used to parse the file, null if the format was not
+         * recognized.
+         */
+        private IdfileReader fileReader;
+        /**
+         * The spectrum matches, null if an error occurred while parsing.
+         */
+        private LinkedList<SpectrumMatch> spectrumMatches;
+        /**
+         * The error message to report, null if no error occurred while
+         * parsing.
+         */
+        private String parsingError;
+
+        /**
+         * Constructor.
+         *
+         * @param idFile the identification file
+         * @param fileReader the reader used to parse the file
+         * @param spectrumMatches the spectrum matches
+         * @param parsingError the error message to report, null if no error
+         * occurred while parsing
+         */
+        public ParsedIdFile(File idFile, IdfileReader fileReader, LinkedList<SpectrumMatch> spectrumMatches, String parsingError) {
+            this.idFile = idFile;
+            this.fileReader = fileReader;
+            this.spectrumMatches = spectrumMatches;
+            this.parsingError = parsingError;
+        }
+
+        /**
+         * Returns the identification file.
+         *
+         * @return the identification file
+         */
+        public File getIdFile() {
+            return idFile;
+        }
+
+        /**
+         * Returns the reader used to parse the file.
+         *
+         * @return the reader used to parse the file
+         */
+        public IdfileReader getFileReader() {
+            return fileReader;
+        }
+
+        /**
+         * Returns the spectrum matches.
+         *
+         * @return the spectrum matches
+         */
+        public LinkedList<SpectrumMatch> getSpectrumMatches() {
+            return spectrumMatches;
+        }
+
+        /**
+         * Returns the error message to report, null if no error occurred while
+         * parsing.
+         *
+         * @return the error message to report
+         */
+        public String getParsingError() {
+            return parsingError;
+        }
+    }
+
     /**
      * Returns the path to the jar file.
      *
@@ -54,9 +54,11 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException;
 import static eu.isas.peptideshaker.fileimport.FileImporter.PTM_MASS_TOLERANCE;
 
@@ -86,7 +88,7 @@ public class PsmImporter {
     /**
      * Indicates whether the check for X!Tandem modifications was done.
      */
-    private boolean xTandemPtmsCheck = false;
+    private volatile boolean xTandemPtmsCheck = false;
     /**
      * The number of first hits.
      */
@@ -102,7 +104,7 @@ public class PsmImporter {
     /**
      * The progress of the import.
      */
-    private int progress = 0;
+    private AtomicInteger progress = new AtomicInteger(0);
     /**
      * The number of PSMs which did not pass the import filters.
      */
@@ -193,6 +195,38 @@ public class PsmImporter {
      * The identification parameters.
      */
     private IdentificationParameters identificationParameters;
+    /**
+     * The number of spectrum matches handed to an import thread at once.
+     */
+    public static final int BATCH_SIZE = 100;
+    /**
+     * The number of batches which can be waiting for import per thread. When
+     * the queue is full, the batching waits for the import threads.
+     */
+    public static final int QUEUED_BATCHES_PER_THREAD = 4;
+    /**
+     * Empty batch indicating to the import threads that no more batches will
+     * be queued.
+     */
+    private static final ArrayList<SpectrumMatch> END_OF_QUEUE = new ArrayList<SpectrumMatch>(0);
+    /**
+     * The number of spectrum matches handed to the import.
+     */
+    private long nImported = 0;
+    /**
+     * The wall time spent importing spectrum matches in nanoseconds.
+     */
+    private long importTime = 0;
+    /**
+     * The time spent by the import threads on spectrum matches in
+     * nanoseconds, summed over the threads.
+     */
+    private long workerTime = 0;
+    /**
+     * The time spent waiting for the import threads to free space in the
+     * queue in nanoseconds.
+     */
+    private long queueWaitingTime = 0;
 
     /**
      * Constructor.
@@ -276,20 +310,78 @@ public class PsmImporter {
     public void importPsmsMultipleThreads(LinkedList<SpectrumMatch> idFileSpectrumMatches, int nThreads, WaitingHandler waitingHandler)
             throws IOException, SQLException, InterruptedException, ClassNotFoundException, MzMLUnmarshallerException {
 
+        long start = System.nanoTime();
+        int nMatches = idFileSpectrumMatches.size();
+
+        ArrayBlockingQueue<ArrayList<SpectrumMatch>> batchQueue = new ArrayBlockingQueue<ArrayList<SpectrumMatch>>(QUEUED_BATCHES_PER_THREAD * nThreads);
         ExecutorService pool = Executors.newFixedThreadPool(nThreads);
-        while (!idFileSpectrumMatches.isEmpty()) {
-            SpectrumMatch match = idFileSpectrumMatches.pollLast();
-            PsmImporterRunnable psmImporterRunnable = new PsmImporterRunnable(match, waitingHandler);
+        ArrayList<PsmImporterRunnable> runnables = new ArrayList<PsmImporterRunnable>(nThreads);
+        for (int i = 1; i <= nThreads; i++) {
+            PsmImporterRunnable psmImporterRunnable = new PsmImporterRunnable(batchQueue, waitingHandler);
             pool.submit(psmImporterRunnable);
-            if (waitingHandler.isRunCanceled()) {
+            runnables.add(psmImporterRunnable);
+        }
+
+        ArrayList<SpectrumMatch> batch = new ArrayList<SpectrumMatch>(BATCH_SIZE);
+        while (!idFileSpectrumMatches.isEmpty()) {
+            batch.add(idFileSpectrumMatches.pollLast());
+            if (batch.size() == BATCH_SIZE) {
+                if (!queueBatch(batchQueue, batch, waitingHandler)) {
+                    pool.shutdownNow();
+                    return;
+                }
+                batch = new ArrayList<SpectrumMatch>(BATCH_SIZE);
+            }
+        }
+        if (!batch.isEmpty() && !queueBatch(batchQueue, batch, waitingHandler)) {
+            pool.shutdownNow();
+            return;
+        }
+        for (int i = 1; i <= nThreads; i++) {
+            if (!queueBatch(batchQueue, END_OF_QUEUE, waitingHandler)) {
                 pool.shutdownNow();
                 return;
             }
         }
+
         pool.shutdown();
         if (!pool.awaitTermination(1, TimeUnit.DAYS)) {
             throw new InterruptedException("PSM import timed out. Please contact the developers.");
         }
+
+        importTime += System.nanoTime() - start;
+        nImported += nMatches;
+        for (PsmImporterRunnable psmImporterRunnable : runnables) {
+            workerTime += psmImporterRunnable.getBusyTime();
+        }
+    }
+
+    /**
+     * Adds a batch of spectrum matches to the queue, waiting for space to
+     * become available if the import threads are lagging behind.
+     *
+     * @param batchQueue the queue of batches to import
+     * @param batch the batch to add
+     * @param waitingHandler waiting handler to display progress and allow
+     * canceling the import
+     *
+     * @return false if the import was canceled while waiting
+     *
+     * @throws InterruptedException exception thrown whenever the thread was
+     * interrupted while waiting
+     */
+    private boolean queueBatch(ArrayBlockingQueue<ArrayList<SpectrumMatch>> batchQueue, ArrayList<SpectrumMatch> batch, WaitingHandler waitingHandler) throws InterruptedException {
+        long start = System.nanoTime();
+        try {
+            while (!batchQueue.offer(batch, 1, TimeUnit.SECONDS)) {
+                if (waitingHandler.isRunCanceled()) {
+                    return false;
+                }
+            }
+            return !waitingHandler.isRunCanceled();
+        } finally {
+            queueWaitingTime += System.nanoTime() - start;
+        }
     }
 
     /**
@@ -313,11 +405,19 @@ public class PsmImporter {
     private void importPsmsSingleThread(LinkedList<SpectrumMatch> idFileSpectrumMatches, WaitingHandler waitingHandler)
             throws IOException, SQLException, InterruptedException, ClassNotFoundException, MzMLUnmarshallerException {
 
+        long start = System.nanoTime();
+        int nMatches = idFileSpectrumMatches.size();
         PeptideSpectrumAnnotator peptideSpectrumAnnotator = new PeptideSpectrumAnnotator();
+        ImportStatistics importStatistics = new ImportStatistics();
         while (!idFileSpectrumMatches.isEmpty()) {
             SpectrumMatch match = idFileSpectrumMatches.pollLast();
-            importPsm(match, peptideSpectrumAnnotator, waitingHandler);
+            importPsm(match, peptideSpectrumAnnotator, importStatistics, waitingHandler);
+            mergeStatistics(importStatistics);
         }
+        long duration = System.nanoTime() - start;
+        importTime += duration;
+        workerTime += duration;
+        nImported += nMatches;
     }
 
     /**
@@ -326,6 +426,8 @@ public class PsmImporter {
      * @param spectrumMatch the spectrum match to import
      * @param peptideSpectrumAnnotator the spectrum annotator to use to annotate
      * spectra
+     * @param importStatistics the statistics of the thread importing the
+     * match
      * @param waitingHandler waiting handler to display progress and allow
      * canceling the import
      *
@@ -340,7 +442,7 @@ public class PsmImporter {
      * @throws MzMLUnmarshallerException exception thrown whenever an exception
      * occurred while reading an mzML file
      */
-    private void importPsm(SpectrumMatch spectrumMatch, PeptideSpectrumAnnotator peptideSpectrumAnnotator, WaitingHandler waitingHandler)
+    private void importPsm(SpectrumMatch spectrumMatch, PeptideSpectrumAnnotator peptideSpectrumAnnotator, ImportStatistics importStatistics, WaitingHandler waitingHandler)
             throws IOException, SQLException, InterruptedException, ClassNotFoundException, MzMLUnmarshallerException {
 
         // free memory if needed
@@ -359,7 +461,7 @@ public class PsmImporter {
             }
         }
 
-        nPSMs++;
+        importStatistics.nPSMs++;
 
         String spectrumKey = spectrumMatch.getKey();
 
@@ -378,19 +480,19 @@ public class PsmImporter {
             getAssumptions(rawDbAssumptions, combinedAssumptions);
             spectrumMatch.removeAssumptions();
             identification.removeRawAssumptions(spectrumKey);
-            importAssumptions(spectrumMatch, combinedAssumptions, peptideSpectrumAnnotator, waitingHandler);
+            importAssumptions(spectrumMatch, combinedAssumptions, peptideSpectrumAnnotator, importStatistics, waitingHandler);
         } else if (matchAssumptions != null) {
             spectrumMatch.removeAssumptions();
-            importAssumptions(spectrumMatch, matchAssumptions, peptideSpectrumAnnotator, waitingHandler);
+            importAssumptions(spectrumMatch, matchAssumptions, peptideSpectrumAnnotator, importStatistics, waitingHandler);
         } else if (rawDbAssumptions != null) {
             identification.removeRawAssumptions(spectrumKey);
-            importAssumptions(spectrumMatch, rawDbAssumptions, peptideSpectrumAnnotator, waitingHandler);
+            importAssumptions(spectrumMatch, rawDbAssumptions, peptideSpectrumAnnotator, importStatistics, waitingHandler);
         }
 
         if (waitingHandler.isRunCanceled()) {
             return;
         }
-        waitingHandler.setSecondaryProgressCounter(++progress);
+        waitingHandler.setSecondaryProgressCounter(progress.incrementAndGet());
     }
 
     /**
@@ -429,6 +531,8 @@ public class PsmImporter {
      * @param assumptions the assumptions to import
      * @param peptideSpectrumAnnotator the spectrum annotator to use to annotate
      * spectra
+     * @param importStatistics the statistics of the thread importing the
+     * match
      * @param waitingHandler waiting handler to display progress and allow
      * canceling the import
      *
@@ -443,7 +547,8 @@ public class PsmImporter {
      * @throws MzMLUnmarshallerException exception thrown whenever an exception
      * occurred while reading an mzML file
      */
-    private void importAssumptions(SpectrumMatch spectrumMatch, HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptions, PeptideSpectrumAnnotator peptideSpectrumAnnotator, WaitingHandler waitingHandler)
+    private void importAssumptions(SpectrumMatch spectrumMatch, HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptions, PeptideSpectrumAnnotator peptideSpectrumAnnotator,
+            ImportStatistics importStatistics, WaitingHandler waitingHandler)
             throws IOException, SQLException, InterruptedException, ClassNotFoundException, MzMLUnmarshallerException {
 
         PeptideAssumptionFilter peptideAssumptionFilter = identificationParameters.getPeptideAssumptionFilter();
@@ -457,7 +562,7 @@ public class PsmImporter {
 
         for (HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> assumptionsForAdvocate : assumptions.values()) {
             for (ArrayList<SpectrumIdentificationAssumption> assumptionsAtScore : assumptionsForAdvocate.values()) {
-                nSecondary += assumptionsAtScore.size();
+                importStatistics.nSecondary += assumptionsAtScore.size();
             }
         }
 
@@ -500,7 +605,7 @@ public class PsmImporter {
                                 if (peptideAssumptionFilter.removeUnknownPTMs()) {
                                     // Exclude peptides with aberrant PTM mapping
                                     System.out.println(e.getMessage());
-                                    ptmIssue++;
+                                    importStatistics.ptmIssue++;
                                     fixedPtmIssue = true;
                                 } else {
                                     throw e;
@@ -615,7 +720,7 @@ public class PsmImporter {
                                 newAssumptions.add(assumption);
                             }
                         } else {
-                            peptideIssue++;
+                            importStatistics.peptideIssue++;
                         }
                     }
                 }
@@ -645,20 +750,20 @@ public class PsmImporter {
                             boolean filterPassed = true;
                             if (!peptideAssumptionFilter.validatePeptide(peptide, sequenceMatchingPreferences, searchParameters.getDigestionPreferences())) {
                                 filterPassed = false;
-                                peptideIssue++;
+                                importStatistics.peptideIssue++;
                             } else if (!peptideAssumptionFilter.validateModifications(peptide, sequenceMatchingPreferences, ptmSequenceMatchingPreferences, searchParameters.getPtmSettings())) {
                                 filterPassed = false;
-                                ptmIssue++;
+                                importStatistics.ptmIssue++;
                             } else if (!peptideAssumptionFilter.validatePrecursor(peptideAssumption, spectrumKey, spectrumFactory, searchParameters)) {
                                 filterPassed = false;
-                                precursorIssue++;
+                                importStatistics.precursorIssue++;
                             } else if (!peptideAssumptionFilter.validateProteins(peptide, sequenceMatchingPreferences)) {
                                 filterPassed = false;
-                                proteinIssue++;
+                                importStatistics.proteinIssue++;
                             } else {
                                 ArrayList<String> accessions = peptide.getParentProteins(sequenceMatchingPreferences);
                                 if (accessions == null || accessions.isEmpty()) {
-                                    missingProteins++;
+                                    importStatistics.missingProteins++;
                                     filterPassed = false;
                                     if (firstPeptideHitNoProtein != null) {
                                         firstHitsNoProteins.add(peptideAssumption);
@@ -676,7 +781,7 @@ public class PsmImporter {
                     }
                     if (firstPeptideHit != null) {
                         inputMap.addEntry(advocateId, spectrumFileName, firstPeptideHit.getScore(), firstPeptideHit.getPeptide().isDecoy(sequenceMatchingPreferences));
-                        nRetained++;
+                        importStatistics.nRetained++;
                         break;
                     } else if (!firstHitsNoProteins.isEmpty()) {
                         // See if a peptide without protein can be a best match
@@ -684,7 +789,7 @@ public class PsmImporter {
                     }
                 }
                 if (firstPeptideHit != null) {
-                    checkPeptidesMassErrorsAndCharges(spectrumKey, firstPeptideHit);
+                    checkPeptidesMassErrorsAndCharges(spectrumKey, firstPeptideHit, importStatistics);
                     HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> previousAssumptions = identification.getAssumptions(spectrumKey);
                     identification.addAssumptions(spectrumKey, assumptions, previousAssumptions == null);
                     identification.addSpectrumMatch(spectrumMatch);
@@ -692,7 +797,7 @@ public class PsmImporter {
                 if (firstPeptideHit == null) {
                     // Check if a peptide with no protein can be a good candidate
                     if (firstPeptideHitNoProtein != null) {
-                        checkPeptidesMassErrorsAndCharges(spectrumKey, firstPeptideHitNoProtein);
+                        checkPeptidesMassErrorsAndCharges(spectrumKey, firstPeptideHitNoProtein, importStatistics);
                         HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> previousAssumptions = identification.getAssumptions(spectrumKey);
                         identification.addAssumptions(spectrumKey, assumptions, previousAssumptions == null);
                         identification.addSpectrumMatch(spectrumMatch);
@@ -705,7 +810,7 @@ public class PsmImporter {
                                 if (assumption instanceof TagAssumption) {
                                     TagAssumption tagAssumption = (TagAssumption) assumption;
                                     firstTagHit = tagAssumption;
-                                    checkTagMassErrorsAndCharge(spectrumKey, tagAssumption);
+                                    checkTagMassErrorsAndCharge(spectrumKey, tagAssumption, importStatistics);
                                     HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> previousAssumptions = identification.getAssumptions(spectrumKey);
                                     identification.addAssumptions(spectrumKey, assumptions, previousAssumptions == null);
                                     identification.addSpectrumMatch(spectrumMatch);
@@ -719,7 +824,7 @@ public class PsmImporter {
                     }
                 }
                 if (firstPeptideHit == null && firstPeptideHitNoProtein == null && firstTagHit == null) {
-                    psmsRejected++;
+                    importStatistics.psmsRejected++;
                 }
             }
         }
@@ -1123,10 +1228,12 @@ public class PsmImporter {
     }
 
     /**
-     * Saves the peptide maximal mass error and found charge.
+     * Saves the peptide maximal mass error, found charge and protein
+     * occurrences in the statistics of the importing thread.
      *
      * @param spectrumKey the key of the spectrum match
      * @param peptideAssumption the peptide assumption
+     * @param importStatistics the statistics of the importing thread
      *
      * @throws IOException exception thrown whenever an IO exception occurred
      * while reading or writing to a file
@@ -1139,7 +1246,7 @@ public class PsmImporter {
      * @throws MzMLUnmarshallerException exception thrown whenever an exception
      * occurred while reading an mzML file
      */
-    private synchronized void checkPeptidesMassErrorsAndCharges(String spectrumKey, PeptideAssumption peptideAssumption)
+    private void checkPeptidesMassErrorsAndCharges(String spectrumKey, PeptideAssumption peptideAssumption, ImportStatistics importStatistics)
             throws IOException, InterruptedException, SQLException, ClassNotFoundException, MzMLUnmarshallerException {
 
         SearchParameters searchParameters = identificationParameters.getSearchParameters();
@@ -1147,44 +1254,36 @@ public class PsmImporter {
         double precursorMz = spectrumFactory.getPrecursorMz(spectrumKey);
         double error = Math.abs(peptideAssumption.getDeltaMass(precursorMz, true, searchParameters.getMinIsotopicCorrection(), searchParameters.getMaxIsotopicCorrection()));
 
-        if (error > maxPeptideErrorPpm) {
-            maxPeptideErrorPpm = error;
+        if (error > importStatistics.maxPeptideErrorPpm) {
+            importStatistics.maxPeptideErrorPpm = error;
         }
 
         error = Math.abs(peptideAssumption.getDeltaMass(precursorMz, false, searchParameters.getMinIsotopicCorrection(), searchParameters.getMaxIsotopicCorrection()));
 
-        if (error > maxPeptideErrorDa) {
-            maxPeptideErrorDa = error;
+        if (error > importStatistics.maxPeptideErrorDa) {
+            importStatistics.maxPeptideErrorDa = error;
         }
 
-        int currentCharge = peptideAssumption.getIdentificationCharge().value;
-
-        if (!charges.contains(currentCharge)) {
-            charges.add(currentCharge);
-        }
+        importStatistics.charges.add(peptideAssumption.getIdentificationCharge().value);
 
         ArrayList<String> accessions = peptideAssumption.getPeptide().getParentProteins(identificationParameters.getSequenceMatchingPreferences());
         for (String protein : accessions) {
-            Integer count = proteinCount.get(protein);
-            if (count != null) {
-                proteinCount.put(protein, count + 1);
+            Integer count = importStatistics.proteinOccurrences.get(protein);
+            if (count == null) {
+                importStatistics.proteinOccurrences.put(protein, 1);
             } else {
-                boolean oneHitWonder = singleProteinList.contains(protein);
-                if (oneHitWonder) {
-                    singleProteinList.remove(protein);
-                    proteinCount.put(protein, 2);
-                } else {
-                    singleProteinList.add(protein);
-                }
+                importStatistics.proteinOccurrences.put(protein, count + 1);
             }
         }
     }
 
     /**
-     * Saves the maximal precursor error and charge.
+     * Saves the maximal precursor error and charge in the statistics of the
+     * importing thread.
      *
      * @param spectrumKey the key of the spectrum match
      * @param tagAssumption the tag assumption
+     * @param importStatistics the statistics of the importing thread
      *
      * @throws IOException exception thrown whenever an IO exception occurred
      * while reading or writing to a file
@@ -1192,58 +1291,100 @@ public class PsmImporter {
      * occurred while reading an mzML file
      * @throws InterruptedException exception thrown if a thread is interrupted
      */
-    private synchronized void checkTagMassErrorsAndCharge(String spectrumKey, TagAssumption tagAssumption) throws MzMLUnmarshallerException, IOException, InterruptedException {
+    private void checkTagMassErrorsAndCharge(String spectrumKey, TagAssumption tagAssumption, ImportStatistics importStatistics) throws MzMLUnmarshallerException, IOException, InterruptedException {
 
         SearchParameters searchParameters = identificationParameters.getSearchParameters();
 
         double precursorMz = spectrumFactory.getPrecursorMz(spectrumKey);
         double error = Math.abs(tagAssumption.getDeltaMass(precursorMz, true, searchParameters.getMinIsotopicCorrection(), searchParameters.getMaxIsotopicCorrection()));
 
-        if (error > maxTagErrorPpm) {
-            maxTagErrorPpm = error;
+        if (error > importStatistics.maxTagErrorPpm) {
+            importStatistics.maxTagErrorPpm = error;
         }
 
         error = Math.abs(tagAssumption.getDeltaMass(precursorMz, false, searchParameters.getMinIsotopicCorrection(), searchParameters.getMaxIsotopicCorrection()));
 
-        if (error > maxTagErrorDa) {
-            maxTagErrorDa = error;
+        if (error > importStatistics.maxTagErrorDa) {
+            importStatistics.maxTagErrorDa = error;
         }
 
-        int currentCharge = tagAssumption.getIdentificationCharge().value;
+        importStatistics.charges.add(tagAssumption.getIdentificationCharge().value);
+    }
 
-        if (!charges.contains(currentCharge)) {
-            charges.add(currentCharge);
+    /**
+     * Adds the statistics gathered by an import thread to the statistics of
+     * the importer and resets them. The protein occurrences are added to the
+     * protein count and one hit wonders of the project.
+     *
+     * @param importStatistics the statistics of the importing thread
+     */
+    private synchronized void mergeStatistics(ImportStatistics importStatistics) {
+
+        nPSMs += importStatistics.nPSMs;
+        nSecondary += importStatistics.nSecondary;
+        psmsRejected += importStatistics.psmsRejected;
+        proteinIssue += importStatistics.proteinIssue;
+        peptideIssue += importStatistics.peptideIssue;
+        precursorIssue += importStatistics.precursorIssue;
+        ptmIssue += importStatistics.ptmIssue;
+        nRetained += importStatistics.nRetained;
+        missingProteins += importStatistics.missingProteins;
+        maxPeptideErrorPpm = Math.max(maxPeptideErrorPpm, importStatistics.maxPeptideErrorPpm);
+        maxPeptideErrorDa = Math.max(maxPeptideErrorDa, importStatistics.maxPeptideErrorDa);
+        maxTagErrorPpm = Math.max(maxTagErrorPpm, importStatistics.maxTagErrorPpm);
+        maxTagErrorDa = Math.max(maxTagErrorDa, importStatistics.maxTagErrorDa);
+        charges.addAll(importStatistics.charges);
+
+        for (String protein : importStatistics.proteinOccurrences.keySet()) {
+            int occurrences = importStatistics.proteinOccurrences.get(protein);
+            Integer count = proteinCount.get(protein);
+            if (count != null) {
+                proteinCount.put(protein, count + occurrences);
+            } else if (singleProteinList.contains(protein)) {
+                singleProteinList.remove(protein);
+                proteinCount.put(protein, occurrences + 1);
+            } else if (occurrences == 1) {
+                singleProteinList.add(protein);
+            } else {
+                proteinCount.put(protein, occurrences);
+            }
         }
+
+        importStatistics.clear();
     }
 
     /**
      * Verifies that the modifications targeted by the quick acetyl and quick
      * pyrolidone are included in the search parameters.
      */
-    private synchronized void verifyXTandemPtms() {
+    private void verifyXTandemPtms() {
         if (!xTandemPtmsCheck) {
-            SearchParameters searchParameters = identificationParameters.getSearchParameters();
-            PtmSettings modificationProfile = searchParameters.getPtmSettings();
-            IdentificationAlgorithmParameter algorithmParameter = searchParameters.getIdentificationAlgorithmParameter(Advocate.xtandem.getIndex());
-            if (algorithmParameter != null) {
-                XtandemParameters xtandemParameters = (XtandemParameters) algorithmParameter;
-                if (xtandemParameters.isProteinQuickAcetyl() && !modificationProfile.contains("Acetylation of protein N-term")) {
-                    PTM ptm = PTMFactory.getInstance().getPTM("Acetylation of protein N-term");
-                    if (!modificationProfile.getRefinementVariableModifications().contains(ptm.getName())) {
-                        modificationProfile.addRefinementVariableModification(ptm);
-                    }
-                }
-                String[] pyroMods = {"Pyrolidone from E", "Pyrolidone from Q", "Pyrolidone from carbamidomethylated C"};
-                if (xtandemParameters.isQuickPyrolidone()) {
-                    for (String ptmName : pyroMods) {
-                        if (!modificationProfile.getRefinementVariableModifications().contains(ptmName)) {
-                            PTM ptm = PTMFactory.getInstance().getPTM(ptmName);
-                            modificationProfile.addRefinementVariableModification(ptm);
+            synchronized (this) {
+                if (!xTandemPtmsCheck) {
+                    SearchParameters searchParameters = identificationParameters.getSearchParameters();
+                    PtmSettings modificationProfile = searchParameters.getPtmSettings();
+                    IdentificationAlgorithmParameter algorithmParameter = searchParameters.getIdentificationAlgorithmParameter(Advocate.xtandem.getIndex());
+                    if (algorithmParameter != null) {
+                        XtandemParameters xtandemParameters = (XtandemParameters) algorithmParameter;
+                        if (xtandemParameters.isProteinQuickAcetyl() && !modificationProfile.contains("Acetylation of protein N-term")) {
+                            PTM ptm = PTMFactory.getInstance().getPTM("Acetylation of protein N-term");
+                            if (!modificationProfile.getRefinementVariableModifications().contains(ptm.getName())) {
+                                modificationProfile.addRefinementVariableModification(ptm);
+                            }
+                        }
+                        String[] pyroMods = {"Pyrolidone from E", "Pyrolidone from Q", "Pyrolidone from carbamidomethylated C"};
+                        if (xtandemParameters.isQuickPyrolidone()) {
+                            for (String ptmName : pyroMods) {
+                                if (!modificationProfile.getRefinementVariableModifications().contains(ptmName)) {
+                                    PTM ptm = PTMFactory.getInstance().getPTM(ptmName);
+                                    modificationProfile.addRefinementVariableModification(ptm);
+                                }
+                            }
                         }
                     }
+                    xTandemPtmsCheck = true;
                 }
             }
-            xTandemPtmsCheck = true;
         }
     }
 
@@ -1426,14 +1567,69 @@ public class PsmImporter {
     }
 
     /**
-     * Private runnable to import PSMs.
+     * Returns the number of spectrum matches handed to the import.
+     *
+     * @return the number of spectrum matches handed to the import
+     */
+    public long getnImported() {
+        return nImported;
+    }
+
+    /**
+     * Returns the wall time spent importing spectrum matches in milliseconds.
+     *
+     * @return the wall time spent importing spectrum matches in milliseconds
+     */
+    public long getImportTime() {
+        return importTime / 1000000;
+    }
+
+    /**
+     * Returns the time spent waiting for the import threads to free space in
+     * the queue in milliseconds.
+     *
+     * @return the time spent waiting for the import threads in milliseconds
+     */
+    public long getQueueWaitingTime() {
+        return queueWaitingTime / 1000000;
+    }
+
+    /**
+     * Returns the number of spectrum matches imported per second of wall
+     * time.
+     *
+     * @return the number of spectrum matches imported per second
+     */
+    public double getImportThroughput() {
+        if (importTime == 0) {
+            return 0;
+        }
+        return 1000000000.0 * nImported / importTime;
+    }
+
+    /**
+     * Returns the number of spectrum matches imported per second by a single
+     * import thread.
+     *
+     * @return the number of spectrum matches imported per second and per
+     * thread
+     */
+    public double getThreadThroughput() {
+        if (workerTime == 0) {
+            return 0;
+        }
+        return 1000000000.0 * nImported / workerTime;
+    }
+
+    /**
+     * Private runnable to import batches of PSMs taken from a queue.
      */
     private class PsmImporterRunnable implements Runnable {
 
         /**
-         * The spectrum match to import.
+         * The queue of batches to import.
          */
-        private SpectrumMatch spectrumMatch;
+        private ArrayBlockingQueue<ArrayList<SpectrumMatch>> batchQueue;
 
         /**
          * The waiting handler.
@@ -1446,15 +1642,25 @@ public class PsmImporter {
          */
         private PeptideSpectrumAnnotator peptideSpectrumAnnotator = new PeptideSpectrumAnnotator();
 
+        /**
+         * The statistics gathered by this thread.
+         */
+        private ImportStatistics importStatistics = new ImportStatistics();
+
+        /**
+         * The time spent importing matches in nanoseconds.
+         */
+        private long busyTime = 0;
+
         /**
          * Constructor.
          *
-         * @param spectrumMatch the match to import
+         * @param batchQueue the queue of batches to import
          * @param waitingHandler a waiting handler to display progress and allow
          * canceling the process
          */
-        public PsmImporterRunnable(SpectrumMatch spectrumMatch, WaitingHandler waitingHandler) {
-            this.spectrumMatch = spectrumMatch;
+        public PsmImporterRunnable(ArrayBlockingQueue<ArrayList<SpectrumMatch>> batchQueue, WaitingHandler waitingHandler) {
+            this.batchQueue = batchQueue;
             this.waitingHandler = waitingHandler;
         }
 
@@ -1462,15 +1668,126 @@ public class PsmImporter {
         public void run() {
 
             try {
-                if (!waitingHandler.isRunCanceled()) {
-                    importPsm(spectrumMatch, peptideSpectrumAnnotator, waitingHandler);
+                while (!waitingHandler.isRunCanceled()) {
+                    ArrayList<SpectrumMatch> batch = batchQueue.take();
+                    if (batch == END_OF_QUEUE) {
+                        break;
+                    }
+                    long start = System.nanoTime();
+                    for (SpectrumMatch spectrumMatch : batch) {
+                        if (waitingHandler.isRunCanceled()) {
+                            break;
+                        }
+                        importPsm(spectrumMatch, peptideSpectrumAnnotator, importStatistics, waitingHandler);
+                    }
+                    mergeStatistics(importStatistics);
+                    busyTime += System.nanoTime() - start;
                 }
-            } catch (Exception e) {
+            } catch (Throwable t) {
+                // errors are caught as well, otherwise the thread reading the file would wait forever for space in the queue
                 if (!waitingHandler.isRunCanceled()) {
-                    exceptionHandler.catchException(e);
-                    waitingHandler.setRunCanceled();
+                    exceptionHandler.catchException(t instanceof Exception ? (Exception) t : new Exception(t));
                 }
+                waitingHandler.setRunCanceled();
             }
         }
+
+        /**
+         * Returns the time spent importing matches in nanoseconds.
+         *
+         * @return the time spent importing matches in nanoseconds
+         */
+        public long getBusyTime() {
+            return busyTime;
+        }
+    }
+
+    /**
+     * Statistics gathered by an import thread without synchronization. They
+     * are added to the statistics of the importer after every batch.
+     */
+    private static class ImportStatistics {
+
+        /**
+         * The number of first hits.
+         */
+        private long nPSMs = 0;
+        /**
+         * The number of secondary hits.
+         */
+        private long nSecondary = 0;
+        /**
+         * The number of PSMs which did not pass the import filters.
+         */
+        private int psmsRejected = 0;
+        /**
+         * The number of PSMs which were rejected due to a protein issue.
+         */
+        private int proteinIssue = 0;
+        /**
+         * The number of PSMs which were rejected due to a peptide issue.
+         */
+        private int peptideIssue = 0;
+        /**
+         * The number of PSMs which were rejected due to a precursor issue.
+         */
+        private int precursorIssue = 0;
+        /**
+         * The number of PSMs which were rejected due to a PTM issue.
+         */
+        private int ptmIssue = 0;
+        /**
+         * The number of retained first hits.
+         */
+        private int nRetained = 0;
+        /**
+         * The number of PSMs where no protein was found.
+         */
+        private int missingProteins = 0;
+        /**
+         * The maximal peptide mass error found in ppm.
+         */
+        private double maxPeptideErrorPpm = 0;
+        /**
+         * The maximal peptide mass error found in Da.
+         */
+        private double maxPeptideErrorDa = 0;
+        /**
+         * The maximal tag mass error found in ppm.
+         */
+        private double maxTagErrorPpm = 0;
+        /**
+         * The maximal tag mass error found in Da.
+         */
+        private double maxTagErrorDa = 0;
+        /**
+         * List of charges found.
+         */
+        private HashSet<Integer> charges = new HashSet<Integer>();
+        /**
+         * The number of times every protein was found as first hit.
+         */
+        private HashMap<String, Integer> proteinOccurrences = new HashMap<String, Integer>();
+
+        /**
+         * Resets the statistics.
+         */
+        public void clear() {
+            nPSMs = 0;
+            nSecondary = 0;
+            psmsRejected = 0;
+            proteinIssue = 0;
+            peptideIssue = 0;
+            precursorIssue = 0;
+            ptmIssue = 0;
+            nRetained = 0;
+            missingProteins = 0;
+            maxPeptideErrorPpm = 0;
+            maxPeptideErrorDa = 0;
+            maxTagErrorPpm = 0;
+            maxTagErrorDa = 0;
+            charges.clear();
+            proteinOccurrences.clear();
+        }
     }
 }
@@ -105,6 +105,7 @@ import eu.isas.peptideshaker.gui.pride.PrideReshakeGUI;
 import eu.isas.peptideshaker.scoring.PSMaps;
 import eu.isas.peptideshaker.preferences.PeptideShakerPathPreferences;
 import eu.isas.peptideshaker.preferences.PeptideShakerPathPreferences.PeptideShakerPathKey;
+import eu.isas.peptideshaker.protein_inference.ProteinDescriptionIndex;
 import eu.isas.peptideshaker.ptm.PtmScorer;
 import eu.isas.peptideshaker.scoring.maps.PsmPTMMap;
 import eu.isas.peptideshaker.utils.CpsParent;
@@ -3254,6 +3255,11 @@ public class PeptideShakerGUI extends JFrame implements ClipboardOwner, JavaHome
                                     peptideShakerGUI.getIdentificationFeaturesGenerator(), peptideShakerGUI.getIdentificationParameters(),
                                     peptideShakerGUI.getSpectrumCountingPreferences(), peptideShakerGUI.getProcessingPreferences());
 
+                            // the index of the validation panel relies on the quality control filters
+                            if (statsPanel != null) {
+                                statsPanel.resetValidationIndex();
+                            }
+
                             progressDialog.setPrimaryProgressCounterIndeterminate(true);
 
                             if (!progressDialog.isRunCanceled()) {
@@ -4183,6 +4189,7 @@ public class PeptideShakerGUI extends JFrame implements ClipboardOwner, JavaHome
             e.printStackTrace();
             catchException(e);
         }
+        ProteinDescriptionIndex.clearInstance();
 
         if (clearDatabaseFolder) {
             clearDatabaseFolder();
@@ -2065,6 +2065,7 @@ public class OverviewPanel extends javax.swing.JPanel implements ProteinSequence
                             identification, peptideShakerGUI.getIdentificationFeaturesGenerator(), peptideShakerGUI.getGeneMaps(), pSMaps.getPsmSpecificMap(), psmKey,
                             peptideShakerGUI.getIdentificationParameters());
                     if (matchValidationDialog.isValidationChanged()) {
+                        peptideShakerGUI.getStatsPanel().resetValidationIndex();
                         updatePsmPanelTitle();
                         peptidesPanel.repaint();
                         proteinsLayeredPanel.repaint();
@@ -2174,6 +2175,7 @@ public class OverviewPanel extends javax.swing.JPanel implements ProteinSequence
                                 identification, peptideShakerGUI.getIdentificationFeaturesGenerator(), peptideShakerGUI.getGeneMaps(), pSMaps.getProteinMap(), proteinKey,
                                 peptideShakerGUI.getIdentificationParameters());
                         if (matchValidationDialog.isValidationChanged()) {
+                            peptideShakerGUI.getStatsPanel().resetValidationIndex();
                             updateProteinPanelTitle();
                         }
                     } catch (Exception e) {
@@ -2256,6 +2258,7 @@ public class OverviewPanel extends javax.swing.JPanel implements ProteinSequence
                             identification, peptideShakerGUI.getIdentificationFeaturesGenerator(), peptideShakerGUI.getGeneMaps(), pSMaps.getPeptideSpecificMap(), peptideKey,
                             peptideShakerGUI.getIdentificationParameters());
                     if (matchValidationDialog.isValidationChanged()) {
+                        peptideShakerGUI.getStatsPanel().resetValidationIndex();
                         updateProteinPanelTitle();
                         updatePeptidePanelTitle();
                     }
@@ -5113,7 +5116,7 @@ public class OverviewPanel extends javax.swing.JPanel implements ProteinSequence
                 try {
                     peptideShakerGUI.getIdentificationFeaturesGenerator().setProteinKeys(peptideShakerGUI.getMetrics().getProteinKeys());
                     try {
-                        proteinKeys = peptideShakerGUI.getIdentificationFeaturesGenerator().getProcessedProteinKeys(progressDialog, peptideShakerGUI.getFilterPreferences());
+                        proteinKeys = peptideShakerGUI.getIdentificationFeaturesGenerator().getProcessedProteinKeys(progressDialog, peptideShakerGUI.getFilterPreferences(), peptideShakerGUI.getProcessingPreferences().getnThreads());
                     } catch (Exception e) {
                         //Very bad news. Not totally sure how good an error at this point is handled
                         peptideShakerGUI.catchException(e);
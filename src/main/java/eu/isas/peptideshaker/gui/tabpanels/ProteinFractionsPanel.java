@@ -263,7 +263,7 @@ public class ProteinFractionsPanel extends javax.swing.JPanel implements Protein
             public void run() {
 
                 try {
-                    proteinKeys = peptideShakerGUI.getIdentificationFeaturesGenerator().getProcessedProteinKeys(progressDialog, peptideShakerGUI.getFilterPreferences());
+                    proteinKeys = peptideShakerGUI.getIdentificationFeaturesGenerator().getProcessedProteinKeys(progressDialog, peptideShakerGUI.getFilterPreferences(), peptideShakerGUI.getProcessingPreferences().getnThreads());
                 } catch (Exception e) {
                     // Now I'd be surprised that you reach this stage
                     peptideShakerGUI.catchException(e);
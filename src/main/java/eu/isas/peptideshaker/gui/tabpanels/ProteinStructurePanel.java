@@ -2739,7 +2739,7 @@ public class ProteinStructurePanel extends javax.swing.JPanel {
                     peptideShakerGUI.getIdentificationFeaturesGenerator().setProteinKeys(peptideShakerGUI.getMetrics().getProteinKeys());
 
                     try {
-                        proteinKeys = peptideShakerGUI.getIdentificationFeaturesGenerator().getProcessedProteinKeys(progressDialog, peptideShakerGUI.getFilterPreferences());
+                        proteinKeys = peptideShakerGUI.getIdentificationFeaturesGenerator().getProcessedProteinKeys(progressDialog, peptideShakerGUI.getFilterPreferences(), peptideShakerGUI.getProcessingPreferences().getnThreads());
                     } catch (Exception e) {
                         // Now I'd be surprised that you reach this stage
                         peptideShakerGUI.catchException(e);
@@ -15,6 +15,7 @@ import eu.isas.peptideshaker.gui.PeptideShakerGUI;
 import eu.isas.peptideshaker.scoring.PSMaps;
 import eu.isas.peptideshaker.scoring.maps.PsmSpecificMap;
 import eu.isas.peptideshaker.validation.MatchesValidator;
+import eu.isas.peptideshaker.validation.ValidationIndex;
 import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Font;
@@ -135,6 +136,11 @@ public class ValidationPanel extends javax.swing.JPanel {
      * Map keeping track of probabilities modifications.
      */
     private HashMap<Integer, Boolean> modifiedMaps = new HashMap<Integer, Boolean>();
+    /**
+     * The index of the matches used to re-validate only the matches affected
+     * by a threshold change, null if not built or outdated.
+     */
+    private ValidationIndex validationIndex = null;
     /**
      * The score log axis.
      */
@@ -1367,6 +1373,9 @@ public class ValidationPanel extends javax.swing.JPanel {
             applyButton.setEnabled(false);
             pepWindowApplied = true;
 
+            // the probabilities of the matches changed
+            validationIndex = null;
+
             this.setCursor(new java.awt.Cursor(java.awt.Cursor.DEFAULT_CURSOR));
         }
     }//GEN-LAST:event_applyButtonActionPerformed
@@ -1499,8 +1508,13 @@ public class ValidationPanel extends javax.swing.JPanel {
                         PSMaps pSMaps = new PSMaps();
                         pSMaps = (PSMaps) peptideShakerGUI.getIdentification().getUrParam(pSMaps);
 
+                        if (validationIndex == null || !validationIndex.isIndexing(peptideShakerGUI.getIdentification())) {
+                            progressDialog.setWaitingText("Indexing Matches. Please Wait...");
+                            validationIndex = new ValidationIndex(peptideShakerGUI.getIdentification(), pSMaps.getPsmSpecificMap(), pSMaps.getPeptideSpecificMap(), pSMaps.getProteinMap(), progressDialog);
+                        }
+
                         MatchesValidator matchesValidator = new MatchesValidator(pSMaps.getPsmSpecificMap(), pSMaps.getPeptideSpecificMap(), pSMaps.getProteinMap());
-                        matchesValidator.validateIdentifications(peptideShakerGUI.getIdentification(), peptideShakerGUI.getMetrics(), peptideShakerGUI.getGeneMaps(), pSMaps.getInputMap(), progressDialog, peptideShakerGUI.getExceptionHandler(), peptideShakerGUI.getIdentificationFeaturesGenerator(), peptideShakerGUI.getIdentificationParameters(), peptideShakerGUI.getSpectrumCountingPreferences(), peptideShakerGUI.getProcessingPreferences());
+                        matchesValidator.validateIdentificationsIncrementally(validationIndex, peptideShakerGUI.getIdentification(), peptideShakerGUI.getMetrics(), peptideShakerGUI.getGeneMaps(), pSMaps.getInputMap(), progressDialog, peptideShakerGUI.getExceptionHandler(), peptideShakerGUI.getIdentificationFeaturesGenerator(), peptideShakerGUI.getIdentificationParameters(), peptideShakerGUI.getSpectrumCountingPreferences(), peptideShakerGUI.getProcessingPreferences());
 
                         progressDialog.setPrimaryProgressCounterIndeterminate(true);
 
@@ -1527,8 +1541,10 @@ public class ValidationPanel extends javax.swing.JPanel {
                             peptideShakerGUI.setDataSaved(false);
                         } else {
                             // @TODO: ideally the validation settings ought to be reset as well..?
+                            validationIndex = null;
                         }
                     } catch (Exception e) {
+                        validationIndex = null;
                         peptideShakerGUI.catchException(e);
                     }
 
@@ -3206,6 +3222,14 @@ public class ValidationPanel extends javax.swing.JPanel {
         }
     }
 
+    /**
+     * Discards the index of the matches. To be used whenever the validation
+     * of the matches changed outside of this panel.
+     */
+    public void resetValidationIndex() {
+        validationIndex = null;
+    }
+
     /**
      * Resets all thresholds to the last validated value.
      */
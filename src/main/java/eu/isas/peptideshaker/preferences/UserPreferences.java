@@ -25,6 +25,11 @@ public class UserPreferences implements Serializable {
      * Show/hide sliders.
      */
     private boolean showSliders = false;
+    /**
+     * Indicates whether the identification features should be saved with the
+     * project. Null for preferences saved by previous versions.
+     */
+    private Boolean persistIdentificationFeatures = true;
 
     /**
      * Constructor.
@@ -50,6 +55,31 @@ public class UserPreferences implements Serializable {
         this.showSliders = showSliders;
     }
 
+    /**
+     * Indicates whether the identification features, e.g. coverage and
+     * spectrum counting, should be saved with the project.
+     *
+     * @return a boolean indicating whether the identification features should
+     * be saved with the project
+     */
+    public boolean isPersistIdentificationFeatures() {
+        if (persistIdentificationFeatures == null) {
+            persistIdentificationFeatures = true;
+        }
+        return persistIdentificationFeatures;
+    }
+
+    /**
+     * Sets whether the identification features should be saved with the
+     * project.
+     *
+     * @param persistIdentificationFeatures a boolean indicating whether the
+     * identification features should be saved with the project
+     */
+    public void setPersistIdentificationFeatures(boolean persistIdentificationFeatures) {
+        this.persistIdentificationFeatures = persistIdentificationFeatures;
+    }
+
     /**
      * Returns the paths of the recent projects.
      *
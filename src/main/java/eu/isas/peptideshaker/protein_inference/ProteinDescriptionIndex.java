@@ -0,0 +1,276 @@
+package eu.isas.peptideshaker.protein_inference;
+
+import com.compomics.util.experiment.identification.protein_sequences.SequenceFactory;
+import com.compomics.util.protein.Header;
+import eu.isas.peptideshaker.utils.MemoryBoundedCache;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+
+/**
+ * Index of the tokenized descriptions of the proteins of the current FASTA
+ * file. Headers are parsed at most once per version of the FASTA file, and
+ * the parsed descriptions and the similarity between proteins are cached
+ * until the memory gets short. The index should be cleared when the project
+ * is closed.
+ *
+ * @author Marc Vaudel
+ */
+public class ProteinDescriptionIndex {
+
+    /**
+     * The keywords indicating an uncharacterized protein.
+     */
+    public static final String[] UNCHARACTERIZED_KEYWORDS = {"Uncharacterized", "Putative"};
+    /**
+     * The separator used for the keys of the similarity cache.
+     */
+    private static final String SEPARATOR = "_cc_";
+    /**
+     * The instance of the index.
+     */
+    private static ProteinDescriptionIndex instance = null;
+    /**
+     * The protein sequence factory.
+     */
+    private final SequenceFactory sequenceFactory = SequenceFactory.getInstance();
+    /**
+     * The FASTA file indexed.
+     */
+    private final File fastaFile;
+    /**
+     * The last modification time of the FASTA file indexed, 0 if no file.
+     */
+    private final long fastaLastModified;
+    /**
+     * The parsed descriptions indexed by accession.
+     */
+    private final MemoryBoundedCache<String, ProteinDescription> descriptions = new MemoryBoundedCache<String, ProteinDescription>();
+    /**
+     * The similarity cache: primary accession_cc_secondary accession |
+     * similarity.
+     */
+    private final MemoryBoundedCache<String, Boolean> similarities = new MemoryBoundedCache<String, Boolean>();
+
+    /**
+     * Constructor.
+     *
+     * @param fastaFile the FASTA file indexed
+     */
+    private ProteinDescriptionIndex(File fastaFile) {
+        this.fastaFile = fastaFile;
+        fastaLastModified = fastaFile != null ? fastaFile.lastModified() : 0;
+    }
+
+    /**
+     * Returns the index of the current FASTA file. A new index is created
+     * whenever the FASTA file of the sequence factory changes or is modified.
+     *
+     * @return the index of the current FASTA file
+     */
+    public static synchronized ProteinDescriptionIndex getInstance() {
+        File currentFastaFile = SequenceFactory.getInstance().getCurrentFastaFile();
+        if (instance == null
+                || currentFastaFile == null && instance.fastaFile != null
+                || currentFastaFile != null && (!currentFastaFile.equals(instance.fastaFile) || currentFastaFile.lastModified() != instance.fastaLastModified)) {
+            instance = new ProteinDescriptionIndex(currentFastaFile);
+        }
+        return instance;
+    }
+
+    /**
+     * Releases the index of the current FASTA file. To be called when the
+     * project is closed.
+     */
+    public static synchronized void clearInstance() {
+        instance = null;
+    }
+
+    /**
+     * Returns the parsed description of a protein.
+     *
+     * @param accession the accession of the protein
+     *
+     * @return the parsed description of the protein
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the FASTA file
+     * @throws IllegalArgumentException exception thrown whenever an error
+     * occurred while reading the FASTA file
+     * @throws InterruptedException exception thrown whenever a threading error
+     * occurred while reading the FASTA file
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing the FASTA index
+     */
+    public ProteinDescription getDescription(String accession) throws IOException, IllegalArgumentException, InterruptedException, ClassNotFoundException {
+        ProteinDescription description = descriptions.get(accession);
+        if (description == null) {
+            description = new ProteinDescription(accession, sequenceFactory.getHeader(accession));
+            description = descriptions.putIfAbsent(accession, description);
+        }
+        return description;
+    }
+
+    /**
+     * Simplistic method comparing protein similarity. Returns true if both
+     * proteins come from the same gene or if the descriptions are of same
+     * length and present more than half similar words.
+     *
+     * @param primaryProteinAccession accession number of the first protein
+     * @param secondaryProteinAccession accession number of the second protein
+     *
+     * @return a boolean indicating whether the proteins are similar
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the FASTA file
+     * @throws IllegalArgumentException exception thrown whenever an error
+     * occurred while reading the FASTA file
+     * @throws InterruptedException exception thrown whenever a threading error
+     * occurred while reading the FASTA file
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing the FASTA index
+     */
+    public boolean getSimilarity(String primaryProteinAccession, String secondaryProteinAccession) throws IOException, IllegalArgumentException, InterruptedException, ClassNotFoundException {
+
+        String key = primaryProteinAccession + SEPARATOR + secondaryProteinAccession;
+        Boolean result = similarities.get(key);
+
+        if (result == null) {
+            result = getSimilarity(getDescription(primaryProteinAccession), getDescription(secondaryProteinAccession));
+            result = similarities.putIfAbsent(key, result);
+        }
+
+        return result;
+    }
+
+    /**
+     * Compares the similarity of two proteins based on their parsed
+     * descriptions.
+     *
+     * @param primaryProtein the parsed description of the first protein
+     * @param secondaryProtein the parsed description of the second protein
+     *
+     * @return a boolean indicating whether the proteins are similar
+     */
+    private static boolean getSimilarity(ProteinDescription primaryProtein, ProteinDescription secondaryProtein) {
+
+        String geneNamePrimaryProtein = primaryProtein.geneName;
+        String geneNameSecondaryProtein = secondaryProtein.geneName;
+
+        // compare gene names, similar gene names often means related proteins, like CPNE3 and CPNE2
+        if (geneNamePrimaryProtein != null && geneNameSecondaryProtein != null) {
+
+            // same gene
+            if (geneNamePrimaryProtein.equalsIgnoreCase(geneNameSecondaryProtein)) {
+                return true;
+            }
+
+            // one gene name is a substring of the other, for example: EEF1A1 and EEF1A1P5
+            if (geneNamePrimaryProtein.contains(geneNameSecondaryProtein) || geneNameSecondaryProtein.contains(geneNamePrimaryProtein)) {
+                return true;
+            }
+
+            // equal but for the last character, for example: CPNE3 and CPNE2
+            if ((geneNameSecondaryProtein.length() > 2 && geneNamePrimaryProtein.contains(geneNameSecondaryProtein.substring(0, geneNameSecondaryProtein.length() - 2)))
+                    || (geneNamePrimaryProtein.length() > 2 && geneNameSecondaryProtein.contains(geneNamePrimaryProtein.substring(0, geneNamePrimaryProtein.length() - 2)))) {
+                return true;
+            }
+
+            // equal but for the two last characters, for example: CPNE11 and CPNE12
+            if ((geneNameSecondaryProtein.length() > 3 && geneNamePrimaryProtein.contains(geneNameSecondaryProtein.substring(0, geneNameSecondaryProtein.length() - 3)))
+                    || (geneNamePrimaryProtein.length() > 3 && geneNameSecondaryProtein.contains(geneNamePrimaryProtein.substring(0, geneNamePrimaryProtein.length() - 3)))) {
+                return true;
+            }
+
+            // @TODO: support more complex gene families?
+        }
+
+        // compare the protein descriptions, less secure than gene names
+        ArrayList<String> primaryDescription = primaryProtein.descriptionWords;
+        ArrayList<String> secondaryDescription = secondaryProtein.descriptionWords;
+
+        if (primaryDescription.size() > secondaryDescription.size()) {
+            int nMatch = 0;
+            for (String secondaryDescription1 : secondaryDescription) {
+                if (primaryProtein.descriptionWordsSet.contains(secondaryDescription1)) {
+                    nMatch++;
+                }
+            }
+            return nMatch >= secondaryDescription.size() / 2;
+        } else {
+            int nMatch = 0;
+            for (String primaryDescription1 : primaryDescription) {
+                if (secondaryProtein.descriptionWordsSet.contains(primaryDescription1)) {
+                    nMatch++;
+                }
+            }
+            return nMatch >= primaryDescription.size() / 2;
+        }
+    }
+
+    /**
+     * The information parsed from the header of a protein.
+     */
+    public static class ProteinDescription {
+
+        /**
+         * The gene name, null if not set.
+         */
+        public final String geneName;
+        /**
+         * The protein evidence level, null if not set.
+         */
+        public final String proteinEvidence;
+        /**
+         * The words of the description longer than 3 characters.
+         */
+        public final ArrayList<String> descriptionWords;
+        /**
+         * The words of the description longer than 3 characters as a set.
+         */
+        public final HashSet<String> descriptionWordsSet;
+        /**
+         * Boolean indicating whether the description contains a keyword of
+         * uncharacterized proteins. If the description is not set, the
+         * accession is inspected instead.
+         */
+        public final boolean uncharacterized;
+
+        /**
+         * Constructor.
+         *
+         * @param accession the accession of the protein
+         * @param header the FASTA header of the protein
+         */
+        public ProteinDescription(String accession, Header header) {
+
+            geneName = header.getGeneName();
+            proteinEvidence = header.getProteinEvidence();
+            String description = header.getSimpleProteinDescription();
+
+            descriptionWords = new ArrayList<String>();
+            if (description != null) {
+                for (String component : description.split(" ")) {
+                    if (component.length() > 3) {
+                        descriptionWords.add(component);
+                    }
+                }
+            }
+            descriptionWordsSet = new HashSet<String>(descriptionWords);
+
+            // if the description is not set, use the accession instead - fix for home made fasta headers
+            if (description == null || description.trim().isEmpty()) {
+                description = accession;
+            }
+            boolean keyWordFound = false;
+            for (String keyWord : UNCHARACTERIZED_KEYWORDS) {
+                if (description.contains(keyWord)) {
+                    keyWordFound = true;
+                    break;
+                }
+            }
+            uncharacterized = keyWordFound;
+        }
+    }
+}
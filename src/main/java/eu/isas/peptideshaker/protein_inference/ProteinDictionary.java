@@ -0,0 +1,241 @@
+package eu.isas.peptideshaker.protein_inference;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Dictionary mapping the protein accessions and protein group keys of a
+ * project to compact integer identifiers. The accessions of every group are
+ * stored as a sorted array of accession identifiers, allowing set operations
+ * on groups without parsing group keys.
+ *
+ * @author Marc Vaudel
+ */
+public class ProteinDictionary {
+
+    /**
+     * The protein accessions indexed by identifier.
+     */
+    private final ArrayList<String> accessions;
+    /**
+     * Map of the accession identifiers: accession | identifier.
+     */
+    private final HashMap<String, Integer> accessionIds;
+    /**
+     * The protein group keys indexed by identifier.
+     */
+    private final ArrayList<String> groupKeys;
+    /**
+     * Map of the group identifiers: group key | identifier.
+     */
+    private final HashMap<String, Integer> groupIds;
+    /**
+     * The sorted accession identifiers of the groups indexed by group
+     * identifier.
+     */
+    private final ArrayList<int[]> groupAccessions;
+
+    /**
+     * Constructor.
+     *
+     * @param expectedSize the expected number of protein groups
+     */
+    public ProteinDictionary(int expectedSize) {
+        accessions = new ArrayList<String>(expectedSize);
+        accessionIds = new HashMap<String, Integer>(expectedSize);
+        groupKeys = new ArrayList<String>(expectedSize);
+        groupIds = new HashMap<String, Integer>(expectedSize);
+        groupAccessions = new ArrayList<int[]>(expectedSize);
+    }
+
+    /**
+     * Adds an accession to the dictionary if not present and returns its
+     * identifier.
+     *
+     * @param accession the protein accession
+     *
+     * @return the identifier of the accession
+     */
+    public int addAccession(String accession) {
+        Integer id = accessionIds.get(accession);
+        if (id == null) {
+            id = accessions.size();
+            accessionIds.put(accession, id);
+            accessions.add(accession);
+        }
+        return id;
+    }
+
+    /**
+     * Adds a protein group to the dictionary if not present and returns its
+     * identifier. The accessions of the group are added to the dictionary.
+     *
+     * @param groupKey the key of the protein group
+     * @param groupAccessions the accessions of the protein group
+     *
+     * @return the identifier of the group
+     */
+    public int addGroup(String groupKey, ArrayList<String> groupAccessions) {
+        Integer id = groupIds.get(groupKey);
+        if (id == null) {
+            int[] accessionIdsArray = new int[groupAccessions.size()];
+            for (int i = 0; i < accessionIdsArray.length; i++) {
+                accessionIdsArray[i] = addAccession(groupAccessions.get(i));
+            }
+            Arrays.sort(accessionIdsArray);
+            id = groupKeys.size();
+            groupIds.put(groupKey, id);
+            groupKeys.add(groupKey);
+            this.groupAccessions.add(accessionIdsArray);
+        }
+        return id;
+    }
+
+    /**
+     * Returns the number of accessions in the dictionary.
+     *
+     * @return the number of accessions in the dictionary
+     */
+    public int getnAccessions() {
+        return accessions.size();
+    }
+
+    /**
+     * Returns the number of groups in the dictionary.
+     *
+     * @return the number of groups in the dictionary
+     */
+    public int getnGroups() {
+        return groupKeys.size();
+    }
+
+    /**
+     * Returns the identifier of an accession, -1 if not in the dictionary.
+     *
+     * @param accession the protein accession
+     *
+     * @return the identifier of the accession
+     */
+    public int getAccessionId(String accession) {
+        Integer id = accessionIds.get(accession);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Returns the accession corresponding to an identifier.
+     *
+     * @param accessionId the identifier of the accession
+     *
+     * @return the accession
+     */
+    public String getAccession(int accessionId) {
+        return accessions.get(accessionId);
+    }
+
+    /**
+     * Returns the identifier of a group, -1 if not in the dictionary.
+     *
+     * @param groupKey the key of the protein group
+     *
+     * @return the identifier of the group
+     */
+    public int getGroupId(String groupKey) {
+        Integer id = groupIds.get(groupKey);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Returns the key of the group corresponding to an identifier.
+     *
+     * @param groupId the identifier of the group
+     *
+     * @return the key of the group
+     */
+    public String getGroupKey(int groupId) {
+        return groupKeys.get(groupId);
+    }
+
+    /**
+     * Returns the sorted accession identifiers of a group. The returned array
+     * should not be modified.
+     *
+     * @param groupId the identifier of the group
+     *
+     * @return the sorted accession identifiers of the group
+     */
+    public int[] getGroupAccessions(int groupId) {
+        return groupAccessions.get(groupId);
+    }
+
+    /**
+     * Indicates whether a sorted set of identifiers contains another one.
+     *
+     * @param set the sorted set
+     * @param subset the sorted candidate subset
+     *
+     * @return a boolean indicating whether set contains subset
+     */
+    public static boolean contains(int[] set, int[] subset) {
+        if (subset.length > set.length) {
+            return false;
+        }
+        int i = 0;
+        for (int id : subset) {
+            while (i < set.length && set[i] < id) {
+                i++;
+            }
+            if (i == set.length || set[i] != id) {
+                return false;
+            }
+            i++;
+        }
+        return true;
+    }
+
+    /**
+     * Indicates whether two sorted sets of identifiers share at least one
+     * identifier.
+     *
+     * @param set1 the first sorted set
+     * @param set2 the second sorted set
+     *
+     * @return a boolean indicating whether the sets intersect
+     */
+    public static boolean intersects(int[] set1, int[] set2) {
+        int i = 0, j = 0;
+        while (i < set1.length && j < set2.length) {
+            if (set1[i] < set2[j]) {
+                i++;
+            } else if (set1[i] > set2[j]) {
+                j++;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the identifiers of a sorted set which are not in another sorted
+     * set.
+     *
+     * @param set the sorted set
+     * @param toExclude the sorted set of identifiers to exclude
+     *
+     * @return the sorted identifiers of set not in toExclude
+     */
+    public static int[] getOthers(int[] set, int[] toExclude) {
+        int[] result = new int[set.length];
+        int n = 0, j = 0;
+        for (int id : set) {
+            while (j < toExclude.length && toExclude[j] < id) {
+                j++;
+            }
+            if (j == toExclude.length || toExclude[j] != id) {
+                result[n++] = id;
+            }
+        }
+        return n == result.length ? result : Arrays.copyOf(result, n);
+    }
+}
@@ -0,0 +1,238 @@
+package eu.isas.peptideshaker.protein_inference;
+
+import com.compomics.util.experiment.identification.Identification;
+import com.compomics.util.experiment.identification.matches.ProteinMatch;
+import com.compomics.util.experiment.identification.matches_iterators.ProteinMatchesIterator;
+import com.compomics.util.waiting.WaitingHandler;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+
+/**
+ * In memory bipartite graph of the protein accessions and peptide matches of
+ * an identification. Nodes are indexed by integers, protein groups link the
+ * accessions of the group to the peptides of the group. Accessions and groups
+ * are indexed using a protein dictionary. The protein groups are
+ * split into connected components: groups of different components share
+ * neither accession nor peptide and can be inferred independently.
+ *
+ * @author Marc Vaudel
+ */
+public class ProteinGraph {
+
+    /**
+     * The dictionary of the accessions and groups of the graph.
+     */
+    private final ProteinDictionary proteinDictionary;
+    /**
+     * The group identifiers of every accession indexed by accession
+     * identifier.
+     */
+    private final int[][] accessionGroups;
+    /**
+     * The number of peptide nodes.
+     */
+    private final int nPeptides;
+    /**
+     * The connected components as lists of group identifiers, sorted by
+     * decreasing size.
+     */
+    private final ArrayList<int[]> components;
+
+    /**
+     * Constructor. Builds the graph from the protein matches of the
+     * identification.
+     *
+     * @param identification the identification containing the protein matches
+     * @param waitingHandler the handler displaying feedback to the user, can
+     * be null
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interacting with the back-end database
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing a file
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing an object
+     * @throws InterruptedException exception thrown whenever a threading error
+     * occurred
+     */
+    public ProteinGraph(Identification identification, WaitingHandler waitingHandler) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+
+        int nGroups = identification.getProteinIdentification().size();
+        proteinDictionary = new ProteinDictionary(nGroups);
+        HashMap<String, Integer> peptideIndexes = new HashMap<String, Integer>(nGroups);
+        ArrayList<int[]> groupPeptidesList = new ArrayList<int[]>(nGroups);
+
+        ProteinMatchesIterator proteinMatchesIterator = identification.getProteinMatchesIterator(null, false, null, false, null, waitingHandler);
+        while (proteinMatchesIterator.hasNext()) {
+            ProteinMatch proteinMatch = proteinMatchesIterator.next();
+            proteinDictionary.addGroup(proteinMatch.getKey(), proteinMatch.getTheoreticProteinsAccessions());
+            ArrayList<String> peptideKeys = proteinMatch.getPeptideMatchesKeys();
+            int[] peptideNodes = new int[peptideKeys.size()];
+            for (int i = 0; i < peptideNodes.length; i++) {
+                String peptideKey = peptideKeys.get(i);
+                Integer index = peptideIndexes.get(peptideKey);
+                if (index == null) {
+                    index = peptideIndexes.size();
+                    peptideIndexes.put(peptideKey, index);
+                }
+                peptideNodes[i] = index;
+            }
+            groupPeptidesList.add(peptideNodes);
+            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                break;
+            }
+        }
+
+        nGroups = proteinDictionary.getnGroups();
+        int nAccessions = proteinDictionary.getnAccessions();
+        nPeptides = peptideIndexes.size();
+
+        // Accession to group adjacency
+        int[] accessionDegree = new int[nAccessions];
+        for (int groupIndex = 0; groupIndex < nGroups; groupIndex++) {
+            for (int accessionIndex : proteinDictionary.getGroupAccessions(groupIndex)) {
+                accessionDegree[accessionIndex]++;
+            }
+        }
+        accessionGroups = new int[nAccessions][];
+        for (int i = 0; i < nAccessions; i++) {
+            accessionGroups[i] = new int[accessionDegree[i]];
+            accessionDegree[i] = 0;
+        }
+        for (int groupIndex = 0; groupIndex < nGroups; groupIndex++) {
+            for (int accessionIndex : proteinDictionary.getGroupAccessions(groupIndex)) {
+                accessionGroups[accessionIndex][accessionDegree[accessionIndex]++] = groupIndex;
+            }
+        }
+
+        // Connected components using union-find on the accession and peptide nodes, peptide nodes come after the accession nodes
+        int[] parents = new int[nAccessions + nPeptides];
+        for (int i = 0; i < parents.length; i++) {
+            parents[i] = i;
+        }
+        for (int groupIndex = 0; groupIndex < nGroups; groupIndex++) {
+            int[] accessionNodes = proteinDictionary.getGroupAccessions(groupIndex);
+            if (accessionNodes.length > 0) {
+                int root = find(parents, accessionNodes[0]);
+                for (int i = 1; i < accessionNodes.length; i++) {
+                    root = union(parents, root, accessionNodes[i]);
+                }
+                for (int peptideIndex : groupPeptidesList.get(groupIndex)) {
+                    root = union(parents, root, nAccessions + peptideIndex);
+                }
+            }
+        }
+        HashMap<Integer, ArrayList<Integer>> componentsMap = new HashMap<Integer, ArrayList<Integer>>();
+        ArrayList<ArrayList<Integer>> componentsList = new ArrayList<ArrayList<Integer>>();
+        for (int groupIndex = 0; groupIndex < nGroups; groupIndex++) {
+            int[] accessionNodes = proteinDictionary.getGroupAccessions(groupIndex);
+            int root = accessionNodes.length > 0 ? find(parents, accessionNodes[0]) : -groupIndex - 1;
+            ArrayList<Integer> component = componentsMap.get(root);
+            if (component == null) {
+                component = new ArrayList<Integer>(1);
+                componentsMap.put(root, component);
+                componentsList.add(component);
+            }
+            component.add(groupIndex);
+        }
+        components = new ArrayList<int[]>(componentsList.size());
+        for (ArrayList<Integer> component : componentsList) {
+            int[] componentArray = new int[component.size()];
+            for (int i = 0; i < componentArray.length; i++) {
+                componentArray[i] = component.get(i);
+            }
+            components.add(componentArray);
+        }
+        Collections.sort(components, new Comparator<int[]>() {
+            @Override
+            public int compare(int[] component1, int[] component2) {
+                return component2.length - component1.length;
+            }
+        });
+    }
+
+    /**
+     * Returns the root of a node and compresses the path on the way.
+     *
+     * @param parents the parents of the nodes
+     * @param node the node of interest
+     *
+     * @return the root of the node
+     */
+    private static int find(int[] parents, int node) {
+        int root = node;
+        while (parents[root] != root) {
+            root = parents[root];
+        }
+        while (parents[node] != root) {
+            int next = parents[node];
+            parents[node] = root;
+            node = next;
+        }
+        return root;
+    }
+
+    /**
+     * Merges the tree of a node in the tree of the given root and returns the
+     * new root.
+     *
+     * @param parents the parents of the nodes
+     * @param root the root of the first tree
+     * @param node a node of the second tree
+     *
+     * @return the root of the merged tree
+     */
+    private static int union(int[] parents, int root, int node) {
+        int otherRoot = find(parents, node);
+        if (otherRoot != root) {
+            parents[otherRoot] = root;
+        }
+        return root;
+    }
+
+    /**
+     * Returns the dictionary of the accessions and groups of the graph.
+     *
+     * @return the dictionary of the accessions and groups of the graph
+     */
+    public ProteinDictionary getProteinDictionary() {
+        return proteinDictionary;
+    }
+
+    /**
+     * Returns the number of peptides.
+     *
+     * @return the number of peptides
+     */
+    public int getnPeptides() {
+        return nPeptides;
+    }
+
+    /**
+     * Returns the connected components of the graph as arrays of group
+     * identifiers. Components are sorted by decreasing size, and the groups of
+     * a component are in the order of the identification. The returned arrays
+     * should not be modified.
+     *
+     * @return the connected components of the graph
+     */
+    public ArrayList<int[]> getComponents() {
+        return components;
+    }
+
+    /**
+     * Returns the identifiers of the groups containing the given accession.
+     * The returned array should not be modified.
+     *
+     * @param accessionId the identifier of the accession
+     *
+     * @return the identifiers of the groups containing the given accession
+     */
+    public int[] getGroups(int accessionId) {
+        return accessionGroups[accessionId];
+    }
+}
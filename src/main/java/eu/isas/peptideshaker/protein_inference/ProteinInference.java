@@ -23,6 +23,13 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This class groups the methods for protein inference.
@@ -34,35 +41,31 @@ public class ProteinInference {
     /**
      * Number of groups deleted because of protein evidence issues.
      */
-    private int evidenceIssue = 0;
+    private AtomicInteger evidenceIssue = new AtomicInteger();
     /**
      * Number of groups deleted because of enzymatic issues.
      */
-    private int enzymaticIssue = 0;
+    private AtomicInteger enzymaticIssue = new AtomicInteger();
     /**
      * Number of groups deleted because of protein characterization issues.
      */
-    private int uncharacterizedIssue = 0;
+    private AtomicInteger uncharacterizedIssue = new AtomicInteger();
     /**
      * Number of groups deleted because explained by a simpler group.
      */
-    private int explainedGroup = 0;
+    private AtomicInteger explainedGroup = new AtomicInteger();
     /**
      * The protein sequence factory.
      */
     private SequenceFactory sequenceFactory = SequenceFactory.getInstance();
     /**
-     * Map of the most complex groups: key | proteins
+     * The index of the protein descriptions.
      */
-    private HashMap<String, ArrayList<String>> proteinGroupCache = new HashMap<String, ArrayList<String>>(100);
+    private ProteinDescriptionIndex proteinDescriptionIndex = ProteinDescriptionIndex.getInstance();
     /**
-     * Size of the protein groups cahce
+     * The protein graph of the identification, null if not built.
      */
-    private int cacheSize = 100;
-    /**
-     * The minimal group size to include a protein in the cache
-     */
-    private int sizeOfProteinsInCache = 10;
+    private ProteinGraph proteinGraph = null;
 
     /**
      * Reduce artifact groups which can be explained by a simpler group.
@@ -82,6 +85,29 @@ public class ProteinInference {
     public void removeRedundantGroups(Identification identification, IdentificationParameters identificationParameters,
             IdentificationFeaturesGenerator identificationFeaturesGenerator, WaitingHandler waitingHandler)
             throws IOException, SQLException, ClassNotFoundException, InterruptedException {
+        removeRedundantGroups(identification, identificationParameters, identificationFeaturesGenerator, 1, waitingHandler);
+    }
+
+    /**
+     * Reduce artifact groups which can be explained by a simpler group. The
+     * connected components of the protein graph are processed in parallel.
+     *
+     * @param identification the identification class containing all
+     * identification matches
+     * @param identificationParameters the identification parameters
+     * @param identificationFeaturesGenerator the identification feature
+     * generator
+     * @param nThreads the number of threads to use
+     * @param waitingHandler the handler displaying feedback to the user
+     *
+     * @throws IOException thrown if an IOException occurs
+     * @throws InterruptedException thrown if an InterruptedException occurs
+     * @throws SQLException thrown if an SQLException occurs
+     * @throws ClassNotFoundException thrown if a ClassNotFoundException occurs
+     */
+    public void removeRedundantGroups(Identification identification, IdentificationParameters identificationParameters,
+            IdentificationFeaturesGenerator identificationFeaturesGenerator, int nThreads, WaitingHandler waitingHandler)
+            throws IOException, SQLException, ClassNotFoundException, InterruptedException {
 
         ArrayList<String> toRemove = new ArrayList<String>(); 
         int max = identification.getProteinIdentification().size();
@@ -92,50 +118,41 @@ public class ProteinInference {
             waitingHandler.setMaxSecondaryProgressCounter(max);
         }
 
-        HashSet<String> toDelete = new HashSet<String>();
-        HashMap<String, String> processedKeys = new HashMap<String, String>();
+        proteinGraph = new ProteinGraph(identification, waitingHandler);
+        if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+            return;
+        }
 
-        ProteinMatchesIterator proteinMatchesIterator = identification.getProteinMatchesIterator(null, false, null, false, null, waitingHandler);
-        while (proteinMatchesIterator.hasNext()) {
-            ProteinMatch proteinSharedGroup = proteinMatchesIterator.next();
-            if (proteinSharedGroup.getNProteins() > 1) {
-                String proteinSharedKey = proteinSharedGroup.getKey();
-                if (!processedKeys.containsKey(proteinSharedKey)) {
-                    String uniqueKey = getSubgroup(identification, proteinSharedKey, proteinSharedGroup, processedKeys, toDelete, identificationParameters, identificationFeaturesGenerator);
-                    if (uniqueKey != null) {
-                        mergeProteinGroups(identification, proteinSharedKey, uniqueKey, toDelete);
-                        processedKeys.put(proteinSharedKey, uniqueKey);
-                    } else {
-                        processedKeys.put(proteinSharedKey, proteinSharedKey);
-                    }
-                }
-                if (waitingHandler != null) {
-                    if (waitingHandler.isRunCanceled()) {
-                        return;
-                    }
-                    waitingHandler.increaseSecondaryProgressCounter();
-                }
-            }
+        ArrayList<Callable<HashSet<Integer>>> componentSimplifiers = new ArrayList<Callable<HashSet<Integer>>>();
+        for (int[] component : proteinGraph.getComponents()) {
+            componentSimplifiers.add(new ComponentSimplifier(identification, component, identificationParameters, identificationFeaturesGenerator, waitingHandler));
+        }
+        int nUnlikelyMappings = 0;
+        for (HashSet<Integer> toDelete : processComponents(componentSimplifiers, nThreads)) {
+            nUnlikelyMappings += toDelete.size();
+        }
+        if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+            return;
         }
 
-        if (enzymaticIssue + evidenceIssue + uncharacterizedIssue + explainedGroup > 0) { // special case to not divide by zero
+        if (enzymaticIssue.get() + evidenceIssue.get() + uncharacterizedIssue.get() + explainedGroup.get() > 0) { // special case to not divide by zero
 
             if (waitingHandler != null) {
                 waitingHandler.setWaitingText("Removing Mapping Artifacts. Please Wait...");
-                waitingHandler.appendReport(toDelete.size() + " unlikely protein mappings found:", true, true);
+                waitingHandler.appendReport(nUnlikelyMappings + " unlikely protein mappings found:", true, true);
 
                 String padding = "    ";
 
-                if (enzymaticIssue > 0) {
+                if (enzymaticIssue.get() > 0) {
                     waitingHandler.appendReport(padding + "- " + enzymaticIssue + " protein groups supported by non-enzymatic shared peptides.", true, true);
                 }
-                if (evidenceIssue > 0) {
+                if (evidenceIssue.get() > 0) {
                     waitingHandler.appendReport(padding + "- " + evidenceIssue + " protein groups explained by peptides shared to less confident mappings.", true, true);
                 }
-                if (uncharacterizedIssue > 0) {
+                if (uncharacterizedIssue.get() > 0) {
                     waitingHandler.appendReport(padding + "- " + uncharacterizedIssue + " protein groups supported by peptides shared to uncharacterized proteins.", true, true);
                 }
-                if (explainedGroup > 0) {
+                if (explainedGroup.get() > 0) {
                     waitingHandler.appendReport(padding + "- " + explainedGroup + " groups explained by a simpler group.", true, true);
                 }
                 waitingHandler.appendReport(padding + "Note: a group can present combinations of these criteria.", true, true);
@@ -156,22 +173,69 @@ public class ProteinInference {
     }
 
     /**
-     * Returns the best subgroup of a protein key, null if none found. If
-     * intermediate groups are found they will be processed. Processed keys are
-     * stored in processedKeys. Keys to delete are stored in keysToDelete.
-     * Returns null if no simpler group is found.
+     * Reduces the groups of a connected component of the protein graph which
+     * can be explained by a simpler group.
+     *
+     * @param identification the identification class containing all
+     * identification matches
+     * @param component the identifiers of the groups of the component
+     * @param toDelete set where the identifiers of the groups to delete are
+     * stored
+     * @param identificationParameters the identification parameters
+     * @param identificationFeaturesGenerator the identification feature
+     * generator
+     * @param waitingHandler the handler displaying feedback to the user
+     *
+     * @throws IOException thrown if an IOException occurs
+     * @throws InterruptedException thrown if an InterruptedException occurs
+     * @throws SQLException thrown if an SQLException occurs
+     * @throws ClassNotFoundException thrown if a ClassNotFoundException occurs
+     */
+    private void removeRedundantGroups(Identification identification, int[] component, HashSet<Integer> toDelete, IdentificationParameters identificationParameters,
+            IdentificationFeaturesGenerator identificationFeaturesGenerator, WaitingHandler waitingHandler)
+            throws IOException, SQLException, ClassNotFoundException, InterruptedException {
+
+        ProteinDictionary proteinDictionary = proteinGraph.getProteinDictionary();
+        HashMap<Integer, Integer> processedGroups = new HashMap<Integer, Integer>();
+
+        for (int sharedGroup : component) {
+            if (proteinDictionary.getGroupAccessions(sharedGroup).length > 1) {
+                if (!processedGroups.containsKey(sharedGroup)) {
+                    int uniqueGroup = getSubgroup(identification, sharedGroup, processedGroups, toDelete, identificationParameters, identificationFeaturesGenerator);
+                    if (uniqueGroup != -1) {
+                        mergeProteinGroups(identification, sharedGroup, uniqueGroup, toDelete);
+                        processedGroups.put(sharedGroup, uniqueGroup);
+                    } else {
+                        processedGroups.put(sharedGroup, sharedGroup);
+                    }
+                }
+                if (waitingHandler != null) {
+                    if (waitingHandler.isRunCanceled()) {
+                        return;
+                    }
+                    waitingHandler.increaseSecondaryProgressCounter();
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the best subgroup of a protein group, -1 if none found. If
+     * intermediate groups are found they will be processed. Processed groups
+     * are stored in processedGroups. Groups to delete are stored in
+     * groupsToDelete. Groups are given by their identifier in the protein
+     * dictionary of the protein graph.
      *
      * @param identification the identification where to get the matches from.
-     * @param sharedKey the key of the group to inspect
-     * @param processedKeys map of already processed keys and their best smaller
-     * key
-     * @param keysToDelete list of keys to delete
-     * @param shotgunProtocol the protocol containing the enzyme used
+     * @param sharedGroup the identifier of the group to inspect
+     * @param processedGroups map of already processed groups and their best
+     * smaller group
+     * @param groupsToDelete set of groups to delete
+     * @param identificationParameters the identification parameters
      * @param identificationFeaturesGenerator the identification features
      * generator
-     * @param proteinInferencePreferences the protein inference preferences
      *
-     * @return the best smaller group, null if none found.
+     * @return the best smaller group, -1 if none found.
      *
      * @throws IOException exception thrown whenever an error occurred while
      * reading or writing a file
@@ -182,92 +246,69 @@ public class ProteinInference {
      * @throws SQLException exception thrown whenever an error occurred while
      * interacting with the back-end database
      */
-    private String getSubgroup(Identification identification, String sharedKey, ProteinMatch sharedProteinMatch, HashMap<String, String> processedKeys,
-            HashSet<String> keysToDelete, IdentificationParameters identificationParameters, IdentificationFeaturesGenerator identificationFeaturesGenerator)
+    private int getSubgroup(Identification identification, int sharedGroup, HashMap<Integer, Integer> processedGroups,
+            HashSet<Integer> groupsToDelete, IdentificationParameters identificationParameters, IdentificationFeaturesGenerator identificationFeaturesGenerator)
             throws SQLException, IOException, ClassNotFoundException, InterruptedException {
 
-        ArrayList<String> sharedAccessions;
-        if (sharedProteinMatch == null) {
-            sharedAccessions = proteinGroupCache.get(sharedKey);
-            if (sharedAccessions == null) {
-                sharedProteinMatch = identification.getProteinMatch(sharedKey, false);
-            }
-        }
-        if (sharedProteinMatch != null) {
-            sharedAccessions = sharedProteinMatch.getTheoreticProteinsAccessions();
-        } else {
-            sharedAccessions = getProteins(sharedKey);
-        }
-        HashSet<String> candidateUnique = new HashSet<String>(1);
-        HashSet<String> sharedAccessionsAsSet = null;
-
-        for (String accession : sharedAccessions) {
-            HashSet<String> otherGroups = identification.getProteinMap().get(accession);
-            for (String uniqueKey : otherGroups) {
-                if (!uniqueKey.equals(sharedKey)) {
-                    ArrayList<String> uniqueAccessions = proteinGroupCache.get(uniqueKey);
-                    if (uniqueAccessions == null) {
-                        ProteinMatch uniqueProteinMatch = identification.getProteinMatch(uniqueKey, false);
-                        if (uniqueProteinMatch != null) {
-                            uniqueAccessions = uniqueProteinMatch.getTheoreticProteinsAccessions();
-                        } else {
-                            uniqueAccessions = getProteins(uniqueKey);
-                        }
-                    }
-                    if (sharedAccessions.size() >= uniqueAccessions.size()) {
-                        if (sharedAccessionsAsSet == null) {
-                            sharedAccessionsAsSet = new HashSet<String>(sharedAccessions);
-                        }
-                        if (ProteinMatch.contains(sharedAccessionsAsSet, uniqueAccessions) && !keysToDelete.contains(uniqueKey)) {
-                            String subGroup = uniqueKey;
-                            if (uniqueAccessions.size() > 1) {
-                                String reducedGroup = processedKeys.get(uniqueKey);
-                                if (reducedGroup == null) {
-                                    reducedGroup = getSubgroup(identification, uniqueKey, null, processedKeys, keysToDelete, identificationParameters, identificationFeaturesGenerator);
-                                    if (reducedGroup != null) {
-                                        mergeProteinGroups(identification, uniqueKey, reducedGroup, keysToDelete);
-                                        processedKeys.put(uniqueKey, reducedGroup);
-                                        subGroup = reducedGroup;
-                                    } else {
-                                        processedKeys.put(uniqueKey, uniqueKey);
-                                    }
+        ProteinDictionary proteinDictionary = proteinGraph.getProteinDictionary();
+        int[] sharedAccessions = proteinDictionary.getGroupAccessions(sharedGroup);
+        HashSet<Integer> candidateUnique = new HashSet<Integer>(1);
+
+        for (int accession : sharedAccessions) {
+            for (int uniqueGroup : proteinGraph.getGroups(accession)) {
+                if (uniqueGroup != sharedGroup) {
+                    int[] uniqueAccessions = proteinDictionary.getGroupAccessions(uniqueGroup);
+                    if (ProteinDictionary.contains(sharedAccessions, uniqueAccessions) && !groupsToDelete.contains(uniqueGroup)) {
+                        int subGroup = uniqueGroup;
+                        if (uniqueAccessions.length > 1) {
+                            Integer reducedGroup = processedGroups.get(uniqueGroup);
+                            if (reducedGroup == null) {
+                                reducedGroup = getSubgroup(identification, uniqueGroup, processedGroups, groupsToDelete, identificationParameters, identificationFeaturesGenerator);
+                                if (reducedGroup != -1) {
+                                    mergeProteinGroups(identification, uniqueGroup, reducedGroup, groupsToDelete);
+                                    processedGroups.put(uniqueGroup, reducedGroup);
+                                    subGroup = reducedGroup;
+                                } else {
+                                    processedGroups.put(uniqueGroup, uniqueGroup);
                                 }
                             }
-                            if (!candidateUnique.contains(subGroup)) {
-                                candidateUnique.add(subGroup);
-                            }
                         }
+                        candidateUnique.add(subGroup);
                     }
                 }
             }
         }
 
-        String minimalKey = null;
+        int minimalGroup = -1;
 
         if (!candidateUnique.isEmpty()) {
-            ArrayList<String> keys = new ArrayList<String>(candidateUnique.size());
-            for (String accession : candidateUnique) {
-                if (!keysToDelete.contains(accession)) {
-                    keys.add(accession);
+            ArrayList<Integer> groups = new ArrayList<Integer>(candidateUnique.size());
+            for (int group : candidateUnique) {
+                if (!groupsToDelete.contains(group)) {
+                    groups.add(group);
                 }
             }
-
-            if (!keys.isEmpty()) {
-                ProteinMatch match = identification.getProteinMatch(sharedKey);
-                HashMap<String, Integer> preferenceReason = new HashMap<String, Integer>();
-                for (String key1 : keys) {
-                    for (String accession1 : ProteinMatch.getAccessions(key1)) {
-                        if (minimalKey == null) {
-                            preferenceReason = new HashMap<String, Integer>();
+            Collections.sort(groups);
+
+            if (!groups.isEmpty()) {
+                ProteinMatch match = identification.getProteinMatch(proteinDictionary.getGroupKey(sharedGroup));
+                HashMap<Integer, Integer> preferenceReason = new HashMap<Integer, Integer>();
+                for (int group1 : groups) {
+                    int[] accessions1 = proteinDictionary.getGroupAccessions(group1);
+                    for (int accession1 : accessions1) {
+                        if (minimalGroup == -1) {
+                            String accession1String = proteinDictionary.getAccession(accession1);
+                            preferenceReason = new HashMap<Integer, Integer>();
                             boolean best = true;
-                            for (String key2 : keys) {
-                                if (!key1.equals(key2)) {
-                                    if (!ProteinMatch.contains(key1, key2)) {
-                                        if (!ProteinMatch.getCommonProteins(key1, key2).isEmpty()) {
+                            for (int group2 : groups) {
+                                if (group1 != group2) {
+                                    int[] accessions2 = proteinDictionary.getGroupAccessions(group2);
+                                    if (!ProteinDictionary.contains(accessions1, accessions2)) {
+                                        if (ProteinDictionary.intersects(accessions1, accessions2)) {
                                             best = false;
                                         }
-                                        for (String accession2 : ProteinMatch.getAccessions(key2)) {
-                                            int tempPrefernce = compareMainProtein(match, accession2, match, accession1, identificationFeaturesGenerator, identificationParameters);
+                                        for (int accession2 : accessions2) {
+                                            int tempPrefernce = compareMainProtein(match, proteinDictionary.getAccession(accession2), match, accession1String, identificationFeaturesGenerator, identificationParameters);
                                             if (tempPrefernce != 1) {
                                                 best = false;
                                             } else {
@@ -281,9 +322,8 @@ public class ProteinInference {
                                 }
                             }
                             if (best) {
-                                ArrayList<String> accessions = ProteinMatch.getOtherProteins(sharedKey, key1);
-                                for (String accession2 : accessions) {
-                                    int tempPrefernce = compareMainProtein(match, accession2, match, accession1, identificationFeaturesGenerator, identificationParameters);
+                                for (int accession2 : ProteinDictionary.getOthers(sharedAccessions, accessions1)) {
+                                    int tempPrefernce = compareMainProtein(match, proteinDictionary.getAccession(accession2), match, accession1String, identificationFeaturesGenerator, identificationParameters);
                                     if (tempPrefernce == 0) {
                                         best = false;
                                         break;
@@ -294,27 +334,27 @@ public class ProteinInference {
                                         preferenceReason.put(accession2, tempPrefernce);
                                     }
                                 }
-                                if (best && minimalKey == null) {
-                                    minimalKey = key1;
+                                if (best && minimalGroup == -1) {
+                                    minimalGroup = group1;
                                 }
                             }
                         } else {
                             break;
                         }
                     }
-                    if (minimalKey != null) {
-                        for (String key2 : keys) {
-                            if (!key2.equals(minimalKey) && !keysToDelete.contains(key2)) {
-                                keysToDelete.add(key2);
+                    if (minimalGroup != -1) {
+                        for (int group2 : groups) {
+                            if (group2 != minimalGroup && !groupsToDelete.contains(group2)) {
+                                groupsToDelete.add(group2);
                                 for (int reason : preferenceReason.values()) {
                                     if (reason == 1) {
-                                        enzymaticIssue++;
+                                        enzymaticIssue.incrementAndGet();
                                     }
                                     if (reason == 2) {
-                                        evidenceIssue++;
+                                        evidenceIssue.incrementAndGet();
                                     }
                                     if (reason == 3) {
-                                        uncharacterizedIssue++;
+                                        uncharacterizedIssue.incrementAndGet();
                                     }
                                 }
                             }
@@ -325,7 +365,7 @@ public class ProteinInference {
             }
         }
 
-        return minimalKey;
+        return minimalGroup;
     }
 
     /**
@@ -333,28 +373,29 @@ public class ProteinInference {
      * shared group to the list of proteins to delete.
      *
      * @param identification the identification whether to get the matches
-     * @param sharedGroup the key of the shared group
-     * @param uniqueGroup the key of the unique group
-     * @param keysToDelete list of keys to be deleted where sharedGroup will be
-     * added
+     * @param sharedGroup the identifier of the shared group
+     * @param uniqueGroup the identifier of the unique group
+     * @param groupsToDelete set of groups to be deleted where sharedGroup will
+     * be added
      *
      * @throws IllegalArgumentException
      * @throws SQLException
      * @throws IOException
      * @throws ClassNotFoundException
      */
-    private void mergeProteinGroups(Identification identification, String sharedGroup, String uniqueGroup, HashSet<String> keysToDelete)
+    private void mergeProteinGroups(Identification identification, int sharedGroup, int uniqueGroup, HashSet<Integer> groupsToDelete)
             throws IllegalArgumentException, SQLException, IOException, ClassNotFoundException, InterruptedException {
 
-        ProteinMatch sharedMatch = identification.getProteinMatch(sharedGroup);
-        ProteinMatch uniqueMatch = identification.getProteinMatch(uniqueGroup);
+        ProteinDictionary proteinDictionary = proteinGraph.getProteinDictionary();
+        ProteinMatch sharedMatch = identification.getProteinMatch(proteinDictionary.getGroupKey(sharedGroup));
+        ProteinMatch uniqueMatch = identification.getProteinMatch(proteinDictionary.getGroupKey(uniqueGroup));
 
         for (String peptideKey : sharedMatch.getPeptideMatchesKeys()) {
             uniqueMatch.addPeptideMatchKey(peptideKey);
         }
 
-        keysToDelete.add(sharedGroup);
-        explainedGroup++;
+        groupsToDelete.add(sharedGroup);
+        explainedGroup.incrementAndGet();
     }
 
     /**
@@ -378,6 +419,32 @@ public class ProteinInference {
     public void retainBestScoringGroups(Identification identification, Metrics metrics, ProteinMap proteinMap,
             IdentificationParameters identificationParameters, IdentificationFeaturesGenerator identificationFeaturesGenerator, WaitingHandler waitingHandler)
             throws IOException, SQLException, ClassNotFoundException, InterruptedException {
+        retainBestScoringGroups(identification, metrics, proteinMap, identificationParameters, identificationFeaturesGenerator, 1, waitingHandler);
+    }
+
+    /**
+     * Retains the best scoring of intricate groups. The connected components
+     * of the protein graph are processed in parallel.
+     *
+     * @param identification the identification class containing all
+     * identification matches
+     * @param metrics if provided protein metrics will be loaded while iterating
+     * the groups
+     * @param proteinMap the protein matches scoring map
+     * @param identificationParameters the identification parameters
+     * @param identificationFeaturesGenerator the identification feature
+     * generator
+     * @param nThreads the number of threads to use
+     * @param waitingHandler the handler displaying feedback to the user
+     *
+     * @throws IOException thrown if an IOException occurs
+     * @throws InterruptedException thrown if an InterruptedException occurs
+     * @throws SQLException thrown if an SQLException occurs
+     * @throws ClassNotFoundException thrown if a ClassNotFoundException occurs
+     */
+    public void retainBestScoringGroups(Identification identification, Metrics metrics, ProteinMap proteinMap,
+            IdentificationParameters identificationParameters, IdentificationFeaturesGenerator identificationFeaturesGenerator, int nThreads, WaitingHandler waitingHandler)
+            throws IOException, SQLException, ClassNotFoundException, InterruptedException {
 
         waitingHandler.setWaitingText("Simplifying Redundant Protein Groups. Please Wait...");
 
@@ -396,68 +463,23 @@ public class ProteinInference {
         ArrayList<UrParameter> parameters = new ArrayList<UrParameter>(1);
         parameters.add(psParameter);
         if (proteinInferencePreferences.getSimplifyGroups() && proteinInferencePreferences.getSimplifyGroupsScore()) {
-            ProteinMatchesIterator proteinMatchesIterator = identification.getProteinMatchesIterator(parameters, true, parameters, true, parameters, waitingHandler);
-
-            while (proteinMatchesIterator.hasNext()) {
-
-                ProteinMatch proteinMatch = proteinMatchesIterator.next();
 
+            if (proteinGraph == null) {
+                proteinGraph = new ProteinGraph(identification, waitingHandler);
                 if (waitingHandler.isRunCanceled()) {
                     return;
                 }
+            }
 
-                String proteinSharedKey = proteinMatch.getKey();
-                ArrayList<String> sharedAccessions = proteinMatch.getTheoreticProteinsAccessions();
-
-                if (sharedAccessions.size() > 1) {
-
-                    HashSet<String> sharedAccessionsAsSet = null;
-                    psParameter = (PSParameter) identification.getProteinMatchParameter(proteinSharedKey, psParameter);
-                    double sharedProteinProbabilityScore = psParameter.getProteinProbabilityScore();
-                    boolean better = false;
-
-                    for (String accession : sharedAccessions) {
-                        HashSet<String> otherGroups = identification.getProteinMap().get(accession);
-                        for (String proteinUniqueKey : otherGroups) {
-                            if (!proteinUniqueKey.equals(proteinSharedKey)) {
-                                ProteinMatch uniqueProteinMatch = identification.getProteinMatch(proteinUniqueKey, false);
-                                ArrayList<String> uniqueAccessions;
-                                if (uniqueProteinMatch != null) {
-                                    uniqueAccessions = uniqueProteinMatch.getTheoreticProteinsAccessions();
-                                } else {
-                                    uniqueAccessions = getProteins(proteinUniqueKey);
-                                }
-                                if (sharedAccessions.size() >= uniqueAccessions.size()) {
-                                    if (sharedAccessionsAsSet == null) {
-                                        sharedAccessionsAsSet = new HashSet<String>(sharedAccessions);
-                                    }
-                                    if (ProteinMatch.contains(sharedAccessionsAsSet, uniqueAccessions)) {
-                                        psParameter = (PSParameter) identification.getProteinMatchParameter(proteinUniqueKey, psParameter);
-                                        double uniqueProteinProbabilityScore = psParameter.getProteinProbabilityScore();
-                                        ProteinMatch proteinUnique = identification.getProteinMatch(proteinUniqueKey);
-                                        ProteinMatch proteinShared = identification.getProteinMatch(proteinSharedKey);
-                                        for (String sharedPeptideKey : proteinShared.getPeptideMatchesKeys()) {
-                                            proteinUnique.addPeptideMatchKey(sharedPeptideKey);
-                                        }
-                                        identification.updateProteinMatch(proteinUnique);
-                                        if (uniqueProteinProbabilityScore <= sharedProteinProbabilityScore) {
-                                            better = true;
-                                        }
-                                    }
-                                }
-                            }
-                        }
-                    }
-
-                    if (better) {
-                        toRemove.add(proteinSharedKey);
-                    } else {
-                        waitingHandler.increaseSecondaryProgressCounter();
-                        if (waitingHandler.isRunCanceled()) {
-                            return;
-                        }
-                    }
-                }
+            ArrayList<Callable<ArrayList<String>>> componentSelectors = new ArrayList<Callable<ArrayList<String>>>();
+            for (int[] component : proteinGraph.getComponents()) {
+                componentSelectors.add(new ComponentBestGroupsSelector(identification, component, waitingHandler));
+            }
+            for (ArrayList<String> componentToRemove : processComponents(componentSelectors, nThreads)) {
+                toRemove.addAll(componentToRemove);
+            }
+            if (waitingHandler.isRunCanceled()) {
+                return;
             }
 
             if (!toRemove.isEmpty()) {
@@ -471,7 +493,7 @@ public class ProteinInference {
             }
         }
 
-        clearCache();
+        proteinGraph = null;
         ProteinMatch.clearCache();
 
         int nSolved = toRemove.size();
@@ -722,26 +744,153 @@ public class ProteinInference {
     }
 
     /**
-     * Parses a protein description retaining only words longer than 3
-     * characters.
+     * Returns the keys of the groups of a connected component of the protein
+     * graph which are explained by a better scoring subgroup. The peptides of
+     * these groups are added to the subgroups.
      *
-     * @param proteinAccession the accession of the inspected protein
-     * @return description words longer than 3 characters
+     * @param identification the identification class containing all
+     * identification matches
+     * @param component the identifiers of the groups of the component
+     * @param waitingHandler the handler displaying feedback to the user
+     *
+     * @return the keys of the groups to remove
+     *
+     * @throws IOException thrown if an IOException occurs
+     * @throws InterruptedException thrown if an InterruptedException occurs
+     * @throws SQLException thrown if an SQLException occurs
+     * @throws ClassNotFoundException thrown if a ClassNotFoundException occurs
      */
-    private ArrayList<String> parseDescription(String proteinAccession) throws IOException, IllegalArgumentException, InterruptedException, ClassNotFoundException {
-        String description = sequenceFactory.getHeader(proteinAccession).getSimpleProteinDescription();
+    private ArrayList<String> retainBestScoringGroups(Identification identification, int[] component, WaitingHandler waitingHandler)
+            throws IOException, SQLException, ClassNotFoundException, InterruptedException {
+
+        ProteinDictionary proteinDictionary = proteinGraph.getProteinDictionary();
+        ArrayList<String> toRemove = new ArrayList<String>(0);
+        PSParameter psParameter = new PSParameter();
+
+        for (int sharedGroup : component) {
+
+            if (waitingHandler.isRunCanceled()) {
+                return toRemove;
+            }
+
+            int[] sharedAccessions = proteinDictionary.getGroupAccessions(sharedGroup);
+
+            if (sharedAccessions.length > 1) {
+
+                String proteinSharedKey = proteinDictionary.getGroupKey(sharedGroup);
+                psParameter = (PSParameter) identification.getProteinMatchParameter(proteinSharedKey, psParameter);
+                double sharedProteinProbabilityScore = psParameter.getProteinProbabilityScore();
+                boolean better = false;
+
+                for (int accession : sharedAccessions) {
+                    for (int uniqueGroup : proteinGraph.getGroups(accession)) {
+                        if (uniqueGroup != sharedGroup && ProteinDictionary.contains(sharedAccessions, proteinDictionary.getGroupAccessions(uniqueGroup))) {
+                            String proteinUniqueKey = proteinDictionary.getGroupKey(uniqueGroup);
+                            psParameter = (PSParameter) identification.getProteinMatchParameter(proteinUniqueKey, psParameter);
+                            double uniqueProteinProbabilityScore = psParameter.getProteinProbabilityScore();
+                            ProteinMatch proteinUnique = identification.getProteinMatch(proteinUniqueKey);
+                            ProteinMatch proteinShared = identification.getProteinMatch(proteinSharedKey);
+                            for (String sharedPeptideKey : proteinShared.getPeptideMatchesKeys()) {
+                                proteinUnique.addPeptideMatchKey(sharedPeptideKey);
+                            }
+                            identification.updateProteinMatch(proteinUnique);
+                            if (uniqueProteinProbabilityScore <= sharedProteinProbabilityScore) {
+                                better = true;
+                            }
+                        }
+                    }
+                }
+
+                if (better) {
+                    toRemove.add(proteinSharedKey);
+                } else {
+                    waitingHandler.increaseSecondaryProgressCounter();
+                }
+            }
+        }
+
+        return toRemove;
+    }
+
+    /**
+     * Runs the given tasks on the connected components of the protein graph
+     * and returns their results in the order of the tasks. The tasks are
+     * expected to be sorted by decreasing component size to balance the load
+     * between threads.
+     *
+     * @param <T> the type of result of the tasks
+     * @param tasks the tasks to run
+     * @param nThreads the number of threads to use
+     *
+     * @return the results of the tasks
+     *
+     * @throws IOException thrown if an IOException occurs
+     * @throws InterruptedException thrown if an InterruptedException occurs
+     * @throws SQLException thrown if an SQLException occurs
+     * @throws ClassNotFoundException thrown if a ClassNotFoundException occurs
+     */
+    private <T> ArrayList<T> processComponents(ArrayList<Callable<T>> tasks, int nThreads)
+            throws IOException, SQLException, ClassNotFoundException, InterruptedException {
 
-        if (description == null) {
-            return new ArrayList<String>();
+        ArrayList<T> results = new ArrayList<T>(tasks.size());
+
+        if (nThreads <= 1 || tasks.size() <= 1) {
+            for (Callable<T> task : tasks) {
+                try {
+                    results.add(task.call());
+                } catch (Exception e) {
+                    throwException(e);
+                }
+            }
+            return results;
         }
 
-        ArrayList<String> result = new ArrayList<String>();
-        for (String component : description.split(" ")) {
-            if (component.length() > 3) {
-                result.add(component);
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+        ArrayList<Future<T>> futures = new ArrayList<Future<T>>(tasks.size());
+        for (Callable<T> task : tasks) {
+            futures.add(pool.submit(task));
+        }
+        pool.shutdown();
+        try {
+            for (Future<T> future : futures) {
+                results.add(future.get());
             }
+        } catch (ExecutionException e) {
+            pool.shutdownNow();
+            throwException(e.getCause());
+        }
+        if (!pool.awaitTermination(7, TimeUnit.DAYS)) {
+            throw new InterruptedException("Protein inference timed out. Please contact the developers.");
+        }
+        return results;
+    }
+
+    /**
+     * Throws the given exception thrown while processing a component of the
+     * protein graph.
+     *
+     * @param throwable the exception thrown while processing the component
+     *
+     * @throws IOException thrown if an IOException occurs
+     * @throws InterruptedException thrown if an InterruptedException occurs
+     * @throws SQLException thrown if an SQLException occurs
+     * @throws ClassNotFoundException thrown if a ClassNotFoundException occurs
+     */
+    private static void throwException(Throwable throwable) throws IOException, SQLException, ClassNotFoundException, InterruptedException {
+        if (throwable instanceof IOException) {
+            throw (IOException) throwable;
+        } else if (throwable instanceof SQLException) {
+            throw (SQLException) throwable;
+        } else if (throwable instanceof ClassNotFoundException) {
+            throw (ClassNotFoundException) throwable;
+        } else if (throwable instanceof InterruptedException) {
+            throw (InterruptedException) throwable;
+        } else if (throwable instanceof RuntimeException) {
+            throw (RuntimeException) throwable;
+        } else if (throwable instanceof Error) {
+            throw (Error) throwable;
         }
-        return result;
+        throw new IllegalStateException(throwable);
     }
 
     /**
@@ -790,8 +939,8 @@ public class ProteinInference {
         }
 
         if (proteinInferencePreferences.getSimplifyGroupsEvidence()) {
-            String evidenceLevelOld = sequenceFactory.getHeader(oldAccession).getProteinEvidence();
-            String evidenceLevelNew = sequenceFactory.getHeader(newAccession).getProteinEvidence();
+            String evidenceLevelOld = proteinDescriptionIndex.getDescription(oldAccession).proteinEvidence;
+            String evidenceLevelNew = proteinDescriptionIndex.getDescription(newAccession).proteinEvidence;
 
             // compare protein evidence levels
             if (evidenceLevelOld != null && evidenceLevelNew != null) {
@@ -819,27 +968,8 @@ public class ProteinInference {
 
         if (proteinInferencePreferences.getSimplifyGroupsUncharacterized()) {
             // Compare descriptions for keywords of uncharacterized proteins
-            String oldDescription = sequenceFactory.getHeader(oldAccession).getSimpleProteinDescription();
-            String newDescription = sequenceFactory.getHeader(newAccession).getSimpleProteinDescription();
-
-            // if the description is not set, return the accessions instead - fix for home made fasta headers
-            if (oldDescription == null || oldDescription.trim().isEmpty()) {
-                oldDescription = oldAccession;
-            }
-            if (newDescription == null || newDescription.trim().isEmpty()) {
-                newDescription = newAccession;
-            }
-
-            boolean oldUncharacterized = false, newUncharacterized = false;
-            String[] keyWords = {"Uncharacterized", "Putative"};
-            for (String keyWord : keyWords) {
-                if (newDescription.contains(keyWord)) {
-                    newUncharacterized = true;
-                }
-                if (oldDescription.contains(keyWord)) {
-                    oldUncharacterized = true;
-                }
-            }
+            boolean oldUncharacterized = proteinDescriptionIndex.getDescription(oldAccession).uncharacterized;
+            boolean newUncharacterized = proteinDescriptionIndex.getDescription(newAccession).uncharacterized;
             if (oldUncharacterized && !newUncharacterized) {
                 return 3;
             } else if (!oldUncharacterized && newUncharacterized) {
@@ -860,105 +990,101 @@ public class ProteinInference {
      * @return a boolean indicating whether the proteins are similar
      */
     private boolean getSimilarity(String primaryProteinAccession, String secondaryProteinAccession) throws IOException, IllegalArgumentException, InterruptedException, ClassNotFoundException {
+        return proteinDescriptionIndex.getSimilarity(primaryProteinAccession, secondaryProteinAccession);
+    }
 
-        String geneNamePrimaryProtein = sequenceFactory.getHeader(primaryProteinAccession).getGeneName();
-        String geneNameSecondaryProtein = sequenceFactory.getHeader(secondaryProteinAccession).getGeneName();
-        boolean sameGene = false;
-
-        // compare the gene names
-        if (geneNamePrimaryProtein != null && geneNameSecondaryProtein != null) {
-            sameGene = geneNamePrimaryProtein.equalsIgnoreCase(geneNameSecondaryProtein);
+    /**
+     * Callable simplifying the groups of a connected component of the protein
+     * graph. Returns the identifiers of the groups explained by a simpler
+     * group.
+     */
+    private class ComponentSimplifier implements Callable<HashSet<Integer>> {
+
+        /**
+         * The identification.
+         */
+        private final Identification identification;
+        /**
+         * The identifiers of the groups of the component.
+         */
+        private final int[] component;
+        /**
+         * The identification parameters.
+         */
+        private final IdentificationParameters identificationParameters;
+        /**
+         * The identification features generator.
+         */
+        private final IdentificationFeaturesGenerator identificationFeaturesGenerator;
+        /**
+         * The handler displaying feedback to the user.
+         */
+        private final WaitingHandler waitingHandler;
+
+        /**
+         * Constructor.
+         *
+         * @param identification the identification
+         * @param component the identifiers of the groups of the component
+         * @param identificationParameters the identification parameters
+         * @param identificationFeaturesGenerator the identification features
+         * generator
+         * @param waitingHandler the handler displaying feedback to the user
+         */
+        public ComponentSimplifier(Identification identification, int[] component, IdentificationParameters identificationParameters,
+                IdentificationFeaturesGenerator identificationFeaturesGenerator, WaitingHandler waitingHandler) {
+            this.identification = identification;
+            this.component = component;
+            this.identificationParameters = identificationParameters;
+            this.identificationFeaturesGenerator = identificationFeaturesGenerator;
+            this.waitingHandler = waitingHandler;
         }
 
-        if (sameGene) {
-            return true;
-        } else {
-
-            // compare gene names, similar gene names often means related proteins, like CPNE3 and CPNE2
-            if (geneNamePrimaryProtein != null && geneNameSecondaryProtein != null) {
-
-                // one gene name is a substring of the other, for example: EEF1A1 and EEF1A1P5
-                if (geneNamePrimaryProtein.contains(geneNameSecondaryProtein) || geneNameSecondaryProtein.contains(geneNamePrimaryProtein)) {
-                    return true;
-                }
-
-                // equal but for the last character, for example: CPNE3 and CPNE2
-                if ((geneNameSecondaryProtein.length() > 2 && geneNamePrimaryProtein.contains(geneNameSecondaryProtein.substring(0, geneNameSecondaryProtein.length() - 2)))
-                        || (geneNamePrimaryProtein.length() > 2 && geneNameSecondaryProtein.contains(geneNamePrimaryProtein.substring(0, geneNamePrimaryProtein.length() - 2)))) {
-                    return true;
-                }
-
-                // equal but for the two last characters, for example: CPNE11 and CPNE12
-                if ((geneNameSecondaryProtein.length() > 3 && geneNamePrimaryProtein.contains(geneNameSecondaryProtein.substring(0, geneNameSecondaryProtein.length() - 3)))
-                        || (geneNamePrimaryProtein.length() > 3 && geneNameSecondaryProtein.contains(geneNamePrimaryProtein.substring(0, geneNamePrimaryProtein.length() - 3)))) {
-                    return true;
-                }
-
-                // @TODO: support more complex gene families?
-            }
-
-            // compare the protein descriptions, less secure than gene names
-            ArrayList<String> primaryDescription = parseDescription(primaryProteinAccession);
-            ArrayList<String> secondaryDescription = parseDescription(secondaryProteinAccession);
-
-            if (primaryDescription.size() > secondaryDescription.size()) {
-                int nMatch = 0;
-                for (String secondaryDescription1 : secondaryDescription) {
-                    if (primaryDescription.contains(secondaryDescription1)) {
-                        nMatch++;
-                    }
-                }
-                return nMatch >= secondaryDescription.size() / 2;
-            } else {
-                int nMatch = 0;
-                for (String primaryDescription1 : primaryDescription) {
-                    if (secondaryDescription.contains(primaryDescription1)) {
-                        nMatch++;
-                    }
-                }
-                return nMatch >= primaryDescription.size() / 2;
+        @Override
+        public HashSet<Integer> call() throws Exception {
+            HashSet<Integer> toDelete = new HashSet<Integer>();
+            if (waitingHandler == null || !waitingHandler.isRunCanceled()) {
+                removeRedundantGroups(identification, component, toDelete, identificationParameters, identificationFeaturesGenerator, waitingHandler);
             }
+            return toDelete;
         }
     }
 
     /**
-     * Returns the proteins of a group key. Uses
-     * ProteinMatch.getAccessions(groupKey) after checking if the protein group
-     * is in cache. Manages cache update and size.
-     *
-     * @param groupKey the group key of interest
-     *
-     * @return the proteins of a group key
+     * Callable selecting the best scoring groups of a connected component of
+     * the protein graph. Returns the keys of the groups to remove.
      */
-    private ArrayList<String> getProteins(String groupKey) {
-        ArrayList<String> result = proteinGroupCache.get(groupKey);
-        if (result == null) {
-            result = new ArrayList<String>(Arrays.asList(ProteinMatch.getAccessions(groupKey)));
-            if (result.size() > sizeOfProteinsInCache) {
-                proteinGroupCache.put(groupKey, result);
-                if (proteinGroupCache.size() > cacheSize) {
-                    int smallestSize = sizeOfProteinsInCache;
-                    String smallestGroup = null;
-                    for (String key : proteinGroupCache.keySet()) {
-                        ArrayList<String> group = proteinGroupCache.get(key);
-                        if (smallestGroup == null || group.size() < smallestSize) {
-                            smallestGroup = key;
-                            smallestSize = group.size();
-                        }
-                    }
-                    proteinGroupCache.remove(smallestGroup);
-                    sizeOfProteinsInCache = smallestSize;
-                }
-            }
+    private class ComponentBestGroupsSelector implements Callable<ArrayList<String>> {
+
+        /**
+         * The identification.
+         */
+        private final Identification identification;
+        /**
+         * The identifiers of the groups of the component.
+         */
+        private final int[] component;
+        /**
+         * The handler displaying feedback to the user.
+         */
+        private final WaitingHandler waitingHandler;
+
+        /**
+         * Constructor.
+         *
+         * @param identification the identification
+         * @param component the identifiers of the groups of the component
+         * @param waitingHandler the handler displaying feedback to the user
+         */
+        public ComponentBestGroupsSelector(Identification identification, int[] component, WaitingHandler waitingHandler) {
+            this.identification = identification;
+            this.component = component;
+            this.waitingHandler = waitingHandler;
         }
-        return result;
-    }
 
-    /**
-     * Clears the cache.
-     */
-    private void clearCache() {
-        proteinGroupCache.clear();
-        sizeOfProteinsInCache = 10;
+        @Override
+        public ArrayList<String> call() throws Exception {
+            return retainBestScoringGroups(identification, component, waitingHandler);
+        }
     }
 }
@@ -0,0 +1,223 @@
+package eu.isas.peptideshaker.ptm;
+
+import com.compomics.util.experiment.biology.PTM;
+import com.compomics.util.experiment.biology.PTMFactory;
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.identification.identification_parameters.PtmSettings;
+import com.compomics.util.preferences.IdentificationParameters;
+import com.compomics.util.preferences.SequenceMatchingPreferences;
+import eu.isas.peptideshaker.utils.MemoryBoundedCache;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Index of the modification sites used for the PTM localization. The not
+ * fixed PTMs of the PTM settings are grouped by mass once, and the potential
+ * sites of a PTM on a peptide sequence are computed at most once and stored
+ * as a sorted array of sites until the memory gets short. The index reflects
+ * the PTM settings, the PTM definitions and the sequence matching preferences
+ * at the time of its creation: it is created at the start of every processing
+ * step and given to the threads of this step.
+ *
+ * @author Marc Vaudel
+ */
+public class ModificationSiteIndex {
+
+    /**
+     * The separator used for the keys of the sites cache.
+     */
+    private static final String SEPARATOR = "_cc_";
+    /**
+     * The PTM factory.
+     */
+    private final PTMFactory ptmFactory = PTMFactory.getInstance();
+    /**
+     * The PTM settings indexed.
+     */
+    private final PtmSettings ptmSettings;
+    /**
+     * The sequence matching preferences.
+     */
+    private final SequenceMatchingPreferences sequenceMatchingPreferences;
+    /**
+     * The sequence matching preferences used for the PTM localization.
+     */
+    private final SequenceMatchingPreferences ptmSequenceMatchingPreferences;
+    /**
+     * The not fixed PTMs indexed by mass.
+     */
+    private final ConcurrentHashMap<Double, ArrayList<PTM>> similarPtms = new ConcurrentHashMap<Double, ArrayList<PTM>>();
+    /**
+     * Map indicating for the not fixed PTMs whether they can be found
+     * elsewhere than on the peptide termini.
+     */
+    private final ConcurrentHashMap<String, Boolean> maybeNotTerminal = new ConcurrentHashMap<String, Boolean>();
+    /**
+     * The potential sites cache: peptide sequence_cc_PTM name | sorted sites.
+     */
+    private final MemoryBoundedCache<String, int[]> potentialSites = new MemoryBoundedCache<String, int[]>();
+
+    /**
+     * Constructor.
+     *
+     * @param identificationParameters the identification parameters
+     */
+    public ModificationSiteIndex(IdentificationParameters identificationParameters) {
+        this.ptmSettings = identificationParameters.getSearchParameters().getPtmSettings();
+        this.sequenceMatchingPreferences = identificationParameters.getSequenceMatchingPreferences();
+        this.ptmSequenceMatchingPreferences = identificationParameters.getPtmScoringPreferences().getSequenceMatchingPreferences();
+        for (String ptmName : ptmSettings.getAllNotFixedModifications()) {
+            double ptmMass = ptmFactory.getPTM(ptmName).getMass();
+            if (!similarPtms.containsKey(ptmMass)) {
+                similarPtms.put(ptmMass, getSimilarPtmsFromSettings(ptmMass));
+            }
+        }
+        for (String ptmName : ptmSettings.getAllNotFixedModifications()) {
+            maybeNotTerminal.put(ptmName, isMaybeNotTerminalFromSettings(ptmName));
+        }
+    }
+
+    /**
+     * Returns the not fixed PTMs of the given mass, see
+     * PtmSettings.getSimilarNotFixedModifications. The returned list should
+     * not be modified.
+     *
+     * @param ptmMass the mass of the PTM
+     *
+     * @return the not fixed PTMs of the given mass
+     */
+    public ArrayList<PTM> getSimilarPtms(double ptmMass) {
+        ArrayList<PTM> result = similarPtms.get(ptmMass);
+        if (result == null) {
+            result = getSimilarPtmsFromSettings(ptmMass);
+            ArrayList<PTM> previous = similarPtms.putIfAbsent(ptmMass, result);
+            if (previous != null) {
+                result = previous;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the not fixed PTMs of the given mass from the PTM settings.
+     *
+     * @param ptmMass the mass of the PTM
+     *
+     * @return the not fixed PTMs of the given mass
+     */
+    private ArrayList<PTM> getSimilarPtmsFromSettings(double ptmMass) {
+        ArrayList<String> ptmNames = ptmSettings.getSimilarNotFixedModifications(ptmMass);
+        ArrayList<PTM> result = new ArrayList<PTM>(ptmNames.size());
+        for (String ptmName : ptmNames) {
+            result.add(ptmFactory.getPTM(ptmName));
+        }
+        return result;
+    }
+
+    /**
+     * Indicates whether a PTM can be found elsewhere than on the peptide
+     * termini, i.e. whether it is of type PTM.MODAA or has the mass of another
+     * not fixed PTM of different type.
+     *
+     * @param ptmName the name of the PTM
+     *
+     * @return a boolean indicating whether the PTM can be found elsewhere than
+     * on the peptide termini
+     */
+    public boolean isMaybeNotTerminal(String ptmName) {
+        Boolean result = maybeNotTerminal.get(ptmName);
+        if (result == null) {
+            result = isMaybeNotTerminalFromSettings(ptmName);
+            maybeNotTerminal.put(ptmName, result);
+        }
+        return result;
+    }
+
+    /**
+     * Indicates whether a PTM can be found elsewhere than on the peptide
+     * termini based on the PTM settings.
+     *
+     * @param ptmName the name of the PTM
+     *
+     * @return a boolean indicating whether the PTM can be found elsewhere than
+     * on the peptide termini
+     */
+    private boolean isMaybeNotTerminalFromSettings(String ptmName) {
+        PTM ptm = ptmFactory.getPTM(ptmName);
+        if (ptm.getType() == PTM.MODAA) {
+            return true;
+        }
+        for (PTM ptm2 : getSimilarPtms(ptm.getMass())) {
+            if (!ptm2.getName().equals(ptmName) && ptm.getType() != ptm2.getType()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the potential modification sites of a PTM on a peptide in
+     * ascending order, see Peptide.getPotentialModificationSites. 1 is the
+     * first amino acid. The returned array should not be modified.
+     *
+     * @param peptide the peptide
+     * @param ptm the PTM
+     *
+     * @return the potential modification sites of the PTM on the peptide
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading a protein sequence
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interacting with the database
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing an object
+     * @throws InterruptedException exception thrown whenever a threading error
+     * occurred while reading a protein sequence
+     */
+    public int[] getPotentialSites(Peptide peptide, PTM ptm) throws IOException, SQLException, ClassNotFoundException, InterruptedException {
+
+        String key = peptide.getSequence() + SEPARATOR + ptm.getName();
+        int[] result = potentialSites.get(key);
+
+        if (result == null) {
+            ArrayList<Integer> sites = peptide.getPotentialModificationSites(ptm, sequenceMatchingPreferences, ptmSequenceMatchingPreferences);
+            Collections.sort(sites);
+            result = new int[sites.size()];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = sites.get(i);
+            }
+            result = potentialSites.putIfAbsent(key, result);
+        }
+
+        return result;
+    }
+
+    /**
+     * Indicates whether a site is a potential modification site of a PTM on a
+     * peptide.
+     *
+     * @param peptide the peptide
+     * @param ptm the PTM
+     * @param site the site, 1 is the first amino acid
+     *
+     * @return a boolean indicating whether the site is a potential
+     * modification site of the PTM on the peptide
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading a protein sequence
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interacting with the database
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing an object
+     * @throws InterruptedException exception thrown whenever a threading error
+     * occurred while reading a protein sequence
+     */
+    public boolean isPotentialSite(Peptide peptide, PTM ptm, int site) throws IOException, SQLException, ClassNotFoundException, InterruptedException {
+        return Arrays.binarySearch(getPotentialSites(peptide, ptm), site) >= 0;
+    }
+}
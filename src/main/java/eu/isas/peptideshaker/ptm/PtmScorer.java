@@ -7,7 +7,6 @@ import com.compomics.util.experiment.biology.Peptide;
 import com.compomics.util.experiment.biology.Protein;
 import com.compomics.util.experiment.identification.Identification;
 import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
-import com.compomics.util.experiment.identification.identification_parameters.SearchParameters;
 import com.compomics.util.experiment.identification.protein_sequences.SequenceFactory;
 import com.compomics.util.experiment.identification.SpectrumIdentificationAssumption;
 import com.compomics.util.experiment.identification.matches.ModificationMatch;
@@ -23,11 +22,9 @@ import com.compomics.util.experiment.identification.ptm.ptmscores.AScore;
 import com.compomics.util.experiment.identification.ptm.ptmscores.PhosphoRS;
 import com.compomics.util.experiment.identification.spectrum_annotation.spectrum_annotators.PeptideSpectrumAnnotator;
 import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
-import com.compomics.util.experiment.massspectrometry.SpectrumFactory;
 import com.compomics.util.experiment.personalization.UrParameter;
 import com.compomics.util.experiment.identification.spectrum_annotation.AnnotationSettings;
 import com.compomics.util.preferences.IdentificationParameters;
-import com.compomics.util.experiment.identification.identification_parameters.PtmSettings;
 import com.compomics.util.preferences.PTMScoringPreferences;
 import com.compomics.util.preferences.SequenceMatchingPreferences;
 import com.compomics.util.experiment.identification.spectrum_annotation.SpecificAnnotationSettings;
@@ -41,15 +38,20 @@ import eu.isas.peptideshaker.scoring.PtmScoring;
 import eu.isas.peptideshaker.scoring.targetdecoy.TargetDecoyMap;
 import eu.isas.peptideshaker.scoring.targetdecoy.TargetDecoyResults;
 import eu.isas.peptideshaker.utils.IdentificationFeaturesGenerator;
+import eu.isas.peptideshaker.utils.KeysChunks;
 import eu.isas.peptideshaker.utils.Metrics;
+import eu.isas.peptideshaker.utils.SpectrumAnnotationCache;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -68,10 +70,6 @@ public class PtmScorer {
      * The PTM factory.
      */
     private PTMFactory ptmFactory = PTMFactory.getInstance();
-    /**
-     * The spectrum factory.
-     */
-    private SpectrumFactory spectrumFactory = SpectrumFactory.getInstance();
     /**
      * The protein sequence factory.
      */
@@ -108,6 +106,32 @@ public class PtmScorer {
      * while interacting with the database
      */
     public void attachDeltaScore(Identification identification, SpectrumMatch spectrumMatch, SequenceMatchingPreferences sequenceMatchingPreferences) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+        HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptionsMap = identification.getAssumptions(spectrumMatch.getKey());
+        attachDeltaScore(identification, spectrumMatch, assumptionsMap, sequenceMatchingPreferences);
+    }
+
+    /**
+     * Scores the PTM locations using the delta score using the given
+     * assumptions of the spectrum match, avoiding to load them from the
+     * database.
+     *
+     * @param identification identification object containing the identification
+     * matches
+     * @param spectrumMatch the spectrum match of interest
+     * @param assumptionsMap the assumptions of the spectrum match
+     * @param sequenceMatchingPreferences the sequence matching preferences
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * interacting with a file
+     * @throws SQLException thrown whenever an error occurred while interacting
+     * with the database
+     * @throws ClassNotFoundException thrown whenever an error occurred while
+     * deserializing a match from the database
+     * @throws InterruptedException thrown whenever a threading error occurred
+     * while interacting with the database
+     */
+    public void attachDeltaScore(Identification identification, SpectrumMatch spectrumMatch, HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptionsMap,
+            SequenceMatchingPreferences sequenceMatchingPreferences) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
 
         HashMap<String, ArrayList<Integer>> modificationProfiles = new HashMap<String, ArrayList<Integer>>();
         PSPtmScores ptmScores = new PSPtmScores();
@@ -119,7 +143,6 @@ public class PtmScorer {
         PSParameter psParameter = new PSParameter();
         double p1 = 1;
         Peptide psPeptide = spectrumMatch.getBestPeptideAssumption().getPeptide();
-        HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptionsMap = identification.getAssumptions(spectrumMatch.getKey());
         for (Integer id : assumptionsMap.keySet()) {
             HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> algorithmAssumptions = assumptionsMap.get(id);
             for (ArrayList<SpectrumIdentificationAssumption> assumptionsAtScore : algorithmAssumptions.values()) {
@@ -241,7 +264,10 @@ public class PtmScorer {
      * @param spectrumMatch the spectrum match studied, the A-score will be
      * calculated for the best assumption
      * @param identificationParameters the identification parameters
+     * @param modificationSiteIndex the index of the modification sites
      * @param peptideSpectrumAnnotator the peptide spectrum annotator
+     * @param spectrumAnnotationCache the spectrum annotation cache of the
+     * thread
      *
      * @throws IOException exception thrown whenever an error occurred while
      * interacting with a file
@@ -257,16 +283,13 @@ public class PtmScorer {
      * error occurred while computing the PTM scores
      */
     private void attachProbabilisticScore(Identification identification, SpectrumMatch spectrumMatch, IdentificationParameters identificationParameters,
-            PeptideSpectrumAnnotator peptideSpectrumAnnotator) throws IOException, InterruptedException, ClassNotFoundException, SQLException, MzMLUnmarshallerException, MathException {
+            ModificationSiteIndex modificationSiteIndex, PeptideSpectrumAnnotator peptideSpectrumAnnotator, SpectrumAnnotationCache spectrumAnnotationCache) throws IOException, InterruptedException, ClassNotFoundException, SQLException, MzMLUnmarshallerException, MathException {
 
-        SearchParameters searchParameters = identificationParameters.getSearchParameters();
         AnnotationSettings annotationPreferences = identificationParameters.getAnnotationPreferences();
         PTMScoringPreferences scoringPreferences = identificationParameters.getPtmScoringPreferences();
         SequenceMatchingPreferences sequenceMatchingPreferences = identificationParameters.getSequenceMatchingPreferences(),
                 ptmSequenceMatchingPreferences = scoringPreferences.getSequenceMatchingPreferences();
 
-        PtmSettings ptmProfile = searchParameters.getPtmSettings();
-
         PSPtmScores ptmScores = new PSPtmScores();
         if (spectrumMatch.getUrParam(ptmScores) != null) {
             ptmScores = (PSPtmScores) spectrumMatch.getUrParam(ptmScores);
@@ -283,11 +306,7 @@ public class PtmScorer {
                     PTM refPTM = ptmFactory.getPTM(modificationMatch.getTheoreticPtm());
                     double ptmMass = refPTM.getMass();
                     if (!modifications.containsKey(ptmMass)) {
-                        ArrayList<PTM> ptms = new ArrayList<PTM>();
-                        for (String ptm : ptmProfile.getSimilarNotFixedModifications(ptmMass)) {
-                            ptms.add(ptmFactory.getPTM(ptm));
-                        }
-                        modifications.put(ptmMass, ptms);
+                        modifications.put(ptmMass, modificationSiteIndex.getSimilarPtms(ptmMass));
                         nMod.put(ptmMass, 1);
                     } else {
                         nMod.put(ptmMass, nMod.get(ptmMass) + 1);
@@ -298,8 +317,8 @@ public class PtmScorer {
 
         if (!modifications.isEmpty()) {
 
-            MSnSpectrum spectrum = (MSnSpectrum) spectrumFactory.getSpectrum(spectrumMatch.getKey());
-            SpecificAnnotationSettings specificAnnotationPreferences = annotationPreferences.getSpecificAnnotationPreferences(spectrum.getSpectrumKey(), bestPeptideAssumption, identificationParameters.getSequenceMatchingPreferences(), identificationParameters.getPtmScoringPreferences().getSequenceMatchingPreferences());
+            MSnSpectrum spectrum = spectrumAnnotationCache.getSpectrum(spectrumMatch.getKey());
+            SpecificAnnotationSettings specificAnnotationPreferences = spectrumAnnotationCache.getSpecificAnnotationSettings(spectrumMatch.getKey(), bestPeptideAssumption, identificationParameters);
 
             for (Double ptmMass : modifications.keySet()) {
                 HashMap<Integer, Double> scores = null;
@@ -325,7 +344,7 @@ public class PtmScorer {
                         if (site == 0) {
                             // N-term ptm
                             for (PTM ptm : modifications.get(ptmMass)) {
-                                if (ptm.isNTerm() && peptide.getPotentialModificationSites(ptm, sequenceMatchingPreferences, ptmSequenceMatchingPreferences).contains(1)) {
+                                if (ptm.isNTerm() && modificationSiteIndex.isPotentialSite(peptide, ptm, 1)) {
                                     mappedModification = ptm;
                                     break;
                                 }
@@ -336,7 +355,7 @@ public class PtmScorer {
                         } else if (site == peptideSequence.length() + 1) {
                             // C-term ptm
                             for (PTM ptm : modifications.get(ptmMass)) {
-                                if (ptm.isCTerm() && peptide.getPotentialModificationSites(ptm, sequenceMatchingPreferences, ptmSequenceMatchingPreferences).contains(peptideSequence.length())) {
+                                if (ptm.isCTerm() && modificationSiteIndex.isPotentialSite(peptide, ptm, peptideSequence.length())) {
                                     mappedModification = ptm;
                                     break;
                                 }
@@ -346,7 +365,7 @@ public class PtmScorer {
                             }
                         } else {
                             for (PTM ptm : modifications.get(ptmMass)) {
-                                if (peptide.getPotentialModificationSites(ptm, sequenceMatchingPreferences, ptmSequenceMatchingPreferences).contains(site)) {
+                                if (modificationSiteIndex.isPotentialSite(peptide, ptm, site)) {
                                     mappedModification = ptm;
                                     break;
                                 }
@@ -382,9 +401,12 @@ public class PtmScorer {
      * matches
      * @param spectrumMatch the spectrum match of interest
      * @param identificationParameters the parameters used for identification
+     * @param modificationSiteIndex the index of the modification sites
      * @param waitingHandler waiting handler to display progress and allow
      * canceling
      * @param peptideSpectrumAnnotator the spectrum annotator
+     * @param spectrumAnnotationCache the spectrum annotation cache of the
+     * thread
      *
      * @throws IOException exception thrown whenever an error occurred while
      * interacting with a file
@@ -400,16 +422,52 @@ public class PtmScorer {
      * error occurred while computing the PTM scores
      */
     public void scorePTMs(Identification identification, SpectrumMatch spectrumMatch, IdentificationParameters identificationParameters,
-            WaitingHandler waitingHandler, PeptideSpectrumAnnotator peptideSpectrumAnnotator)
-            throws SQLException, IOException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException, MathException {
+            ModificationSiteIndex modificationSiteIndex, WaitingHandler waitingHandler, PeptideSpectrumAnnotator peptideSpectrumAnnotator,
+            SpectrumAnnotationCache spectrumAnnotationCache) throws SQLException, IOException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException, MathException {
+        HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptionsMap = identification.getAssumptions(spectrumMatch.getKey());
+        scorePTMs(identification, spectrumMatch, assumptionsMap, identificationParameters, modificationSiteIndex, waitingHandler, peptideSpectrumAnnotator, spectrumAnnotationCache);
+    }
+
+    /**
+     * Scores PTMs in a spectrum match using the given assumptions of the
+     * spectrum match, avoiding to load them from the database.
+     *
+     * @param identification identification object containing the identification
+     * matches
+     * @param spectrumMatch the spectrum match of interest
+     * @param assumptionsMap the assumptions of the spectrum match
+     * @param identificationParameters the parameters used for identification
+     * @param modificationSiteIndex the index of the modification sites
+     * @param waitingHandler waiting handler to display progress and allow
+     * canceling
+     * @param peptideSpectrumAnnotator the spectrum annotator
+     * @param spectrumAnnotationCache the spectrum annotation cache of the
+     * thread
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * interacting with a file
+     * @throws SQLException thrown whenever an error occurred while interacting
+     * with the database
+     * @throws ClassNotFoundException thrown whenever an error occurred while
+     * deserializing a match from the database
+     * @throws InterruptedException thrown whenever a threading error occurred
+     * while interacting with the database
+     * @throws MzMLUnmarshallerException thrown whenever an error occurred while
+     * reading an mzML file
+     * @throws org.apache.commons.math.MathException thrown whenever a math
+     * error occurred while computing the PTM scores
+     */
+    public void scorePTMs(Identification identification, SpectrumMatch spectrumMatch, HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptionsMap,
+            IdentificationParameters identificationParameters, ModificationSiteIndex modificationSiteIndex, WaitingHandler waitingHandler, PeptideSpectrumAnnotator peptideSpectrumAnnotator,
+            SpectrumAnnotationCache spectrumAnnotationCache) throws SQLException, IOException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException, MathException {
 
         SequenceMatchingPreferences sequenceMatchingPreferences = identificationParameters.getSequenceMatchingPreferences();
-        attachDeltaScore(identification, spectrumMatch, sequenceMatchingPreferences);
+        attachDeltaScore(identification, spectrumMatch, assumptionsMap, sequenceMatchingPreferences);
 
         PTMScoringPreferences scoringPreferences = identificationParameters.getPtmScoringPreferences();
 
         if (scoringPreferences.isProbabilitsticScoreCalculation()) {
-            attachProbabilisticScore(identification, spectrumMatch, identificationParameters, peptideSpectrumAnnotator);
+            attachProbabilisticScore(identification, spectrumMatch, identificationParameters, modificationSiteIndex, peptideSpectrumAnnotator, spectrumAnnotationCache);
         }
 
         PSPtmScores ptmScores = (PSPtmScores) spectrumMatch.getUrParam(new PSPtmScores());
@@ -583,25 +641,51 @@ public class PtmScorer {
      * matches
      * @param peptideMatch the peptide match of interest
      * @param identificationParameters the identification parameters
+     * @param modificationSiteIndex the index of the modification sites
+     * @param waitingHandler the waiting handler, can be null
+     *
+     * @throws Exception exception thrown whenever an error occurred while
+     * deserializing a match
+     */
+    public void scorePTMs(Identification identification, PeptideMatch peptideMatch, IdentificationParameters identificationParameters, ModificationSiteIndex modificationSiteIndex,
+            WaitingHandler waitingHandler) throws Exception {
+        String originalKey = attachPeptidePtmScores(identification, peptideMatch, identificationParameters, modificationSiteIndex, waitingHandler);
+        if (originalKey != null) {
+            updatePeptideMatch(identification, originalKey, peptideMatch, identificationParameters.getSequenceMatchingPreferences());
+        }
+    }
+
+    /**
+     * Scores the PTMs of a peptide match and attaches the scores and the new
+     * modification sites to the peptide match. The peptide match is not saved
+     * in the identification.
+     *
+     * @param identification identification object containing the identification
+     * matches
+     * @param peptideMatch the peptide match of interest
+     * @param identificationParameters the identification parameters
+     * @param modificationSiteIndex the index of the modification sites
      * @param waitingHandler the waiting handler, can be null
      *
+     * @return the matching key of the peptide before scoring, null if the
+     * peptide has no modification
+     *
      * @throws Exception exception thrown whenever an error occurred while
      * deserializing a match
      */
-    public void scorePTMs(Identification identification, PeptideMatch peptideMatch, IdentificationParameters identificationParameters, WaitingHandler waitingHandler) throws Exception {
+    private String attachPeptidePtmScores(Identification identification, PeptideMatch peptideMatch, IdentificationParameters identificationParameters,
+            ModificationSiteIndex modificationSiteIndex, WaitingHandler waitingHandler) throws Exception {
 
         Peptide peptide = peptideMatch.getTheoreticPeptide();
         String peptideSequence = peptide.getSequence();
         ArrayList<ModificationMatch> originalMatches = peptide.getModificationMatches();
         if (originalMatches == null) {
-            return;
+            return null;
         }
 
         SequenceMatchingPreferences sequenceMatchingPreferences = identificationParameters.getSequenceMatchingPreferences();
-        PtmSettings ptmSettings = identificationParameters.getSearchParameters().getPtmSettings();
 
         PSPtmScores peptideScores = new PSPtmScores();
-        PSParameter psParameter = new PSParameter();
 
         HashMap<Double, Integer> variableModifications = new HashMap<Double, Integer>(peptide.getNModifications());
         HashMap<Double, HashMap<Integer, ArrayList<String>>> inferredSites = new HashMap<Double, HashMap<Integer, ArrayList<String>>>(peptide.getNModifications());
@@ -616,19 +700,7 @@ public class PtmScorer {
                 String modName = modificationMatch.getTheoreticPtm();
                 PTM ptm = ptmFactory.getPTM(modName);
                 double ptmMass = ptm.getMass();
-                boolean maybeNotTerminal = ptm.getType() == PTM.MODAA;
-                if (!maybeNotTerminal) {
-                    for (String otherPtmName : ptmSettings.getAllNotFixedModifications()) {
-                        if (!otherPtmName.equals(modName)) {
-                            PTM ptm2 = ptmFactory.getPTM(otherPtmName);
-                            if (ptm2.getMass() == ptmMass && ptm.getType() != ptm2.getType()) {
-                                maybeNotTerminal = true;
-                                break;
-                            }
-                        }
-                    }
-                }
-                if (maybeNotTerminal) {
+                if (modificationSiteIndex.isMaybeNotTerminal(modName)) {
                     Integer nPtm = variableModifications.get(ptmMass);
                     if (nPtm == null) {
                         variableModifications.put(ptmMass, 1);
@@ -678,23 +750,22 @@ public class PtmScorer {
         }
 
         if (variableModifications.isEmpty()) {
-            return;
+            return null;
         }
 
         HashMap<Double, ArrayList<ModificationMatch>> newMatches = new HashMap<Double, ArrayList<ModificationMatch>>(variableModifications.size());
 
         HashMap<Double, ArrayList<Integer>> confidentSites = new HashMap<Double, ArrayList<Integer>>(variableModifications.size());
 
-        ArrayList<UrParameter> parameters = new ArrayList<UrParameter>(1);
-        parameters.add(new PSParameter());
-        PsmIterator psmIterator = identification.getPsmIterator(peptideMatch.getSpectrumMatchesKeys(), parameters, false, waitingHandler);
-        
+        ArrayList<String> spectrumKeys = peptideMatch.getSpectrumMatchesKeys();
+        ArrayList<PSPtmScores> psmScoresList = new ArrayList<PSPtmScores>(spectrumKeys.size());
+        PsmIterator psmIterator = identification.getPsmIterator(spectrumKeys, null, false, waitingHandler);
+
         // Map confident sites
         while (psmIterator.hasNext()) {
             SpectrumMatch spectrumMatch = psmIterator.next();
-            String spectrumKey = spectrumMatch.getKey();
-            psParameter = (PSParameter) identification.getSpectrumMatchParameter(spectrumKey, psParameter);
             PSPtmScores psmScores = (PSPtmScores) spectrumMatch.getUrParam(new PSPtmScores());
+            psmScoresList.add(psmScores);
 
             for (String ptmName : psmScores.getScoredPTMs()) {
                 PtmScoring psmScoring = psmScores.getPtmScoring(ptmName);
@@ -802,14 +873,8 @@ public class PtmScorer {
 
             HashMap<Double, HashMap<Double, HashMap<Double, HashMap<Integer, ArrayList<String>>>>> ambiguousSites = new HashMap<Double, HashMap<Double, HashMap<Double, HashMap<Integer, ArrayList<String>>>>>(originalMatches.size());
 
-            psmIterator = identification.getPsmIterator(peptideMatch.getSpectrumMatchesKeys(), parameters, true, waitingHandler);
-
-            // Map ambiguous sites
-            while (psmIterator.hasNext()) {
-                SpectrumMatch spectrumMatch = psmIterator.next();
-                String spectrumKey = spectrumMatch.getKey();
-                psParameter = (PSParameter) identification.getSpectrumMatchParameter(spectrumKey, psParameter);
-                PSPtmScores psmScores = (PSPtmScores) spectrumMatch.getUrParam(new PSPtmScores());
+            // Map ambiguous sites using the PTM scores of the PSMs loaded in the first pass
+            for (PSPtmScores psmScores : psmScoresList) {
 
                 for (int representativeSite : psmScores.getRepresentativeSites()) {
                     HashMap<Integer, ArrayList<String>> ambiguousMappingAtSite = psmScores.getAmbiguousPtmsAtRepresentativeSite(representativeSite);
@@ -952,7 +1017,24 @@ public class PtmScorer {
 
         peptideMatch.addUrParam(peptideScores);
 
-        String newKey = peptide.getMatchingKey(sequenceMatchingPreferences);
+        return originalKey;
+    }
+
+    /**
+     * Saves a scored peptide match in the identification, under its new key if
+     * the modification sites changed.
+     *
+     * @param identification identification object containing the identification
+     * matches
+     * @param originalKey the matching key of the peptide before scoring
+     * @param peptideMatch the scored peptide match
+     * @param sequenceMatchingPreferences the sequence matching preferences
+     *
+     * @throws Exception exception thrown whenever an error occurred while
+     * saving the match
+     */
+    private void updatePeptideMatch(Identification identification, String originalKey, PeptideMatch peptideMatch, SequenceMatchingPreferences sequenceMatchingPreferences) throws Exception {
+        String newKey = peptideMatch.getTheoreticPeptide().getMatchingKey(sequenceMatchingPreferences);
         if (!newKey.equals(originalKey)) {
             if (identification.getPeptideIdentification().contains(newKey)) {
                 throw new IllegalArgumentException("Attempting to create duplicate peptide key: " + newKey + " from peptide " + originalKey + ".");
@@ -1246,6 +1328,26 @@ public class PtmScorer {
      * deserilalizing a match
      */
     public void scorePTMs(Identification identification, ProteinMatch proteinMatch, IdentificationParameters identificationParameters, boolean scorePeptides, WaitingHandler waitingHandler) throws Exception {
+        scorePTMs(identification, proteinMatch, identificationParameters, new ModificationSiteIndex(identificationParameters), scorePeptides, waitingHandler);
+    }
+
+    /**
+     * Scores PTMs in a protein match using the given index of the
+     * modification sites.
+     *
+     * @param identification identification object containing the identification
+     * matches
+     * @param proteinMatch the protein match
+     * @param identificationParameters the identification parameters
+     * @param modificationSiteIndex the index of the modification sites
+     * @param scorePeptides boolean indicating whether peptides should be scored
+     * @param waitingHandler the waiting handler, can be null
+     *
+     * @throws Exception exception thrown whenever an error occurred while
+     * deserilalizing a match
+     */
+    public void scorePTMs(Identification identification, ProteinMatch proteinMatch, IdentificationParameters identificationParameters, ModificationSiteIndex modificationSiteIndex,
+            boolean scorePeptides, WaitingHandler waitingHandler) throws Exception {
 
         PSParameter psParameter = new PSParameter();
         Protein protein = null;
@@ -1266,7 +1368,7 @@ public class PtmScorer {
             if (psParameter.getMatchValidationLevel().isValidated() && Peptide.isModified(peptideKey)) {
                 String peptideSequence = Peptide.getSequence(peptideKey);
                 if (peptideMatch.getUrParam(new PSPtmScores()) == null || scorePeptides) {
-                    scorePTMs(identification, peptideMatch, identificationParameters, waitingHandler);
+                    scorePTMs(identification, peptideMatch, identificationParameters, modificationSiteIndex, waitingHandler);
                 }
                 PSPtmScores peptideScores = (PSPtmScores) peptideMatch.getUrParam(new PSPtmScores());
                 if (peptideScores != null) {
@@ -1414,6 +1516,7 @@ public class PtmScorer {
         waitingHandler.setSecondaryProgressCounterIndeterminate(false);
         waitingHandler.setMaxSecondaryProgressCounter(identification.getSpectrumIdentificationSize());
 
+        ModificationSiteIndex modificationSiteIndex = new ModificationSiteIndex(identificationParameters);
         ExecutorService pool = Executors.newFixedThreadPool(processingPreferences.getnThreads());
 
         HashMap<String, ArrayList<String>> spectrumKeysMap = metrics.getOrderedSpectrumKeys();
@@ -1424,7 +1527,7 @@ public class PtmScorer {
             }
             PsmIterator psmIterator = identification.getPsmIterator(spectrumFileName, spectrumKeys, null, true, null);
             for (int i = 1; i <= processingPreferences.getnThreads() && !waitingHandler.isRunCanceled(); i++) {
-                PsmPtmScorerRunnable runnable = new PsmPtmScorerRunnable(psmIterator, identification, identificationParameters, waitingHandler, exceptionHandler);
+                PsmPtmScorerRunnable runnable = new PsmPtmScorerRunnable(psmIterator, identification, identificationParameters, modificationSiteIndex, waitingHandler, exceptionHandler);
                 pool.submit(runnable);
             }
             if (waitingHandler.isRunCanceled()) {
@@ -1440,17 +1543,21 @@ public class PtmScorer {
 
     /**
      * Scores the PTMs of all peptide matches contained in an identification
-     * object.
+     * object. The peptide keys are split in chunks processed in parallel, and
+     * the PSMs of every chunk are loaded in a single batch.
      *
      * @param identification identification object containing the identification
      * matches
      * @param waitingHandler the handler displaying feedback to the user
+     * @param exceptionHandler handler for exceptions
      * @param identificationParameters the identification parameters
+     * @param processingPreferences the processing preferences
      *
      * @throws Exception exception thrown whenever a problem occurred while
      * deserializing a match
      */
-    public void scorePeptidePtms(Identification identification, WaitingHandler waitingHandler, IdentificationParameters identificationParameters) throws Exception {
+    public void scorePeptidePtms(Identification identification, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler, IdentificationParameters identificationParameters,
+            ProcessingPreferences processingPreferences) throws Exception {
 
         waitingHandler.setWaitingText("Scoring Peptide PTMs. Please Wait...");
 
@@ -1458,16 +1565,37 @@ public class PtmScorer {
         waitingHandler.setSecondaryProgressCounterIndeterminate(false);
         waitingHandler.setMaxSecondaryProgressCounter(max);
 
-        ArrayList<UrParameter> parameters = new ArrayList<UrParameter>(1);
-        parameters.add(new PSParameter());
-        PeptideMatchesIterator peptideMatchesIterator = identification.getPeptideMatchesIterator(parameters, false, null, waitingHandler);
-        while (peptideMatchesIterator.hasNext()) {
-            PeptideMatch peptideMatch = peptideMatchesIterator.next();
-            scorePTMs(identification, peptideMatch, identificationParameters, waitingHandler);
-            waitingHandler.increaseSecondaryProgressCounter();
-            if (waitingHandler.isRunCanceled()) {
-                return;
-            }
+        int nThreads = processingPreferences.getnThreads();
+        ConcurrentLinkedQueue<ArrayList<String>> keysQueue = KeysChunks.getKeysQueue(identification.getPeptideIdentification(), nThreads);
+        ModificationSiteIndex modificationSiteIndex = new ModificationSiteIndex(identificationParameters);
+
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+        ArrayList<PeptidePtmScorerRunnable> runnables = new ArrayList<PeptidePtmScorerRunnable>(nThreads);
+        for (int i = 1; i <= nThreads && !waitingHandler.isRunCanceled(); i++) {
+            PeptidePtmScorerRunnable runnable = new PeptidePtmScorerRunnable(keysQueue, identification, identificationParameters, modificationSiteIndex, waitingHandler, exceptionHandler);
+            pool.submit(runnable);
+            runnables.add(runnable);
+        }
+        if (waitingHandler.isRunCanceled()) {
+            pool.shutdownNow();
+            return;
+        }
+        pool.shutdown();
+        if (!pool.awaitTermination(7, TimeUnit.DAYS)) {
+            throw new InterruptedException("Peptide PTM scoring timed out. Please contact the developers.");
+        }
+        if (waitingHandler.isRunCanceled()) {
+            return;
+        }
+
+        // change the keys of the peptides with new modification sites one at a time in key order, so that conflicting keys are resolved independently of the threads
+        TreeMap<String, PeptideMatch> keyChanges = new TreeMap<String, PeptideMatch>();
+        for (PeptidePtmScorerRunnable runnable : runnables) {
+            keyChanges.putAll(runnable.getKeyChanges());
+        }
+        SequenceMatchingPreferences sequenceMatchingPreferences = identificationParameters.getSequenceMatchingPreferences();
+        for (String originalKey : keyChanges.keySet()) {
+            updatePeptideMatch(identification, originalKey, keyChanges.get(originalKey), sequenceMatchingPreferences);
         }
 
         waitingHandler.setSecondaryProgressCounterIndeterminate(true);
@@ -1475,21 +1603,24 @@ public class PtmScorer {
 
     /**
      * Scores the PTMs of all protein matches contained in an identification
-     * object.
+     * object. The protein keys are split in chunks processed in parallel.
      *
      * @param identification identification object containing the identification
      * matches
      * @param metrics if provided, metrics on proteins will be saved while
      * iterating the matches
      * @param waitingHandler the handler displaying feedback to the user
+     * @param exceptionHandler handler for exceptions
      * @param identificationParameters the identification parameters
      * @param identificationFeaturesGenerator identification features generator
      * used to generate metrics which will be stored for later reuse
+     * @param processingPreferences the processing preferences
      *
      * @throws Exception exception thrown whenever a problem occurred while
      * deserializing a match
      */
-    public void scoreProteinPtms(Identification identification, Metrics metrics, WaitingHandler waitingHandler, IdentificationParameters identificationParameters, IdentificationFeaturesGenerator identificationFeaturesGenerator) throws Exception {
+    public void scoreProteinPtms(Identification identification, Metrics metrics, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler, IdentificationParameters identificationParameters,
+            IdentificationFeaturesGenerator identificationFeaturesGenerator, ProcessingPreferences processingPreferences) throws Exception {
 
         waitingHandler.setWaitingText("Scoring Protein PTMs. Please Wait...");
 
@@ -1497,44 +1628,41 @@ public class PtmScorer {
         waitingHandler.setSecondaryProgressCounterIndeterminate(false);
         waitingHandler.setMaxSecondaryProgressCounter(max);
 
-        // If needed, while we are iterating proteins, we will take the maximal spectrum counting value and number of validated proteins as well.
-        int nValidatedProteins = 0;
-        int nConfidentProteins = 0;
-        double tempSpectrumCounting, maxSpectrumCounting = 0;
-
-        PSParameter psParameter = new PSParameter();
-        ArrayList<UrParameter> parameters = new ArrayList<UrParameter>(1);
-        parameters.add(psParameter);
-        ProteinMatchesIterator proteinMatchesIterator = identification.getProteinMatchesIterator(parameters, true, parameters, true, parameters, waitingHandler);
-
-        while (proteinMatchesIterator.hasNext()) {
-
-            ProteinMatch proteinMatch = proteinMatchesIterator.next();
-            String proteinKey = proteinMatch.getKey();
+        int nThreads = processingPreferences.getnThreads();
+        ConcurrentLinkedQueue<ArrayList<String>> keysQueue = KeysChunks.getKeysQueue(identification.getProteinIdentification(), nThreads);
+        ModificationSiteIndex modificationSiteIndex = new ModificationSiteIndex(identificationParameters);
 
-            scorePTMs(identification, proteinMatch, identificationParameters, false, waitingHandler);
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+        ArrayList<ProteinPtmScorerRunnable> runnables = new ArrayList<ProteinPtmScorerRunnable>(nThreads);
+        for (int i = 1; i <= nThreads && !waitingHandler.isRunCanceled(); i++) {
+            ProteinPtmScorerRunnable runnable = new ProteinPtmScorerRunnable(keysQueue, identification, metrics, identificationParameters, modificationSiteIndex, identificationFeaturesGenerator, waitingHandler, exceptionHandler);
+            runnables.add(runnable);
+            pool.submit(runnable);
+        }
+        if (waitingHandler.isRunCanceled()) {
+            pool.shutdownNow();
+            return;
+        }
+        pool.shutdown();
+        if (!pool.awaitTermination(7, TimeUnit.DAYS)) {
+            throw new InterruptedException("Protein PTM scoring timed out. Please contact the developers.");
+        }
+        if (waitingHandler.isRunCanceled()) {
+            return;
+        }
 
-            if (metrics != null) {
-                psParameter = (PSParameter) identification.getProteinMatchParameter(proteinKey, psParameter);
-                if (psParameter.getMatchValidationLevel().isValidated()) {
-                    nValidatedProteins++;
-                    if (psParameter.getMatchValidationLevel() == MatchValidationLevel.confident) {
-                        nConfidentProteins++;
-                    }
-                }
-                if (identificationFeaturesGenerator != null) {
-                    tempSpectrumCounting = identificationFeaturesGenerator.getNormalizedSpectrumCounting(proteinKey);
-                    if (tempSpectrumCounting > maxSpectrumCounting) {
-                        maxSpectrumCounting = tempSpectrumCounting;
-                    }
+        // If needed, while we are iterating proteins, we take the maximal spectrum counting value and number of validated proteins as well.
+        if (metrics != null) {
+            int nValidatedProteins = 0;
+            int nConfidentProteins = 0;
+            double maxSpectrumCounting = 0;
+            for (ProteinPtmScorerRunnable runnable : runnables) {
+                nValidatedProteins += runnable.nValidatedProteins;
+                nConfidentProteins += runnable.nConfidentProteins;
+                if (runnable.maxSpectrumCounting > maxSpectrumCounting) {
+                    maxSpectrumCounting = runnable.maxSpectrumCounting;
                 }
             }
-            waitingHandler.increaseSecondaryProgressCounter();
-            if (waitingHandler.isRunCanceled()) {
-                return;
-            }
-        }
-        if (metrics != null) {
             metrics.setMaxSpectrumCounting(maxSpectrumCounting);
             metrics.setnValidatedProteins(nValidatedProteins);
             metrics.setnConfidentProteins(nConfidentProteins);
@@ -1545,12 +1673,18 @@ public class PtmScorer {
 
     /**
      * Infers the PTM localization and its confidence for the best match of
-     * every spectrum.
+     * every spectrum. The PSMs are first mapped in parallel to the PTMs which
+     * could be localized confidently and the ones which could not, every
+     * thread filling its own maps. The maps are merged, and the PSMs with
+     * ambiguous localizations are then resolved in parallel against the
+     * merged map of confident localizations.
      *
      * @param identification identification object containing the identification
      * matches
-     * @param waitingHandler waiting handler displaying progress to the user
      * @param identificationParameters the identification parameters
+     * @param waitingHandler waiting handler displaying progress to the user
+     * @param exceptionHandler handler for exceptions
+     * @param processingPreferences the processing preferences
      *
      * @throws SQLException exception thrown whenever a problem occurred while
      * interacting with the database
@@ -1563,7 +1697,8 @@ public class PtmScorer {
      * @throws InterruptedException exception thrown whenever an error occurred
      * while reading a protein sequence
      */
-    public void peptideInference(Identification identification, IdentificationParameters identificationParameters, WaitingHandler waitingHandler)
+    public void peptideInference(Identification identification, IdentificationParameters identificationParameters, WaitingHandler waitingHandler,
+            ExceptionHandler exceptionHandler, ProcessingPreferences processingPreferences)
             throws SQLException, IOException, ClassNotFoundException, IllegalArgumentException, InterruptedException {
 
         waitingHandler.setWaitingText("Peptide Inference. Please Wait...");
@@ -1571,309 +1706,322 @@ public class PtmScorer {
         waitingHandler.setSecondaryProgressCounterIndeterminate(false);
         waitingHandler.setMaxSecondaryProgressCounter(identification.getSpectrumIdentificationSize());
 
-        SequenceMatchingPreferences ptmSequenceMatchingPreferences = identificationParameters.getPtmScoringPreferences().getSequenceMatchingPreferences(),
-                sequenceMatchingPreferences = identificationParameters.getSequenceMatchingPreferences();
-        SearchParameters searchParameters = identificationParameters.getSearchParameters();
-        PtmSettings ptmSettings = searchParameters.getPtmSettings();
-
-        // PSMs with confidently localized PTMs in a map: PTM mass -> peptide sequence -> spectrum keys
-        HashMap<Double, HashMap<String, HashSet<String>>> confidentPeptideInference = new HashMap<Double, HashMap<String, HashSet<String>>>();
-        // PSMs with ambiguously localized PTMs in a map: File -> PTM mass -> spectrum keys
-        HashMap<String, HashMap<Double, HashSet<String>>> notConfidentPeptideInference = new HashMap<String, HashMap<Double, HashSet<String>>>();
+        int nThreads = processingPreferences.getnThreads();
+        ModificationSiteIndex modificationSiteIndex = new ModificationSiteIndex(identificationParameters);
 
+        // Map the PSMs with confidently and ambiguously localized PTMs, every thread fills its own maps
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+        ArrayList<PeptideInferenceMappingRunnable> mappingRunnables = new ArrayList<PeptideInferenceMappingRunnable>();
         for (String spectrumFileName : identification.getSpectrumFiles()) {
-
             PsmIterator psmIterator = identification.getPsmIterator(spectrumFileName, true, waitingHandler);
+            for (int i = 1; i <= nThreads && !waitingHandler.isRunCanceled(); i++) {
+                PeptideInferenceMappingRunnable runnable = new PeptideInferenceMappingRunnable(psmIterator, identificationParameters, modificationSiteIndex, waitingHandler, exceptionHandler);
+                mappingRunnables.add(runnable);
+                pool.submit(runnable);
+            }
+            if (waitingHandler.isRunCanceled()) {
+                pool.shutdownNow();
+                return;
+            }
+        }
+        pool.shutdown();
+        if (!pool.awaitTermination(7, TimeUnit.DAYS)) {
+            throw new InterruptedException("Peptide inference timed out. Please contact the developers.");
+        }
+        if (waitingHandler.isRunCanceled()) {
+            return;
+        }
 
-            while (psmIterator.hasNext()) {
-
-                SpectrumMatch spectrumMatch = psmIterator.next();
-                String spectrumKey = spectrumMatch.getKey();
-                if (spectrumMatch.getBestPeptideAssumption() != null) {
-                    boolean variableAA = false;
-                    Peptide peptide = spectrumMatch.getBestPeptideAssumption().getPeptide();
-                    if (peptide.isModified()) {
-                        for (ModificationMatch modificationMatch : peptide.getModificationMatches()) {
-                            if (modificationMatch.isVariable()) {
-                                String modName = modificationMatch.getTheoreticPtm();
-                                PTM ptm = ptmFactory.getPTM(modName);
-                                if (ptm.getType() == PTM.MODAA) {
-                                    variableAA = true;
-                                    break;
-                                } else {
-                                    double ptmMass = ptm.getMass();
-                                    for (String otherPtmName : ptmSettings.getAllNotFixedModifications()) {
-                                        if (!otherPtmName.equals(modName)) {
-                                            PTM ptm2 = ptmFactory.getPTM(otherPtmName);
-                                            if (ptm2.getMass() == ptmMass && ptm.getType() != ptm2.getType()) {
-                                                variableAA = true;
-                                                break;
-                                            }
-                                        }
-                                    }
-                                }
-                            }
-                        }
-                    }
-                    if (variableAA) {
-                        boolean confident = true;
-                        for (ModificationMatch modMatch : peptide.getModificationMatches()) {
-                            if (modMatch.isVariable()) {
-                                String modName = modMatch.getTheoreticPtm();
-                                PTM ptm = ptmFactory.getPTM(modName);
-                                double ptmMass = ptm.getMass();
-                                boolean maybeNotTerminal = ptm.getType() == PTM.MODAA;
-                                if (!maybeNotTerminal) {
-                                    for (String otherPtmName : ptmSettings.getAllNotFixedModifications()) {
-                                        if (!otherPtmName.equals(modName)) {
-                                            PTM ptm2 = ptmFactory.getPTM(otherPtmName);
-                                            if (ptm2.getMass() == ptmMass && ptm.getType() != ptm2.getType()) {
-                                                maybeNotTerminal = true;
-                                                break;
-                                            }
-                                        }
-                                    }
-                                }
-                                if (maybeNotTerminal) {
-                                    if (!modMatch.isConfident()) {
-                                        HashMap<Double, HashSet<String>> fileMap = notConfidentPeptideInference.get(spectrumFileName);
-                                        if (fileMap == null) {
-                                            fileMap = new HashMap<Double, HashSet<String>>(2);
-                                            notConfidentPeptideInference.put(spectrumFileName, fileMap);
-                                        }
-                                        HashSet<String> spectra = fileMap.get(ptmMass);
-                                        if (spectra == null) {
-                                            spectra = new HashSet<String>(2);
-                                            fileMap.put(ptmMass, spectra);
-                                        }
-                                        spectra.add(spectrumKey);
-                                        confident = false;
-                                    } else {
-                                        HashMap<String, HashSet<String>> modMap = confidentPeptideInference.get(ptmMass);
-                                        if (modMap == null) {
-                                            modMap = new HashMap<String, HashSet<String>>(2);
-                                            confidentPeptideInference.put(ptmMass, modMap);
-                                        }
-                                        String sequence = spectrumMatch.getBestPeptideAssumption().getPeptide().getSequence();
-                                        HashSet<String> spectra = modMap.get(sequence);
-                                        if (spectra == null) {
-                                            spectra = new HashSet<String>(2);
-                                            modMap.put(sequence, spectra);
-                                        }
-                                        spectra.add(spectrumKey);
-                                    }
-                                }
-                            }
-                        }
-                        if (confident) {
-                            waitingHandler.increaseSecondaryProgressCounter();
-                        }
-                        if (waitingHandler.isRunCanceled()) {
-                            return;
-                        }
-                    } else {
-                        waitingHandler.increaseSecondaryProgressCounter();
-                        if (waitingHandler.isRunCanceled()) {
-                            return;
+        // Merge the maps of the threads
+        HashMap<Double, HashMap<String, ArrayList<String>>> confidentSpectra = new HashMap<Double, HashMap<String, ArrayList<String>>>();
+        HashMap<String, String> confidentMatchingKeys = new HashMap<String, String>();
+        HashMap<String, double[]> notConfidentPeptideInference = new HashMap<String, double[]>();
+        for (PeptideInferenceMappingRunnable runnable : mappingRunnables) {
+            for (Double ptmMass : runnable.confidentSpectra.keySet()) {
+                HashMap<String, ArrayList<String>> runnableModMap = runnable.confidentSpectra.get(ptmMass);
+                HashMap<String, ArrayList<String>> modMap = confidentSpectra.get(ptmMass);
+                if (modMap == null) {
+                    confidentSpectra.put(ptmMass, runnableModMap);
+                } else {
+                    for (String sequence : runnableModMap.keySet()) {
+                        ArrayList<String> spectra = modMap.get(sequence);
+                        if (spectra == null) {
+                            modMap.put(sequence, runnableModMap.get(sequence));
+                        } else {
+                            spectra.addAll(runnableModMap.get(sequence));
                         }
                     }
                 }
             }
+            confidentMatchingKeys.putAll(runnable.confidentMatchingKeys);
+            for (String spectrumKey : runnable.notConfidentMasses.keySet()) {
+                ArrayList<Double> masses = runnable.notConfidentMasses.get(spectrumKey);
+                double[] massesArray = new double[masses.size()];
+                for (int i = 0; i < massesArray.length; i++) {
+                    massesArray[i] = masses.get(i);
+                }
+                Arrays.sort(massesArray);
+                notConfidentPeptideInference.put(spectrumKey, massesArray);
+            }
+        }
+        mappingRunnables.clear();
+
+        // PSMs with confidently localized PTMs: PTM mass -> peptide sequence -> peptide keys of the PSMs ordered by spectrum key
+        HashMap<Double, HashMap<String, String[]>> confidentPeptideInference = new HashMap<Double, HashMap<String, String[]>>(confidentSpectra.size());
+        for (Double ptmMass : confidentSpectra.keySet()) {
+            HashMap<String, ArrayList<String>> modMap = confidentSpectra.get(ptmMass);
+            HashMap<String, String[]> sequenceMap = new HashMap<String, String[]>(modMap.size());
+            for (String sequence : modMap.keySet()) {
+                ArrayList<String> spectra = modMap.get(sequence);
+                Collections.sort(spectra);
+                String[] peptideKeys = new String[spectra.size()];
+                for (int i = 0; i < peptideKeys.length; i++) {
+                    peptideKeys[i] = confidentMatchingKeys.get(spectra.get(i));
+                }
+                sequenceMap.put(sequence, peptideKeys);
+            }
+            confidentPeptideInference.put(ptmMass, sequenceMap);
         }
+        confidentSpectra.clear();
+        confidentMatchingKeys.clear();
 
         // try to infer the modification site based on any related peptide
-        for (String spectrumFile : notConfidentPeptideInference.keySet()) {
+        if (!notConfidentPeptideInference.isEmpty()) {
+            ConcurrentLinkedQueue<ArrayList<String>> keysQueue = KeysChunks.getKeysQueue(notConfidentPeptideInference.keySet(), nThreads);
+            pool = Executors.newFixedThreadPool(nThreads);
+            for (int i = 1; i <= nThreads && !waitingHandler.isRunCanceled(); i++) {
+                PeptideInferenceRunnable runnable = new PeptideInferenceRunnable(keysQueue, identification, confidentPeptideInference, notConfidentPeptideInference, identificationParameters, modificationSiteIndex, waitingHandler, exceptionHandler);
+                pool.submit(runnable);
+            }
+            if (waitingHandler.isRunCanceled()) {
+                pool.shutdownNow();
+                return;
+            }
+            pool.shutdown();
+            if (!pool.awaitTermination(7, TimeUnit.DAYS)) {
+                throw new InterruptedException("Peptide inference timed out. Please contact the developers.");
+            }
+        }
+    }
+
+    /**
+     * Tries to infer the sites of the ambiguously localized PTMs of the given
+     * mass on the best peptide of a spectrum match using the peptides where
+     * PTMs of this mass were confidently localized. The spectrum match is
+     * modified but not saved in the identification.
+     *
+     * @param spectrumMatch the spectrum match
+     * @param ptmMass the mass of the PTM
+     * @param confidentPeptideInference the keys of the peptides with
+     * confidently localized PTMs: PTM mass -&gt; peptide sequence -&gt;
+     * peptide keys
+     * @param identificationParameters the identification parameters
+     * @param modificationSiteIndex the index of the modification sites
+     *
+     * @return a boolean indicating whether the spectrum match was inspected
+     * and needs to be saved
+     *
+     * @throws SQLException exception thrown whenever a problem occurred while
+     * interacting with the database
+     * @throws IOException exception thrown whenever a problem occurred while
+     * writing/reading the database or the FASTA file
+     * @throws ClassNotFoundException exception thrown whenever a problem
+     * occurred while deserializing an object from the database
+     * @throws IllegalArgumentException exception thrown whenever an error
+     * occurred while reading a protein sequence
+     * @throws InterruptedException exception thrown whenever an error occurred
+     * while reading a protein sequence
+     */
+    private boolean inferSites(SpectrumMatch spectrumMatch, double ptmMass, HashMap<Double, HashMap<String, String[]>> confidentPeptideInference, IdentificationParameters identificationParameters,
+            ModificationSiteIndex modificationSiteIndex) throws SQLException, IOException, ClassNotFoundException, IllegalArgumentException, InterruptedException {
 
-            HashSet<String> progress = new HashSet<String>();
-            HashMap<Double, HashSet<String>> peptidesOfFile = notConfidentPeptideInference.get(spectrumFile);
+        SequenceMatchingPreferences sequenceMatchingPreferences = identificationParameters.getSequenceMatchingPreferences();
+        String spectrumKey = spectrumMatch.getKey();
 
-            for (Double ptmMass : peptidesOfFile.keySet()) {
+        Peptide peptide = spectrumMatch.getBestPeptideAssumption().getPeptide();
+        String sequence = peptide.getSequence();
+        String notConfidentKey = peptide.getMatchingKey(sequenceMatchingPreferences);
+        int nMod = Peptide.getModificationCount(notConfidentKey, ptmMass);
+        ArrayList<Integer> tempLocalizations, oldLocalizations = Peptide.getNModificationLocalized(notConfidentKey, ptmMass);
+        ArrayList<Integer> newLocalizationCandidates = new ArrayList<Integer>(oldLocalizations.size());
 
-                ArrayList<String> spectrumKeys = new ArrayList<String>(peptidesOfFile.get(ptmMass));
-                PsmIterator psmIterator = identification.getPsmIterator(spectrumKeys, true, waitingHandler);
+        HashMap<String, String[]> ptmConfidentPeptides = confidentPeptideInference.get(ptmMass);
 
-                while (psmIterator.hasNext()) {
+        if (ptmConfidentPeptides != null) {
 
-                    SpectrumMatch spectrumMatch = psmIterator.next();
-                    String spectrumKey = spectrumMatch.getKey();
+            // See if we can explain this peptide by another already identified peptide with the same number of modifications (the two peptides will be merged)
+            String[] keys = ptmConfidentPeptides.get(sequence);
 
-                    Peptide peptide = spectrumMatch.getBestPeptideAssumption().getPeptide();
-                    String sequence = peptide.getSequence();
-                    String notConfidentKey = peptide.getMatchingKey(sequenceMatchingPreferences);
-                    int nMod = Peptide.getModificationCount(notConfidentKey, ptmMass);
-                    ArrayList<Integer> tempLocalizations, oldLocalizations = Peptide.getNModificationLocalized(notConfidentKey, ptmMass);
-                    ArrayList<Integer> newLocalizationCandidates = new ArrayList<Integer>(oldLocalizations.size());
-
-                    HashMap<String, HashSet<String>> ptmConfidentPeptides = confidentPeptideInference.get(ptmMass);
-
-                    if (ptmConfidentPeptides != null) {
-
-                        // See if we can explain this peptide by another already identified peptide with the same number of modifications (the two peptides will be merged)
-                        HashSet<String> keys = ptmConfidentPeptides.get(sequence);
-
-                        if (keys != null) {
-                            for (String tempKey : keys) {
-                                SpectrumMatch secondaryMatch = identification.getSpectrumMatch(tempKey);
-                                String secondaryKey = secondaryMatch.getBestPeptideAssumption().getPeptide().getMatchingKey(sequenceMatchingPreferences);
-                                if (Peptide.getModificationCount(secondaryKey, ptmMass) == nMod) {
-                                    tempLocalizations = Peptide.getNModificationLocalized(secondaryKey, ptmMass);
-                                    for (int localization : tempLocalizations) {
-                                        if (!oldLocalizations.contains(localization) && !newLocalizationCandidates.contains(localization)) {
-                                            newLocalizationCandidates.add(localization);
-                                        }
-                                    }
-                                }
+            if (keys != null) {
+                for (String secondaryKey : keys) {
+                    if (Peptide.getModificationCount(secondaryKey, ptmMass) == nMod) {
+                        tempLocalizations = Peptide.getNModificationLocalized(secondaryKey, ptmMass);
+                        for (int localization : tempLocalizations) {
+                            if (!oldLocalizations.contains(localization) && !newLocalizationCandidates.contains(localization)) {
+                                newLocalizationCandidates.add(localization);
                             }
-                            if (oldLocalizations.size() + newLocalizationCandidates.size() < nMod) {
-                                // we cannot merge this peptide, see whether we can explain the remaining modifications using peptides with the same sequence but other modification profile
-                                for (String tempKey : keys) {
-                                    SpectrumMatch secondaryMatch = identification.getSpectrumMatch(tempKey);
-                                    String secondaryKey = secondaryMatch.getBestPeptideAssumption().getPeptide().getMatchingKey(sequenceMatchingPreferences);
-                                    tempLocalizations = Peptide.getNModificationLocalized(secondaryKey, ptmMass);
-                                    for (int localization : tempLocalizations) {
-                                        if (!oldLocalizations.contains(localization) && !newLocalizationCandidates.contains(localization)) {
-                                            newLocalizationCandidates.add(localization);
-                                        }
-                                    }
-                                }
+                        }
+                    }
+                }
+                if (oldLocalizations.size() + newLocalizationCandidates.size() < nMod) {
+                    // we cannot merge this peptide, see whether we can explain the remaining modifications using peptides with the same sequence but other modification profile
+                    for (String secondaryKey : keys) {
+                        tempLocalizations = Peptide.getNModificationLocalized(secondaryKey, ptmMass);
+                        for (int localization : tempLocalizations) {
+                            if (!oldLocalizations.contains(localization) && !newLocalizationCandidates.contains(localization)) {
+                                newLocalizationCandidates.add(localization);
                             }
                         }
-                        if (oldLocalizations.size() + newLocalizationCandidates.size() < nMod) {
-                            // There are still unexplained sites, let's see if we find a related peptide which can help.
-                            HashMap<String, HashSet<String>> confidentAtMass = confidentPeptideInference.get(ptmMass);
-                            for (String otherSequence : confidentAtMass.keySet()) {
-                                if (!sequence.equals(otherSequence) && sequence.contains(otherSequence)) {
-                                    for (String tempKey : confidentAtMass.get(otherSequence)) {
-                                        SpectrumMatch secondaryMatch = identification.getSpectrumMatch(tempKey);
-                                        String secondaryKey = secondaryMatch.getBestPeptideAssumption().getPeptide().getMatchingKey(sequenceMatchingPreferences);
-                                        tempLocalizations = Peptide.getNModificationLocalized(secondaryKey, ptmMass);
-                                        int tempIndex, ref = 0;
-                                        String tempSequence = sequence;
-                                        while ((tempIndex = tempSequence.indexOf(otherSequence)) >= 0) {
-                                            ref += tempIndex;
-                                            for (int localization : tempLocalizations) {
-                                                int shiftedLocalization = ref + localization;
-                                                if (!oldLocalizations.contains(shiftedLocalization) && !newLocalizationCandidates.contains(shiftedLocalization)) {
-                                                    boolean siteOccupied = false;
-                                                    for (ModificationMatch modificationMatch : peptide.getModificationMatches()) {
-                                                        PTM ptm = ptmFactory.getPTM(modificationMatch.getTheoreticPtm());
-                                                        if (ptm.getMass() != ptmMass && modificationMatch.getModificationSite() == shiftedLocalization) { // @TODO: compare against the accuracy
-                                                            siteOccupied = true;
-                                                        }
-                                                    }
-                                                    boolean candidatePtm = false;
-                                                    if (!siteOccupied) {
-                                                        for (String ptmName : searchParameters.getPtmSettings().getAllNotFixedModifications()) {
-                                                            PTM ptm = ptmFactory.getPTM(ptmName);
-                                                            if (ptm.getMass() == ptmMass && peptide.getPotentialModificationSites(ptm, sequenceMatchingPreferences, ptmSequenceMatchingPreferences).contains(shiftedLocalization)) { // @TODO: compare against the accuracy
-                                                                candidatePtm = true;
-                                                                break;
-                                                            }
-                                                        }
-                                                    }
-                                                    if (candidatePtm && !siteOccupied) {
-                                                        newLocalizationCandidates.add(shiftedLocalization);
-                                                    }
-                                                }
+                    }
+                }
+            }
+            if (oldLocalizations.size() + newLocalizationCandidates.size() < nMod) {
+                // There are still unexplained sites, let's see if we find a related peptide which can help.
+                for (String otherSequence : ptmConfidentPeptides.keySet()) {
+                    if (!sequence.equals(otherSequence) && sequence.contains(otherSequence)) {
+                        for (String secondaryKey : ptmConfidentPeptides.get(otherSequence)) {
+                            tempLocalizations = Peptide.getNModificationLocalized(secondaryKey, ptmMass);
+                            int tempIndex, ref = 0;
+                            String tempSequence = sequence;
+                            while ((tempIndex = tempSequence.indexOf(otherSequence)) >= 0) {
+                                ref += tempIndex;
+                                for (int localization : tempLocalizations) {
+                                    int shiftedLocalization = ref + localization;
+                                    if (!oldLocalizations.contains(shiftedLocalization) && !newLocalizationCandidates.contains(shiftedLocalization)) {
+                                        boolean siteOccupied = false;
+                                        for (ModificationMatch modificationMatch : peptide.getModificationMatches()) {
+                                            PTM ptm = ptmFactory.getPTM(modificationMatch.getTheoreticPtm());
+                                            if (ptm.getMass() != ptmMass && modificationMatch.getModificationSite() == shiftedLocalization) { // @TODO: compare against the accuracy
+                                                siteOccupied = true;
                                             }
-                                            tempSequence = tempSequence.substring(tempIndex + 1);
-                                            ref++;
                                         }
-                                    }
-                                } else if (!sequence.equals(otherSequence) && otherSequence.contains(sequence)) {
-                                    for (String tempKey : confidentAtMass.get(otherSequence)) {
-                                        SpectrumMatch secondaryMatch = identification.getSpectrumMatch(tempKey);
-                                        String secondaryKey = secondaryMatch.getBestPeptideAssumption().getPeptide().getMatchingKey(sequenceMatchingPreferences);
-                                        tempLocalizations = Peptide.getNModificationLocalized(secondaryKey, ptmMass);
-                                        int tempIndex, ref = 0;
-                                        String tempSequence = otherSequence;
-                                        while ((tempIndex = tempSequence.indexOf(sequence)) >= 0) {
-                                            ref += tempIndex;
-                                            for (int localization : tempLocalizations) {
-                                                int shiftedLocalization = localization - ref;
-                                                if (shiftedLocalization > 0 && shiftedLocalization <= sequence.length()
-                                                        && !oldLocalizations.contains(shiftedLocalization) && !newLocalizationCandidates.contains(shiftedLocalization)) {
-                                                    boolean siteOccupied = false;
-                                                    for (ModificationMatch modificationMatch : peptide.getModificationMatches()) {
-                                                        PTM ptm = ptmFactory.getPTM(modificationMatch.getTheoreticPtm());
-                                                        if (ptm.getMass() != ptmMass && modificationMatch.getModificationSite() == shiftedLocalization) { // @TODO: compare against the accuracy
-                                                            siteOccupied = true;
-                                                        }
-                                                    }
-                                                    boolean candidatePtm = false;
-                                                    if (!siteOccupied) {
-                                                        for (String ptmName : searchParameters.getPtmSettings().getAllNotFixedModifications()) {
-                                                            PTM ptm = ptmFactory.getPTM(ptmName);
-                                                            if (ptm.getMass() == ptmMass && peptide.getPotentialModificationSites(ptm, sequenceMatchingPreferences, ptmSequenceMatchingPreferences).contains(shiftedLocalization)) { // @TODO: compare against the accuracy
-                                                                candidatePtm = true;
-                                                                break;
-                                                            }
-                                                        }
-                                                    }
-                                                    if (candidatePtm && !siteOccupied) {
-                                                        newLocalizationCandidates.add(shiftedLocalization);
-                                                    }
+                                        boolean candidatePtm = false;
+                                        if (!siteOccupied) {
+                                            for (PTM ptm : modificationSiteIndex.getSimilarPtms(ptmMass)) {
+                                                if (modificationSiteIndex.isPotentialSite(peptide, ptm, shiftedLocalization)) { // @TODO: compare against the accuracy
+                                                    candidatePtm = true;
+                                                    break;
                                                 }
                                             }
-                                            tempSequence = tempSequence.substring(tempIndex + 1);
-                                            ref++;
+                                        }
+                                        if (candidatePtm && !siteOccupied) {
+                                            newLocalizationCandidates.add(shiftedLocalization);
                                         }
                                     }
                                 }
+                                tempSequence = tempSequence.substring(tempIndex + 1);
+                                ref++;
                             }
                         }
-                        
-                        // Map the most likely inferred sites
-                        if (!newLocalizationCandidates.isEmpty()) {
-                            HashMap<Integer, ModificationMatch> nonConfidentMatches = new HashMap<Integer, ModificationMatch>();
-                            for (ModificationMatch modificationMatch : peptide.getModificationMatches()) {
-                                String ptmName = modificationMatch.getTheoreticPtm();
-                                PTM ptm = ptmFactory.getPTM(ptmName);
-                                if (ptm.getMass() == ptmMass && !modificationMatch.isConfident()) { // @TODO: compare against the accuracy
-                                    nonConfidentMatches.put(modificationMatch.getModificationSite(), modificationMatch);
-                                }
-                            }
-                            HashMap<Integer, Integer> mapping = PtmSiteMapping.align(nonConfidentMatches.keySet(), newLocalizationCandidates);
-                            for (Integer oldLocalization : mapping.keySet()) {
-                                ModificationMatch modificationMatch = nonConfidentMatches.get(oldLocalization);
-                                Integer newLocalization = mapping.get(oldLocalization);
-                                if (modificationMatch == null) {
-                                    throw new IllegalArgumentException("No modification match found at site " + oldLocalization + " in spectrum " + spectrumKey + ".");
-                                }
-                                if (newLocalization != null) {
-                                    if (!newLocalization.equals(oldLocalization)) {
-                                        String ptmCandidateName = null;
-                                        for (String ptmName : searchParameters.getPtmSettings().getAllNotFixedModifications()) {
-                                            PTM ptm = ptmFactory.getPTM(ptmName);
-                                            if (ptm.getMass() == ptmMass && peptide.getPotentialModificationSites(ptm, sequenceMatchingPreferences, ptmSequenceMatchingPreferences).contains(newLocalization)) { // @TODO: compare against the accuracy
-                                                ptmCandidateName = ptm.getName();
-                                                break;
+                    } else if (!sequence.equals(otherSequence) && otherSequence.contains(sequence)) {
+                        for (String secondaryKey : ptmConfidentPeptides.get(otherSequence)) {
+                            tempLocalizations = Peptide.getNModificationLocalized(secondaryKey, ptmMass);
+                            int tempIndex, ref = 0;
+                            String tempSequence = otherSequence;
+                            while ((tempIndex = tempSequence.indexOf(sequence)) >= 0) {
+                                ref += tempIndex;
+                                for (int localization : tempLocalizations) {
+                                    int shiftedLocalization = localization - ref;
+                                    if (shiftedLocalization > 0 && shiftedLocalization <= sequence.length()
+                                            && !oldLocalizations.contains(shiftedLocalization) && !newLocalizationCandidates.contains(shiftedLocalization)) {
+                                        boolean siteOccupied = false;
+                                        for (ModificationMatch modificationMatch : peptide.getModificationMatches()) {
+                                            PTM ptm = ptmFactory.getPTM(modificationMatch.getTheoreticPtm());
+                                            if (ptm.getMass() != ptmMass && modificationMatch.getModificationSite() == shiftedLocalization) { // @TODO: compare against the accuracy
+                                                siteOccupied = true;
                                             }
                                         }
-                                        if (ptmCandidateName == null) {
-                                            throw new IllegalArgumentException("No PTM found for site " + newLocalization + " on  peptide " + peptide.getSequence() + " in spectrum " + spectrumKey + ".");
+                                        boolean candidatePtm = false;
+                                        if (!siteOccupied) {
+                                            for (PTM ptm : modificationSiteIndex.getSimilarPtms(ptmMass)) {
+                                                if (modificationSiteIndex.isPotentialSite(peptide, ptm, shiftedLocalization)) { // @TODO: compare against the accuracy
+                                                    candidatePtm = true;
+                                                    break;
+                                                }
+                                            }
+                                        }
+                                        if (candidatePtm && !siteOccupied) {
+                                            newLocalizationCandidates.add(shiftedLocalization);
                                         }
-                                        modificationMatch.setModificationSite(newLocalization);
-                                        modificationMatch.setTheoreticPtm(ptmCandidateName);
-                                        PSPtmScores psmScores = (PSPtmScores) spectrumMatch.getUrParam(new PSPtmScores());
-                                        psmScores.changeRepresentativeSite(ptmCandidateName, oldLocalization, newLocalization);
                                     }
-                                    modificationMatch.setInferred(true);
                                 }
+                                tempSequence = tempSequence.substring(tempIndex + 1);
+                                ref++;
                             }
-                            peptide.resetKeysCaches();
                         }
-                        identification.updateSpectrumMatch(spectrumMatch);
                     }
-                    if (waitingHandler.isRunCanceled()) {
-                        return;
+                }
+            }
+                        
+            // Map the most likely inferred sites
+            if (!newLocalizationCandidates.isEmpty()) {
+                HashMap<Integer, ModificationMatch> nonConfidentMatches = new HashMap<Integer, ModificationMatch>();
+                for (ModificationMatch modificationMatch : peptide.getModificationMatches()) {
+                    String ptmName = modificationMatch.getTheoreticPtm();
+                    PTM ptm = ptmFactory.getPTM(ptmName);
+                    if (ptm.getMass() == ptmMass && !modificationMatch.isConfident()) { // @TODO: compare against the accuracy
+                        nonConfidentMatches.put(modificationMatch.getModificationSite(), modificationMatch);
                     }
-                    if (!progress.contains(spectrumKey)) {
-                        progress.add(spectrumKey);
-                        waitingHandler.increaseSecondaryProgressCounter();
+                }
+                HashMap<Integer, Integer> mapping = PtmSiteMapping.align(nonConfidentMatches.keySet(), newLocalizationCandidates);
+                for (Integer oldLocalization : mapping.keySet()) {
+                    ModificationMatch modificationMatch = nonConfidentMatches.get(oldLocalization);
+                    Integer newLocalization = mapping.get(oldLocalization);
+                    if (modificationMatch == null) {
+                        throw new IllegalArgumentException("No modification match found at site " + oldLocalization + " in spectrum " + spectrumKey + ".");
+                    }
+                    if (newLocalization != null) {
+                        if (!newLocalization.equals(oldLocalization)) {
+                            String ptmCandidateName = null;
+                            for (PTM ptm : modificationSiteIndex.getSimilarPtms(ptmMass)) {
+                                if (modificationSiteIndex.isPotentialSite(peptide, ptm, newLocalization)) { // @TODO: compare against the accuracy
+                                    ptmCandidateName = ptm.getName();
+                                    break;
+                                }
+                            }
+                            if (ptmCandidateName == null) {
+                                throw new IllegalArgumentException("No PTM found for site " + newLocalization + " on  peptide " + peptide.getSequence() + " in spectrum " + spectrumKey + ".");
+                            }
+                            modificationMatch.setModificationSite(newLocalization);
+                            modificationMatch.setTheoreticPtm(ptmCandidateName);
+                            PSPtmScores psmScores = (PSPtmScores) spectrumMatch.getUrParam(new PSPtmScores());
+                            psmScores.changeRepresentativeSite(ptmCandidateName, oldLocalization, newLocalization);
+                        }
+                        modificationMatch.setInferred(true);
                     }
                 }
+                peptide.resetKeysCaches();
             }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Scores the PTMs of a spectrum match and infers the modification sites,
+     * as done for every PSM by scorePsmPtms. The assumptions of the spectrum
+     * match are given to avoid loading them from the database.
+     *
+     * @param identification identification object containing the identification
+     * matches
+     * @param spectrumMatch the spectrum match of interest
+     * @param assumptionsMap the assumptions of the spectrum match
+     * @param identificationParameters the identification parameters
+     * @param modificationSiteIndex the index of the modification sites
+     * @param waitingHandler the handler displaying feedback to the user
+     * @param peptideSpectrumAnnotator the spectrum annotator
+     * @param spectrumAnnotationCache the spectrum annotation cache of the
+     * thread
+     *
+     * @throws Exception exception thrown whenever an error occurred while
+     * scoring the PTMs
+     */
+    public void scorePsmPtms(Identification identification, SpectrumMatch spectrumMatch, HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptionsMap,
+            IdentificationParameters identificationParameters, ModificationSiteIndex modificationSiteIndex, WaitingHandler waitingHandler, PeptideSpectrumAnnotator peptideSpectrumAnnotator,
+            SpectrumAnnotationCache spectrumAnnotationCache) throws Exception {
+        if (spectrumMatch.getBestPeptideAssumption() != null) {
+            scorePTMs(identification, spectrumMatch, assumptionsMap, identificationParameters, modificationSiteIndex, waitingHandler, peptideSpectrumAnnotator, spectrumAnnotationCache);
+            ptmSiteInference(spectrumMatch, identificationParameters, modificationSiteIndex);
         }
     }
 
@@ -1882,8 +2030,8 @@ public class PtmScorer {
      * FLR settings. The FLR must have been calculated before.
      *
      * @param spectrumMatch the spectrum match inspected
-     * @param ptmScorer the PTM scorer used to score PTM sites
      * @param identificationParameters the identification parameters
+     * @param modificationSiteIndex the index of the modification sites
      *
      * @throws IOException exception thrown whenever an error occurred while
      * reading a protein sequence
@@ -1892,15 +2040,13 @@ public class PtmScorer {
      * @throws InterruptedException exception thrown whenever an error occurred
      * while reading a protein sequence
      */
-    private void ptmSiteInference(SpectrumMatch spectrumMatch, IdentificationParameters identificationParameters)
+    private void ptmSiteInference(SpectrumMatch spectrumMatch, IdentificationParameters identificationParameters, ModificationSiteIndex modificationSiteIndex)
             throws IOException, IllegalArgumentException, InterruptedException, FileNotFoundException, ClassNotFoundException, SQLException {
 
         Peptide psPeptide = spectrumMatch.getBestPeptideAssumption().getPeptide();
         
         if (psPeptide.isModified()) {
             
-            SearchParameters searchParameters = identificationParameters.getSearchParameters();
-            PtmSettings modificationProfile = searchParameters.getPtmSettings();
             PSPtmScores ptmScores = (PSPtmScores) spectrumMatch.getUrParam(new PSPtmScores());
             HashMap<Double, ArrayList<ModificationMatch>> modMatchesMap = new HashMap<Double, ArrayList<ModificationMatch>>(psPeptide.getNModifications());
             HashMap<Double, HashMap<Integer, String>> possiblePositions = new HashMap<Double, HashMap<Integer, String>>(psPeptide.getNModifications());
@@ -1921,23 +2067,11 @@ public class PtmScorer {
                         ptmPossibleSites = new HashMap<Integer, String>();
                         possiblePositions.put(ptmMass, ptmPossibleSites);
                     }
-                    boolean maybeNotTerminal = ptm.getType() == PTM.MODAA;
-                    if (!maybeNotTerminal) {
-                        for (String otherPtmName : modificationProfile.getAllNotFixedModifications()) {
-                            if (!otherPtmName.equals(modName)) {
-                                PTM ptm2 = ptmFactory.getPTM(otherPtmName);
-                                if (ptm2.getMass() == ptmMass && ptm.getType() != ptm2.getType()) {
-                                    maybeNotTerminal = true;
-                                    break;
-                                }
-                            }
-                        }
-                    }
-                    if (maybeNotTerminal) {
+                    if (modificationSiteIndex.isMaybeNotTerminal(modName)) {
                         ptmOccurence.add(modificationMatch);
-                        for (String similarPtmName : modificationProfile.getSimilarNotFixedModifications(ptmMass)) {
-                            PTM similarPtm = ptmFactory.getPTM(similarPtmName);
-                            for (int pos : psPeptide.getPotentialModificationSites(similarPtm, identificationParameters.getSequenceMatchingPreferences(), identificationParameters.getPtmScoringPreferences().getSequenceMatchingPreferences())) {
+                        for (PTM similarPtm : modificationSiteIndex.getSimilarPtms(ptmMass)) {
+                            String similarPtmName = similarPtm.getName();
+                            for (int pos : modificationSiteIndex.getPotentialSites(psPeptide, similarPtm)) {
                                 ptmPossibleSites.put(pos, similarPtmName);
                             }
                         }
@@ -2310,6 +2444,10 @@ public class PtmScorer {
          * The identification parameters.
          */
         private IdentificationParameters identificationParameters;
+        /**
+         * The index of the modification sites.
+         */
+        private ModificationSiteIndex modificationSiteIndex;
         /**
          * The waiting handler.
          */
@@ -2322,6 +2460,10 @@ public class PtmScorer {
          * The peptide spectrum annotator.
          */
         private PeptideSpectrumAnnotator peptideSpectrumAnnotator = new PeptideSpectrumAnnotator();
+        /**
+         * The spectrum annotation cache.
+         */
+        private SpectrumAnnotationCache spectrumAnnotationCache = new SpectrumAnnotationCache();
 
         /**
          * Constructor.
@@ -2329,15 +2471,17 @@ public class PtmScorer {
          * @param psmIterator a PSM iterator
          * @param identification the identification containing the matches
          * @param identificationParameters the identification parameters
+         * @param modificationSiteIndex the index of the modification sites
          * @param waitingHandler a waiting handler to display progress and allow
          * canceling the process
          * @param exceptionHandler handler for exceptions
          */
         public PsmPtmScorerRunnable(PsmIterator psmIterator, Identification identification,
-                IdentificationParameters identificationParameters, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler) {
+                IdentificationParameters identificationParameters, ModificationSiteIndex modificationSiteIndex, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler) {
             this.psmIterator = psmIterator;
             this.identification = identification;
             this.identificationParameters = identificationParameters;
+            this.modificationSiteIndex = modificationSiteIndex;
             this.waitingHandler = waitingHandler;
             this.exceptionHandler = exceptionHandler;
         }
@@ -2348,8 +2492,8 @@ public class PtmScorer {
                 while (psmIterator.hasNext() && !waitingHandler.isRunCanceled()) {
                     SpectrumMatch spectrumMatch = psmIterator.next();
                     if (spectrumMatch != null && spectrumMatch.getBestPeptideAssumption() != null) {
-                        scorePTMs(identification, spectrumMatch, identificationParameters, waitingHandler, peptideSpectrumAnnotator);
-                        ptmSiteInference(spectrumMatch, identificationParameters);
+                        scorePTMs(identification, spectrumMatch, identificationParameters, modificationSiteIndex, waitingHandler, peptideSpectrumAnnotator, spectrumAnnotationCache);
+                        ptmSiteInference(spectrumMatch, identificationParameters, modificationSiteIndex);
                     }
                     if (waitingHandler != null && !waitingHandler.isRunCanceled()) {
                         waitingHandler.increaseSecondaryProgressCounter();
@@ -2361,4 +2505,471 @@ public class PtmScorer {
             }
         }
     }
+
+    /**
+     * Runnable scoring peptide PTMs.
+     *
+     * @author Marc Vaudel
+     */
+    private class PeptidePtmScorerRunnable implements Runnable {
+
+        /**
+         * The queue of the chunks of peptide keys to score.
+         */
+        private final ConcurrentLinkedQueue<ArrayList<String>> keysQueue;
+        /**
+         * The identification.
+         */
+        private Identification identification;
+        /**
+         * The identification parameters.
+         */
+        private IdentificationParameters identificationParameters;
+        /**
+         * The index of the modification sites.
+         */
+        private ModificationSiteIndex modificationSiteIndex;
+        /**
+         * The waiting handler.
+         */
+        private WaitingHandler waitingHandler;
+        /**
+         * Handler for the exceptions.
+         */
+        private ExceptionHandler exceptionHandler;
+        /**
+         * The scored peptide matches whose modification sites changed indexed
+         * by their original key.
+         */
+        private final HashMap<String, PeptideMatch> keyChanges = new HashMap<String, PeptideMatch>();
+
+        /**
+         * Constructor.
+         *
+         * @param keysQueue the queue of the chunks of peptide keys to score
+         * @param identification the identification containing the matches
+         * @param identificationParameters the identification parameters
+         * @param modificationSiteIndex the index of the modification sites
+         * @param waitingHandler a waiting handler to display progress and allow
+         * canceling the process
+         * @param exceptionHandler handler for exceptions
+         */
+        public PeptidePtmScorerRunnable(ConcurrentLinkedQueue<ArrayList<String>> keysQueue, Identification identification,
+                IdentificationParameters identificationParameters, ModificationSiteIndex modificationSiteIndex, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler) {
+            this.keysQueue = keysQueue;
+            this.identification = identification;
+            this.identificationParameters = identificationParameters;
+            this.modificationSiteIndex = modificationSiteIndex;
+            this.waitingHandler = waitingHandler;
+            this.exceptionHandler = exceptionHandler;
+        }
+
+        @Override
+        public void run() {
+            try {
+                ArrayList<String> keys;
+                while ((keys = keysQueue.poll()) != null && !waitingHandler.isRunCanceled()) {
+
+                    ArrayList<PeptideMatch> peptideMatches = new ArrayList<PeptideMatch>(keys.size());
+                    ArrayList<String> spectrumKeys = new ArrayList<String>();
+                    PeptideMatchesIterator peptideMatchesIterator = identification.getPeptideMatchesIterator(keys, null, false, null, waitingHandler);
+                    while (peptideMatchesIterator.hasNext()) {
+                        PeptideMatch peptideMatch = peptideMatchesIterator.next();
+                        if (peptideMatch != null) {
+                            peptideMatches.add(peptideMatch);
+                            if (peptideMatch.getTheoreticPeptide().getNModifications() > 0) {
+                                spectrumKeys.addAll(peptideMatch.getSpectrumMatchesKeys());
+                            }
+                        }
+                    }
+
+                    // load the PSMs of the chunk in a single batch
+                    if (!spectrumKeys.isEmpty()) {
+                        identification.loadSpectrumMatches(spectrumKeys, null, false);
+                    }
+
+                    for (PeptideMatch peptideMatch : peptideMatches) {
+                        if (waitingHandler.isRunCanceled()) {
+                            return;
+                        }
+                        String originalKey = attachPeptidePtmScores(identification, peptideMatch, identificationParameters, modificationSiteIndex, waitingHandler);
+                        if (originalKey != null) {
+                            if (originalKey.equals(peptideMatch.getTheoreticPeptide().getMatchingKey(identificationParameters.getSequenceMatchingPreferences()))) {
+                                identification.updatePeptideMatch(peptideMatch);
+                            } else {
+                                keyChanges.put(originalKey, peptideMatch);
+                            }
+                        }
+                        waitingHandler.increaseSecondaryProgressCounter();
+                    }
+                }
+            } catch (Exception e) {
+                exceptionHandler.catchException(e);
+                waitingHandler.setRunCanceled();
+            }
+        }
+
+        /**
+         * Returns the scored peptide matches whose modification sites changed
+         * indexed by their original key. The key changes are not saved in the
+         * identification.
+         *
+         * @return the scored peptide matches whose modification sites changed
+         */
+        public HashMap<String, PeptideMatch> getKeyChanges() {
+            return keyChanges;
+        }
+    }
+
+    /**
+     * Runnable scoring protein PTMs and gathering metrics on the proteins.
+     *
+     * @author Marc Vaudel
+     */
+    private class ProteinPtmScorerRunnable implements Runnable {
+
+        /**
+         * The queue of the chunks of protein keys to score.
+         */
+        private final ConcurrentLinkedQueue<ArrayList<String>> keysQueue;
+        /**
+         * The identification.
+         */
+        private Identification identification;
+        /**
+         * The metrics of the dataset, if null no metrics are gathered.
+         */
+        private Metrics metrics;
+        /**
+         * The identification parameters.
+         */
+        private IdentificationParameters identificationParameters;
+        /**
+         * The index of the modification sites.
+         */
+        private ModificationSiteIndex modificationSiteIndex;
+        /**
+         * The identification features generator, can be null.
+         */
+        private IdentificationFeaturesGenerator identificationFeaturesGenerator;
+        /**
+         * The waiting handler.
+         */
+        private WaitingHandler waitingHandler;
+        /**
+         * Handler for the exceptions.
+         */
+        private ExceptionHandler exceptionHandler;
+        /**
+         * The number of validated proteins processed by this runnable.
+         */
+        private int nValidatedProteins = 0;
+        /**
+         * The number of confident proteins processed by this runnable.
+         */
+        private int nConfidentProteins = 0;
+        /**
+         * The maximal spectrum counting of the proteins processed by this
+         * runnable.
+         */
+        private double maxSpectrumCounting = 0;
+
+        /**
+         * Constructor.
+         *
+         * @param keysQueue the queue of the chunks of protein keys to score
+         * @param identification the identification containing the matches
+         * @param metrics the metrics of the dataset, if null no metrics are
+         * gathered
+         * @param identificationParameters the identification parameters
+         * @param modificationSiteIndex the index of the modification sites
+         * @param identificationFeaturesGenerator the identification features
+         * generator, can be null
+         * @param waitingHandler a waiting handler to display progress and allow
+         * canceling the process
+         * @param exceptionHandler handler for exceptions
+         */
+        public ProteinPtmScorerRunnable(ConcurrentLinkedQueue<ArrayList<String>> keysQueue, Identification identification, Metrics metrics,
+                IdentificationParameters identificationParameters, ModificationSiteIndex modificationSiteIndex, IdentificationFeaturesGenerator identificationFeaturesGenerator,
+                WaitingHandler waitingHandler, ExceptionHandler exceptionHandler) {
+            this.keysQueue = keysQueue;
+            this.identification = identification;
+            this.metrics = metrics;
+            this.identificationParameters = identificationParameters;
+            this.modificationSiteIndex = modificationSiteIndex;
+            this.identificationFeaturesGenerator = identificationFeaturesGenerator;
+            this.waitingHandler = waitingHandler;
+            this.exceptionHandler = exceptionHandler;
+        }
+
+        @Override
+        public void run() {
+            try {
+                PSParameter psParameter = new PSParameter();
+                ArrayList<UrParameter> parameters = new ArrayList<UrParameter>(1);
+                parameters.add(psParameter);
+                ArrayList<String> keys;
+                while ((keys = keysQueue.poll()) != null && !waitingHandler.isRunCanceled()) {
+                    ProteinMatchesIterator proteinMatchesIterator = identification.getProteinMatchesIterator(keys, parameters, true, parameters, true, parameters, waitingHandler);
+                    while (proteinMatchesIterator.hasNext() && !waitingHandler.isRunCanceled()) {
+
+                        ProteinMatch proteinMatch = proteinMatchesIterator.next();
+                        String proteinKey = proteinMatch.getKey();
+
+                        scorePTMs(identification, proteinMatch, identificationParameters, modificationSiteIndex, false, waitingHandler);
+
+                        if (metrics != null) {
+                            psParameter = (PSParameter) identification.getProteinMatchParameter(proteinKey, psParameter);
+                            if (psParameter.getMatchValidationLevel().isValidated()) {
+                                nValidatedProteins++;
+                                if (psParameter.getMatchValidationLevel() == MatchValidationLevel.confident) {
+                                    nConfidentProteins++;
+                                }
+                            }
+                            if (identificationFeaturesGenerator != null) {
+                                double spectrumCounting = identificationFeaturesGenerator.getNormalizedSpectrumCounting(proteinKey);
+                                if (spectrumCounting > maxSpectrumCounting) {
+                                    maxSpectrumCounting = spectrumCounting;
+                                }
+                            }
+                        }
+                        waitingHandler.increaseSecondaryProgressCounter();
+                    }
+                }
+            } catch (Exception e) {
+                exceptionHandler.catchException(e);
+                waitingHandler.setRunCanceled();
+            }
+        }
+    }
+
+    /**
+     * Runnable mapping the PSMs with confidently and ambiguously localized
+     * PTMs for the peptide inference. Every runnable fills its own maps.
+     *
+     * @author Marc Vaudel
+     */
+    private class PeptideInferenceMappingRunnable implements Runnable {
+
+        /**
+         * An iterator for the PSMs.
+         */
+        private final PsmIterator psmIterator;
+        /**
+         * The identification parameters.
+         */
+        private final IdentificationParameters identificationParameters;
+        /**
+         * The index of the modification sites.
+         */
+        private final ModificationSiteIndex modificationSiteIndex;
+        /**
+         * The waiting handler.
+         */
+        private final WaitingHandler waitingHandler;
+        /**
+         * Handler for the exceptions.
+         */
+        private final ExceptionHandler exceptionHandler;
+        /**
+         * PSMs with confidently localized PTMs: PTM mass -&gt; peptide sequence
+         * -&gt; spectrum keys.
+         */
+        private final HashMap<Double, HashMap<String, ArrayList<String>>> confidentSpectra = new HashMap<Double, HashMap<String, ArrayList<String>>>();
+        /**
+         * The peptide keys of the PSMs with confidently localized PTMs indexed
+         * by spectrum key.
+         */
+        private final HashMap<String, String> confidentMatchingKeys = new HashMap<String, String>();
+        /**
+         * The masses of the ambiguously localized PTMs indexed by spectrum key.
+         */
+        private final HashMap<String, ArrayList<Double>> notConfidentMasses = new HashMap<String, ArrayList<Double>>();
+
+        /**
+         * Constructor.
+         *
+         * @param psmIterator an iterator of the PSMs to map
+         * @param identificationParameters the identification parameters
+         * @param modificationSiteIndex the index of the modification sites
+         * @param waitingHandler a waiting handler to display progress and allow
+         * canceling the process
+         * @param exceptionHandler handler for exceptions
+         */
+        public PeptideInferenceMappingRunnable(PsmIterator psmIterator, IdentificationParameters identificationParameters, ModificationSiteIndex modificationSiteIndex,
+                WaitingHandler waitingHandler, ExceptionHandler exceptionHandler) {
+            this.psmIterator = psmIterator;
+            this.identificationParameters = identificationParameters;
+            this.modificationSiteIndex = modificationSiteIndex;
+            this.waitingHandler = waitingHandler;
+            this.exceptionHandler = exceptionHandler;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (psmIterator.hasNext() && !waitingHandler.isRunCanceled()) {
+
+                    SpectrumMatch spectrumMatch = psmIterator.next();
+                    if (spectrumMatch == null || spectrumMatch.getBestPeptideAssumption() == null) {
+                        continue;
+                    }
+                    String spectrumKey = spectrumMatch.getKey();
+                    Peptide peptide = spectrumMatch.getBestPeptideAssumption().getPeptide();
+                    boolean variableAA = false;
+                    if (peptide.isModified()) {
+                        for (ModificationMatch modificationMatch : peptide.getModificationMatches()) {
+                            if (modificationMatch.isVariable() && modificationSiteIndex.isMaybeNotTerminal(modificationMatch.getTheoreticPtm())) {
+                                variableAA = true;
+                                break;
+                            }
+                        }
+                    }
+                    boolean confident = true;
+                    if (variableAA) {
+                        for (ModificationMatch modMatch : peptide.getModificationMatches()) {
+                            if (modMatch.isVariable()) {
+                                String modName = modMatch.getTheoreticPtm();
+                                if (modificationSiteIndex.isMaybeNotTerminal(modName)) {
+                                    double ptmMass = ptmFactory.getPTM(modName).getMass();
+                                    if (!modMatch.isConfident()) {
+                                        ArrayList<Double> masses = notConfidentMasses.get(spectrumKey);
+                                        if (masses == null) {
+                                            masses = new ArrayList<Double>(1);
+                                            notConfidentMasses.put(spectrumKey, masses);
+                                        }
+                                        if (!masses.contains(ptmMass)) {
+                                            masses.add(ptmMass);
+                                        }
+                                        confident = false;
+                                    } else {
+                                        HashMap<String, ArrayList<String>> modMap = confidentSpectra.get(ptmMass);
+                                        if (modMap == null) {
+                                            modMap = new HashMap<String, ArrayList<String>>(2);
+                                            confidentSpectra.put(ptmMass, modMap);
+                                        }
+                                        String sequence = peptide.getSequence();
+                                        ArrayList<String> spectra = modMap.get(sequence);
+                                        if (spectra == null) {
+                                            spectra = new ArrayList<String>(2);
+                                            modMap.put(sequence, spectra);
+                                        }
+                                        if (spectra.isEmpty() || !spectra.get(spectra.size() - 1).equals(spectrumKey)) {
+                                            spectra.add(spectrumKey);
+                                        }
+                                        if (!confidentMatchingKeys.containsKey(spectrumKey)) {
+                                            confidentMatchingKeys.put(spectrumKey, peptide.getMatchingKey(identificationParameters.getSequenceMatchingPreferences()));
+                                        }
+                                    }
+                                }
+                            }
+                        }
+                    }
+                    if (confident) {
+                        waitingHandler.increaseSecondaryProgressCounter();
+                    }
+                }
+            } catch (Exception e) {
+                exceptionHandler.catchException(e);
+                waitingHandler.setRunCanceled();
+            }
+        }
+    }
+
+    /**
+     * Runnable inferring the sites of the ambiguously localized PTMs.
+     *
+     * @author Marc Vaudel
+     */
+    private class PeptideInferenceRunnable implements Runnable {
+
+        /**
+         * The queue of the chunks of spectrum keys to process.
+         */
+        private final ConcurrentLinkedQueue<ArrayList<String>> keysQueue;
+        /**
+         * The identification.
+         */
+        private final Identification identification;
+        /**
+         * The keys of the peptides with confidently localized PTMs: PTM mass
+         * -&gt; peptide sequence -&gt; peptide keys.
+         */
+        private final HashMap<Double, HashMap<String, String[]>> confidentPeptideInference;
+        /**
+         * The masses of the ambiguously localized PTMs indexed by spectrum key.
+         */
+        private final HashMap<String, double[]> notConfidentPeptideInference;
+        /**
+         * The identification parameters.
+         */
+        private final IdentificationParameters identificationParameters;
+        /**
+         * The index of the modification sites.
+         */
+        private final ModificationSiteIndex modificationSiteIndex;
+        /**
+         * The waiting handler.
+         */
+        private final WaitingHandler waitingHandler;
+        /**
+         * Handler for the exceptions.
+         */
+        private final ExceptionHandler exceptionHandler;
+
+        /**
+         * Constructor.
+         *
+         * @param keysQueue the queue of the chunks of spectrum keys to process
+         * @param identification the identification containing the matches
+         * @param confidentPeptideInference the keys of the peptides with
+         * confidently localized PTMs: PTM mass -&gt; peptide sequence -&gt;
+         * peptide keys
+         * @param notConfidentPeptideInference the masses of the ambiguously
+         * localized PTMs indexed by spectrum key
+         * @param identificationParameters the identification parameters
+         * @param modificationSiteIndex the index of the modification sites
+         * @param waitingHandler a waiting handler to display progress and allow
+         * canceling the process
+         * @param exceptionHandler handler for exceptions
+         */
+        public PeptideInferenceRunnable(ConcurrentLinkedQueue<ArrayList<String>> keysQueue, Identification identification, HashMap<Double, HashMap<String, String[]>> confidentPeptideInference,
+                HashMap<String, double[]> notConfidentPeptideInference, IdentificationParameters identificationParameters, ModificationSiteIndex modificationSiteIndex,
+                WaitingHandler waitingHandler, ExceptionHandler exceptionHandler) {
+            this.keysQueue = keysQueue;
+            this.identification = identification;
+            this.confidentPeptideInference = confidentPeptideInference;
+            this.notConfidentPeptideInference = notConfidentPeptideInference;
+            this.identificationParameters = identificationParameters;
+            this.modificationSiteIndex = modificationSiteIndex;
+            this.waitingHandler = waitingHandler;
+            this.exceptionHandler = exceptionHandler;
+        }
+
+        @Override
+        public void run() {
+            try {
+                ArrayList<String> keys;
+                while ((keys = keysQueue.poll()) != null && !waitingHandler.isRunCanceled()) {
+                    PsmIterator psmIterator = identification.getPsmIterator(keys, true, waitingHandler);
+                    while (psmIterator.hasNext() && !waitingHandler.isRunCanceled()) {
+                        SpectrumMatch spectrumMatch = psmIterator.next();
+                        boolean update = false;
+                        for (double ptmMass : notConfidentPeptideInference.get(spectrumMatch.getKey())) {
+                            if (inferSites(spectrumMatch, ptmMass, confidentPeptideInference, identificationParameters, modificationSiteIndex)) {
+                                update = true;
+                            }
+                        }
+                        if (update) {
+                            identification.updateSpectrumMatch(spectrumMatch);
+                        }
+                        waitingHandler.increaseSecondaryProgressCounter();
+                    }
+                }
+            } catch (Exception e) {
+                exceptionHandler.catchException(e);
+                waitingHandler.setRunCanceled();
+            }
+        }
+    }
 }
@@ -4,6 +4,7 @@ import com.compomics.util.experiment.identification.Advocate;
 import com.compomics.util.preferences.PsmScoringPreferences;
 import com.compomics.util.waiting.WaitingHandler;
 import eu.isas.peptideshaker.scoring.targetdecoy.TargetDecoyMap;
+import eu.isas.peptideshaker.scoring.targetdecoy.TargetDecoyMapsEstimator;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -55,6 +56,11 @@ public class InputMap implements Serializable {
      * PeptideShaker unique contribution.
      */
     private HashMap<String, Integer> peptideShakerUniqueContribution;
+    /**
+     * If true, entries are accumulated in per-thread histograms which are
+     * merged in the target/decoy maps before estimating probabilities.
+     */
+    private transient boolean threadAccumulation = false;
 
     /**
      * Returns true for multiple search engines investigations.
@@ -171,6 +177,8 @@ public class InputMap implements Serializable {
      */
     public void estimateProbabilities(WaitingHandler waitingHandler) {
 
+        mergeThreadHistograms();
+
         int max = getNEntries();
         waitingHandler.setSecondaryProgressCounterIndeterminate(false);
         waitingHandler.resetSecondaryProgressCounter();
@@ -196,6 +204,35 @@ public class InputMap implements Serializable {
         waitingHandler.setSecondaryProgressCounterIndeterminate(true);
     }
 
+    /**
+     * Estimates the posterior error probability for each search engine using
+     * multiple threads. Every target/decoy map is processed by a single
+     * thread, the results are identical to the single threaded estimation.
+     *
+     * @param waitingHandler the handler displaying feedback to the user
+     * @param nThreads the number of threads to use
+     *
+     * @throws InterruptedException exception thrown if a thread is
+     * interrupted
+     */
+    public void estimateProbabilities(WaitingHandler waitingHandler, int nThreads) throws InterruptedException {
+
+        mergeThreadHistograms();
+
+        ArrayList<TargetDecoyMap> targetDecoyMaps = getTargetDecoyMaps();
+        int max = 0;
+        for (TargetDecoyMap targetDecoyMap : targetDecoyMaps) {
+            max += targetDecoyMap.getMapSize();
+        }
+        waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+        waitingHandler.resetSecondaryProgressCounter();
+        waitingHandler.setMaxSecondaryProgressCounter(max);
+
+        TargetDecoyMapsEstimator.estimateProbabilities(targetDecoyMaps, nThreads, waitingHandler);
+
+        waitingHandler.setSecondaryProgressCounterIndeterminate(true);
+    }
+
     /**
      * returns the posterior error probability associated to the given e-value
      * for the given search-engine (indexed by its utilities index)
@@ -249,7 +286,7 @@ public class InputMap implements Serializable {
         if (targetDecoyMap == null) {
             targetDecoyMap = createTargetDecoyInputMap(searchEngine);
         }
-        targetDecoyMap.put(eValue, isDecoy);
+        put(targetDecoyMap, eValue, isDecoy);
         HashMap<String, TargetDecoyMap> algorithmMap = inputSpecificMap.get(searchEngine);
         if (algorithmMap == null) {
             algorithmMap = createIntermediateInputSpecificMap(searchEngine);
@@ -258,7 +295,63 @@ public class InputMap implements Serializable {
         if (targetDecoyMap == null) {
             targetDecoyMap = createTargetDecoySpecificMap(spectrumFileName, algorithmMap);
         }
-        targetDecoyMap.put(eValue, isDecoy);
+        put(targetDecoyMap, eValue, isDecoy);
+    }
+
+    /**
+     * Adds a hit to the given target/decoy map, directly or via the histogram
+     * of the current thread depending on the accumulation mode.
+     *
+     * @param targetDecoyMap the target/decoy map
+     * @param score the score of the hit
+     * @param isDecoy boolean indicating whether the hit was decoy
+     */
+    private void put(TargetDecoyMap targetDecoyMap, Double score, boolean isDecoy) {
+        if (threadAccumulation) {
+            targetDecoyMap.putInThreadHistogram(score, isDecoy);
+        } else {
+            targetDecoyMap.put(score, isDecoy);
+        }
+    }
+
+    /**
+     * Indicates whether entries are accumulated in per-thread histograms.
+     *
+     * @return a boolean indicating whether entries are accumulated in
+     * per-thread histograms
+     */
+    public boolean isThreadAccumulation() {
+        return threadAccumulation;
+    }
+
+    /**
+     * Sets whether entries should be accumulated in per-thread histograms.
+     * This avoids contention when entries are added by multiple threads. The
+     * histograms are merged by mergeThreadHistograms().
+     *
+     * @param threadAccumulation a boolean indicating whether entries should
+     * be accumulated in per-thread histograms
+     */
+    public void setThreadAccumulation(boolean threadAccumulation) {
+        this.threadAccumulation = threadAccumulation;
+    }
+
+    /**
+     * Merges the entries accumulated in the per-thread histograms in the
+     * target/decoy maps, including the intermediate score maps. No thread
+     * should be adding entries while merging.
+     */
+    public synchronized void mergeThreadHistograms() {
+        for (TargetDecoyMap targetDecoyMap : getTargetDecoyMaps()) {
+            targetDecoyMap.mergeThreadHistograms();
+        }
+        for (HashMap<Integer, HashMap<Integer, TargetDecoyMap>> advocateMap : intermediateScores.values()) {
+            for (HashMap<Integer, TargetDecoyMap> scoreMap : advocateMap.values()) {
+                for (TargetDecoyMap targetDecoyMap : scoreMap.values()) {
+                    targetDecoyMap.mergeThreadHistograms();
+                }
+            }
+        }
     }
 
     /**
@@ -379,7 +472,21 @@ public class InputMap implements Serializable {
      * @param unique boolean indicating whether the advocate was the only
      * advocate for the considered assumption
      */
-    public synchronized void addAdvocateContribution(Integer advocateId, String fileName, boolean unique) {
+    public void addAdvocateContribution(Integer advocateId, String fileName, boolean unique) {
+        addAdvocateContribution(advocateId, fileName, unique, 1);
+    }
+
+    /**
+     * Adds the given number of advocate contributions. A negative increment
+     * removes contributions.
+     *
+     * @param advocateId the index of the advocate
+     * @param fileName the name of the spectrum file of interest
+     * @param unique boolean indicating whether the advocate was the only
+     * advocate for the considered assumption
+     * @param increment the number of contributions to add
+     */
+    public synchronized void addAdvocateContribution(Integer advocateId, String fileName, boolean unique, int increment) {
         HashMap<String, Integer> advocateContributions = advocateContribution.get(advocateId);
         if (advocateContributions == null) {
             advocateContributions = new HashMap<String, Integer>();
@@ -387,9 +494,9 @@ public class InputMap implements Serializable {
         }
         Integer contribution = advocateContributions.get(fileName);
         if (contribution == null) {
-            advocateContributions.put(fileName, 1);
+            advocateContributions.put(fileName, increment);
         } else {
-            advocateContributions.put(fileName, contribution + 1);
+            advocateContributions.put(fileName, contribution + increment);
         }
         if (unique) {
             HashMap<String, Integer> advocateUniqueContributions = advocateUniqueContribution.get(advocateId);
@@ -399,9 +506,9 @@ public class InputMap implements Serializable {
             }
             Integer uniqueContribution = advocateUniqueContributions.get(fileName);
             if (uniqueContribution == null) {
-                advocateUniqueContributions.put(fileName, 1);
+                advocateUniqueContributions.put(fileName, increment);
             } else {
-                advocateUniqueContributions.put(fileName, uniqueContribution + 1);
+                advocateUniqueContributions.put(fileName, uniqueContribution + increment);
             }
         }
     }
@@ -413,20 +520,33 @@ public class InputMap implements Serializable {
      * @param unique boolean indicating whether the advocate was the only
      * advocate for the considered assumption
      */
-    public synchronized void addPeptideShakerHit(String fileName, boolean unique) {
+    public void addPeptideShakerHit(String fileName, boolean unique) {
+        addPeptideShakerHit(fileName, unique, 1);
+    }
+
+    /**
+     * Adds the given number of PeptideShaker hits for the given file. A
+     * negative increment removes hits.
+     *
+     * @param fileName the name of the spectrum file of interest
+     * @param unique boolean indicating whether the advocate was the only
+     * advocate for the considered assumption
+     * @param increment the number of hits to add
+     */
+    public synchronized void addPeptideShakerHit(String fileName, boolean unique, int increment) {
 
         Integer contribution = fileIdRate.get(fileName);
         if (contribution == null) {
-            fileIdRate.put(fileName, 1);
+            fileIdRate.put(fileName, increment);
         } else {
-            fileIdRate.put(fileName, contribution + 1);
+            fileIdRate.put(fileName, contribution + increment);
         }
         if (unique) {
             contribution = peptideShakerUniqueContribution.get(fileName);
             if (contribution == null) {
-                peptideShakerUniqueContribution.put(fileName, 1);
+                peptideShakerUniqueContribution.put(fileName, increment);
             } else {
-                peptideShakerUniqueContribution.put(fileName, contribution + 1);
+                peptideShakerUniqueContribution.put(fileName, contribution + increment);
             }
         }
     }
@@ -630,7 +750,7 @@ public class InputMap implements Serializable {
         if (targetDecoyMap == null) {
             targetDecoyMap = createTargetDecoyMap(scoreIndex, scoreMap, psmScoringPreferences);
         }
-        targetDecoyMap.put(score, decoy);
+        put(targetDecoyMap, score, decoy);
     }
 
     /**
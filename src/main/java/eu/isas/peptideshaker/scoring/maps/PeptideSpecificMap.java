@@ -4,6 +4,7 @@ import com.compomics.util.experiment.biology.PTM;
 import com.compomics.util.experiment.biology.PTMFactory;
 import com.compomics.util.experiment.biology.Peptide;
 import eu.isas.peptideshaker.scoring.targetdecoy.TargetDecoyMap;
+import eu.isas.peptideshaker.scoring.targetdecoy.TargetDecoyMapsEstimator;
 import com.compomics.util.experiment.identification.matches.ModificationMatch;
 import com.compomics.util.experiment.identification.matches.PeptideMatch;
 import com.compomics.util.experiment.identification.identification_parameters.PtmSettings;
@@ -78,6 +79,39 @@ public class PeptideSpecificMap implements Serializable {
         waitingHandler.setSecondaryProgressCounterIndeterminate(true);
     }
 
+    /**
+     * Estimate the posterior error probabilities using multiple threads.
+     * Every target/decoy map is processed by a single thread, the results are
+     * identical to the single threaded estimation.
+     *
+     * @param waitingHandler the handler displaying feedback to the user
+     * @param nThreads the number of threads to use
+     *
+     * @throws InterruptedException exception thrown if a thread is
+     * interrupted
+     */
+    public void estimateProbabilities(WaitingHandler waitingHandler, int nThreads) throws InterruptedException {
+
+        waitingHandler.setWaitingText("Estimating Probabilities. Please Wait...");
+
+        ArrayList<TargetDecoyMap> targetDecoyMaps = new ArrayList<TargetDecoyMap>(peptideMaps.size());
+        int max = 0;
+        for (String modifications : peptideMaps.keySet()) {
+            if (!groupedMaps.contains(modifications)) {
+                TargetDecoyMap targetDecoyMap = peptideMaps.get(modifications);
+                targetDecoyMaps.add(targetDecoyMap);
+                max += targetDecoyMap.getMapSize();
+            }
+        }
+        waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+        waitingHandler.resetSecondaryProgressCounter();
+        waitingHandler.setMaxSecondaryProgressCounter(max);
+
+        TargetDecoyMapsEstimator.estimateProbabilities(targetDecoyMaps, nThreads, waitingHandler);
+
+        waitingHandler.setSecondaryProgressCounterIndeterminate(true);
+    }
+
     /**
      * Returns the posterior error probability of a peptide match at the given
      * score.
@@ -3,6 +3,7 @@ package eu.isas.peptideshaker.scoring.maps;
 import com.compomics.util.experiment.identification.matches.SpectrumMatch;
 import com.compomics.util.waiting.WaitingHandler;
 import eu.isas.peptideshaker.scoring.targetdecoy.TargetDecoyMap;
+import eu.isas.peptideshaker.scoring.targetdecoy.TargetDecoyMapsEstimator;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -28,6 +29,11 @@ public class PsmPTMMap implements Serializable {
      * relevance.
      */
     private HashMap<Double, HashMap<Integer, Integer>> grouping = new HashMap<Double, HashMap<Integer, Integer>>();
+    /**
+     * If true, points are accumulated in per-thread histograms which are
+     * merged in the target/decoy maps before estimating probabilities.
+     */
+    private transient boolean threadAccumulation = false;
 
     /**
      * Constructor.
@@ -42,6 +48,8 @@ public class PsmPTMMap implements Serializable {
      */
     public void estimateProbabilities(WaitingHandler waitingHandler) {
 
+        mergeThreadHistograms();
+
         int max = getMapsSize();
         waitingHandler.setSecondaryProgressCounterIndeterminate(false);
         waitingHandler.resetSecondaryProgressCounter();
@@ -60,6 +68,42 @@ public class PsmPTMMap implements Serializable {
         waitingHandler.setSecondaryProgressCounterIndeterminate(true);
     }
 
+    /**
+     * Estimate the posterior error probabilities of the PSM PTMs using
+     * multiple threads. Every target/decoy map is processed by a single
+     * thread, the results are identical to the single threaded estimation.
+     *
+     * @param waitingHandler the handler displaying feedback to the user
+     * @param nThreads the number of threads to use
+     *
+     * @throws InterruptedException exception thrown if a thread is
+     * interrupted
+     */
+    public void estimateProbabilities(WaitingHandler waitingHandler, int nThreads) throws InterruptedException {
+
+        mergeThreadHistograms();
+
+        ArrayList<TargetDecoyMap> targetDecoyMaps = new ArrayList<TargetDecoyMap>();
+        int max = 0;
+        for (Double ptmMass : psmMaps.keySet()) {
+            HashMap<Integer, TargetDecoyMap> map = psmMaps.get(ptmMass);
+            for (Integer charge : map.keySet()) {
+                if (!grouping.get(ptmMass).containsKey(charge)) {
+                    TargetDecoyMap targetDecoyMap = map.get(charge);
+                    targetDecoyMaps.add(targetDecoyMap);
+                    max += targetDecoyMap.getMapSize();
+                }
+            }
+        }
+        waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+        waitingHandler.resetSecondaryProgressCounter();
+        waitingHandler.setMaxSecondaryProgressCounter(max);
+
+        TargetDecoyMapsEstimator.estimateProbabilities(targetDecoyMaps, nThreads, waitingHandler);
+
+        waitingHandler.setSecondaryProgressCounterIndeterminate(true);
+    }
+
     /**
      * Returns the probability of the given modification at the given charge and
      * A-score.
@@ -104,22 +148,91 @@ public class PsmPTMMap implements Serializable {
      */
     public void addPoint(double ptmMass, double probabilityScore, SpectrumMatch spectrumMatch, boolean conflict) {
         HashMap<Integer, TargetDecoyMap> psmMap = psmMaps.get(ptmMass);
-        HashMap<Integer, Integer> psmGrouping = grouping.get(ptmMass);
+        if (psmMap == null) {
+            psmMap = createPsmMap(ptmMass);
+        }
+        int key = getKey(spectrumMatch);
+        TargetDecoyMap targetDecoyMap = psmMap.get(key);
+        if (targetDecoyMap == null) {
+            targetDecoyMap = createTargetDecoyMap(key, psmMap);
+        }
+        if (threadAccumulation) {
+            targetDecoyMap.putInThreadHistogram(probabilityScore, conflict);
+        } else {
+            targetDecoyMap.put(probabilityScore, conflict);
+        }
+    }
+
+    /**
+     * Creates the PSM map and grouping of the given modification mass unless
+     * already done by another thread.
+     *
+     * @param ptmMass the mass of the modification
+     *
+     * @return the corresponding PSM map
+     */
+    private synchronized HashMap<Integer, TargetDecoyMap> createPsmMap(double ptmMass) {
+        HashMap<Integer, TargetDecoyMap> psmMap = psmMaps.get(ptmMass);
         if (psmMap == null) {
             psmMap = new HashMap<Integer, TargetDecoyMap>(4);
             psmMaps.put(ptmMass, psmMap);
         }
-        if (psmGrouping == null) {
-            psmGrouping = new HashMap<Integer, Integer>(4);
-            grouping.put(ptmMass, psmGrouping);
+        if (!grouping.containsKey(ptmMass)) {
+            grouping.put(ptmMass, new HashMap<Integer, Integer>(4));
         }
-        int key = getKey(spectrumMatch);
+        return psmMap;
+    }
+
+    /**
+     * Creates the target/decoy map for the given key unless already done by
+     * another thread.
+     *
+     * @param key the key of the map
+     * @param psmMap the PSM map of the modification of interest
+     *
+     * @return the corresponding target/decoy map
+     */
+    private synchronized TargetDecoyMap createTargetDecoyMap(Integer key, HashMap<Integer, TargetDecoyMap> psmMap) {
         TargetDecoyMap targetDecoyMap = psmMap.get(key);
         if (targetDecoyMap == null) {
             targetDecoyMap = new TargetDecoyMap();
             psmMap.put(key, targetDecoyMap);
         }
-        targetDecoyMap.put(probabilityScore, conflict);
+        return targetDecoyMap;
+    }
+
+    /**
+     * Indicates whether points are accumulated in per-thread histograms.
+     *
+     * @return a boolean indicating whether points are accumulated in
+     * per-thread histograms
+     */
+    public boolean isThreadAccumulation() {
+        return threadAccumulation;
+    }
+
+    /**
+     * Sets whether points should be accumulated in per-thread histograms.
+     * This avoids contention when points are added by multiple threads. The
+     * histograms are merged by mergeThreadHistograms().
+     *
+     * @param threadAccumulation a boolean indicating whether points should be
+     * accumulated in per-thread histograms
+     */
+    public void setThreadAccumulation(boolean threadAccumulation) {
+        this.threadAccumulation = threadAccumulation;
+    }
+
+    /**
+     * Merges the points accumulated in the per-thread histograms in the
+     * target/decoy maps. No thread should be adding points while merging.
+     */
+    public synchronized void mergeThreadHistograms() {
+        for (HashMap<Integer, TargetDecoyMap> psmMap : psmMaps.values()) {
+            for (TargetDecoyMap targetDecoyMap : psmMap.values()) {
+                targetDecoyMap.mergeThreadHistograms();
+            }
+        }
     }
 
     /**
@@ -131,6 +244,7 @@ public class PsmPTMMap implements Serializable {
      * @return a list of keys from maps presenting a suspicious input
      */
     public HashMap<Double, String> suspiciousInput(Double minimalFDR) {
+        mergeThreadHistograms();
         HashMap<Double, String> result = new HashMap<Double, String>();
         for (double ptmMass : psmMaps.keySet()) {
             for (Integer key : psmMaps.get(ptmMass).keySet()) {
@@ -151,6 +265,8 @@ public class PsmPTMMap implements Serializable {
      */
     public void clean(Double minimalFDR) {
 
+        mergeThreadHistograms();
+
         for (double ptmMass : psmMaps.keySet()) {
 
             ArrayList<Integer> charges = new ArrayList(psmMaps.get(ptmMass).keySet());
@@ -1,6 +1,7 @@
 package eu.isas.peptideshaker.scoring.maps;
 
 import eu.isas.peptideshaker.scoring.targetdecoy.TargetDecoyMap;
+import eu.isas.peptideshaker.scoring.targetdecoy.TargetDecoyMapsEstimator;
 import com.compomics.util.experiment.identification.matches.SpectrumMatch;
 import com.compomics.util.experiment.massspectrometry.Spectrum;
 import com.compomics.util.preferences.SequenceMatchingPreferences;
@@ -43,6 +44,11 @@ public class PsmSpecificMap implements Serializable {
      * relevance grouped per file.
      */
     private HashMap<Integer, ArrayList<String>> fileSpecificGrouping = new HashMap<Integer, ArrayList<String>>();
+    /**
+     * If true, points are accumulated in per-thread histograms which are
+     * merged in the target/decoy maps before estimating probabilities.
+     */
+    private transient boolean threadAccumulation = false;
 
     /**
      * Constructor.
@@ -57,6 +63,8 @@ public class PsmSpecificMap implements Serializable {
      */
     public void estimateProbabilities(WaitingHandler waitingHandler) {
 
+        mergeThreadHistograms();
+
         int max = getMapsSize();
         waitingHandler.setSecondaryProgressCounterIndeterminate(false);
         waitingHandler.resetSecondaryProgressCounter();
@@ -85,6 +93,51 @@ public class PsmSpecificMap implements Serializable {
         waitingHandler.setSecondaryProgressCounterIndeterminate(true);
     }
 
+    /**
+     * Estimate the posterior error probabilities of the PSMs using multiple
+     * threads. Every target/decoy map is processed by a single thread, the
+     * results are identical to the single threaded estimation.
+     *
+     * @param waitingHandler the handler displaying feedback to the user
+     * @param nThreads the number of threads to use
+     *
+     * @throws InterruptedException exception thrown if a thread is
+     * interrupted
+     */
+    public void estimateProbabilities(WaitingHandler waitingHandler, int nThreads) throws InterruptedException {
+
+        mergeThreadHistograms();
+
+        ArrayList<TargetDecoyMap> targetDecoyMaps = new ArrayList<TargetDecoyMap>();
+        if (fileSpecificPsmsMaps != null) {
+            for (Integer charge : fileSpecificPsmsMaps.keySet()) {
+                ArrayList<String> groupedFiles = fileSpecificGrouping.get(charge);
+                for (String file : fileSpecificPsmsMaps.get(charge).keySet()) {
+                    if (groupedFiles == null || !groupedFiles.contains(file)) {
+                        targetDecoyMaps.add(fileSpecificPsmsMaps.get(charge).get(file));
+                    }
+                }
+            }
+        }
+        for (Integer charge : psmsMaps.keySet()) {
+            if (!grouping.containsKey(charge)) {
+                targetDecoyMaps.add(psmsMaps.get(charge));
+            }
+        }
+
+        int max = 0;
+        for (TargetDecoyMap targetDecoyMap : targetDecoyMaps) {
+            max += targetDecoyMap.getMapSize();
+        }
+        waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+        waitingHandler.resetSecondaryProgressCounter();
+        waitingHandler.setMaxSecondaryProgressCounter(max);
+
+        TargetDecoyMapsEstimator.estimateProbabilities(targetDecoyMaps, nThreads, waitingHandler);
+
+        waitingHandler.setSecondaryProgressCounterIndeterminate(true);
+    }
+
     /**
      * Returns the probability of the given spectrum match at the given score.
      *
@@ -145,18 +198,90 @@ public class PsmSpecificMap implements Serializable {
             throws IOException, InterruptedException, SQLException, ClassNotFoundException {
 
         int charge = spectrumMatch.getBestPeptideAssumption().getIdentificationCharge().value;
+        HashMap<String, TargetDecoyMap> fileMapping = fileSpecificPsmsMaps.get(charge);
+        if (fileMapping == null) {
+            fileMapping = createFileMapping(charge);
+        }
+        String file = Spectrum.getSpectrumFile(spectrumMatch.getKey());
+        TargetDecoyMap targetDecoyMap = fileMapping.get(file);
+        if (targetDecoyMap == null) {
+            targetDecoyMap = createTargetDecoyMap(file, fileMapping);
+        }
+        boolean decoy = spectrumMatch.getBestPeptideAssumption().getPeptide().isDecoy(sequenceMatchingPreferences);
+        if (threadAccumulation) {
+            targetDecoyMap.putInThreadHistogram(probabilityScore, decoy);
+        } else {
+            targetDecoyMap.put(probabilityScore, decoy);
+        }
+    }
+
+    /**
+     * Creates the file mapping for the given charge unless already done by
+     * another thread.
+     *
+     * @param charge the charge of interest
+     *
+     * @return the corresponding file mapping
+     */
+    private synchronized HashMap<String, TargetDecoyMap> createFileMapping(Integer charge) {
         HashMap<String, TargetDecoyMap> fileMapping = fileSpecificPsmsMaps.get(charge);
         if (fileMapping == null) {
             fileMapping = new HashMap<String, TargetDecoyMap>();
             fileSpecificPsmsMaps.put(charge, fileMapping);
         }
-        String file = Spectrum.getSpectrumFile(spectrumMatch.getKey());
+        return fileMapping;
+    }
+
+    /**
+     * Creates the target/decoy map for the given file unless already done by
+     * another thread.
+     *
+     * @param file the name of the spectrum file
+     * @param fileMapping the file mapping of the charge of interest
+     *
+     * @return the corresponding target/decoy map
+     */
+    private synchronized TargetDecoyMap createTargetDecoyMap(String file, HashMap<String, TargetDecoyMap> fileMapping) {
         TargetDecoyMap targetDecoyMap = fileMapping.get(file);
         if (targetDecoyMap == null) {
             targetDecoyMap = new TargetDecoyMap();
             fileMapping.put(file, targetDecoyMap);
         }
-        targetDecoyMap.put(probabilityScore, spectrumMatch.getBestPeptideAssumption().getPeptide().isDecoy(sequenceMatchingPreferences));
+        return targetDecoyMap;
+    }
+
+    /**
+     * Indicates whether points are accumulated in per-thread histograms.
+     *
+     * @return a boolean indicating whether points are accumulated in
+     * per-thread histograms
+     */
+    public boolean isThreadAccumulation() {
+        return threadAccumulation;
+    }
+
+    /**
+     * Sets whether points should be accumulated in per-thread histograms.
+     * This avoids contention when points are added by multiple threads. The
+     * histograms are merged by mergeThreadHistograms().
+     *
+     * @param threadAccumulation a boolean indicating whether points should be
+     * accumulated in per-thread histograms
+     */
+    public void setThreadAccumulation(boolean threadAccumulation) {
+        this.threadAccumulation = threadAccumulation;
+    }
+
+    /**
+     * Merges the points accumulated in the per-thread histograms in the
+     * target/decoy maps. No thread should be adding points while merging.
+     */
+    public synchronized void mergeThreadHistograms() {
+        for (HashMap<String, TargetDecoyMap> fileMapping : fileSpecificPsmsMaps.values()) {
+            for (TargetDecoyMap targetDecoyMap : fileMapping.values()) {
+                targetDecoyMap.mergeThreadHistograms();
+            }
+        }
     }
 
     /**
@@ -167,6 +292,7 @@ public class PsmSpecificMap implements Serializable {
      * @param minimalFDR the minimal FDR which should be achievable
      */
     public void clean(double minimalFDR) {
+        mergeThreadHistograms();
         ArrayList<Integer> charges = new ArrayList(fileSpecificPsmsMaps.keySet());
         Collections.sort(charges);
         int ref = 0;
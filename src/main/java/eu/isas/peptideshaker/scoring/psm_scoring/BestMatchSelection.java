@@ -1,5 +1,6 @@
 package eu.isas.peptideshaker.scoring.psm_scoring;
 
+import com.compomics.util.exceptions.ExceptionHandler;
 import com.compomics.util.experiment.biology.Peptide;
 import com.compomics.util.experiment.identification.Advocate;
 import com.compomics.util.experiment.identification.Identification;
@@ -13,6 +14,7 @@ import com.compomics.util.experiment.identification.matches.SpectrumMatch;
 import com.compomics.util.experiment.identification.matches_iterators.PsmIterator;
 import com.compomics.util.experiment.identification.spectrum_annotation.spectrum_annotators.PeptideSpectrumAnnotator;
 import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
+import com.compomics.util.experiment.massspectrometry.Precursor;
 import com.compomics.util.experiment.massspectrometry.SpectrumFactory;
 import com.compomics.util.memory.MemoryConsumptionStatus;
 import com.compomics.util.experiment.identification.spectrum_annotation.AnnotationSettings;
@@ -25,14 +27,23 @@ import com.compomics.util.preferences.IdMatchValidationPreferences;
 import com.compomics.util.waiting.WaitingHandler;
 import eu.isas.peptideshaker.parameters.PSParameter;
 import eu.isas.peptideshaker.scoring.maps.InputMap;
+import eu.isas.peptideshaker.utils.KeysChunks;
 import eu.isas.peptideshaker.utils.Metrics;
+import eu.isas.peptideshaker.utils.SpectrumAnnotationCache;
 import eu.isas.peptideshaker.validation.MatchesValidator;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException;
 
 /**
@@ -42,6 +53,26 @@ import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException;
  */
 public class BestMatchSelection {
 
+    /**
+     * Comparator of the peptide candidates on score, protein count and
+     * number of search engines.
+     */
+    private static final CandidateComparator SCORE_COMPARATOR = new CandidateComparator(CandidateComparator.SCORE);
+    /**
+     * Comparator of the peptide candidates on score, protein count, number of
+     * search engines and fragment ion coverage.
+     */
+    private static final CandidateComparator COVERAGE_COMPARATOR = new CandidateComparator(CandidateComparator.COVERAGE);
+    /**
+     * Comparator of the peptide candidates on score, protein count, number of
+     * search engines, fragment ion coverage and precursor mass error.
+     */
+    private static final CandidateComparator MASS_ERROR_COMPARATOR = new CandidateComparator(CandidateComparator.MASS_ERROR);
+    /**
+     * Comparator of the peptide candidates on all features, the sequence
+     * being used as last resort.
+     */
+    private static final CandidateComparator RANK_COMPARATOR = new CandidateComparator(CandidateComparator.SEQUENCE);
     /**
      * The sequence factory.
      */
@@ -85,11 +116,17 @@ public class BestMatchSelection {
     }
 
     /**
-     * Fills the PSM specific map.
+     * Fills the PSM specific map. The spectra of all files are split in
+     * chunks processed in parallel, the spectrum keys ordered by peptide are
+     * gathered in the order of the files and chunks, so that the result does
+     * not depend on the number of threads.
      *
      * @param inputMap The input map
      * @param waitingHandler the handler displaying feedback to the user
+     * @param exceptionHandler handler for the exceptions encountered while
+     * processing the spectra
      * @param identificationParameters the identification parameters
+     * @param nThreads the number of threads to use
      *
      * @throws java.sql.SQLException exception thrown whenever an error occurred
      * while interacting with the back-end database
@@ -102,467 +139,543 @@ public class BestMatchSelection {
      * @throws uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException exception thrown
      * whenever an error occurred while reading an mzML file
      */
-    public void selectBestHitAndFillPsmMap(InputMap inputMap, WaitingHandler waitingHandler,
-            IdentificationParameters identificationParameters) throws SQLException, IOException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
+    public void selectBestHitAndFillPsmMap(InputMap inputMap, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler,
+            IdentificationParameters identificationParameters, int nThreads) throws SQLException, IOException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
 
         waitingHandler.setSecondaryProgressCounterIndeterminate(false);
         waitingHandler.setMaxSecondaryProgressCounter(identification.getSpectrumIdentificationSize());
 
-        PeptideSpectrumAnnotator spectrumAnnotator = new PeptideSpectrumAnnotator();
         boolean multiSE = inputMap.isMultipleAlgorithms();
 
-        PeptideAssumptionFilter peptideAssumptionFilter = identificationParameters.getPeptideAssumptionFilter();
-        SequenceMatchingPreferences sequenceMatchingPreferences = identificationParameters.getSequenceMatchingPreferences();
-        SequenceMatchingPreferences ptmSequenceMatchingPreferences = identificationParameters.getPtmScoringPreferences().getSequenceMatchingPreferences();
-        SearchParameters searchParameters = identificationParameters.getSearchParameters();
-        AnnotationSettings annotationPreferences = identificationParameters.getAnnotationPreferences();
-        IdMatchValidationPreferences idMatchValidationPreferences = identificationParameters.getIdValidationPreferences();
-
-        PeptideAssumptionFilter idFilter = identificationParameters.getPeptideAssumptionFilter();
-
         // Keep a map of the spectrum keys grouped by peptide
         HashMap<String, ArrayList<String>> orderedPsmMap = null;
         if (MemoryConsumptionStatus.memoryUsed() < 0.8) {
             orderedPsmMap = new HashMap<String, ArrayList<String>>(identification.getSpectrumIdentificationMap().size());
         }
 
-        PSParameter psParameter = new PSParameter();
+        ArrayList<String> spectrumFileNames = new ArrayList<String>(identification.getSpectrumFiles());
+        ArrayList<ArrayList<KeysChunk>> fileChunks = new ArrayList<ArrayList<KeysChunk>>(spectrumFileNames.size());
+        ConcurrentLinkedQueue<KeysChunk> chunksQueue = new ConcurrentLinkedQueue<KeysChunk>();
+
+        for (String spectrumFileName : spectrumFileNames) {
+
+            HashSet<String> spectrumKeys = identification.getSpectrumIdentification(spectrumFileName);
+            ArrayList<ArrayList<String>> keysChunks = KeysChunks.getChunks(spectrumKeys, nThreads);
+            ArrayList<KeysChunk> chunks = new ArrayList<KeysChunk>(keysChunks.size());
+            for (ArrayList<String> keys : keysChunks) {
+                chunks.add(new KeysChunk(keys, orderedPsmMap != null));
+            }
+
+            fileChunks.add(chunks);
+            chunksQueue.addAll(chunks);
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+        ArrayList<Future<?>> futures = new ArrayList<Future<?>>(nThreads);
+        for (int i = 1; i <= nThreads; i++) {
+            futures.add(pool.submit(new BestMatchSelectionRunnable(chunksQueue, multiSE, identificationParameters, waitingHandler, exceptionHandler)));
+        }
+        pool.shutdown();
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            pool.shutdownNow();
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+        if (!pool.awaitTermination(7, TimeUnit.DAYS)) {
+            throw new InterruptedException("Best match selection timed out. Please contact the developers.");
+        }
+        if (waitingHandler.isRunCanceled()) {
+            return;
+        }
 
-        for (String spectrumFileName : identification.getSpectrumFiles()) {
+        if (orderedPsmMap != null) {
+            for (int i = 0; i < spectrumFileNames.size(); i++) {
+
+                String spectrumFileName = spectrumFileNames.get(i);
+                ArrayList<KeysChunk> chunks = fileChunks.get(i);
+
+                HashMap<String, ArrayList<String>> keysMap = new HashMap<String, ArrayList<String>>();
+                for (KeysChunk chunk : chunks) {
+                    for (String peptideKey : chunk.keysMap.keySet()) {
+                        ArrayList<String> spectrumKeys = keysMap.get(peptideKey);
+                        if (spectrumKeys == null) {
+                            keysMap.put(peptideKey, chunk.keysMap.get(peptideKey));
+                        } else {
+                            spectrumKeys.addAll(chunk.keysMap.get(peptideKey));
+                        }
+                    }
+                }
+                ArrayList<String> orderedKeys = new ArrayList<String>(identification.getSpectrumIdentification(spectrumFileName).size());
+                for (ArrayList<String> keys : keysMap.values()) {
+                    orderedKeys.addAll(keys);
+                }
+                orderedPsmMap.put(spectrumFileName, orderedKeys);
 
-            HashMap<String, ArrayList<String>> keysMap = null;
-            if (orderedPsmMap != null) {
-                keysMap = new HashMap<String, ArrayList<String>>();
+                if (MemoryConsumptionStatus.memoryUsed() > 0.9) {
+                    orderedPsmMap = null;
+                    break;
+                }
             }
+        }
+
+        completeSelection(orderedPsmMap);
 
-            PsmIterator psmIterator = identification.getPsmIterator(spectrumFileName, null, true, waitingHandler);
+        waitingHandler.setSecondaryProgressCounterIndeterminate(true);
+    }
 
-            while (psmIterator.hasNext()) {
+    /**
+     * Stores the spectrum keys ordered by peptide in the metrics and releases
+     * the protein count map which is no longer needed once the best hits are
+     * selected.
+     *
+     * @param orderedPsmMap the spectrum keys of every file ordered by peptide,
+     * can be null
+     */
+    public void completeSelection(HashMap<String, ArrayList<String>> orderedPsmMap) {
 
-                SpectrumMatch advocateMatch = psmIterator.next();
-                String spectrumKey = advocateMatch.getKey();
+        if (orderedPsmMap != null) {
+            metrics.setOrderedSpectrumKeys(orderedPsmMap);
+        }
 
-                // map of the peptide first hits for this spectrum: score -> max protein count -> max search engine votes -> amino acids annotated -> min mass deviation -> peptide sequence
-                HashMap<Double, HashMap<Integer, HashMap<Integer, HashMap<Integer, HashMap<Double, HashMap<String, PeptideAssumption>>>>>> peptideAssumptions
-                        = new HashMap<Double, HashMap<Integer, HashMap<Integer, HashMap<Integer, HashMap<Double, HashMap<String, PeptideAssumption>>>>>>();
+        // the protein count map is no longer needed
+        proteinCount.clear();
+    }
 
-                // map of the tag first hits: score -> assumptions
-                HashMap<Double, ArrayList<TagAssumption>> tagAssumptions = new HashMap<Double, ArrayList<TagAssumption>>();
+    /**
+     * Selects the best peptide and tag hits of a spectrum, stores the
+     * resulting spectrum match and its parameter in the identification, and
+     * adds the match to the PSM map.
+     *
+     * @param spectrumKey the key of the spectrum
+     * @param assumptions the assumptions of the spectrum with their search
+     * engine probabilities
+     * @param multiSE boolean indicating whether multiple search engines were
+     * used
+     * @param identificationParameters the identification parameters
+     * @param spectrumAnnotator the spectrum annotator to use
+     * @param spectrumAnnotationCache the spectrum annotation cache of the
+     * thread
+     * @param keysMap map where the key of the spectrum will be added indexed
+     * by the key of the best peptide, ignored if null
+     *
+     * @return the spectrum match created
+     *
+     * @throws java.sql.SQLException exception thrown whenever an error occurred
+     * while interacting with the back-end database
+     * @throws java.io.IOException exception thrown whenever an error occurred
+     * while reading an external file
+     * @throws java.lang.ClassNotFoundException exception thrown whenever an
+     * error occurred while deserializing an object
+     * @throws java.lang.InterruptedException exception thrown whenever a
+     * threading error occurred
+     * @throws uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException exception thrown
+     * whenever an error occurred while reading an mzML file
+     */
+    public SpectrumMatch selectBestHit(String spectrumKey, HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptions, boolean multiSE,
+            IdentificationParameters identificationParameters, PeptideSpectrumAnnotator spectrumAnnotator, SpectrumAnnotationCache spectrumAnnotationCache,
+            HashMap<String, ArrayList<String>> keysMap) throws SQLException, IOException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
 
-                HashSet<String> identifications = new HashSet<String>();
+        PeptideAssumptionFilter peptideAssumptionFilter = identificationParameters.getPeptideAssumptionFilter();
+        SequenceMatchingPreferences sequenceMatchingPreferences = identificationParameters.getSequenceMatchingPreferences();
+        SequenceMatchingPreferences ptmSequenceMatchingPreferences = identificationParameters.getPtmScoringPreferences().getSequenceMatchingPreferences();
+        SearchParameters searchParameters = identificationParameters.getSearchParameters();
+        IdMatchValidationPreferences idMatchValidationPreferences = identificationParameters.getIdValidationPreferences();
 
-                HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptions = identification.getAssumptions(spectrumKey);
+        PeptideAssumptionFilter idFilter = identificationParameters.getPeptideAssumptionFilter();
 
-                for (int searchEngine1 : assumptions.keySet()) {
+        PSParameter psParameter = new PSParameter();
 
-                    HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> advocate1Map = assumptions.get(searchEngine1);
 
-                    ArrayList<Double> eValues1 = new ArrayList<Double>(advocate1Map.keySet());
-                    Collections.sort(eValues1);
+        // the peptide first hits for this spectrum, ranked by score, max protein count, max search engine votes, amino acids annotated, min mass deviation and peptide sequence
+        ArrayList<PeptideCandidate> peptideCandidates = new ArrayList<PeptideCandidate>();
 
-                    for (Double eValue1 : eValues1) {
+        // map of the tag first hits: score -> assumptions
+        HashMap<Double, ArrayList<TagAssumption>> tagAssumptions = new HashMap<Double, ArrayList<TagAssumption>>();
 
-                        boolean bestPeptideFound = false;
+        HashSet<String> identifications = new HashSet<String>();
 
-                        for (SpectrumIdentificationAssumption assumption1 : advocate1Map.get(eValue1)) {
+        for (int searchEngine1 : assumptions.keySet()) {
 
-                            if (assumption1 instanceof PeptideAssumption) {
+            HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> advocate1Map = assumptions.get(searchEngine1);
 
-                                PeptideAssumption peptideAssumption1 = (PeptideAssumption) assumption1;
-                                Peptide peptide1 = peptideAssumption1.getPeptide();
-                                String id = peptide1.getKey();
+            ArrayList<Double> eValues1 = new ArrayList<Double>(advocate1Map.keySet());
+            Collections.sort(eValues1);
 
-                                if (!identifications.contains(id)) {
+            for (Double eValue1 : eValues1) {
 
-                                    boolean filterPassed1 = true;
-                                    if (!peptideAssumptionFilter.validatePeptide(peptide1, sequenceMatchingPreferences, searchParameters.getDigestionPreferences())
-                                            || !peptideAssumptionFilter.validateModifications(peptide1, sequenceMatchingPreferences, ptmSequenceMatchingPreferences, searchParameters.getPtmSettings())
-                                            || !peptideAssumptionFilter.validatePrecursor(peptideAssumption1, spectrumKey, spectrumFactory, searchParameters)
-                                            || !peptideAssumptionFilter.validateProteins(peptide1, sequenceMatchingPreferences)) {
-                                        filterPassed1 = false;
-                                    } else {
-                                        ArrayList<String> accessions = peptide1.getParentProteins(sequenceMatchingPreferences);
-                                        if (accessions == null || accessions.isEmpty()) {
-                                            filterPassed1 = false;
-                                        }
-                                    }
+                boolean bestPeptideFound = false;
 
-                                    if (filterPassed1) {
+                for (SpectrumIdentificationAssumption assumption1 : advocate1Map.get(eValue1)) {
 
-                                        bestPeptideFound = true;
+                    if (assumption1 instanceof PeptideAssumption) {
 
-                                        psParameter = (PSParameter) peptideAssumption1.getUrParam(psParameter);
-                                        double p;
+                        PeptideAssumption peptideAssumption1 = (PeptideAssumption) assumption1;
+                        Peptide peptide1 = peptideAssumption1.getPeptide();
+                        String id = peptide1.getKey();
 
-                                        if (multiSE && sequenceFactory.concatenatedTargetDecoy()) {
-                                            p = psParameter.getSearchEngineProbability();
-                                        } else {
-                                            p = peptideAssumption1.getScore();
-                                        }
+                        if (!identifications.contains(id)) {
 
-                                        int nSE = 1;
-                                        int proteinMax = 1;
-                                        for (String protein : peptideAssumption1.getPeptide().getParentProteins(sequenceMatchingPreferences)) {
-                                            Integer tempCount = proteinCount.get(protein);
-                                            if (tempCount != null && tempCount > proteinMax) {
-                                                proteinMax = tempCount;
-                                            }
-                                        }
+                            boolean filterPassed1 = true;
+                            if (!peptideAssumptionFilter.validatePeptide(peptide1, sequenceMatchingPreferences, searchParameters.getDigestionPreferences())
+                                    || !peptideAssumptionFilter.validateModifications(peptide1, sequenceMatchingPreferences, ptmSequenceMatchingPreferences, searchParameters.getPtmSettings())
+                                    || !peptideAssumptionFilter.validatePrecursor(peptideAssumption1, spectrumKey, spectrumFactory, searchParameters)
+                                    || !peptideAssumptionFilter.validateProteins(peptide1, sequenceMatchingPreferences)) {
+                                filterPassed1 = false;
+                            } else {
+                                ArrayList<String> accessions = peptide1.getParentProteins(sequenceMatchingPreferences);
+                                if (accessions == null || accessions.isEmpty()) {
+                                    filterPassed1 = false;
+                                }
+                            }
 
-                                        for (int searchEngine2 : assumptions.keySet()) {
+                            if (filterPassed1) {
 
-                                            if (searchEngine1 != searchEngine2) {
+                                bestPeptideFound = true;
 
-                                                HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> advocate2Map = assumptions.get(searchEngine2);
+                                psParameter = (PSParameter) peptideAssumption1.getUrParam(psParameter);
+                                double p;
 
-                                                boolean found = false;
-                                                ArrayList<Double> eValues2 = new ArrayList<Double>(advocate2Map.keySet());
-                                                Collections.sort(eValues2);
+                                if (multiSE && sequenceFactory.concatenatedTargetDecoy()) {
+                                    p = psParameter.getSearchEngineProbability();
+                                } else {
+                                    p = peptideAssumption1.getScore();
+                                }
 
-                                                for (double eValue2 : eValues2) {
+                                int nSE = 1;
+                                int proteinMax = 1;
+                                for (String protein : peptideAssumption1.getPeptide().getParentProteins(sequenceMatchingPreferences)) {
+                                    Integer tempCount = proteinCount.get(protein);
+                                    if (tempCount != null && tempCount > proteinMax) {
+                                        proteinMax = tempCount;
+                                    }
+                                }
 
-                                                    for (SpectrumIdentificationAssumption assumption2 : advocate2Map.get(eValue2)) {
+                                for (int searchEngine2 : assumptions.keySet()) {
 
-                                                        if (assumption2 instanceof PeptideAssumption) {
+                                    if (searchEngine1 != searchEngine2) {
 
-                                                            PeptideAssumption peptideAssumption2 = (PeptideAssumption) assumption2;
+                                        HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> advocate2Map = assumptions.get(searchEngine2);
 
-                                                            if (peptideAssumption1.getPeptide().isSameSequenceAndModificationStatus(peptideAssumption2.getPeptide(),
-                                                                    sequenceMatchingPreferences)) {
-                                                                PSParameter psParameter2 = (PSParameter) peptideAssumption2.getUrParam(psParameter);
-                                                                p = p * psParameter2.getSearchEngineProbability();
-                                                                nSE++;
-                                                                found = true;
-                                                                break;
-                                                            }
-                                                        }
-                                                    }
-                                                    if (found) {
-                                                        break;
-                                                    }
-                                                }
-                                            }
-                                        }
+                                        boolean found = false;
+                                        ArrayList<Double> eValues2 = new ArrayList<Double>(advocate2Map.keySet());
+                                        Collections.sort(eValues2);
 
-                                        identifications.add(id);
+                                        for (double eValue2 : eValues2) {
 
-                                        HashMap<Integer, HashMap<Integer, HashMap<Integer, HashMap<Double, HashMap<String, PeptideAssumption>>>>> pMap = peptideAssumptions.get(p);
-                                        if (pMap == null) {
-                                            pMap = new HashMap<Integer, HashMap<Integer, HashMap<Integer, HashMap<Double, HashMap<String, PeptideAssumption>>>>>(advocate1Map.size());
-                                            peptideAssumptions.put(p, pMap);
-                                        }
+                                            for (SpectrumIdentificationAssumption assumption2 : advocate2Map.get(eValue2)) {
 
-                                        HashMap<Integer, HashMap<Integer, HashMap<Double, HashMap<String, PeptideAssumption>>>> proteinMaxMap = pMap.get(proteinMax);
-                                        if (proteinMaxMap == null) {
-                                            proteinMaxMap = new HashMap<Integer, HashMap<Integer, HashMap<Double, HashMap<String, PeptideAssumption>>>>(1);
-                                            pMap.put(proteinMax, proteinMaxMap);
-                                        }
+                                                if (assumption2 instanceof PeptideAssumption) {
 
-                                        HashMap<Integer, HashMap<Double, HashMap<String, PeptideAssumption>>> nSeMap = proteinMaxMap.get(nSE);
-                                        if (nSeMap == null) {
-                                            nSeMap = new HashMap<Integer, HashMap<Double, HashMap<String, PeptideAssumption>>>(1);
-                                            proteinMaxMap.put(nSE, nSeMap);
-                                            HashMap<Double, HashMap<String, PeptideAssumption>> coverageMap = new HashMap<Double, HashMap<String, PeptideAssumption>>(1);
-                                            nSeMap.put(-1, coverageMap);
-                                            HashMap<String, PeptideAssumption> assumptionMap = new HashMap<String, PeptideAssumption>(1);
-                                            coverageMap.put(-1.0, assumptionMap);
-                                            assumptionMap.put(peptideAssumption1.getPeptide().getSequenceWithLowerCasePtms(), peptideAssumption1);
-                                        } else {
-                                            MSnSpectrum spectrum = (MSnSpectrum) spectrumFactory.getSpectrum(spectrumKey);
-
-                                            HashMap<Double, HashMap<String, PeptideAssumption>> coverageMap = nSeMap.get(-1);
-                                            if (coverageMap != null) {
-                                                HashMap<String, PeptideAssumption> assumptionMap = coverageMap.get(-1.0);
-                                                for (PeptideAssumption tempAssumption : assumptionMap.values()) { // There should be only one
-                                                    Peptide peptide = tempAssumption.getPeptide();
-                                                    SpecificAnnotationSettings specificAnnotationPreferences = annotationPreferences.getSpecificAnnotationPreferences(spectrum.getSpectrumKey(), tempAssumption, identificationParameters.getSequenceMatchingPreferences(), identificationParameters.getPtmScoringPreferences().getSequenceMatchingPreferences());
-                                                    HashMap<Integer, ArrayList<IonMatch>> coveredAminoAcids = spectrumAnnotator.getCoveredAminoAcids(annotationPreferences, specificAnnotationPreferences, (MSnSpectrum) spectrum, peptide);
-                                                    int nIons = coveredAminoAcids.size();
-                                                    nSeMap.put(nIons, coverageMap);
-                                                }
-                                                nSeMap.remove(-1);
-                                            }
+                                                    PeptideAssumption peptideAssumption2 = (PeptideAssumption) assumption2;
 
-                                            Peptide peptide = peptideAssumption1.getPeptide();
-                                            SpecificAnnotationSettings specificAnnotationPreferences = annotationPreferences.getSpecificAnnotationPreferences(spectrum.getSpectrumKey(), peptideAssumption1, identificationParameters.getSequenceMatchingPreferences(), identificationParameters.getPtmScoringPreferences().getSequenceMatchingPreferences());
-                                            HashMap<Integer, ArrayList<IonMatch>> coveredAminoAcids = spectrumAnnotator.getCoveredAminoAcids(annotationPreferences, specificAnnotationPreferences, (MSnSpectrum) spectrum, peptide);
-                                            int nIons = coveredAminoAcids.size();
-
-                                            coverageMap = nSeMap.get(nIons);
-                                            if (coverageMap == null) {
-                                                coverageMap = new HashMap<Double, HashMap<String, PeptideAssumption>>(1);
-                                                HashMap<String, PeptideAssumption> assumptionMap = new HashMap<String, PeptideAssumption>(1);
-                                                assumptionMap.put(peptideAssumption1.getPeptide().getSequenceWithLowerCasePtms(), peptideAssumption1);
-                                                coverageMap.put(-1.0, assumptionMap);
-                                                nSeMap.put(nIons, coverageMap);
-                                            } else {
-                                                HashMap<String, PeptideAssumption> assumptionMap = coverageMap.get(-1.0);
-                                                if (assumptionMap != null) {
-                                                    for (PeptideAssumption tempAssumption : assumptionMap.values()) { // There should be only one
-                                                        double massError = Math.abs(tempAssumption.getDeltaMass(spectrum.getPrecursor().getMz(), searchParameters.isPrecursorAccuracyTypePpm(), searchParameters.getMinIsotopicCorrection(), searchParameters.getMaxIsotopicCorrection()));
-                                                        coverageMap.put(massError, assumptionMap);
+                                                    if (peptideAssumption1.getPeptide().isSameSequenceAndModificationStatus(peptideAssumption2.getPeptide(),
+                                                            sequenceMatchingPreferences)) {
+                                                        PSParameter psParameter2 = (PSParameter) peptideAssumption2.getUrParam(psParameter);
+                                                        p = p * psParameter2.getSearchEngineProbability();
+                                                        nSE++;
+                                                        found = true;
+                                                        break;
                                                     }
-                                                    coverageMap.remove(-1.0);
                                                 }
-
-                                                double massError = Math.abs(peptideAssumption1.getDeltaMass(spectrum.getPrecursor().getMz(), searchParameters.isPrecursorAccuracyTypePpm(), searchParameters.getMinIsotopicCorrection(), searchParameters.getMaxIsotopicCorrection()));
-                                                assumptionMap = coverageMap.get(massError);
-                                                if (assumptionMap == null) {
-                                                    assumptionMap = new HashMap<String, PeptideAssumption>(1);
-                                                    coverageMap.put(massError, assumptionMap);
-                                                }
-                                                assumptionMap.put(peptideAssumption1.getPeptide().getSequenceWithLowerCasePtms(), peptideAssumption1);
+                                            }
+                                            if (found) {
+                                                break;
                                             }
                                         }
                                     }
                                 }
-                            } else if (assumption1 instanceof TagAssumption) {
-                                TagAssumption tagAssumption = (TagAssumption) assumption1;
-                                ArrayList<TagAssumption> assumptionList = tagAssumptions.get(eValue1);
-                                if (assumptionList == null) {
-                                    assumptionList = new ArrayList<TagAssumption>();
-                                    tagAssumptions.put(eValue1, assumptionList);
-                                }
-                                assumptionList.add(tagAssumption);
+
+                                identifications.add(id);
+                                peptideCandidates.add(new PeptideCandidate(peptideAssumption1, p, proteinMax, nSE));
                             }
                         }
-                        if (bestPeptideFound) {
-                            break;
+                    } else if (assumption1 instanceof TagAssumption) {
+                        TagAssumption tagAssumption = (TagAssumption) assumption1;
+                        ArrayList<TagAssumption> assumptionList = tagAssumptions.get(eValue1);
+                        if (assumptionList == null) {
+                            assumptionList = new ArrayList<TagAssumption>();
+                            tagAssumptions.put(eValue1, assumptionList);
                         }
+                        assumptionList.add(tagAssumption);
                     }
                 }
+                if (bestPeptideFound) {
+                    break;
+                }
+            }
+        }
 
-                SpectrumMatch spectrumMatch = new SpectrumMatch(spectrumKey);
-                if (!peptideAssumptions.isEmpty()) {
+        SpectrumMatch spectrumMatch = new SpectrumMatch(spectrumKey);
+        if (!peptideCandidates.isEmpty()) {
 
-                    PeptideAssumption bestPeptideAssumption = null;
-                    ArrayList<Double> ps = new ArrayList<Double>(peptideAssumptions.keySet());
-                    Collections.sort(ps);
-                    double retainedP = 0;
+            rankCandidates(spectrumKey, peptideCandidates, identificationParameters, spectrumAnnotator, spectrumAnnotationCache);
 
-                    for (double p : ps) {
+            PeptideAssumption bestPeptideAssumption = null;
+            double retainedP = 0;
 
-                        retainedP = p;
-                        HashMap<Integer, HashMap<Integer, HashMap<Integer, HashMap<Double, HashMap<String, PeptideAssumption>>>>> pMap = peptideAssumptions.get(p);
-                        ArrayList<Integer> proteinMaxs = new ArrayList<Integer>(pMap.keySet());
-                        Collections.sort(proteinMaxs, Collections.reverseOrder());
+            for (int i = 0; i < peptideCandidates.size(); i++) {
 
-                        for (int proteinMax : proteinMaxs) {
+                PeptideCandidate peptideCandidate = peptideCandidates.get(i);
 
-                            HashMap<Integer, HashMap<Integer, HashMap<Double, HashMap<String, PeptideAssumption>>>> proteinMaxMap = pMap.get(proteinMax);
-                            ArrayList<Integer> nSEs = new ArrayList<Integer>(proteinMaxMap.keySet());
-                            Collections.sort(nSEs, Collections.reverseOrder());
+                // candidates of same rank and sequence are redundant, only the last one found is retained
+                if (i + 1 < peptideCandidates.size() && RANK_COMPARATOR.compare(peptideCandidate, peptideCandidates.get(i + 1)) == 0) {
+                    continue;
+                }
 
-                            for (int nSE : nSEs) {
+                retainedP = peptideCandidate.p;
+                PeptideAssumption peptideAssumption = peptideCandidate.peptideAssumption;
+                if (idFilter.validateProteins(peptideAssumption.getPeptide(), sequenceMatchingPreferences)) {
+                    bestPeptideAssumption = peptideAssumption;
+                    break;
+                }
+            }
+            if (bestPeptideAssumption != null) {
 
-                                HashMap<Integer, HashMap<Double, HashMap<String, PeptideAssumption>>> nSeMap = proteinMaxMap.get(nSE);
-                                ArrayList<Integer> coverages = new ArrayList<Integer>(nSeMap.keySet());
-                                Collections.sort(coverages, Collections.reverseOrder());
+                if (multiSE) {
 
-                                for (Integer coverage : coverages) {
+                    // try to find the most likely modification localization based on the search engine results
+                    HashMap<PeptideAssumption, ArrayList<Double>> assumptionPEPs = new HashMap<PeptideAssumption, ArrayList<Double>>();
+                    String bestAssumptionKey = bestPeptideAssumption.getPeptide().getMatchingKey(sequenceMatchingPreferences);
 
-                                    HashMap<Double, HashMap<String, PeptideAssumption>> coverageMap = nSeMap.get(coverage);
-                                    ArrayList<Double> minErrors = new ArrayList<Double>(coverageMap.keySet());
-                                    Collections.sort(minErrors);
+                    for (int searchEngine : assumptions.keySet()) {
 
-                                    for (double minError : minErrors) {
+                        boolean found = false;
+                        HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> advocateMap = assumptions.get(searchEngine);
+                        ArrayList<Double> eValues = new ArrayList<Double>(advocateMap.keySet());
+                        Collections.sort(eValues);
 
-                                        HashMap<String, PeptideAssumption> bestPeptideAssumptions = coverageMap.get(minError);
-                                        ArrayList<String> sequences = new ArrayList<String>(bestPeptideAssumptions.keySet());
-                                        Collections.sort(sequences);
+                        for (double eValue : eValues) {
+                            for (SpectrumIdentificationAssumption assumption : advocateMap.get(eValue)) {
 
-                                        for (String sequence : sequences) {
-                                            PeptideAssumption peptideAssumption = bestPeptideAssumptions.get(sequence);
-                                            if (idFilter.validateProteins(peptideAssumption.getPeptide(), sequenceMatchingPreferences)) {
-                                                bestPeptideAssumption = peptideAssumption;
+                                if (assumption instanceof PeptideAssumption) {
+
+                                    PeptideAssumption peptideAssumption = (PeptideAssumption) assumption;
+
+                                    if (peptideAssumption.getPeptide().getMatchingKey(sequenceMatchingPreferences).equals(bestAssumptionKey)) {
+
+                                        found = true;
+                                        boolean found2 = false;
+
+                                        for (PeptideAssumption assumption1 : assumptionPEPs.keySet()) {
+                                            if (assumption1.getPeptide().sameModificationsAs(peptideAssumption.getPeptide())) {
+                                                found2 = true;
+                                                psParameter = (PSParameter) assumption.getUrParam(psParameter);
+                                                ArrayList<Double> peps = assumptionPEPs.get(assumption1);
+                                                peps.add(psParameter.getSearchEngineProbability());
                                                 break;
                                             }
                                         }
-                                        if (bestPeptideAssumption != null) {
-                                            break;
+
+                                        if (!found2) {
+                                            ArrayList<Double> peps = new ArrayList<Double>(1);
+                                            assumptionPEPs.put(peptideAssumption, peps);
+                                            psParameter = (PSParameter) assumption.getUrParam(psParameter);
+                                            peps.add(psParameter.getSearchEngineProbability());
                                         }
                                     }
-                                    if (bestPeptideAssumption != null) {
-                                        break;
-                                    }
-                                }
-                                if (bestPeptideAssumption != null) {
-                                    break;
                                 }
                             }
-                            if (bestPeptideAssumption != null) {
+
+                            if (found) {
                                 break;
                             }
                         }
-                        if (bestPeptideAssumption != null) {
-                            break;
-                        }
                     }
-                    if (bestPeptideAssumption != null) {
-
-                        if (multiSE) {
-
-                            // try to find the most likely modification localization based on the search engine results
-                            HashMap<PeptideAssumption, ArrayList<Double>> assumptionPEPs = new HashMap<PeptideAssumption, ArrayList<Double>>();
-                            String bestAssumptionKey = bestPeptideAssumption.getPeptide().getMatchingKey(sequenceMatchingPreferences);
-
-                            for (int searchEngine : assumptions.keySet()) {
-
-                                boolean found = false;
-                                HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> advocateMap = assumptions.get(searchEngine);
-                                ArrayList<Double> eValues = new ArrayList<Double>(advocateMap.keySet());
-                                Collections.sort(eValues);
-
-                                for (double eValue : eValues) {
-                                    for (SpectrumIdentificationAssumption assumption : advocateMap.get(eValue)) {
-
-                                        if (assumption instanceof PeptideAssumption) {
 
-                                            PeptideAssumption peptideAssumption = (PeptideAssumption) assumption;
+                    Double bestSeP = null;
+                    int nSe = -1;
 
-                                            if (peptideAssumption.getPeptide().getMatchingKey(sequenceMatchingPreferences).equals(bestAssumptionKey)) {
+                    for (PeptideAssumption peptideAssumption : assumptionPEPs.keySet()) {
 
-                                                found = true;
-                                                boolean found2 = false;
-
-                                                for (PeptideAssumption assumption1 : assumptionPEPs.keySet()) {
-                                                    if (assumption1.getPeptide().sameModificationsAs(peptideAssumption.getPeptide())) {
-                                                        found2 = true;
-                                                        psParameter = (PSParameter) assumption.getUrParam(psParameter);
-                                                        ArrayList<Double> peps = assumptionPEPs.get(assumption1);
-                                                        peps.add(psParameter.getSearchEngineProbability());
-                                                        break;
-                                                    }
-                                                }
-
-                                                if (!found2) {
-                                                    ArrayList<Double> peps = new ArrayList<Double>(1);
-                                                    assumptionPEPs.put(peptideAssumption, peps);
-                                                    psParameter = (PSParameter) assumption.getUrParam(psParameter);
-                                                    peps.add(psParameter.getSearchEngineProbability());
-                                                }
-                                            }
-                                        }
-                                    }
+                        ArrayList<Double> peps = assumptionPEPs.get(peptideAssumption);
+                        Double sep = Collections.min(peps);
 
-                                    if (found) {
-                                        break;
-                                    }
-                                }
+                        if (bestSeP == null || bestSeP > sep) {
+                            bestSeP = sep;
+                            nSe = peps.size();
+                            bestPeptideAssumption = peptideAssumption;
+                        } else if (peps.size() > nSe) {
+                            if (sep != null && (Math.abs(sep - bestSeP) <= 1e-10)) {
+                                nSe = peps.size();
+                                bestPeptideAssumption = peptideAssumption;
                             }
+                        }
+                    }
+                }
 
-                            Double bestSeP = null;
-                            int nSe = -1;
+                // create a PeptideShaker match based on the best search engine match
+                Peptide sePeptide = bestPeptideAssumption.getPeptide();
+                ArrayList<String> psProteins = new ArrayList<String>(sePeptide.getParentProteins(sequenceMatchingPreferences));
+                ArrayList<ModificationMatch> psModificationMatches = null;
+                if (sePeptide.isModified()) {
+                    psModificationMatches = new ArrayList<ModificationMatch>(sePeptide.getNModifications());
+                    for (ModificationMatch seModMatch : sePeptide.getModificationMatches()) {
+                        psModificationMatches.add(new ModificationMatch(seModMatch.getTheoreticPtm(), seModMatch.isVariable(), seModMatch.getModificationSite()));
+                    }
+                }
 
-                            for (PeptideAssumption peptideAssumption : assumptionPEPs.keySet()) {
+                Peptide psPeptide = new Peptide(sePeptide.getSequence(), psModificationMatches);
+                psPeptide.setParentProteins(psProteins);
+                PeptideAssumption psAssumption = new PeptideAssumption(psPeptide, 1, Advocate.peptideShaker.getIndex(), bestPeptideAssumption.getIdentificationCharge(), retainedP);
 
-                                ArrayList<Double> peps = assumptionPEPs.get(peptideAssumption);
-                                Double sep = Collections.min(peps);
+                spectrumMatch.setBestPeptideAssumption(psAssumption);
 
-                                if (bestSeP == null || bestSeP > sep) {
-                                    bestSeP = sep;
-                                    nSe = peps.size();
-                                    bestPeptideAssumption = peptideAssumption;
-                                } else if (peps.size() > nSe) {
-                                    if (sep != null && (Math.abs(sep - bestSeP) <= 1e-10)) {
-                                        nSe = peps.size();
-                                        bestPeptideAssumption = peptideAssumption;
-                                    }
-                                }
-                            }
-                        }
+                if (keysMap != null) {
+                    String peptideKey = psPeptide.getMatchingKey(sequenceMatchingPreferences);
+                    ArrayList<String> spectrumKeys = keysMap.get(peptideKey);
+                    if (spectrumKeys == null) {
+                        spectrumKeys = new ArrayList<String>();
+                        keysMap.put(peptideKey, spectrumKeys);
+                    }
+                    spectrumKeys.add(spectrumKey);
+                }
 
-                        // create a PeptideShaker match based on the best search engine match
-                        Peptide sePeptide = bestPeptideAssumption.getPeptide();
-                        ArrayList<String> psProteins = new ArrayList<String>(sePeptide.getParentProteins(sequenceMatchingPreferences));
-                        ArrayList<ModificationMatch> psModificationMatches = null;
-                        if (sePeptide.isModified()) {
-                            psModificationMatches = new ArrayList<ModificationMatch>(sePeptide.getNModifications());
-                            for (ModificationMatch seModMatch : sePeptide.getModificationMatches()) {
-                                psModificationMatches.add(new ModificationMatch(seModMatch.getTheoreticPtm(), seModMatch.isVariable(), seModMatch.getModificationSite()));
-                            }
-                        }
+                psParameter = new PSParameter();
+                psParameter.setSpectrumProbabilityScore(retainedP);
 
-                        Peptide psPeptide = new Peptide(sePeptide.getSequence(), psModificationMatches);
-                        psPeptide.setParentProteins(psProteins);
-                        PeptideAssumption psAssumption = new PeptideAssumption(psPeptide, 1, Advocate.peptideShaker.getIndex(), bestPeptideAssumption.getIdentificationCharge(), retainedP);
+                PSParameter matchParameter = (PSParameter) bestPeptideAssumption.getUrParam(psParameter);
+                psParameter.setSearchEngineProbability(matchParameter.getSearchEngineProbability());
+                psParameter.setAlgorithmDeltaPEP(matchParameter.getAlgorithmDeltaPEP());
+                psParameter.setDeltaPEP(matchParameter.getDeltaPEP());
 
-                        spectrumMatch.setBestPeptideAssumption(psAssumption);
+                matchesValidator.getPsmMap().addPoint(psParameter.getPsmProbabilityScore(), spectrumMatch, sequenceMatchingPreferences);
+                String validationMapKey = "";
+                if (idMatchValidationPreferences.getSeparatePsms()) {
+                    validationMapKey += psAssumption.getIdentificationCharge().value;
+                }
+                psParameter.setSpecificMapKey(validationMapKey);
+                identification.addSpectrumMatchParameter(spectrumKey, psParameter);
+                identification.updateSpectrumMatch(spectrumMatch);
+            }
+        }
+        if (!tagAssumptions.isEmpty()) {
+            ArrayList<Double> evalues = new ArrayList<Double>(tagAssumptions.keySet());
+            Double bestEvalue = Collections.min(evalues);
+            TagAssumption bestAssumption = tagAssumptions.get(bestEvalue).get(0);
+            spectrumMatch.setBestTagAssumption(bestAssumption);
+            identification.updateSpectrumMatch(spectrumMatch);
+            if (spectrumMatch.getBestPeptideAssumption() == null) {
+                psParameter = new PSParameter();
+                if (!multiSE) {
+                    psParameter.setSpectrumProbabilityScore(bestEvalue);
+                }
+                PSParameter matchParameter = (PSParameter) bestAssumption.getUrParam(psParameter);
+                psParameter.setSearchEngineProbability(matchParameter.getSearchEngineProbability());
+                psParameter.setAlgorithmDeltaPEP(matchParameter.getAlgorithmDeltaPEP());
+                psParameter.setDeltaPEP(matchParameter.getDeltaPEP());
+                psParameter.setSpecificMapKey(spectrumMatch.getBestTagAssumption().getIdentificationCharge().value + "");
+                identification.addSpectrumMatchParameter(spectrumKey, psParameter);
+            }
+        }
 
-                        if (orderedPsmMap != null) {
-                            String peptideKey = psPeptide.getMatchingKey(sequenceMatchingPreferences);
-                            ArrayList<String> spectrumKeys = keysMap.get(peptideKey);
-                            if (spectrumKeys == null) {
-                                spectrumKeys = new ArrayList<String>();
-                                keysMap.put(peptideKey, spectrumKeys);
-                            }
-                            spectrumKeys.add(spectrumKey);
-                        }
+        return spectrumMatch;
+    }
 
-                        psParameter = new PSParameter();
-                        psParameter.setSpectrumProbabilityScore(retainedP);
+    /**
+     * Sorts the peptide candidates of a spectrum from the best to the worst.
+     * Candidates are sorted by increasing score, decreasing protein count,
+     * decreasing number of search engines, decreasing number of amino acids
+     * covered by fragment ions, increasing precursor mass error and
+     * sequence. The fragment ion coverage and the mass error are only
+     * estimated for the candidates which could not be separated otherwise.
+     *
+     * @param spectrumKey the key of the spectrum
+     * @param peptideCandidates the peptide candidates of the spectrum
+     * @param identificationParameters the identification parameters
+     * @param spectrumAnnotator the spectrum annotator to use
+     * @param spectrumAnnotationCache the spectrum annotation cache of the
+     * thread
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the spectrum
+     * @throws InterruptedException exception thrown whenever a threading
+     * error occurred while reading the spectrum
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interacting with the protein tree
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing an object
+     * @throws MzMLUnmarshallerException exception thrown whenever an error
+     * occurred while reading an mzML file
+     */
+    private void rankCandidates(String spectrumKey, ArrayList<PeptideCandidate> peptideCandidates, IdentificationParameters identificationParameters,
+            PeptideSpectrumAnnotator spectrumAnnotator, SpectrumAnnotationCache spectrumAnnotationCache)
+            throws IOException, InterruptedException, SQLException, ClassNotFoundException, MzMLUnmarshallerException {
 
-                        PSParameter matchParameter = (PSParameter) bestPeptideAssumption.getUrParam(psParameter);
-                        psParameter.setSearchEngineProbability(matchParameter.getSearchEngineProbability());
-                        psParameter.setAlgorithmDeltaPEP(matchParameter.getAlgorithmDeltaPEP());
-                        psParameter.setDeltaPEP(matchParameter.getDeltaPEP());
+        if (peptideCandidates.size() == 1) {
+            return;
+        }
 
-                        matchesValidator.getPsmMap().addPoint(psParameter.getPsmProbabilityScore(), spectrumMatch, sequenceMatchingPreferences);
-                        String validationMapKey = "";
-                        if (idMatchValidationPreferences.getSeparatePsms()) {
-                            validationMapKey += psAssumption.getIdentificationCharge().value;
-                        }
-                        psParameter.setSpecificMapKey(validationMapKey);
-                        identification.addSpectrumMatchParameter(spectrumKey, psParameter);
-                        identification.updateSpectrumMatch(spectrumMatch);
-                    }
-                }
-                if (!tagAssumptions.isEmpty()) {
-                    ArrayList<Double> evalues = new ArrayList<Double>(tagAssumptions.keySet());
-                    Double bestEvalue = Collections.min(evalues);
-                    TagAssumption bestAssumption = tagAssumptions.get(bestEvalue).get(0);
-                    spectrumMatch.setBestTagAssumption(bestAssumption);
-                    identification.updateSpectrumMatch(spectrumMatch);
-                    if (spectrumMatch.getBestPeptideAssumption() == null) {
-                        psParameter = new PSParameter();
-                        if (!multiSE) {
-                            psParameter.setSpectrumProbabilityScore(bestEvalue);
-                        }
-                        PSParameter matchParameter = (PSParameter) bestAssumption.getUrParam(psParameter);
-                        psParameter.setSearchEngineProbability(matchParameter.getSearchEngineProbability());
-                        psParameter.setAlgorithmDeltaPEP(matchParameter.getAlgorithmDeltaPEP());
-                        psParameter.setDeltaPEP(matchParameter.getDeltaPEP());
-                        psParameter.setSpecificMapKey(spectrumMatch.getBestTagAssumption().getIdentificationCharge().value + "");
-                        identification.addSpectrumMatchParameter(spectrumKey, psParameter);
-                    }
+        AnnotationSettings annotationPreferences = identificationParameters.getAnnotationPreferences();
+        SearchParameters searchParameters = identificationParameters.getSearchParameters();
+        MSnSpectrum spectrum = null;
+        Precursor precursor = null;
+
+        // annotate the candidates of equal score
+        Collections.sort(peptideCandidates, SCORE_COMPARATOR);
+        int start = 0;
+        while (start < peptideCandidates.size()) {
+            int end = getRunEnd(peptideCandidates, start, SCORE_COMPARATOR);
+            if (end - start > 1) {
+                if (spectrum == null) {
+                    spectrum = spectrumAnnotationCache.getSpectrum(spectrumKey);
                 }
-                waitingHandler.increaseSecondaryProgressCounter();
-                if (waitingHandler.isRunCanceled()) {
-                    return;
+                for (int i = start; i < end; i++) {
+                    PeptideCandidate peptideCandidate = peptideCandidates.get(i);
+                    PeptideAssumption peptideAssumption = peptideCandidate.peptideAssumption;
+                    SpecificAnnotationSettings specificAnnotationPreferences = spectrumAnnotationCache.getSpecificAnnotationSettings(spectrumKey, peptideAssumption, identificationParameters);
+                    HashMap<Integer, ArrayList<IonMatch>> coveredAminoAcids = spectrumAnnotator.getCoveredAminoAcids(annotationPreferences, specificAnnotationPreferences, spectrum, peptideAssumption.getPeptide());
+                    peptideCandidate.coverage = coveredAminoAcids.size();
                 }
             }
+            start = end;
+        }
 
-            if (orderedPsmMap != null) {
-                ArrayList<String> orderedKeys = new ArrayList<String>(identification.getSpectrumIdentification(spectrumFileName).size());
-                for (ArrayList<String> keys : keysMap.values()) {
-                    orderedKeys.addAll(keys);
+        // estimate the mass error of the candidates of equal score and coverage
+        Collections.sort(peptideCandidates, COVERAGE_COMPARATOR);
+        start = 0;
+        while (start < peptideCandidates.size()) {
+            int end = getRunEnd(peptideCandidates, start, COVERAGE_COMPARATOR);
+            if (end - start > 1) {
+                if (precursor == null) {
+                    precursor = spectrum != null ? spectrum.getPrecursor() : spectrumFactory.getPrecursor(spectrumKey);
                 }
-                orderedPsmMap.put(spectrumFileName, orderedKeys);
-
-                if (MemoryConsumptionStatus.memoryUsed() > 0.9) {
-                    orderedPsmMap = null;
+                for (int i = start; i < end; i++) {
+                    PeptideCandidate peptideCandidate = peptideCandidates.get(i);
+                    peptideCandidate.massError = Math.abs(peptideCandidate.peptideAssumption.getDeltaMass(precursor.getMz(), searchParameters.isPrecursorAccuracyTypePpm(), searchParameters.getMinIsotopicCorrection(), searchParameters.getMaxIsotopicCorrection()));
                 }
             }
+            start = end;
         }
 
-        if (orderedPsmMap != null) {
-            metrics.setOrderedSpectrumKeys(orderedPsmMap);
-        }
-
-        // the protein count map is no longer needed
-        proteinCount.clear();
+        Collections.sort(peptideCandidates, RANK_COMPARATOR);
+    }
 
-        waitingHandler.setSecondaryProgressCounterIndeterminate(true);
+    /**
+     * Returns the index following the run of candidates equal to the
+     * candidate at the given index according to the given comparator.
+     *
+     * @param peptideCandidates the sorted peptide candidates
+     * @param start the index of the first candidate of the run
+     * @param comparator the comparator used to sort the candidates
+     *
+     * @return the index following the run of equal candidates
+     */
+    private static int getRunEnd(ArrayList<PeptideCandidate> peptideCandidates, int start, CandidateComparator comparator) {
+        PeptideCandidate first = peptideCandidates.get(start);
+        int end = start + 1;
+        while (end < peptideCandidates.size() && comparator.compare(first, peptideCandidates.get(end)) == 0) {
+            end++;
+        }
+        return end;
     }
 
     /**
@@ -687,4 +800,241 @@ public class BestMatchSelection {
         Collections.sort(sequences);
         return sequenceToPeptideAssumptionsMap.get(sequences.get(0));
     }
+
+    /**
+     * A peptide first hit of a spectrum and the features used to rank it.
+     *
+     * @author Marc Vaudel
+     */
+    private static class PeptideCandidate {
+
+        /**
+         * The peptide assumption.
+         */
+        private final PeptideAssumption peptideAssumption;
+        /**
+         * The sequence of the peptide with the modified residues in lower
+         * case.
+         */
+        private final String sequence;
+        /**
+         * The score of the peptide, the lower the better.
+         */
+        private final double p;
+        /**
+         * The maximal number of first hits of the proteins of the peptide.
+         */
+        private final int proteinMax;
+        /**
+         * The number of search engines supporting the peptide.
+         */
+        private final int nSE;
+        /**
+         * The number of amino acids covered by fragment ions, -1 if not
+         * needed to rank the candidate.
+         */
+        private int coverage = -1;
+        /**
+         * The absolute precursor mass error, -1 if not needed to rank the
+         * candidate.
+         */
+        private double massError = -1.0;
+
+        /**
+         * Constructor.
+         *
+         * @param peptideAssumption the peptide assumption
+         * @param p the score of the peptide
+         * @param proteinMax the maximal number of first hits of the proteins
+         * of the peptide
+         * @param nSE the number of search engines supporting the peptide
+         */
+        public PeptideCandidate(PeptideAssumption peptideAssumption, double p, int proteinMax, int nSE) {
+            this.peptideAssumption = peptideAssumption;
+            this.sequence = peptideAssumption.getPeptide().getSequenceWithLowerCasePtms();
+            this.p = p;
+            this.proteinMax = proteinMax;
+            this.nSE = nSE;
+        }
+    }
+
+    /**
+     * Comparator sorting the peptide candidates from the best to the worst
+     * using a given number of features.
+     *
+     * @author Marc Vaudel
+     */
+    private static class CandidateComparator implements Comparator<PeptideCandidate> {
+
+        /**
+         * Index of the comparison on score, protein count and number of
+         * search engines.
+         */
+        public static final int SCORE = 0;
+        /**
+         * Index of the comparison adding the fragment ion coverage.
+         */
+        public static final int COVERAGE = 1;
+        /**
+         * Index of the comparison adding the precursor mass error.
+         */
+        public static final int MASS_ERROR = 2;
+        /**
+         * Index of the comparison adding the sequence.
+         */
+        public static final int SEQUENCE = 3;
+        /**
+         * The index of the last feature compared.
+         */
+        private final int depth;
+
+        /**
+         * Constructor.
+         *
+         * @param depth the index of the last feature compared
+         */
+        public CandidateComparator(int depth) {
+            this.depth = depth;
+        }
+
+        @Override
+        public int compare(PeptideCandidate candidate1, PeptideCandidate candidate2) {
+            int result = Double.compare(candidate1.p, candidate2.p);
+            if (result != 0) {
+                return result;
+            }
+            if (candidate1.proteinMax != candidate2.proteinMax) {
+                return candidate2.proteinMax - candidate1.proteinMax;
+            }
+            if (candidate1.nSE != candidate2.nSE) {
+                return candidate2.nSE - candidate1.nSE;
+            }
+            if (depth < COVERAGE) {
+                return 0;
+            }
+            if (candidate1.coverage != candidate2.coverage) {
+                return candidate2.coverage - candidate1.coverage;
+            }
+            if (depth < MASS_ERROR) {
+                return 0;
+            }
+            result = Double.compare(candidate1.massError, candidate2.massError);
+            if (result != 0 || depth < SEQUENCE) {
+                return result;
+            }
+            return candidate1.sequence.compareTo(candidate2.sequence);
+        }
+    }
+
+    /**
+     * A chunk of spectrum keys and the keys of the spectra processed indexed
+     * by peptide.
+     *
+     * @author Marc Vaudel
+     */
+    private static class KeysChunk {
+
+        /**
+         * The spectrum keys to process.
+         */
+        private final ArrayList<String> spectrumKeys;
+        /**
+         * The keys of the spectra processed indexed by the key of their best
+         * peptide, null if not needed.
+         */
+        private final HashMap<String, ArrayList<String>> keysMap;
+
+        /**
+         * Constructor.
+         *
+         * @param spectrumKeys the spectrum keys to process
+         * @param orderKeys boolean indicating whether the keys of the spectra
+         * processed should be indexed by peptide
+         */
+        public KeysChunk(ArrayList<String> spectrumKeys, boolean orderKeys) {
+            this.spectrumKeys = spectrumKeys;
+            keysMap = orderKeys ? new HashMap<String, ArrayList<String>>() : null;
+        }
+    }
+
+    /**
+     * Runnable selecting the best hits of the spectra of the chunks taken
+     * from a queue until the queue is empty.
+     *
+     * @author Marc Vaudel
+     */
+    private class BestMatchSelectionRunnable implements Runnable {
+
+        /**
+         * The queue of the chunks to process.
+         */
+        private final ConcurrentLinkedQueue<KeysChunk> chunksQueue;
+        /**
+         * Boolean indicating whether multiple search engines were used.
+         */
+        private final boolean multiSE;
+        /**
+         * The identification parameters.
+         */
+        private final IdentificationParameters identificationParameters;
+        /**
+         * The waiting handler.
+         */
+        private final WaitingHandler waitingHandler;
+        /**
+         * Handler for the exceptions.
+         */
+        private final ExceptionHandler exceptionHandler;
+        /**
+         * The spectrum annotator of this thread.
+         */
+        private final PeptideSpectrumAnnotator spectrumAnnotator = new PeptideSpectrumAnnotator();
+        /**
+         * The spectrum annotation cache of this thread.
+         */
+        private final SpectrumAnnotationCache spectrumAnnotationCache = new SpectrumAnnotationCache();
+
+        /**
+         * Constructor.
+         *
+         * @param chunksQueue the queue of the chunks to process
+         * @param multiSE boolean indicating whether multiple search engines
+         * were used
+         * @param identificationParameters the identification parameters
+         * @param waitingHandler a waiting handler to display progress and allow
+         * canceling the process
+         * @param exceptionHandler handler for exceptions
+         */
+        public BestMatchSelectionRunnable(ConcurrentLinkedQueue<KeysChunk> chunksQueue, boolean multiSE, IdentificationParameters identificationParameters,
+                WaitingHandler waitingHandler, ExceptionHandler exceptionHandler) {
+            this.chunksQueue = chunksQueue;
+            this.multiSE = multiSE;
+            this.identificationParameters = identificationParameters;
+            this.waitingHandler = waitingHandler;
+            this.exceptionHandler = exceptionHandler;
+        }
+
+        @Override
+        public void run() {
+            try {
+                KeysChunk chunk;
+                while ((chunk = chunksQueue.poll()) != null && !waitingHandler.isRunCanceled()) {
+                    PsmIterator psmIterator = identification.getPsmIterator(chunk.spectrumKeys, null, true, waitingHandler);
+                    while (psmIterator.hasNext() && !waitingHandler.isRunCanceled()) {
+                        SpectrumMatch advocateMatch = psmIterator.next();
+                        if (advocateMatch == null) {
+                            continue;
+                        }
+                        String spectrumKey = advocateMatch.getKey();
+                        HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptions = identification.getAssumptions(spectrumKey);
+                        selectBestHit(spectrumKey, assumptions, multiSE, identificationParameters, spectrumAnnotator, spectrumAnnotationCache, chunk.keysMap);
+                        waitingHandler.increaseSecondaryProgressCounter();
+                    }
+                }
+            } catch (Exception e) {
+                exceptionHandler.catchException(e);
+                waitingHandler.setRunCanceled();
+            }
+        }
+    }
 }
@@ -146,6 +146,8 @@ public class PsmScorer {
                 }
             }
         }
+
+        inputMap.mergeThreadHistograms();
         
         waitingHandler.setSecondaryProgressCounterIndeterminate(true);
 
@@ -0,0 +1,256 @@
+package eu.isas.peptideshaker.scoring.targetdecoy;
+
+import com.compomics.util.waiting.WaitingHandler;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Compact representation of a target/decoy map where the points are stored in
+ * primitive arrays sorted by score. Estimation and lookup of posterior error
+ * probabilities give the same results as the hash based TargetDecoyMap but do
+ * not require any boxing or hashing.
+ *
+ * @author Marc Vaudel
+ */
+public class SortedTargetDecoyMap {
+
+    /**
+     * The scores sorted in ascending order.
+     */
+    private final double[] scores;
+    /**
+     * The number of target hits at every score.
+     */
+    private final int[] nTarget;
+    /**
+     * The number of decoy hits at every score.
+     */
+    private final int[] nDecoy;
+    /**
+     * The posterior error probability at every score.
+     */
+    private final double[] probabilities;
+
+    /**
+     * Constructor.
+     *
+     * @param scores the scores sorted in ascending order
+     * @param nTarget the number of target hits at every score
+     * @param nDecoy the number of decoy hits at every score
+     * @param probabilities the posterior error probability at every score
+     */
+    public SortedTargetDecoyMap(double[] scores, int[] nTarget, int[] nDecoy, double[] probabilities) {
+        if (scores.length != nTarget.length || scores.length != nDecoy.length || scores.length != probabilities.length) {
+            throw new IllegalArgumentException("Inconsistent target/decoy arrays lengths.");
+        }
+        this.scores = scores;
+        this.nTarget = nTarget;
+        this.nDecoy = nDecoy;
+        this.probabilities = probabilities;
+    }
+
+    /**
+     * Creates a sorted map from the points of a hash based map. The
+     * probabilities already present in the points are copied, so that maps
+     * deserialized from cps files can be queried without re-estimation.
+     *
+     * @param sortedScores the scores of the map sorted in ascending order
+     * @param hitMap the target/decoy points indexed by score
+     *
+     * @return the sorted map
+     */
+    public static SortedTargetDecoyMap fromHitMap(ArrayList<Double> sortedScores, HashMap<Double, TargetDecoyPoint> hitMap) {
+        int size = sortedScores.size();
+        double[] scores = new double[size];
+        int[] nTarget = new int[size];
+        int[] nDecoy = new int[size];
+        double[] probabilities = new double[size];
+        for (int i = 0; i < size; i++) {
+            Double score = sortedScores.get(i);
+            TargetDecoyPoint point = hitMap.get(score);
+            scores[i] = score;
+            nTarget[i] = point.nTarget;
+            nDecoy[i] = point.nDecoy;
+            probabilities[i] = point.p;
+        }
+        return new SortedTargetDecoyMap(scores, nTarget, nDecoy, probabilities);
+    }
+
+    /**
+     * Copies the probabilities of the first points of this map back to the
+     * points of a hash based map.
+     *
+     * @param hitMap the target/decoy points indexed by score
+     * @param nPoints the number of points to copy
+     */
+    public void exportProbabilities(HashMap<Double, TargetDecoyPoint> hitMap, int nPoints) {
+        for (int i = 0; i < nPoints; i++) {
+            hitMap.get(scores[i]).p = probabilities[i];
+        }
+    }
+
+    /**
+     * Estimates the posterior error probabilities using a sliding window of
+     * the given size. The arithmetic is the one of
+     * TargetDecoyMap.estimateProbabilities, performed in the same order.
+     *
+     * @param windowSize the window size
+     * @param waitingHandler the handler displaying feedback to the user
+     *
+     * @return the number of points processed, lower than the size of the map
+     * if the process was canceled
+     */
+    public int estimateProbabilities(int windowSize, WaitingHandler waitingHandler) {
+
+        int size = scores.length;
+        if (size == 0) {
+            return 0;
+        }
+
+        double nLimit = 0.5 * windowSize;
+        double nTargetUp = 1.5 * nTarget[0];
+        double nTargetDown = -0.5 * nTarget[0];
+        double nDecoySum = nDecoy[0];
+        int iDown = 0;
+        int iUp = 1;
+        int previous = 0;
+        boolean oneReached = false;
+
+        for (int i = 0; i < size; i++) {
+            if (!oneReached) {
+                double change = 0.5 * (nTarget[previous] + nTarget[i]);
+                nTargetDown += change;
+                nTargetUp -= change;
+                while (nTargetDown > nLimit) {
+                    if (iDown < i) {
+                        double nTargetDownTemp = nTargetDown - nTarget[iDown];
+                        if (nTargetDownTemp >= nLimit) {
+                            nDecoySum -= nDecoy[iDown];
+                            nTargetDown = nTargetDownTemp;
+                            iDown++;
+                        } else {
+                            break;
+                        }
+                    } else {
+                        break;
+                    }
+                }
+                while (nTargetUp < nLimit && iUp < size) {
+                    nTargetUp += nTarget[iUp];
+                    nDecoySum += nDecoy[iUp];
+                    iUp++;
+                }
+                double nTargetSum = nTargetDown + nTargetUp;
+                double p = Math.max(Math.min(nDecoySum / nTargetSum, 1), 0);
+                probabilities[i] = p;
+                if (p >= 0.98) {
+                    oneReached = true;
+                }
+            } else {
+                probabilities[i] = 1;
+            }
+            previous = i;
+
+            waitingHandler.increaseSecondaryProgressCounter();
+            if (waitingHandler.isRunCanceled()) {
+                return i + 1;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Returns the posterior error probability estimated at the given score.
+     * Scores between two points get the average of the probabilities of the
+     * two points, scores above the maximal score get the probability of the
+     * last point.
+     *
+     * @param score the given score
+     *
+     * @return the estimated posterior error probability
+     */
+    public double getProbability(double score) {
+        int lastIndex = scores.length - 1;
+        int indexDown = 0;
+        int indexUp = lastIndex;
+        while (indexDown <= indexUp) {
+            int indexTemp = (indexDown + indexUp) >>> 1;
+            int comparison = Double.compare(scores[indexTemp], score);
+            if (comparison < 0) {
+                indexDown = indexTemp + 1;
+            } else if (comparison > 0) {
+                indexUp = indexTemp - 1;
+            } else {
+                return probabilities[indexTemp];
+            }
+        }
+        if (score >= scores[lastIndex]) {
+            return probabilities[lastIndex];
+        }
+        indexDown = 0;
+        indexUp = lastIndex;
+        while (indexUp - indexDown > 1) {
+            int indexTemp = (indexUp - indexDown) / 2 + indexDown;
+            if (scores[indexTemp] > score) {
+                indexUp = indexTemp;
+            } else {
+                indexDown = indexTemp;
+            }
+        }
+        return (probabilities[indexUp] + probabilities[indexDown]) / 2;
+    }
+
+    /**
+     * Returns the number of points in the map.
+     *
+     * @return the number of points in the map
+     */
+    public int size() {
+        return scores.length;
+    }
+
+    /**
+     * Returns the score of the point at the given index.
+     *
+     * @param index the index of the point
+     *
+     * @return the score of the point
+     */
+    public double getScore(int index) {
+        return scores[index];
+    }
+
+    /**
+     * Returns the number of target hits of the point at the given index.
+     *
+     * @param index the index of the point
+     *
+     * @return the number of target hits of the point
+     */
+    public int getNTarget(int index) {
+        return nTarget[index];
+    }
+
+    /**
+     * Returns the number of decoy hits of the point at the given index.
+     *
+     * @param index the index of the point
+     *
+     * @return the number of decoy hits of the point
+     */
+    public int getNDecoy(int index) {
+        return nDecoy[index];
+    }
+
+    /**
+     * Returns the posterior error probability of the point at the given
+     * index.
+     *
+     * @param index the index of the point
+     *
+     * @return the posterior error probability of the point
+     */
+    public double getProbabilityAt(int index) {
+        return probabilities[index];
+    }
+}
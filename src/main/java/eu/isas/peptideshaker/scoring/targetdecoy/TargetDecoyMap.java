@@ -6,6 +6,8 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
  * This map contains the information of a target/decoy strategy.
@@ -66,6 +68,22 @@ public class TargetDecoyMap implements Serializable {
      * The results computed on this map.
      */
     private TargetDecoyResults targetDecoyResults = new TargetDecoyResults();
+    /**
+     * Sorted primitive representation of the map used for the estimation and
+     * lookup of probabilities. Not serialized: it is rebuilt from the hit map
+     * when needed, for example after loading a cps file.
+     */
+    private transient volatile SortedTargetDecoyMap sortedMap = null;
+    /**
+     * The thread local histogram where hits are accumulated before being
+     * merged in the hit map. Null if no accumulation is ongoing.
+     */
+    private transient volatile ThreadLocal<HashMap<Double, TargetDecoyPoint>> threadHistogram = null;
+    /**
+     * The histograms of all threads which accumulated hits since the last
+     * merge.
+     */
+    private transient ConcurrentLinkedQueue<HashMap<Double, TargetDecoyPoint>> threadHistograms = null;
 
     /**
      * Constructor.
@@ -90,25 +108,7 @@ public class TargetDecoyMap implements Serializable {
      * @return the estimated posterior error probability
      */
     public Double getProbability(double score) {
-        TargetDecoyPoint point = hitMap.get(score);
-        if (point != null) {
-            return point.p;
-        } else if (score >= scores.get(scores.size() - 1)) {
-            return hitMap.get(scores.get(scores.size() - 1)).p;
-        } else {
-            int indexDown = 0;
-            int indexUp = scores.size() - 1;
-            int indexTemp;
-            while (indexUp - indexDown > 1) {
-                indexTemp = (indexUp - indexDown) / 2 + indexDown;
-                if (scores.get(indexTemp) > score) {
-                    indexUp = indexTemp;
-                } else {
-                    indexDown = indexTemp;
-                }
-            }
-            return (hitMap.get(scores.get(indexUp)).p + hitMap.get(scores.get(indexDown)).p) / 2;
-        }
+        return getSortedMap().getProbability(score);
     }
 
     /**
@@ -149,6 +149,83 @@ public class TargetDecoyMap implements Serializable {
         }
     }
 
+    /**
+     * Adds a hit to the histogram of the current thread. Unlike put, this
+     * method does not access shared state once the histogram of the thread is
+     * created, and can therefore be called concurrently without contention.
+     * The hits are only visible in the map after mergeThreadHistograms() is
+     * called, which must be done once all threads are done adding hits.
+     *
+     * @param score the given score
+     * @param isDecoy boolean indicating whether the hit is decoy
+     */
+    public void putInThreadHistogram(Double score, boolean isDecoy) {
+        ThreadLocal<HashMap<Double, TargetDecoyPoint>> localHistogram = threadHistogram;
+        if (localHistogram == null) {
+            localHistogram = createThreadHistogram();
+        }
+        HashMap<Double, TargetDecoyPoint> histogram = localHistogram.get();
+        if (histogram == null) {
+            histogram = new HashMap<Double, TargetDecoyPoint>();
+            localHistogram.set(histogram);
+            threadHistograms.add(histogram);
+        }
+        TargetDecoyPoint targetDecoyPoint = histogram.get(score);
+        if (targetDecoyPoint == null) {
+            targetDecoyPoint = new TargetDecoyPoint();
+            histogram.put(score, targetDecoyPoint);
+        }
+        if (isDecoy) {
+            targetDecoyPoint.nDecoy++;
+        } else {
+            targetDecoyPoint.nTarget++;
+        }
+    }
+
+    /**
+     * Creates the thread local histogram unless already done by another
+     * thread.
+     *
+     * @return the thread local histogram
+     */
+    private synchronized ThreadLocal<HashMap<Double, TargetDecoyPoint>> createThreadHistogram() {
+        if (threadHistogram == null) {
+            threadHistograms = new ConcurrentLinkedQueue<HashMap<Double, TargetDecoyPoint>>();
+            threadHistogram = new ThreadLocal<HashMap<Double, TargetDecoyPoint>>();
+        }
+        return threadHistogram;
+    }
+
+    /**
+     * Merges the hits accumulated in the thread histograms into the hit map.
+     * No thread should be adding hits to the histograms while merging.
+     */
+    public synchronized void mergeThreadHistograms() {
+        if (threadHistogram == null) {
+            return;
+        }
+        boolean newPoint = false;
+        for (HashMap<Double, TargetDecoyPoint> histogram : threadHistograms) {
+            for (Map.Entry<Double, TargetDecoyPoint> entry : histogram.entrySet()) {
+                Double score = entry.getKey();
+                TargetDecoyPoint threadPoint = entry.getValue();
+                TargetDecoyPoint targetDecoyPoint = hitMap.get(score);
+                if (targetDecoyPoint == null) {
+                    targetDecoyPoint = new TargetDecoyPoint();
+                    hitMap.put(score, targetDecoyPoint);
+                    newPoint = true;
+                }
+                targetDecoyPoint.nTarget += threadPoint.nTarget;
+                targetDecoyPoint.nDecoy += threadPoint.nDecoy;
+            }
+        }
+        threadHistograms = null;
+        threadHistogram = null;
+        if (newPoint) {
+            sortedMap = null;
+        }
+    }
+
     /**
      * Creates the target decoy point of the map at the given score if no other
      * thread has done it before.
@@ -162,6 +239,7 @@ public class TargetDecoyMap implements Serializable {
         if (targetDecoyPoint == null) {
             targetDecoyPoint = new TargetDecoyPoint();
             hitMap.put(score, targetDecoyPoint);
+            sortedMap = null;
         }
         return targetDecoyPoint;
     }
@@ -197,6 +275,7 @@ public class TargetDecoyMap implements Serializable {
             }
         }
         if (removed) {
+            sortedMap = null;
             scores = null;
             nmax = null;
             windowSize = null;
@@ -271,59 +350,13 @@ public class TargetDecoyMap implements Serializable {
             windowSize = nmax;
         }
 
-        // estimate p
-        Double currentScore = scores.get(0);
-        TargetDecoyPoint tempPoint, previousPoint = hitMap.get(currentScore);
-        double nLimit = 0.5 * windowSize;
-        double nTargetUp = 1.5 * previousPoint.nTarget;
-        double nTargetDown = -0.5 * previousPoint.nTarget;
-        double nDecoy = previousPoint.nDecoy;
-        int iDown = 0;
-        int iUp = 1;
-        boolean oneReached = false;
-
-        for (int i = 0; i < scores.size(); i++) {
-            currentScore = scores.get(i);
-            TargetDecoyPoint point = hitMap.get(currentScore);
-            if (!oneReached) {
-                double change = 0.5 * (previousPoint.nTarget + point.nTarget);
-                nTargetDown += change;
-                nTargetUp -= change;
-                while (nTargetDown > nLimit) {
-                    if (iDown < i) {
-                        tempPoint = hitMap.get(scores.get(iDown));
-                        double nTargetDownTemp = nTargetDown - tempPoint.nTarget;
-                        if (nTargetDownTemp >= nLimit) {
-                            nDecoy -= tempPoint.nDecoy;
-                            nTargetDown = nTargetDownTemp;
-                            iDown++;
-                        } else {
-                            break;
-                        }
-                    } else {
-                        break;
-                    }
-                }
-                while (nTargetUp < nLimit && iUp < scores.size()) {
-                    tempPoint = hitMap.get(scores.get(iUp));
-                    nTargetUp += tempPoint.nTarget;
-                    nDecoy += tempPoint.nDecoy;
-                    iUp++;
-                }
-                double nTarget = nTargetDown + nTargetUp;
-                point.p = Math.max(Math.min(nDecoy / nTarget, 1), 0);
-                if (point.p >= 0.98) {
-                    oneReached = true;
-                }
-            } else {
-                point.p = 1;
-            }
-            previousPoint = point;
-
-            waitingHandler.increaseSecondaryProgressCounter();
-            if (waitingHandler.isRunCanceled()) {
-                return;
-            }
+        SortedTargetDecoyMap newSortedMap = SortedTargetDecoyMap.fromHitMap(scores, hitMap);
+        int nProcessed = newSortedMap.estimateProbabilities(windowSize, waitingHandler);
+        newSortedMap.exportProbabilities(hitMap, nProcessed);
+        if (nProcessed == scores.size()) {
+            sortedMap = newSortedMap;
+        } else {
+            sortedMap = null;
         }
     }
 
@@ -405,11 +438,34 @@ public class TargetDecoyMap implements Serializable {
                 put(score, false);
             }
         }
+        sortedMap = null;
         scores = null;
         nmax = null;
         windowSize = null;
     }
 
+    /**
+     * Returns the sorted primitive representation of this map, building it
+     * from the hit map if needed. This is the conversion path for maps
+     * deserialized from cps files where the probabilities are stored in the
+     * target/decoy points.
+     *
+     * @return the sorted primitive representation of this map
+     */
+    public SortedTargetDecoyMap getSortedMap() {
+        SortedTargetDecoyMap result = sortedMap;
+        if (result == null) {
+            synchronized (this) {
+                result = sortedMap;
+                if (result == null) {
+                    result = SortedTargetDecoyMap.fromHitMap(getScores(), hitMap);
+                    sortedMap = result;
+                }
+            }
+        }
+        return result;
+    }
+
     /**
      * Returns a boolean indicating if a suspicious input was detected.
      *
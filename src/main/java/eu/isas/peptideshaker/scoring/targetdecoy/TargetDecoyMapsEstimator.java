@@ -0,0 +1,126 @@
+package eu.isas.peptideshaker.scoring.targetdecoy;
+
+import com.compomics.util.waiting.WaitingHandler;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Estimates the posterior error probabilities of independent target/decoy maps
+ * using multiple threads. The maps are processed from the largest to the
+ * smallest to balance the load between threads, and every map is estimated by
+ * a single thread so that the results are identical to a sequential
+ * estimation.
+ *
+ * @author Marc Vaudel
+ */
+public class TargetDecoyMapsEstimator {
+
+    /**
+     * Empty default constructor.
+     */
+    private TargetDecoyMapsEstimator() {
+    }
+
+    /**
+     * Estimates the posterior error probabilities of the given maps. The
+     * progress of all maps is reported to the secondary progress counter of
+     * the waiting handler.
+     *
+     * @param targetDecoyMaps the target/decoy maps to estimate
+     * @param nThreads the number of threads to use
+     * @param waitingHandler the handler displaying feedback to the user
+     *
+     * @throws InterruptedException exception thrown if a thread is
+     * interrupted or if the estimation times out
+     */
+    public static void estimateProbabilities(ArrayList<TargetDecoyMap> targetDecoyMaps, int nThreads, WaitingHandler waitingHandler) throws InterruptedException {
+
+        int nMaps = targetDecoyMaps.size();
+        nThreads = Math.min(nThreads, nMaps);
+
+        if (nThreads <= 1) {
+            for (TargetDecoyMap targetDecoyMap : targetDecoyMaps) {
+                targetDecoyMap.estimateProbabilities(waitingHandler);
+                if (waitingHandler.isRunCanceled()) {
+                    return;
+                }
+            }
+            return;
+        }
+
+        ArrayList<TargetDecoyMap> sortedMaps = new ArrayList<TargetDecoyMap>(targetDecoyMaps);
+        Collections.sort(sortedMaps, new Comparator<TargetDecoyMap>() {
+            @Override
+            public int compare(TargetDecoyMap map1, TargetDecoyMap map2) {
+                return map2.getMapSize() - map1.getMapSize();
+            }
+        });
+        ConcurrentLinkedQueue<TargetDecoyMap> mapsQueue = new ConcurrentLinkedQueue<TargetDecoyMap>(sortedMaps);
+
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+        ArrayList<Future<?>> futures = new ArrayList<Future<?>>(nThreads);
+        for (int i = 0; i < nThreads; i++) {
+            futures.add(pool.submit(new EstimatorRunnable(mapsQueue, waitingHandler)));
+        }
+        pool.shutdown();
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            pool.shutdownNow();
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+        if (!pool.awaitTermination(1, TimeUnit.DAYS)) {
+            throw new InterruptedException("Probability estimation timed out. Please contact the developers.");
+        }
+    }
+
+    /**
+     * Runnable estimating the probabilities of the maps taken from a queue
+     * until the queue is empty.
+     */
+    private static class EstimatorRunnable implements Runnable {
+
+        /**
+         * The queue of maps to process.
+         */
+        private final ConcurrentLinkedQueue<TargetDecoyMap> mapsQueue;
+        /**
+         * The handler displaying feedback to the user.
+         */
+        private final WaitingHandler waitingHandler;
+
+        /**
+         * Constructor.
+         *
+         * @param mapsQueue the queue of maps to process
+         * @param waitingHandler the handler displaying feedback to the user
+         */
+        public EstimatorRunnable(ConcurrentLinkedQueue<TargetDecoyMap> mapsQueue, WaitingHandler waitingHandler) {
+            this.mapsQueue = mapsQueue;
+            this.waitingHandler = waitingHandler;
+        }
+
+        @Override
+        public void run() {
+            TargetDecoyMap targetDecoyMap;
+            while ((targetDecoyMap = mapsQueue.poll()) != null && !waitingHandler.isRunCanceled()) {
+                targetDecoyMap.estimateProbabilities(waitingHandler);
+            }
+        }
+    }
+}
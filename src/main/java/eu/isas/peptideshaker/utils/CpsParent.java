@@ -307,12 +307,15 @@ public class CpsParent extends UserPreferencesParent {
      * threading error occurred while saving the project
      */
     public void saveProject(WaitingHandler waitingHandler, boolean emptyCache) throws IOException, SQLException, ArchiveException, ClassNotFoundException, InterruptedException {
+
+        loadUserPreferences();
+        IdentificationFeaturesCache identificationFeaturesCache = identificationFeaturesGenerator.getIdentificationFeaturesCache();
+        identificationFeaturesCache.setPersistent(userPreferences.isPersistIdentificationFeatures());
+
         CpsExporter.saveAs(cpsFile, waitingHandler, experiment, identification, shotgunProtocol, identificationParameters,
                 spectrumCountingPreferences, projectDetails, filterPreferences, metrics, geneMaps,
-                identificationFeaturesGenerator.getIdentificationFeaturesCache(),
-                objectsCache, emptyCache, displayPreferences, dbFolder);
+                identificationFeaturesCache, objectsCache, emptyCache, displayPreferences, dbFolder);
 
-        loadUserPreferences();
         userPreferences.addRecentProject(cpsFile);
         saveUserPreferences();
     }
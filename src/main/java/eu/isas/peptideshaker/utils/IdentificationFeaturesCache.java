@@ -1,12 +1,30 @@
 package eu.isas.peptideshaker.utils;
 
+import eu.isas.peptideshaker.preferences.SpectrumCountingPreferences.SpectralCountingMethod;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This class caches the identification features calculated by the
- * IdentificationFeaturesGenerator for later reuse.
+ * IdentificationFeaturesGenerator for later reuse. The objects are stored in
+ * segments ordered by access and the least recently used objects are evicted
+ * when the estimated size of the cache exceeds the maximal size. Segments are
+ * locked independently, allowing concurrent access from multiple threads. The
+ * sequence coverage and spectrum counting of the proteins are stored
+ * separately and never evicted. Unless persistence is disabled, the content of
+ * the cache is saved along with the project. The features depending on the
+ * validation of the matches or on the hiding filters need to be cleared
+ * whenever these change.
  *
  * @author Marc Vaudel
  */
@@ -25,117 +43,161 @@ public class IdentificationFeaturesCache implements Serializable {
         /**
          * The likelihood to cover amino acids stored as big object.
          */
-        coverable_AA_p,
+        coverable_AA_p(true),
         /**
          * The amino acid coverage of a given protein.
          */
-        AA_coverage,
+        AA_coverage(true),
         /**
          * The sequence coverage of a given protein using validated peptides
          * stored as small object.
          */
-        sequence_coverage,
+        sequence_coverage(true),
         /**
          * The sequence coverage of a given protein stored as small object.
          */
-        sequence_validation_coverage,
+        sequence_validation_coverage(true),
         /**
          * The expected sequence coverage of a given protein stored as small
          * object.
          */
-        expected_coverage,
+        expected_coverage(true),
         /**
          * The spectrum counting index of a given protein stored as small
          * object.
          */
-        spectrum_counting,
+        spectrum_counting(true),
         /**
          * The number of spectra of a given protein stored as small object.
          */
-        number_of_spectra,
+        number_of_spectra(false),
         /**
          * The number of validated spectra of a given peptide or protein stored
          * as small object.
          */
-        number_of_validated_spectra,
+        number_of_validated_spectra(true),
         /**
          * The number of validated spectra of a given peptide or protein stored
          * as small object.
          */
-        number_of_confident_spectra,
+        number_of_confident_spectra(true),
         /**
          * The number of validated peptides of a given protein stored as small
          * object.
          */
-        number_of_validated_peptides,
+        number_of_validated_peptides(true),
         /**
          * The number of confident peptides of a given protein stored as small
          * object.
          */
-        number_of_confident_peptides,
+        number_of_confident_peptides(true),
         /**
          * The max mz value for all the PSMs for a given peptide stored as small
          * object.
          */
-        max_psm_mz_for_peptides,
+        max_psm_mz_for_peptides(false),
         /**
          * The non-tryptic peptides. Stored as a big object.
          */
-        tryptic_protein,
+        tryptic_protein(false),
         /**
          * The number of unique peptides. Stored as a small object.
          */
-        unique_peptides,
+        unique_peptides(false),
         /**
          * The number of validated protein groups for a peptide. Stored as a small object.
          */
-        protein_groups_for_peptide,
+        protein_groups_for_peptide(true),
         /**
          * The number of unique validated peptides. Stored as a small object.
          */
-        unique_validated_peptides,
+        unique_validated_peptides(true),
         /**
          * The number of unique peptides. Stored as a small object.
          */
-        unique_peptides_group,
+        unique_peptides_group(false),
         /**
          * The number of unique validated peptides. Stored as a small object.
          */
-        unique_validated_peptides_group,
+        unique_validated_peptides_group(true),
         /**
          * Contains if a given protein accession contains enzymatic peptides:
          * true or false. Stored as a small object.
          */
-        containsEnzymaticPeptides;
+        containsEnzymaticPeptides(false);
+        /**
+         * Indicates whether the object depends on the validation of the
+         * matches.
+         */
+        public final boolean validationDependent;
+
+        /**
+         * Constructor.
+         *
+         * @param validationDependent indicates whether the object depends on
+         * the validation of the matches
+         */
+        private ObjectType(boolean validationDependent) {
+            this.validationDependent = validationDependent;
+        }
     }
     /**
-     * The number of values kept in memory for small objects.
+     * The default maximal size of the cache in bytes.
+     */
+    public static final long DEFAULT_MAX_SIZE = 128L * 1024 * 1024;
+    /**
+     * The number of segments of the cache.
      */
-    private final int smallObjectsCacheSize = 1000000;
+    private static final int N_SEGMENTS = 16;
     /**
-     * The number of values kept in memory for big objects.
+     * The estimated size of an entry in the cache in bytes, excluding the
+     * object stored.
      */
-    private final int bigObjectsCacheSize = 1000;
+    private static final int ENTRY_SIZE = 96;
     /**
-     * Separator used to concatenate strings.
+     * The maximal size of the cache in bytes.
      */
-    private static final String cacheSeparator = "_ccs_";
+    private long maxSize = DEFAULT_MAX_SIZE;
     /**
-     * The cached protein matches for small objects.
+     * The segments of the cache.
      */
-    private ArrayList<String> smallObjectsInCache = new ArrayList<String>();
+    private transient Segment[] segments = createSegments();
     /**
-     * The cached protein matches for big objects.
+     * The number of times an object was found in the cache.
      */
-    private ArrayList<String> bigObjectsInCache = new ArrayList<String>();
+    private transient AtomicLong nHits = new AtomicLong();
     /**
-     * Mapping of the stored big objects.
+     * The number of times an object was not found in the cache.
      */
-    private HashMap<ObjectType, HashMap<String, Object>> bigObjectsCache = new HashMap<ObjectType, HashMap<String, Object>>();
+    private transient AtomicLong nMisses = new AtomicLong();
     /**
-     * Mapping of the stored small objects.
+     * The number of objects evicted from the cache.
      */
-    private HashMap<ObjectType, HashMap<String, Object>> smallObjectsCache = new HashMap<ObjectType, HashMap<String, Object>>();
+    private transient AtomicLong nEvictions = new AtomicLong();
+    /**
+     * Indicates whether the objects of the cache should be saved with the
+     * project.
+     */
+    private transient boolean persistent = true;
+    /**
+     * The sequence coverage of the proteins: protein match key | coverage.
+     */
+    private ConcurrentHashMap<String, SequenceCoverage> sequenceCoverages = new ConcurrentHashMap<String, SequenceCoverage>();
+    /**
+     * The spectrum counting indexes of the proteins: method | protein match
+     * key | spectrum counting index.
+     */
+    private ConcurrentHashMap<SpectralCountingMethod, ConcurrentHashMap<String, Double>> spectrumCountings = createSpectrumCountings();
+    /**
+     * The objects of the cache in the format used by previous versions: type
+     * | key | object. Only used for serialization.
+     */
+    private HashMap<ObjectType, HashMap<String, Object>> smallObjectsCache = null;
+    /**
+     * The big objects of the cache saved by previous versions: type | key |
+     * object. Only used for deserialization.
+     */
+    private HashMap<ObjectType, HashMap<String, Object>> bigObjectsCache = null;
     /**
      * The protein list.
      */
@@ -183,129 +245,209 @@ public class IdentificationFeaturesCache implements Serializable {
      */
     private boolean readOnly = false;
 
+    /**
+     * Creates empty segments.
+     *
+     * @return empty segments
+     */
+    private static Segment[] createSegments() {
+        Segment[] result = new Segment[N_SEGMENTS];
+        for (int i = 0; i < N_SEGMENTS; i++) {
+            result[i] = new Segment();
+        }
+        return result;
+    }
+
+    /**
+     * Creates empty spectrum counting maps for every method.
+     *
+     * @return empty spectrum counting maps for every method
+     */
+    private static ConcurrentHashMap<SpectralCountingMethod, ConcurrentHashMap<String, Double>> createSpectrumCountings() {
+        ConcurrentHashMap<SpectralCountingMethod, ConcurrentHashMap<String, Double>> result = new ConcurrentHashMap<SpectralCountingMethod, ConcurrentHashMap<String, Double>>(SpectralCountingMethod.values().length);
+        for (SpectralCountingMethod method : SpectralCountingMethod.values()) {
+            result.put(method, new ConcurrentHashMap<String, Double>());
+        }
+        return result;
+    }
+
+    /**
+     * Returns the segment where the given key is stored.
+     *
+     * @param cacheKey the key
+     *
+     * @return the segment where the given key is stored
+     */
+    private Segment getSegment(CacheKey cacheKey) {
+        int hash = cacheKey.hashCode();
+        hash ^= (hash >>> 16);
+        return segments[(hash & 0x7fffffff) % N_SEGMENTS];
+    }
+
     /**
      * Clears all objects of the given type.
      *
      * @param type the object type
      */
-    public synchronized void removeObjects(ObjectType type) {
+    public void removeObjects(ObjectType type) {
         if (!readOnly) {
-            String typeKey = getTypeAsString(type);
-            ArrayList<String> toRemove = new ArrayList<String>();
-
-            switch (type) {
-                case coverable_AA_p:
-                case AA_coverage:
-                case tryptic_protein:
-                    bigObjectsCache.remove(type);
-                    for (String key : bigObjectsInCache) {
-                        if (key.contains(typeKey)) {
-                            toRemove.add(key);
+            for (Segment segment : segments) {
+                synchronized (segment) {
+                    Iterator<Map.Entry<CacheKey, CacheEntry>> iterator = segment.entrySet().iterator();
+                    while (iterator.hasNext()) {
+                        Map.Entry<CacheKey, CacheEntry> entry = iterator.next();
+                        if (entry.getKey().type == type) {
+                            segment.size -= entry.getValue().size;
+                            iterator.remove();
                         }
                     }
-                    for (String key : toRemove) {
-                        bigObjectsInCache.remove(key);
-                    }
-                    break;
-                case sequence_coverage:
-                case sequence_validation_coverage:
-                case expected_coverage:
-                case spectrum_counting:
-                case number_of_spectra:
-                case number_of_validated_spectra:
-                case number_of_validated_peptides:
-                case number_of_confident_spectra:
-                case number_of_confident_peptides:
-                case max_psm_mz_for_peptides:
-                case unique_peptides:
-                case containsEnzymaticPeptides:
-                    smallObjectsCache.remove(type);
-                    for (String key : smallObjectsInCache) {
-                        if (key.contains(typeKey)) {
-                            toRemove.add(key);
-                        }
-                    }
-                    for (String key : toRemove) {
-                        smallObjectsInCache.remove(key);
-                    }
-                    break;
+                }
             }
         }
     }
 
     /**
-     * Adds an object in the cache.
+     * Clears all objects depending on the validation of the matches: the
+     * objects of validation dependent types, the sequence coverages, the
+     * spectrum counting indexes and the protein lists. To be used whenever the
+     * validation of the matches changed.
+     */
+    public void clearValidationDependentObjects() {
+        if (!readOnly) {
+            removeValidationDependentObjects();
+            sequenceCoverages.clear();
+            clearSpectrumCountings();
+            clearFilterDependentObjects();
+        }
+    }
+
+    /**
+     * Clears the objects depending on the validation of the matches after the
+     * validation of some matches changed: the objects of validation dependent
+     * types, the sequence coverages of the given proteins and the protein
+     * lists. The spectrum counting indexes are kept.
      *
-     * @param type the type of the object
-     * @param objectKey the object key
-     * @param object the object to store
+     * @param proteinKeys the keys of the proteins whose coverage changed
      */
-    public synchronized void addObject(ObjectType type, String objectKey, Object object) {
+    public void clearValidationDependentObjects(Collection<String> proteinKeys) {
         if (!readOnly) {
-            switch (type) {
-                case coverable_AA_p:
-                case AA_coverage:
-                case tryptic_protein:
-                    if (!bigObjectsCache.containsKey(type)) {
-                        bigObjectsCache.put(type, new HashMap<String, Object>());
+            removeValidationDependentObjects();
+            for (String proteinKey : proteinKeys) {
+                sequenceCoverages.remove(proteinKey);
+            }
+            clearFilterDependentObjects();
+        }
+    }
+
+    /**
+     * Removes the objects of validation dependent types.
+     */
+    private void removeValidationDependentObjects() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                Iterator<Map.Entry<CacheKey, CacheEntry>> iterator = segment.entrySet().iterator();
+                while (iterator.hasNext()) {
+                    Map.Entry<CacheKey, CacheEntry> entry = iterator.next();
+                    if (entry.getKey().type.validationDependent) {
+                        segment.size -= entry.getValue().size;
+                        iterator.remove();
                     }
+                }
+            }
+        }
+    }
 
-                    Object oldValue = bigObjectsCache.get(type).put(objectKey, object);
+    /**
+     * Clears the lists of matches depending on the hiding filters. To be used
+     * whenever the filters changed.
+     */
+    public void clearFilterDependentObjects() {
+        if (!readOnly) {
+            proteinListAfterHiding = null;
+            validatedProteinList = null;
+            peptideList = null;
+            psmList = null;
+        }
+    }
 
-                    if (oldValue == null) { // don't add if the object was already in the cache
-                        bigObjectsInCache.add(getCacheKey(type, objectKey));
-                    }
+    /**
+     * Returns the sequence coverage of the proteins: protein match key |
+     * coverage.
+     *
+     * @return the sequence coverage of the proteins
+     */
+    public ConcurrentHashMap<String, SequenceCoverage> getSequenceCoverages() {
+        return sequenceCoverages;
+    }
 
-                    while (bigObjectsInCache.size() >= bigObjectsCacheSize && !bigObjectsInCache.isEmpty()) {
-                        String firstObjectKey = bigObjectsInCache.get(0);
-                        ObjectType oldType = getType(firstObjectKey);
-                        String oldKey = getObjectKey(firstObjectKey);
-                        HashMap<String, Object> cacheForType = bigObjectsCache.get(oldType);
-                        if (cacheForType != null) {
-                            cacheForType.remove(oldKey);
-                            if (cacheForType.isEmpty()) {
-                                bigObjectsCache.remove(oldType);
-                            }
-                        }
-                        bigObjectsInCache.remove(0);
-                    }
-                    break;
-                case sequence_coverage:
-                case sequence_validation_coverage:
-                case expected_coverage:
-                case spectrum_counting:
-                case number_of_spectra:
-                case number_of_validated_spectra:
-                case number_of_validated_peptides:
-                case number_of_confident_spectra:
-                case number_of_confident_peptides:
-                case max_psm_mz_for_peptides:
-                case unique_peptides:
-                case containsEnzymaticPeptides:
-                    if (!smallObjectsCache.containsKey(type)) {
-                        smallObjectsCache.put(type, new HashMap<String, Object>());
-                    }
+    /**
+     * Returns the spectrum counting indexes of the proteins for the given
+     * method: protein match key | spectrum counting index.
+     *
+     * @param method the spectrum counting method
+     *
+     * @return the spectrum counting indexes of the proteins
+     */
+    public ConcurrentHashMap<String, Double> getSpectrumCountings(SpectralCountingMethod method) {
+        return spectrumCountings.get(method);
+    }
 
-                    oldValue = smallObjectsCache.get(type).put(objectKey, object);
+    /**
+     * Clears the spectrum counting indexes of all methods.
+     */
+    public void clearSpectrumCountings() {
+        for (ConcurrentHashMap<String, Double> methodSpectrumCountings : spectrumCountings.values()) {
+            methodSpectrumCountings.clear();
+        }
+    }
 
-                    if (oldValue == null) {
-                        smallObjectsInCache.add(getCacheKey(type, objectKey));
-                    }
+    /**
+     * Indicates whether the objects of the cache are saved with the project.
+     *
+     * @return a boolean indicating whether the objects of the cache are saved
+     * with the project
+     */
+    public boolean isPersistent() {
+        return persistent;
+    }
 
-                    while (smallObjectsInCache.size() >= smallObjectsCacheSize && !smallObjectsInCache.isEmpty()) {
-                        String firstObjectKey = smallObjectsInCache.get(0);
-                        ObjectType oldType = getType(firstObjectKey);
-                        String oldKey = getObjectKey(firstObjectKey);
-                        HashMap<String, Object> cacheForType = smallObjectsCache.get(oldType);
-                        if (cacheForType != null) {
-                            cacheForType.remove(oldKey);
-                            if (cacheForType.isEmpty()) {
-                                smallObjectsCache.remove(oldType);
-                            }
-                        }
-                        smallObjectsInCache.remove(0);
-                    }
-                    break;
+    /**
+     * Sets whether the objects of the cache should be saved with the project.
+     * If not, they are recomputed when needed after reopening the project.
+     *
+     * @param persistent a boolean indicating whether the objects of the cache
+     * should be saved with the project
+     */
+    public void setPersistent(boolean persistent) {
+        this.persistent = persistent;
+    }
+
+    /**
+     * Adds an object in the cache.
+     *
+     * @param type the type of the object
+     * @param objectKey the object key
+     * @param object the object to store
+     */
+    public void addObject(ObjectType type, String objectKey, Object object) {
+        if (!readOnly) {
+            CacheKey cacheKey = new CacheKey(type, objectKey);
+            CacheEntry cacheEntry = new CacheEntry(object, ENTRY_SIZE + 2 * objectKey.length() + estimateSize(object));
+            Segment segment = getSegment(cacheKey);
+            long segmentMaxSize = maxSize / N_SEGMENTS;
+            synchronized (segment) {
+                CacheEntry oldEntry = segment.put(cacheKey, cacheEntry);
+                if (oldEntry != null) {
+                    segment.size -= oldEntry.size;
+                }
+                segment.size += cacheEntry.size;
+                Iterator<CacheEntry> iterator = segment.values().iterator();
+                while (segment.size > segmentMaxSize && iterator.hasNext()) {
+                    CacheEntry eldestEntry = iterator.next();
+                    segment.size -= eldestEntry.size;
+                    iterator.remove();
+                    nEvictions.incrementAndGet();
+                }
             }
         }
     }
@@ -318,35 +460,139 @@ public class IdentificationFeaturesCache implements Serializable {
      * @return the desired object
      */
     public Object getObject(ObjectType type, String objectKey) {
-        switch (type) {
-            case coverable_AA_p:
-            case AA_coverage:
-            case tryptic_protein:
-                HashMap<String, Object> cacheForType = bigObjectsCache.get(type);
-                if (cacheForType != null) {
-                    return cacheForType.get(objectKey);
-                }
-                return null;
-            case sequence_coverage:
-            case sequence_validation_coverage:
-            case expected_coverage:
-            case spectrum_counting:
-            case number_of_spectra:
-            case number_of_validated_spectra:
-            case number_of_validated_peptides:
-            case number_of_confident_spectra:
-            case number_of_confident_peptides:
-            case max_psm_mz_for_peptides:
-            case unique_peptides:
-            case containsEnzymaticPeptides:
-                cacheForType = smallObjectsCache.get(type);
-                if (cacheForType != null) {
-                    return cacheForType.get(objectKey);
-                }
-                return null;
-            default:
-                return null;
+        CacheKey cacheKey = new CacheKey(type, objectKey);
+        Segment segment = getSegment(cacheKey);
+        CacheEntry cacheEntry;
+        synchronized (segment) {
+            cacheEntry = segment.get(cacheKey);
+        }
+        if (cacheEntry == null) {
+            nMisses.incrementAndGet();
+            return null;
         }
+        nHits.incrementAndGet();
+        return cacheEntry.object;
+    }
+
+    /**
+     * Returns the estimated size of an object in bytes.
+     *
+     * @param object the object
+     *
+     * @return the estimated size of the object in bytes
+     */
+    private static long estimateSize(Object object) {
+        if (object == null) {
+            return 0;
+        } else if (object instanceof double[]) {
+            return 16 + 8L * ((double[]) object).length;
+        } else if (object instanceof int[]) {
+            return 16 + 4L * ((int[]) object).length;
+        } else if (object instanceof boolean[]) {
+            return 16 + ((boolean[]) object).length;
+        } else if (object instanceof String) {
+            return 40 + 2L * ((String) object).length();
+        } else if (object instanceof Collection) {
+            long size = 40;
+            for (Object element : (Collection) object) {
+                size += 8 + estimateSize(element);
+            }
+            return size;
+        } else if (object instanceof Map) {
+            long size = 48;
+            for (Object element : ((Map) object).entrySet()) {
+                Map.Entry entry = (Map.Entry) element;
+                size += 32 + estimateSize(entry.getKey()) + estimateSize(entry.getValue());
+            }
+            return size;
+        } else {
+            return 16;
+        }
+    }
+
+    /**
+     * Returns the number of objects in the cache.
+     *
+     * @return the number of objects in the cache
+     */
+    public int getnObjects() {
+        int result = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                result += segment.size();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the estimated size of the cache in bytes.
+     *
+     * @return the estimated size of the cache in bytes
+     */
+    public long getSize() {
+        long result = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                result += segment.size;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the maximal size of the cache in bytes.
+     *
+     * @return the maximal size of the cache in bytes
+     */
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Sets the maximal size of the cache in bytes. The size is enforced when
+     * the next objects are added.
+     *
+     * @param maxSize the maximal size of the cache in bytes
+     */
+    public void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the number of times an object was found in the cache.
+     *
+     * @return the number of times an object was found in the cache
+     */
+    public long getnHits() {
+        return nHits.get();
+    }
+
+    /**
+     * Returns the number of times an object was not found in the cache.
+     *
+     * @return the number of times an object was not found in the cache
+     */
+    public long getnMisses() {
+        return nMisses.get();
+    }
+
+    /**
+     * Returns the number of objects evicted from the cache.
+     *
+     * @return the number of objects evicted from the cache
+     */
+    public long getnEvictions() {
+        return nEvictions.get();
+    }
+
+    /**
+     * Resets the hit, miss and eviction statistics.
+     */
+    public void resetStatistics() {
+        nHits.set(0);
+        nMisses.set(0);
+        nEvictions.set(0);
     }
 
     /**
@@ -535,118 +781,108 @@ public class IdentificationFeaturesCache implements Serializable {
     }
 
     /**
-     * Convenience method returning a string as key for the object of the given
-     * type identified by the given key.
+     * Saves the objects of the cache along with the other fields. If the cache
+     * is not persistent, only the other fields are saved.
      *
-     * @param type the type of object
-     * @param objectKey the key of the object
-     * @return the key to be used in cache
-     */
-    private String getCacheKey(ObjectType type, String objectKey) {
-        return getTypeAsString(type) + cacheSeparator + objectKey;
-    }
-
-    /**
-     * Returns the object type as string.
-     *
-     * @param type the type of object
-     * @return the corresponding key
-     */
-    private String getTypeAsString(ObjectType type) {
-        switch (type) {
-            case coverable_AA_p:
-                return "coverable_AA_p";
-            case AA_coverage:
-                return "AA_coverage";
-            case sequence_coverage:
-                return "sequence_coverage";
-            case sequence_validation_coverage:
-                return "sequence_validation_coverage";
-            case expected_coverage:
-                return "expected_coverage";
-            case spectrum_counting:
-                return "spectrum_counting";
-            case number_of_spectra:
-                return "#spectra";
-            case number_of_validated_spectra:
-                return "#validated_spectra";
-            case number_of_validated_peptides:
-                return "#validated_peptides";
-            case number_of_confident_spectra:
-                return "#confident_spectra";
-            case number_of_confident_peptides:
-                return "#confident_peptides";
-            case max_psm_mz_for_peptides:
-                return "max_psm_mz_for_peptides";
-            case tryptic_protein:
-                return "tryptic_protein";
-            case unique_peptides:
-                return "unique_peptides";
-            case containsEnzymaticPeptides:
-                return "contains_enzymatic_peptides";
-            default:
-                return "default";
+     * @param out the stream to write to
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the cache
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        if (!persistent) {
+            ConcurrentHashMap<String, SequenceCoverage> savedSequenceCoverages = sequenceCoverages;
+            ConcurrentHashMap<SpectralCountingMethod, ConcurrentHashMap<String, Double>> savedSpectrumCountings = spectrumCountings;
+            sequenceCoverages = null;
+            spectrumCountings = null;
+            try {
+                out.defaultWriteObject();
+            } finally {
+                sequenceCoverages = savedSequenceCoverages;
+                spectrumCountings = savedSpectrumCountings;
+            }
+            return;
+        }
+        HashMap<ObjectType, HashMap<String, Object>> objects = new HashMap<ObjectType, HashMap<String, Object>>();
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                for (Map.Entry<CacheKey, CacheEntry> entry : segment.entrySet()) {
+                    CacheKey cacheKey = entry.getKey();
+                    HashMap<String, Object> typeObjects = objects.get(cacheKey.type);
+                    if (typeObjects == null) {
+                        typeObjects = new HashMap<String, Object>();
+                        objects.put(cacheKey.type, typeObjects);
+                    }
+                    typeObjects.put(cacheKey.key, entry.getValue().object);
+                }
+            }
+        }
+        smallObjectsCache = objects;
+        try {
+            out.defaultWriteObject();
+        } finally {
+            smallObjectsCache = null;
         }
     }
 
     /**
-     * Convenience method returning the type of object base on the objects cache
-     * key.
-     *
-     * @param cacheKey the object cache key
-     * @return the type of object
-     */
-    private ObjectType getType(String cacheKey) {
-        String objectTypeAsString = cacheKey.split(cacheSeparator)[0];
-        if (objectTypeAsString.equals("coverable_AA_p")) {
-            return ObjectType.coverable_AA_p;
-        } else if (objectTypeAsString.equals("AA_coverage")) {
-            return ObjectType.AA_coverage;
-        } else if (objectTypeAsString.equals("sequence_coverage")) {
-            return ObjectType.sequence_coverage;
-        } else if (objectTypeAsString.equals("sequence_validation_coverage")) {
-            return ObjectType.sequence_validation_coverage;
-        } else if (objectTypeAsString.equals("expected_coverage")) {
-            return ObjectType.expected_coverage;
-        } else if (objectTypeAsString.equals("spectrum_counting")) {
-            return ObjectType.spectrum_counting;
-        } else if (objectTypeAsString.equals("#spectra")) {
-            return ObjectType.number_of_spectra;
-        } else if (objectTypeAsString.equals("#validated_spectra")) {
-            return ObjectType.number_of_validated_spectra;
-        } else if (objectTypeAsString.equals("#validated_peptides")) {
-            return ObjectType.number_of_validated_peptides;
-        } else if (objectTypeAsString.equals("#confident_spectra")) {
-            return ObjectType.number_of_confident_spectra;
-        } else if (objectTypeAsString.equals("#confident_peptides")) {
-            return ObjectType.number_of_confident_peptides;
-        } else if (objectTypeAsString.equals("max_psm_mz_for_peptides")) {
-            return ObjectType.max_psm_mz_for_peptides;
-        } else if (objectTypeAsString.equals("tryptic_protein")) {
-            return ObjectType.tryptic_protein;
-        } else if (objectTypeAsString.equals("unique_peptides")) {
-            return ObjectType.unique_peptides;
-        } else if (objectTypeAsString.equals("contains_enzymatic_peptides")) { 
-            return ObjectType.containsEnzymaticPeptides;
+     * Restores the objects of the cache saved by this or previous versions.
+     *
+     * @param in the stream to read from
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the cache
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing the cache
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        segments = createSegments();
+        nHits = new AtomicLong();
+        nMisses = new AtomicLong();
+        nEvictions = new AtomicLong();
+        persistent = true;
+        if (sequenceCoverages == null) {
+            sequenceCoverages = new ConcurrentHashMap<String, SequenceCoverage>();
+        }
+        if (spectrumCountings == null) {
+            spectrumCountings = createSpectrumCountings();
         } else {
-            return null;
+            for (SpectralCountingMethod method : SpectralCountingMethod.values()) {
+                if (!spectrumCountings.containsKey(method)) {
+                    spectrumCountings.put(method, new ConcurrentHashMap<String, Double>());
+                }
+            }
+        }
+        if (maxSize <= 0) {
+            maxSize = DEFAULT_MAX_SIZE;
         }
+        boolean wasReadOnly = readOnly;
+        readOnly = false;
+        restoreObjects(smallObjectsCache);
+        restoreObjects(bigObjectsCache);
+        readOnly = wasReadOnly;
+        smallObjectsCache = null;
+        bigObjectsCache = null;
+        resetStatistics();
     }
 
     /**
-     * Convenience method returning the object key based on the cache key.
+     * Adds the given objects to the cache.
      *
-     * @param cacheKey the cache key
-     * @return the object key
-     */
-    private String getObjectKey(String cacheKey) {
-        StringBuilder buf = new StringBuilder();
-        String escapedString = java.util.regex.Pattern.quote(cacheKey);
-        String[] splittedKey = cacheKey.split(escapedString);
-        for (int i = 1; i < splittedKey.length; i++) {
-            buf.append(splittedKey[i]);
+     * @param objects the objects to add: type | key | object, can be null
+     */
+    private void restoreObjects(HashMap<ObjectType, HashMap<String, Object>> objects) {
+        if (objects != null) {
+            for (ObjectType type : objects.keySet()) {
+                HashMap<String, Object> typeObjects = objects.get(type);
+                if (type != null && typeObjects != null) {
+                    for (String objectKey : typeObjects.keySet()) {
+                        addObject(type, objectKey, typeObjects.get(objectKey));
+                    }
+                }
+            }
         }
-        return buf.toString();
     }
 
     /**
@@ -658,4 +894,97 @@ public class IdentificationFeaturesCache implements Serializable {
     public void setReadOnly(boolean readOnly) {
         this.readOnly = readOnly;
     }
+
+    /**
+     * Key of an object in the cache.
+     */
+    private static class CacheKey {
+
+        /**
+         * The type of the object.
+         */
+        private final ObjectType type;
+        /**
+         * The key of the object.
+         */
+        private final String key;
+        /**
+         * The hash code of the key.
+         */
+        private final int hashCode;
+
+        /**
+         * Constructor.
+         *
+         * @param type the type of the object
+         * @param key the key of the object
+         */
+        public CacheKey(ObjectType type, String key) {
+            this.type = type;
+            this.key = key;
+            this.hashCode = 31 * type.hashCode() + key.hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof CacheKey)) {
+                return false;
+            }
+            CacheKey other = (CacheKey) obj;
+            return type == other.type && key.equals(other.key);
+        }
+    }
+
+    /**
+     * An object stored in the cache and its estimated size.
+     */
+    private static class CacheEntry {
+
+        /**
+         * The object stored.
+         */
+        private final Object object;
+        /**
+         * The estimated size of the entry in bytes.
+         */
+        private final long size;
+
+        /**
+         * Constructor.
+         *
+         * @param object the object stored
+         * @param size the estimated size of the entry in bytes
+         */
+        public CacheEntry(Object object, long size) {
+            this.object = object;
+            this.size = size;
+        }
+    }
+
+    /**
+     * A segment of the cache: entries in access order and their estimated
+     * size. Access to a segment must be synchronized on the segment.
+     */
+    private static class Segment extends LinkedHashMap<CacheKey, CacheEntry> {
+
+        /**
+         * The estimated size of the entries of the segment in bytes.
+         */
+        private long size = 0;
+
+        /**
+         * Constructor.
+         */
+        public Segment() {
+            super(16, 0.75f, true);
+        }
+    }
 }
@@ -1,5 +1,6 @@
 package eu.isas.peptideshaker.utils;
 
+import com.compomics.util.exceptions.ExceptionHandler;
 import com.compomics.util.experiment.units.MetricsPrefix;
 import com.compomics.util.experiment.biology.AminoAcidPattern;
 import com.compomics.util.experiment.biology.Enzyme;
@@ -39,9 +40,16 @@ import eu.isas.peptideshaker.scoring.MatchValidationLevel;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.commons.math.MathException;
 import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException;
 
@@ -88,9 +96,10 @@ public class IdentificationFeaturesGenerator {
      */
     private SpectrumCountingPreferences spectrumCountingPreferences;
     /**
-     * Map of the distributions of precursor mass errors.
+     * Map of the distributions of precursor mass errors. Distributions are
+     * set by the validation while other files are being validated.
      */
-    private HashMap<String, NonSymmetricalNormalDistribution> massErrorDistribution = null;
+    private final ConcurrentHashMap<String, NonSymmetricalNormalDistribution> massErrorDistribution = new ConcurrentHashMap<String, NonSymmetricalNormalDistribution>(1);
 
     /**
      * Constructor.
@@ -115,9 +124,6 @@ public class IdentificationFeaturesGenerator {
      * @param precursorMzDeviations list of precursor mass errors
      */
     public void setMassErrorDistribution(String spectrumFile, ArrayList<Double> precursorMzDeviations) {
-        if (massErrorDistribution == null) {
-            massErrorDistribution = new HashMap<String, NonSymmetricalNormalDistribution>(1);
-        }
         NonSymmetricalNormalDistribution distribution = NonSymmetricalNormalDistribution.getRobustNonSymmetricalNormalDistributionFromSortedList(precursorMzDeviations);
         massErrorDistribution.put(spectrumFile, distribution);
     }
@@ -143,10 +149,12 @@ public class IdentificationFeaturesGenerator {
      * occurred while reading an mzML file
      */
     public NonSymmetricalNormalDistribution getMassErrorDistribution(String spectrumFile) throws SQLException, IOException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
-        if (massErrorDistribution == null || massErrorDistribution.get(spectrumFile) == null) {
+        NonSymmetricalNormalDistribution distribution = massErrorDistribution.get(spectrumFile);
+        if (distribution == null) {
             estimateMassErrorDistribution(spectrumFile);
+            distribution = massErrorDistribution.get(spectrumFile);
         }
-        return massErrorDistribution.get(spectrumFile);
+        return distribution;
     }
 
     /**
@@ -240,12 +248,7 @@ public class IdentificationFeaturesGenerator {
      * protein tree or identification)
      */
     public int[] getAACoverage(String proteinMatchKey) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
-        int[] result = (int[]) identificationFeaturesCache.getObject(IdentificationFeaturesCache.ObjectType.AA_coverage, proteinMatchKey);
-        if (result == null) {
-            result = estimateAACoverage(proteinMatchKey);
-            identificationFeaturesCache.addObject(IdentificationFeaturesCache.ObjectType.AA_coverage, proteinMatchKey, result);
-        }
-        return result;
+        return getCompactSequenceCoverage(proteinMatchKey).getAACoverage();
     }
 
     /**
@@ -297,13 +300,12 @@ public class IdentificationFeaturesGenerator {
     }
 
     /**
-     * Estimates the sequence coverage for the given protein match according to
-     * the validation level: validation level &gt; share of the sequence
-     * uniquely covered by this validation level.
+     * Returns the coverage of the sequence of the given protein match. The
+     * coverage is estimated and stored if not already available.
      *
      * @param proteinMatchKey the key of the protein match
      *
-     * @return the sequence coverage
+     * @return the coverage of the sequence of the protein match
      *
      * @throws java.sql.SQLException exception thrown whenever an error occurred
      * while interacting with a database (from the protein tree or
@@ -317,32 +319,125 @@ public class IdentificationFeaturesGenerator {
      * threading error occurred while interacting with a database (from the
      * protein tree or identification)
      */
-    private HashMap<Integer, Double> estimateSequenceCoverage(String proteinMatchKey)
+    public SequenceCoverage getCompactSequenceCoverage(String proteinMatchKey)
             throws SQLException, IOException, ClassNotFoundException, InterruptedException {
-
-        int[] aaCoverage = getAACoverage(proteinMatchKey);
-        HashMap<Integer, Double> result = new HashMap<Integer, Double>();
-        for (int validationLevel : MatchValidationLevel.getValidationLevelIndexes()) {
-            result.put(validationLevel, 0.0);
+        SequenceCoverage result = identificationFeaturesCache.getSequenceCoverages().get(proteinMatchKey);
+        if (result == null) {
+            ProteinMatch proteinMatch = identification.getProteinMatch(proteinMatchKey);
+            result = estimateSequenceCoverage(proteinMatch, new PSParameter());
+            identificationFeaturesCache.getSequenceCoverages().put(proteinMatchKey, result);
         }
-        for (int validationLevel : aaCoverage) {
-            result.put(validationLevel, result.get(validationLevel) + 1);
+        return result;
+    }
+
+    /**
+     * Estimates the coverage of the sequence of the given protein match by all
+     * its peptides. Peptides sharing the same sequence are located only once,
+     * using the best validation level among them.
+     *
+     * @param proteinMatch the protein match
+     * @param psParameter a PSParameter object used to retrieve the validation
+     * level of the peptides
+     *
+     * @return the coverage of the sequence of the protein match
+     *
+     * @throws java.sql.SQLException exception thrown whenever an error occurred
+     * while interacting with a database (from the protein tree or
+     * identification)
+     * @throws java.io.IOException exception thrown whenever an error occurred
+     * while reading or writing a file
+     * @throws java.lang.ClassNotFoundException exception thrown whenever an
+     * error occurred while deserializing an object from a database (from the
+     * protein tree or identification)
+     * @throws java.lang.InterruptedException exception thrown whenever a
+     * threading error occurred while interacting with a database (from the
+     * protein tree or identification)
+     */
+    private SequenceCoverage estimateSequenceCoverage(ProteinMatch proteinMatch, PSParameter psParameter)
+            throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+
+        Protein protein = sequenceFactory.getProtein(proteinMatch.getMainMatch());
+        int length = protein.getSequence().length();
+
+        HashMap<String, Integer> sequenceLevels = new HashMap<String, Integer>(proteinMatch.getPeptideMatchesKeys().size());
+        for (String peptideKey : proteinMatch.getPeptideMatchesKeys()) {
+            psParameter = (PSParameter) identification.getPeptideMatchParameter(peptideKey, psParameter);
+            int validationLevel = psParameter.getMatchValidationLevel().getIndex();
+            String peptideSequence = Peptide.getSequence(peptideKey);
+            Integer sequenceLevel = sequenceLevels.get(peptideSequence);
+            if (sequenceLevel == null || sequenceLevel < validationLevel) {
+                sequenceLevels.put(peptideSequence, validationLevel);
+            }
         }
-        ProteinMatch proteinMatch = identification.getProteinMatch(proteinMatchKey);
-        String sequence = sequenceFactory.getProtein(proteinMatch.getMainMatch()).getSequence();
-        for (int validationLevel : MatchValidationLevel.getValidationLevelIndexes()) {
-            result.put(validationLevel, result.get(validationLevel) / sequence.length());
+
+        int[][] peptideCoverage = new int[MatchValidationLevel.confident.getIndex() + 1][];
+        for (String peptideSequence : sequenceLevels.keySet()) {
+            int validationLevel = sequenceLevels.get(peptideSequence);
+            if (validationLevel >= 0) {
+                int[] levelCoverage = peptideCoverage[validationLevel];
+                if (levelCoverage == null) {
+                    levelCoverage = new int[length + 1];
+                    peptideCoverage[validationLevel] = levelCoverage;
+                }
+                for (int peptideStart : protein.getPeptideStart(peptideSequence, identificationParameters.getSequenceMatchingPreferences())) {
+                    int peptideTempStart = peptideStart - 1;
+                    levelCoverage[peptideTempStart]++;
+                    levelCoverage[Math.min(peptideTempStart + peptideSequence.length(), length)]--;
+                }
+            }
         }
-        return result;
+
+        return SequenceCoverage.getSequenceCoverage(length, peptideCoverage);
     }
 
     /**
-     * Estimates the sequence coverage for the given protein match using the
-     * validated peptides only.
+     * Estimates the sequence coverage of all validated target proteins and
+     * stores it for later use. Previously stored coverages are replaced.
      *
-     * @param proteinMatchKey the key of the protein match
+     * @param nThreads the number of threads to use
+     * @param waitingHandler a waiting handler displaying progress to the user
+     * and allowing canceling the process, can be null
+     * @param exceptionHandler a handler for exceptions
      *
-     * @return the sequence coverage
+     * @throws java.sql.SQLException exception thrown whenever an error occurred
+     * while interacting with a database (from the protein tree or
+     * identification)
+     * @throws java.io.IOException exception thrown whenever an error occurred
+     * while reading or writing a file
+     * @throws java.lang.ClassNotFoundException exception thrown whenever an
+     * error occurred while deserializing an object from a database (from the
+     * protein tree or identification)
+     * @throws java.lang.InterruptedException exception thrown whenever a
+     * threading error occurred while interacting with a database (from the
+     * protein tree or identification)
+     */
+    public void estimateSequenceCoverages(int nThreads, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler)
+            throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+
+        if (waitingHandler != null) {
+            waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+            waitingHandler.resetSecondaryProgressCounter();
+            waitingHandler.setMaxSecondaryProgressCounter(identification.getProteinIdentification().size());
+        }
+
+        PSParameter psParameter = new PSParameter();
+        ArrayList<UrParameter> parameters = new ArrayList<UrParameter>(1);
+        parameters.add(psParameter);
+        ProteinMatchesIterator proteinMatchesIterator = identification.getProteinMatchesIterator(parameters, true, parameters, false, null, waitingHandler);
+
+        estimateSequenceCoverages(proteinMatchesIterator, nThreads, waitingHandler, exceptionHandler);
+    }
+
+    /**
+     * Estimates the sequence coverage of the given proteins if they are
+     * validated target proteins and stores it for later use. Previously stored
+     * coverages are replaced.
+     *
+     * @param proteinKeys the keys of the proteins of interest
+     * @param nThreads the number of threads to use
+     * @param waitingHandler a waiting handler displaying progress to the user
+     * and allowing canceling the process, can be null
+     * @param exceptionHandler a handler for exceptions
      *
      * @throws java.sql.SQLException exception thrown whenever an error occurred
      * while interacting with a database (from the protein tree or
@@ -356,21 +451,67 @@ public class IdentificationFeaturesGenerator {
      * threading error occurred while interacting with a database (from the
      * protein tree or identification)
      */
-    private Double estimateValidatedSequenceCoverage(String proteinMatchKey)
+    public void estimateSequenceCoverages(ArrayList<String> proteinKeys, int nThreads, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler)
             throws SQLException, IOException, ClassNotFoundException, InterruptedException {
 
-        int[] aaCoverage = getAACoverage(proteinMatchKey);
-        double nAAValidated = 0;
-        for (int validationLevel : aaCoverage) {
-            if (validationLevel == MatchValidationLevel.doubtful.getIndex()
-                    || validationLevel == MatchValidationLevel.confident.getIndex()) {
-                nAAValidated++;
+        if (waitingHandler != null) {
+            waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+            waitingHandler.resetSecondaryProgressCounter();
+            waitingHandler.setMaxSecondaryProgressCounter(proteinKeys.size());
+        }
+
+        PSParameter psParameter = new PSParameter();
+        ArrayList<UrParameter> parameters = new ArrayList<UrParameter>(1);
+        parameters.add(psParameter);
+        ProteinMatchesIterator proteinMatchesIterator = identification.getProteinMatchesIterator(proteinKeys, parameters, true, parameters, false, null, waitingHandler);
+
+        estimateSequenceCoverages(proteinMatchesIterator, nThreads, waitingHandler, exceptionHandler);
+    }
+
+    /**
+     * Estimates the sequence coverage of the validated target proteins of the
+     * given iterator and stores it for later use.
+     *
+     * @param proteinMatchesIterator the iterator of the proteins of interest
+     * @param nThreads the number of threads to use
+     * @param waitingHandler a waiting handler displaying progress to the user
+     * and allowing canceling the process, can be null
+     * @param exceptionHandler a handler for exceptions
+     *
+     * @throws java.lang.InterruptedException exception thrown whenever a
+     * threading error occurred
+     */
+    private void estimateSequenceCoverages(ProteinMatchesIterator proteinMatchesIterator, int nThreads, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler)
+            throws InterruptedException {
+
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+        for (int i = 1; i <= nThreads; i++) {
+            SequenceCoverageRunnable runnable = new SequenceCoverageRunnable(proteinMatchesIterator, waitingHandler, exceptionHandler);
+            pool.submit(runnable);
+            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                break;
             }
         }
-        ProteinMatch proteinMatch = identification.getProteinMatch(proteinMatchKey);
-        String sequence = sequenceFactory.getProtein(proteinMatch.getMainMatch()).getSequence();
-        double result = nAAValidated / sequence.length();
-        return result;
+        if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+            pool.shutdownNow();
+            return;
+        }
+        pool.shutdown();
+        if (!pool.awaitTermination(7, TimeUnit.DAYS)) {
+            throw new InterruptedException("Sequence coverage estimation timed out. Please contact the developers.");
+        }
+
+        if (waitingHandler != null) {
+            waitingHandler.setSecondaryProgressCounterIndeterminate(true);
+        }
+    }
+
+    /**
+     * Clears the sequence coverages. To be used whenever the validation level
+     * of the peptides changed.
+     */
+    public void clearSequenceCoverages() {
+        identificationFeaturesCache.getSequenceCoverages().clear();
     }
 
     /**
@@ -503,32 +644,6 @@ public class IdentificationFeaturesGenerator {
         return result;
     }
 
-    /**
-     * Returns amino acid coverage of this protein in an array where the index
-     * of the best validation level of every peptide covering a given amino acid
-     * is given. 0 is the first amino acid.
-     *
-     * @param proteinMatchKey the key of the protein match
-     *
-     * @return the identification coverage of the protein sequence
-     *
-     * @throws java.sql.SQLException exception thrown whenever an error occurred
-     * while interacting with a database (from the protein tree or
-     * identification)
-     * @throws java.io.IOException exception thrown whenever an error occurred
-     * while reading or writing a file
-     * @throws java.lang.ClassNotFoundException exception thrown whenever an
-     * error occurred while deserializing an object from a database (from the
-     * protein tree or identification)
-     * @throws java.lang.InterruptedException exception thrown whenever a
-     * threading error occurred while interacting with a database (from the
-     * protein tree or identification)
-     */
-    private int[] estimateAACoverage(String proteinMatchKey)
-            throws SQLException, IOException, ClassNotFoundException, InterruptedException {
-        return estimateAACoverage(proteinMatchKey, true, true);
-    }
-
     /**
      * Returns an array of the probability to cover the sequence of the given
      * protein. aa index &gt; probability, 0 is the first amino acid
@@ -635,13 +750,7 @@ public class IdentificationFeaturesGenerator {
      * protein tree or identification)
      */
     public Double getValidatedSequenceCoverage(String proteinMatchKey) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
-        Double result = (Double) identificationFeaturesCache.getObject(IdentificationFeaturesCache.ObjectType.sequence_coverage, proteinMatchKey);
-
-        if (result == null) {
-            result = estimateValidatedSequenceCoverage(proteinMatchKey);
-            identificationFeaturesCache.addObject(IdentificationFeaturesCache.ObjectType.sequence_coverage, proteinMatchKey, result);
-        }
-        return result;
+        return getCompactSequenceCoverage(proteinMatchKey).getValidatedSequenceCoverage();
     }
 
     /**
@@ -652,7 +761,7 @@ public class IdentificationFeaturesGenerator {
      * @return true if the sequence coverage is in cache
      */
     public boolean validatedSequenceCoverageInCache(String proteinMatchKey) {
-        return identificationFeaturesCache.getObject(IdentificationFeaturesCache.ObjectType.sequence_validation_coverage, proteinMatchKey) != null;
+        return identificationFeaturesCache.getSequenceCoverages().containsKey(proteinMatchKey);
     }
 
     /**
@@ -675,13 +784,7 @@ public class IdentificationFeaturesGenerator {
      * protein tree or identification)
      */
     public HashMap<Integer, Double> getSequenceCoverage(String proteinMatchKey) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
-        HashMap<Integer, Double> result = (HashMap<Integer, Double>) identificationFeaturesCache.getObject(IdentificationFeaturesCache.ObjectType.sequence_validation_coverage, proteinMatchKey);
-
-        if (result == null) {
-            result = estimateSequenceCoverage(proteinMatchKey);
-            identificationFeaturesCache.addObject(IdentificationFeaturesCache.ObjectType.sequence_validation_coverage, proteinMatchKey, result);
-        }
-        return result;
+        return getCompactSequenceCoverage(proteinMatchKey).getSequenceCoverage();
     }
 
     /**
@@ -692,7 +795,7 @@ public class IdentificationFeaturesGenerator {
      * @return true if the sequence coverage is in cache
      */
     public boolean sequenceCoverageInCache(String proteinMatchKey) {
-        return identificationFeaturesCache.getObject(IdentificationFeaturesCache.ObjectType.sequence_validation_coverage, proteinMatchKey) != null;
+        return identificationFeaturesCache.getSequenceCoverages().containsKey(proteinMatchKey);
     }
 
     /**
@@ -801,8 +904,9 @@ public class IdentificationFeaturesGenerator {
      */
     public void updateSequenceCoverage(String proteinMatchKey)
             throws SQLException, IOException, ClassNotFoundException, InterruptedException {
-        HashMap<Integer, Double> result = estimateSequenceCoverage(proteinMatchKey);
-        identificationFeaturesCache.addObject(IdentificationFeaturesCache.ObjectType.sequence_validation_coverage, proteinMatchKey, result);
+        ProteinMatch proteinMatch = identification.getProteinMatch(proteinMatchKey);
+        SequenceCoverage result = estimateSequenceCoverage(proteinMatch, new PSParameter());
+        identificationFeaturesCache.getSequenceCoverages().put(proteinMatchKey, result);
     }
 
     /**
@@ -1001,41 +1105,124 @@ public class IdentificationFeaturesGenerator {
     public Double getSpectrumCounting(String proteinMatchKey, SpectrumCountingPreferences.SpectralCountingMethod method)
             throws IOException, SQLException, ClassNotFoundException, InterruptedException {
 
-        if (method == spectrumCountingPreferences.getSelectedMethod()) {
-            Double result = (Double) identificationFeaturesCache.getObject(IdentificationFeaturesCache.ObjectType.spectrum_counting, proteinMatchKey);
+        ConcurrentHashMap<String, Double> methodSpectrumCountings = identificationFeaturesCache.getSpectrumCountings(method);
+        Double result = methodSpectrumCountings.get(proteinMatchKey);
 
-            if (result == null) {
-                result = estimateSpectrumCounting(proteinMatchKey);
-                identificationFeaturesCache.addObject(IdentificationFeaturesCache.ObjectType.spectrum_counting, proteinMatchKey, result);
-            }
-            return result;
-        } else {
-            SpectrumCountingPreferences tempPreferences = new SpectrumCountingPreferences();
-            tempPreferences.setSelectedMethod(method);
-            return estimateSpectrumCounting(identification, sequenceFactory, proteinMatchKey, tempPreferences,
+        if (result == null) {
+            result = estimateSpectrumCounting(identification, sequenceFactory, proteinMatchKey, getSpectrumCountingPreferences(method),
                     identificationParameters.getPeptideAssumptionFilter().getMaxPepLength(), identificationParameters);
+            methodSpectrumCountings.put(proteinMatchKey, result);
         }
+        return result;
     }
 
     /**
-     * Indicates whether the default spectrum counting value is in cache for a
-     * protein match.
+     * Returns the spectrum counting preferences to use for the given method:
+     * the preferences of the identification features generator for the
+     * selected method, the default preferences otherwise.
      *
-     * @param proteinMatchKey the key of the protein match of interest
+     * @param method the spectrum counting method
      *
-     * @return true if the data is cached
+     * @return the spectrum counting preferences to use
      */
-    public boolean spectrumCountingInCache(String proteinMatchKey) {
-        Double result = (Double) identificationFeaturesCache.getObject(IdentificationFeaturesCache.ObjectType.spectrum_counting, proteinMatchKey);
-        return result != null;
+    private SpectrumCountingPreferences getSpectrumCountingPreferences(SpectralCountingMethod method) {
+        if (method == spectrumCountingPreferences.getSelectedMethod()) {
+            return spectrumCountingPreferences;
+        }
+        SpectrumCountingPreferences tempPreferences = new SpectrumCountingPreferences();
+        tempPreferences.setSelectedMethod(method);
+        return tempPreferences;
+    }
+
+    /**
+     * Estimates the spectrum counting indexes of all proteins using every
+     * spectrum counting method and stores them for later use. The number of
+     * occurrences of every peptide in the protein matches is indexed once for
+     * all proteins.
+     *
+     * @param nThreads the number of threads to use
+     * @param waitingHandler a waiting handler allowing canceling the process,
+     * can be null
+     * @param exceptionHandler a handler for exceptions
+     *
+     * @throws java.sql.SQLException exception thrown whenever an error occurred
+     * while interacting with a database (from the protein tree or
+     * identification)
+     * @throws java.io.IOException exception thrown whenever an error occurred
+     * while reading or writing a file
+     * @throws java.lang.ClassNotFoundException exception thrown whenever an
+     * error occurred while deserializing an object from a database (from the
+     * protein tree or identification)
+     * @throws java.lang.InterruptedException exception thrown whenever a
+     * threading error occurred while interacting with a database (from the
+     * protein tree or identification)
+     */
+    public void estimateSpectrumCountings(int nThreads, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler)
+            throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+
+        // index the number of occurrences of the peptides in the protein matches
+        ConcurrentHashMap<String, AtomicInteger> peptideOccurrences = new ConcurrentHashMap<String, AtomicInteger>(identification.getPeptideIdentification().size());
+        ProteinMatchesIterator proteinMatchesIterator = identification.getProteinMatchesIterator(null, false, null, false, null, waitingHandler);
+
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+        for (int i = 1; i <= nThreads; i++) {
+            PeptideOccurrenceRunnable runnable = new PeptideOccurrenceRunnable(proteinMatchesIterator, peptideOccurrences, waitingHandler, exceptionHandler);
+            pool.submit(runnable);
+            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                break;
+            }
+        }
+        if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+            pool.shutdownNow();
+            return;
+        }
+        pool.shutdown();
+        if (!pool.awaitTermination(7, TimeUnit.DAYS)) {
+            throw new InterruptedException("Peptide occurrence indexing timed out. Please contact the developers.");
+        }
+        if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+            return;
+        }
+
+        // estimate the spectrum counting indexes
+        PSParameter psParameter = new PSParameter();
+        ArrayList<UrParameter> parameters = new ArrayList<UrParameter>(1);
+        parameters.add(psParameter);
+        proteinMatchesIterator = identification.getProteinMatchesIterator(null, true, parameters, false, null, waitingHandler);
+        ConcurrentHashMap<String, Integer> nSpectra = new ConcurrentHashMap<String, Integer>(peptideOccurrences.size());
+
+        pool = Executors.newFixedThreadPool(nThreads);
+        for (int i = 1; i <= nThreads; i++) {
+            SpectrumCountingRunnable runnable = new SpectrumCountingRunnable(proteinMatchesIterator, peptideOccurrences, nSpectra, waitingHandler, exceptionHandler);
+            pool.submit(runnable);
+            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                break;
+            }
+        }
+        if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+            pool.shutdownNow();
+            return;
+        }
+        pool.shutdown();
+        if (!pool.awaitTermination(7, TimeUnit.DAYS)) {
+            throw new InterruptedException("Spectrum counting timed out. Please contact the developers.");
+        }
     }
 
     /**
-     * Returns the spectrum counting score based on the user's settings.
+     * Estimates the NSAF of a protein match using the indexed number of
+     * occurrences of its peptides.
      *
-     * @param proteinMatch the inspected protein match
+     * @param proteinMatch the protein match
+     * @param spectrumCountingPreferences the spectrum counting preferences
+     * @param peptideOccurrences the number of occurrences of the peptides in
+     * the protein matches
+     * @param nSpectra the number of spectra above the spectrum counting
+     * validation level of the peptides already inspected
+     * @param psParameter a PSParameter object used to retrieve the validation
+     * level of the matches
      *
-     * @return the spectrum counting score
+     * @return the NSAF of the protein match
      *
      * @throws java.sql.SQLException exception thrown whenever an error occurred
      * while interacting with a database (from the protein tree or
@@ -1049,10 +1236,51 @@ public class IdentificationFeaturesGenerator {
      * threading error occurred while interacting with a database (from the
      * protein tree or identification)
      */
-    private double estimateSpectrumCounting(String proteinMatchKey) throws IOException, SQLException, ClassNotFoundException, InterruptedException {
-        return estimateSpectrumCounting(identification, sequenceFactory, proteinMatchKey,
-                spectrumCountingPreferences,
-                identificationParameters.getPeptideAssumptionFilter().getMaxPepLength(), identificationParameters);
+    private double estimateNsaf(ProteinMatch proteinMatch, SpectrumCountingPreferences spectrumCountingPreferences, ConcurrentHashMap<String, AtomicInteger> peptideOccurrences,
+            ConcurrentHashMap<String, Integer> nSpectra, PSParameter psParameter)
+            throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+
+        double result = 0;
+
+        for (String peptideKey : proteinMatch.getPeptideMatchesKeys()) {
+            psParameter = (PSParameter) identification.getPeptideMatchParameter(peptideKey, psParameter);
+            if (psParameter.getMatchValidationLevel().getIndex() >= spectrumCountingPreferences.getMatchValidationLevel()) {
+                Integer peptideSpectra = nSpectra.get(peptideKey);
+                if (peptideSpectra == null) {
+                    PeptideMatch peptideMatch = identification.getPeptideMatch(peptideKey);
+                    peptideSpectra = 0;
+                    identification.loadSpectrumMatchParameters(peptideMatch.getSpectrumMatchesKeys(), psParameter, null, false);
+                    for (String spectrumMatchKey : peptideMatch.getSpectrumMatchesKeys()) {
+                        psParameter = (PSParameter) identification.getSpectrumMatchParameter(spectrumMatchKey, psParameter);
+                        if (psParameter.getMatchValidationLevel().getIndex() >= spectrumCountingPreferences.getMatchValidationLevel()) {
+                            peptideSpectra++;
+                        }
+                    }
+                    nSpectra.put(peptideKey, peptideSpectra);
+                }
+                if (peptideSpectra > 0) {
+                    AtomicInteger peptideOccurrence = peptideOccurrences.get(peptideKey);
+                    double occurrence = peptideOccurrence == null ? 0 : peptideOccurrence.get();
+                    result += peptideSpectra / occurrence;
+                }
+            }
+        }
+
+        Protein currentProtein = sequenceFactory.getProtein(proteinMatch.getMainMatch());
+        return normalizeNsaf(result, currentProtein, identificationParameters.getSearchParameters().getDigestionPreferences(),
+                identificationParameters.getPeptideAssumptionFilter().getMaxPepLength());
+    }
+
+    /**
+     * Indicates whether the default spectrum counting value is in cache for a
+     * protein match.
+     *
+     * @param proteinMatchKey the key of the protein match of interest
+     *
+     * @return true if the data is cached
+     */
+    public boolean spectrumCountingInCache(String proteinMatchKey) {
+        return identificationFeaturesCache.getSpectrumCountings(spectrumCountingPreferences.getSelectedMethod()).containsKey(proteinMatchKey);
     }
 
     /**
@@ -1092,7 +1320,6 @@ public class IdentificationFeaturesGenerator {
 
             // NSAF
             double result = 0;
-            int peptideOccurrence = 0;
 
             PSParameter psParameter = new PSParameter();
             ArrayList<UrParameter> parameters = new ArrayList<UrParameter>(1);
@@ -1107,6 +1334,7 @@ public class IdentificationFeaturesGenerator {
                 if (psParameter.getMatchValidationLevel().getIndex() >= spectrumCountingPreferences.getMatchValidationLevel()) {
                     String peptideSequence = Peptide.getSequence(peptideKey);
                     ArrayList<String> possibleProteinMatches = new ArrayList<String>();
+                    int peptideOccurrence = 0;
 
                     for (String protein : peptideMatch.getTheoreticPeptide().getParentProteins(sequenceMatchingPreferences)) {
                         if (identification.getProteinMap().get(protein) != null) {
@@ -1147,46 +1375,95 @@ public class IdentificationFeaturesGenerator {
             }
 
             Protein currentProtein = sequenceFactory.getProtein(proteinMatch.getMainMatch());
+            return normalizeNsaf(result, currentProtein, digestionPreferences, maxPepLength);
 
-            if (digestionPreferences.getCleavagePreference() == DigestionPreferences.CleavagePreference.enzyme) {
-                result /= currentProtein.getObservableLength(digestionPreferences.getEnzymes(), maxPepLength);
-            } else {
-                result /= currentProtein.getLength();
-            }
+        } else {
 
-            if (new Double(result).isInfinite() || new Double(result).isNaN()) {
-                result = 0.0;
-            }
+            // emPAI
+            return estimateEmpai(identification, sequenceFactory, proteinMatch, spectrumCountingPreferences, digestionPreferences, new PSParameter());
+        }
+    }
 
-            return result;
+    /**
+     * Normalizes the sum of the spectrum counting ratios of a protein by its
+     * observable length to obtain its NSAF.
+     *
+     * @param spectrumCounting the sum of the spectrum counting ratios of the
+     * peptides of the protein
+     * @param protein the main protein of the match
+     * @param digestionPreferences the digestion preferences
+     * @param maxPepLength the maximal length accepted for a peptide
+     *
+     * @return the NSAF of the protein, 0 if not finite
+     */
+    private static double normalizeNsaf(double spectrumCounting, Protein protein, DigestionPreferences digestionPreferences, int maxPepLength) {
+
+        double result = spectrumCounting;
+
+        if (digestionPreferences.getCleavagePreference() == DigestionPreferences.CleavagePreference.enzyme) {
+            result /= protein.getObservableLength(digestionPreferences.getEnzymes(), maxPepLength);
         } else {
+            result /= protein.getLength();
+        }
 
-            // emPAI
-            double result = 0;
+        if (new Double(result).isInfinite() || new Double(result).isNaN()) {
+            result = 0.0;
+        }
 
-            PSParameter psParameter = new PSParameter();
+        return result;
+    }
 
-            identification.loadPeptideMatchParameters(proteinMatch.getPeptideMatchesKeys(), psParameter, null, false);
-            for (String peptideKey : proteinMatch.getPeptideMatchesKeys()) {
-                psParameter = (PSParameter) identification.getPeptideMatchParameter(peptideKey, psParameter);
-                if (psParameter.getMatchValidationLevel().getIndex() >= spectrumCountingPreferences.getMatchValidationLevel()) {
-                    result++;
-                }
-            }
+    /**
+     * Returns the emPAI of a protein match.
+     *
+     * @param identification the identification
+     * @param sequenceFactory the sequence factory
+     * @param proteinMatch the protein match
+     * @param spectrumCountingPreferences the spectrum counting preferences
+     * @param digestionPreferences the digestion preferences
+     * @param psParameter a PSParameter object used to retrieve the validation
+     * level of the peptides
+     *
+     * @return the emPAI of the protein match, 0 if not finite
+     *
+     * @throws java.sql.SQLException exception thrown whenever an error occurred
+     * while interacting with a database (from the protein tree or
+     * identification)
+     * @throws java.io.IOException exception thrown whenever an error occurred
+     * while reading or writing a file
+     * @throws java.lang.ClassNotFoundException exception thrown whenever an
+     * error occurred while deserializing an object from a database (from the
+     * protein tree or identification)
+     * @throws java.lang.InterruptedException exception thrown whenever a
+     * threading error occurred while interacting with a database (from the
+     * protein tree or identification)
+     */
+    private static double estimateEmpai(Identification identification, SequenceFactory sequenceFactory, ProteinMatch proteinMatch,
+            SpectrumCountingPreferences spectrumCountingPreferences, DigestionPreferences digestionPreferences, PSParameter psParameter)
+            throws IOException, SQLException, ClassNotFoundException, InterruptedException {
 
-            Protein currentProtein = sequenceFactory.getProtein(proteinMatch.getMainMatch());
-            if (digestionPreferences.getCleavagePreference() == DigestionPreferences.CleavagePreference.enzyme) {
-                result = Math.pow(10, result / (currentProtein.getNCleavageSites(digestionPreferences.getEnzymes()) + 1)) - 1;
-            } else {
-                result = Math.pow(10, result) - 1;
-            }
+        double result = 0;
 
-            if (new Double(result).isInfinite() || new Double(result).isNaN()) {
-                result = 0.0;
+        identification.loadPeptideMatchParameters(proteinMatch.getPeptideMatchesKeys(), psParameter, null, false);
+        for (String peptideKey : proteinMatch.getPeptideMatchesKeys()) {
+            psParameter = (PSParameter) identification.getPeptideMatchParameter(peptideKey, psParameter);
+            if (psParameter.getMatchValidationLevel().getIndex() >= spectrumCountingPreferences.getMatchValidationLevel()) {
+                result++;
             }
+        }
 
-            return result;
+        Protein currentProtein = sequenceFactory.getProtein(proteinMatch.getMainMatch());
+        if (digestionPreferences.getCleavagePreference() == DigestionPreferences.CleavagePreference.enzyme) {
+            result = Math.pow(10, result / (currentProtein.getNCleavageSites(digestionPreferences.getEnzymes()) + 1)) - 1;
+        } else {
+            result = Math.pow(10, result) - 1;
         }
+
+        if (new Double(result).isInfinite() || new Double(result).isNaN()) {
+            result = 0.0;
+        }
+
+        return result;
     }
 
     /**
@@ -2371,7 +2648,26 @@ public class IdentificationFeaturesGenerator {
      * Clears the spectrum counting data in cache.
      */
     public void clearSpectrumCounting() {
-        identificationFeaturesCache.removeObjects(IdentificationFeaturesCache.ObjectType.spectrum_counting);
+        identificationFeaturesCache.clearSpectrumCountings();
+    }
+
+    /**
+     * Clears the features depending on the validation of the matches. To be
+     * used whenever the validation of the matches changed.
+     */
+    public void clearValidationDependentFeatures() {
+        identificationFeaturesCache.clearValidationDependentObjects();
+    }
+
+    /**
+     * Clears the features depending on the validation of the matches after
+     * the validation of some matches changed. The sequence coverage is cleared
+     * for the given proteins only, the spectrum counting indexes are kept.
+     *
+     * @param proteinKeys the keys of the proteins whose coverage changed
+     */
+    public void clearValidationDependentFeatures(Collection<String> proteinKeys) {
+        identificationFeaturesCache.clearValidationDependentObjects(proteinKeys);
     }
 
     /**
@@ -2827,7 +3123,8 @@ public class IdentificationFeaturesGenerator {
     }
 
     /**
-     * Returns the sorted list of protein keys.
+     * Returns the sorted list of protein keys. The sort keys of the proteins
+     * are computed using as many threads as available processors.
      *
      * @param filterPreferences the filtering preferences used. can be null
      * @param waitingHandler the waiting handler, can be null
@@ -2848,6 +3145,36 @@ public class IdentificationFeaturesGenerator {
      */
     public ArrayList<String> getProcessedProteinKeys(WaitingHandler waitingHandler, FilterPreferences filterPreferences)
             throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+        return getProcessedProteinKeys(waitingHandler, filterPreferences, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Returns the sorted list of protein keys. The proteins are sorted by
+     * protein score, then by decreasing number of peptides, then by decreasing
+     * number of spectra, and then by key. The protein matches are loaded in
+     * batches from the database and their sort keys are computed and sorted
+     * concurrently before being merged.
+     *
+     * @param filterPreferences the filtering preferences used. can be null
+     * @param waitingHandler the waiting handler, can be null
+     * @param nThreads the number of threads to use
+     *
+     * @return the sorted list of protein keys
+     *
+     * @throws java.sql.SQLException exception thrown whenever an error occurred
+     * while interacting with a database (from the protein tree or
+     * identification)
+     * @throws java.io.IOException exception thrown whenever an error occurred
+     * while reading or writing a file
+     * @throws java.lang.ClassNotFoundException exception thrown whenever an
+     * error occurred while deserializing an object from a database (from the
+     * protein tree or identification)
+     * @throws java.lang.InterruptedException exception thrown whenever a
+     * threading error occurred while interacting with a database (from the
+     * protein tree or identification)
+     */
+    public ArrayList<String> getProcessedProteinKeys(WaitingHandler waitingHandler, FilterPreferences filterPreferences, int nThreads)
+            throws SQLException, IOException, ClassNotFoundException, InterruptedException {
 
         if (identificationFeaturesCache.getProteinList() == null) {
             if (waitingHandler != null) {
@@ -2864,93 +3191,42 @@ public class IdentificationFeaturesGenerator {
                     || metrics.getMaxMW() == null
                     || metrics.getMaxMW() <= 0;
 
-            // sort the proteins according to the protein score, then number of peptides (inverted), then number of spectra (inverted).
-            HashMap<Double, HashMap<Integer, HashMap<Integer, ArrayList<String>>>> orderMap
-                    = new HashMap<Double, HashMap<Integer, HashMap<Integer, ArrayList<String>>>>();
-            ArrayList<Double> scores = new ArrayList<Double>();
-            PSParameter probabilities = new PSParameter();
-            int maxPeptides = 0, maxSpectra = 0;
-            double maxSpectrumCounting = 0, maxMW = 0;
-            int nValidatedProteins = 0;
-            int nConfidentProteins = 0;
-
             PSParameter psParameter = new PSParameter();
             ArrayList<UrParameter> parameters = new ArrayList<UrParameter>(1);
             parameters.add(psParameter);
             ProteinMatchesIterator proteinMatchesIterator = identification.getProteinMatchesIterator(parameters, true, parameters, true, parameters, waitingHandler);
 
-            while (proteinMatchesIterator.hasNext()) {
-
-                ProteinMatch proteinMatch = proteinMatchesIterator.next();
-                String proteinKey = proteinMatch.getKey();
-
-                if (!ProteinMatch.isDecoy(proteinKey)) {
-                    probabilities = (PSParameter) identification.getProteinMatchParameter(proteinKey, probabilities);
-                    if (!probabilities.isHidden()) {
-                        double score = probabilities.getProteinProbabilityScore();
-                        int nPeptides = -proteinMatch.getPeptideMatchesKeys().size();
-                        int nSpectra = -getNSpectra(proteinKey);
-
-                        if (needMaxValues) {
-
-                            if (-nPeptides > maxPeptides) {
-                                maxPeptides = -nPeptides;
-                            }
-
-                            if (-nSpectra > maxSpectra) {
-                                maxSpectra = -nSpectra;
-                            }
-
-                            double tempSpectrumCounting = getNormalizedSpectrumCounting(proteinKey);
-
-                            if (tempSpectrumCounting > maxSpectrumCounting) {
-                                maxSpectrumCounting = tempSpectrumCounting;
-                            }
-
-                            Protein currentProtein = sequenceFactory.getProtein(proteinMatch.getMainMatch());
-
-                            if (currentProtein != null) {
-                                double mw = sequenceFactory.computeMolecularWeight(proteinMatch.getMainMatch());
-                                if (mw > maxMW) {
-                                    maxMW = mw;
-                                }
-                            }
-
-                            if (probabilities.getMatchValidationLevel().isValidated()) {
-                                nValidatedProteins++;
-                                if (probabilities.getMatchValidationLevel() == MatchValidationLevel.confident) {
-                                    nConfidentProteins++;
-                                }
-                            }
-                        }
-
-                        if (!orderMap.containsKey(score)) {
-                            orderMap.put(score, new HashMap<Integer, HashMap<Integer, ArrayList<String>>>());
-                            scores.add(score);
-                        }
-
-                        if (!orderMap.get(score).containsKey(nPeptides)) {
-                            orderMap.get(score).put(nPeptides, new HashMap<Integer, ArrayList<String>>());
-                        }
-
-                        if (!orderMap.get(score).get(nPeptides).containsKey(nSpectra)) {
-                            orderMap.get(score).get(nPeptides).put(nSpectra, new ArrayList<String>());
-                        }
-
-                        orderMap.get(score).get(nPeptides).get(nSpectra).add(proteinKey);
-                    }
-                }
-
-                if (waitingHandler != null) {
-                    waitingHandler.increaseSecondaryProgressCounter();
-
-                    if (waitingHandler.isRunCanceled()) {
-                        return null;
-                    }
-                }
+            ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+            ArrayList<ProteinSortKeyRunnable> runnables = new ArrayList<ProteinSortKeyRunnable>(nThreads);
+            for (int i = 1; i <= nThreads; i++) {
+                ProteinSortKeyRunnable runnable = new ProteinSortKeyRunnable(proteinMatchesIterator, needMaxValues, waitingHandler);
+                pool.submit(runnable);
+                runnables.add(runnable);
+            }
+            pool.shutdown();
+            if (!pool.awaitTermination(7, TimeUnit.DAYS)) {
+                throw new InterruptedException("Protein sorting timed out. Please contact the developers.");
+            }
+            for (ProteinSortKeyRunnable runnable : runnables) {
+                runnable.throwException();
+            }
+            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                return null;
             }
 
             if (needMaxValues) {
+                int maxPeptides = 0, maxSpectra = 0;
+                double maxSpectrumCounting = 0, maxMW = 0;
+                int nValidatedProteins = 0;
+                int nConfidentProteins = 0;
+                for (ProteinSortKeyRunnable runnable : runnables) {
+                    maxPeptides = Math.max(maxPeptides, runnable.maxPeptides);
+                    maxSpectra = Math.max(maxSpectra, runnable.maxSpectra);
+                    maxSpectrumCounting = Math.max(maxSpectrumCounting, runnable.maxSpectrumCounting);
+                    maxMW = Math.max(maxMW, runnable.maxMW);
+                    nValidatedProteins += runnable.nValidatedProteins;
+                    nConfidentProteins += runnable.nConfidentProteins;
+                }
                 metrics.setMaxNPeptides(maxPeptides);
                 metrics.setMaxNSpectra(maxSpectra);
                 metrics.setMaxSpectrumCounting(maxSpectrumCounting);
@@ -2959,40 +3235,35 @@ public class IdentificationFeaturesGenerator {
                 metrics.setnConfidentProteins(nConfidentProteins);
             }
 
-            ArrayList<String> proteinList = new ArrayList<String>();
-
-            ArrayList<Double> scoreList = new ArrayList<Double>(orderMap.keySet());
-            Collections.sort(scoreList);
-
             if (waitingHandler != null) {
-                waitingHandler.resetSecondaryProgressCounter();
                 waitingHandler.setWaitingText("Updating Protein Table. Please Wait...");
-                waitingHandler.setMaxSecondaryProgressCounter(identification.getProteinIdentification().size());
             }
 
-            for (double currentScore : scoreList) {
-
-                ArrayList<Integer> nPeptideList = new ArrayList<Integer>(orderMap.get(currentScore).keySet());
-                Collections.sort(nPeptideList);
-
-                for (int currentNPeptides : nPeptideList) {
-
-                    ArrayList<Integer> nPsmList = new ArrayList<Integer>(orderMap.get(currentScore).get(currentNPeptides).keySet());
-                    Collections.sort(nPsmList);
-
-                    for (int currentNPsms : nPsmList) {
-                        ArrayList<String> tempList = orderMap.get(currentScore).get(currentNPeptides).get(currentNPsms);
-                        Collections.sort(tempList);
-                        proteinList.addAll(tempList);
-                        if (waitingHandler != null) {
-                            waitingHandler.setMaxSecondaryProgressCounter(tempList.size());
-
-                            if (waitingHandler.isRunCanceled()) {
-                                return null;
-                            }
+            // merge the keys sorted by every thread
+            ArrayList<ProteinSortKey[]> sortedKeys = new ArrayList<ProteinSortKey[]>(runnables.size());
+            int nProteins = 0;
+            for (ProteinSortKeyRunnable runnable : runnables) {
+                ProteinSortKey[] threadKeys = runnable.getSortedKeys();
+                sortedKeys.add(threadKeys);
+                nProteins += threadKeys.length;
+            }
+            ArrayList<String> proteinList = new ArrayList<String>(nProteins);
+            int[] indexes = new int[sortedKeys.size()];
+            for (int i = 0; i < nProteins; i++) {
+                int bestThread = -1;
+                ProteinSortKey bestKey = null;
+                for (int j = 0; j < indexes.length; j++) {
+                    ProteinSortKey[] threadKeys = sortedKeys.get(j);
+                    if (indexes[j] < threadKeys.length) {
+                        ProteinSortKey threadKey = threadKeys[indexes[j]];
+                        if (bestKey == null || threadKey.compareTo(bestKey) < 0) {
+                            bestKey = threadKey;
+                            bestThread = j;
                         }
                     }
                 }
+                proteinList.add(bestKey.proteinKey);
+                indexes[bestThread]++;
             }
 
             identificationFeaturesCache.setProteinList(proteinList);
@@ -3330,6 +3601,7 @@ public class IdentificationFeaturesGenerator {
      */
     public void setSpectrumCountingPreferences(SpectrumCountingPreferences spectrumCountingPreferences) {
         this.spectrumCountingPreferences = spectrumCountingPreferences;
+        clearSpectrumCounting();
     }
 
     /**
@@ -3383,4 +3655,475 @@ public class IdentificationFeaturesGenerator {
         }
         return nValidated;
     }
+
+    /**
+     * Runnable estimating the sequence coverage of the validated target
+     * proteins.
+     *
+     * @author Marc Vaudel
+     */
+    private class SequenceCoverageRunnable implements Runnable {
+
+        /**
+         * An iterator for the protein matches.
+         */
+        private final ProteinMatchesIterator proteinMatchesIterator;
+        /**
+         * The waiting handler.
+         */
+        private final WaitingHandler waitingHandler;
+        /**
+         * Handler for the exceptions.
+         */
+        private final ExceptionHandler exceptionHandler;
+
+        /**
+         * Constructor.
+         *
+         * @param proteinMatchesIterator a protein matches iterator
+         * @param waitingHandler a waiting handler to display progress and
+         * allow canceling the process
+         * @param exceptionHandler handler for exceptions
+         */
+        public SequenceCoverageRunnable(ProteinMatchesIterator proteinMatchesIterator, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler) {
+            this.proteinMatchesIterator = proteinMatchesIterator;
+            this.waitingHandler = waitingHandler;
+            this.exceptionHandler = exceptionHandler;
+        }
+
+        @Override
+        public void run() {
+            try {
+                PSParameter psParameter = new PSParameter();
+                while (proteinMatchesIterator.hasNext() && (waitingHandler == null || !waitingHandler.isRunCanceled())) {
+                    ProteinMatch proteinMatch = proteinMatchesIterator.next();
+                    if (proteinMatch != null) {
+                        String proteinKey = proteinMatch.getKey();
+                        psParameter = (PSParameter) identification.getProteinMatchParameter(proteinKey, psParameter);
+                        if (!proteinMatch.isDecoy() && psParameter.getMatchValidationLevel().isValidated()) {
+                            SequenceCoverage sequenceCoverage = estimateSequenceCoverage(proteinMatch, psParameter);
+                            identificationFeaturesCache.getSequenceCoverages().put(proteinKey, sequenceCoverage);
+                        }
+                    }
+                    if (waitingHandler != null) {
+                        waitingHandler.increaseSecondaryProgressCounter();
+                    }
+                }
+            } catch (Throwable t) {
+                // errors are caught as well, otherwise the coverage of the remaining proteins would silently be missing
+                if (waitingHandler == null || !waitingHandler.isRunCanceled()) {
+                    exceptionHandler.catchException(t instanceof Exception ? (Exception) t : new Exception(t));
+                    if (waitingHandler != null) {
+                        waitingHandler.setRunCanceled();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Runnable counting the occurrences of the peptides in the main proteins
+     * of the protein matches.
+     *
+     * @author Marc Vaudel
+     */
+    private class PeptideOccurrenceRunnable implements Runnable {
+
+        /**
+         * An iterator for the protein matches.
+         */
+        private final ProteinMatchesIterator proteinMatchesIterator;
+        /**
+         * The number of occurrences of the peptides in the protein matches.
+         */
+        private final ConcurrentHashMap<String, AtomicInteger> peptideOccurrences;
+        /**
+         * The waiting handler.
+         */
+        private final WaitingHandler waitingHandler;
+        /**
+         * Handler for the exceptions.
+         */
+        private final ExceptionHandler exceptionHandler;
+
+        /**
+         * Constructor.
+         *
+         * @param proteinMatchesIterator a protein matches iterator
+         * @param peptideOccurrences the map where to count the occurrences of
+         * the peptides
+         * @param waitingHandler a waiting handler allowing canceling the
+         * process
+         * @param exceptionHandler handler for exceptions
+         */
+        public PeptideOccurrenceRunnable(ProteinMatchesIterator proteinMatchesIterator, ConcurrentHashMap<String, AtomicInteger> peptideOccurrences,
+                WaitingHandler waitingHandler, ExceptionHandler exceptionHandler) {
+            this.proteinMatchesIterator = proteinMatchesIterator;
+            this.peptideOccurrences = peptideOccurrences;
+            this.waitingHandler = waitingHandler;
+            this.exceptionHandler = exceptionHandler;
+        }
+
+        @Override
+        public void run() {
+            try {
+                SequenceMatchingPreferences sequenceMatchingPreferences = identificationParameters.getSequenceMatchingPreferences();
+                while (proteinMatchesIterator.hasNext() && (waitingHandler == null || !waitingHandler.isRunCanceled())) {
+                    ProteinMatch proteinMatch = proteinMatchesIterator.next();
+                    if (proteinMatch != null) {
+                        Protein protein = sequenceFactory.getProtein(proteinMatch.getMainMatch());
+                        HashMap<String, Integer> sequenceOccurrences = new HashMap<String, Integer>(proteinMatch.getPeptideMatchesKeys().size());
+                        for (String peptideKey : proteinMatch.getPeptideMatchesKeys()) {
+                            String peptideSequence = Peptide.getSequence(peptideKey);
+                            Integer occurrence = sequenceOccurrences.get(peptideSequence);
+                            if (occurrence == null) {
+                                occurrence = protein.getPeptideStart(peptideSequence, sequenceMatchingPreferences).size();
+                                sequenceOccurrences.put(peptideSequence, occurrence);
+                            }
+                            AtomicInteger peptideOccurrence = peptideOccurrences.get(peptideKey);
+                            if (peptideOccurrence == null) {
+                                peptideOccurrence = new AtomicInteger();
+                                AtomicInteger previousOccurrence = peptideOccurrences.putIfAbsent(peptideKey, peptideOccurrence);
+                                if (previousOccurrence != null) {
+                                    peptideOccurrence = previousOccurrence;
+                                }
+                            }
+                            peptideOccurrence.addAndGet(occurrence);
+                        }
+                    }
+                }
+            } catch (Exception e) {
+                if (waitingHandler == null || !waitingHandler.isRunCanceled()) {
+                    exceptionHandler.catchException(e);
+                    if (waitingHandler != null) {
+                        waitingHandler.setRunCanceled();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Runnable estimating the spectrum counting indexes of the protein matches
+     * using every spectrum counting method.
+     *
+     * @author Marc Vaudel
+     */
+    private class SpectrumCountingRunnable implements Runnable {
+
+        /**
+         * An iterator for the protein matches.
+         */
+        private final ProteinMatchesIterator proteinMatchesIterator;
+        /**
+         * The number of occurrences of the peptides in the protein matches.
+         */
+        private final ConcurrentHashMap<String, AtomicInteger> peptideOccurrences;
+        /**
+         * The number of spectra above the spectrum counting validation level
+         * of the peptides.
+         */
+        private final ConcurrentHashMap<String, Integer> nSpectra;
+        /**
+         * The waiting handler.
+         */
+        private final WaitingHandler waitingHandler;
+        /**
+         * Handler for the exceptions.
+         */
+        private final ExceptionHandler exceptionHandler;
+
+        /**
+         * Constructor.
+         *
+         * @param proteinMatchesIterator a protein matches iterator
+         * @param peptideOccurrences the number of occurrences of the peptides
+         * in the protein matches
+         * @param nSpectra the number of spectra above the spectrum counting
+         * validation level of the peptides already inspected
+         * @param waitingHandler a waiting handler allowing canceling the
+         * process
+         * @param exceptionHandler handler for exceptions
+         */
+        public SpectrumCountingRunnable(ProteinMatchesIterator proteinMatchesIterator, ConcurrentHashMap<String, AtomicInteger> peptideOccurrences,
+                ConcurrentHashMap<String, Integer> nSpectra, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler) {
+            this.proteinMatchesIterator = proteinMatchesIterator;
+            this.peptideOccurrences = peptideOccurrences;
+            this.nSpectra = nSpectra;
+            this.waitingHandler = waitingHandler;
+            this.exceptionHandler = exceptionHandler;
+        }
+
+        @Override
+        public void run() {
+            try {
+                PSParameter psParameter = new PSParameter();
+                DigestionPreferences digestionPreferences = identificationParameters.getSearchParameters().getDigestionPreferences();
+                while (proteinMatchesIterator.hasNext() && (waitingHandler == null || !waitingHandler.isRunCanceled())) {
+                    ProteinMatch proteinMatch = proteinMatchesIterator.next();
+                    if (proteinMatch != null) {
+                        String proteinKey = proteinMatch.getKey();
+                        for (SpectralCountingMethod method : SpectralCountingMethod.values()) {
+                            SpectrumCountingPreferences methodPreferences = getSpectrumCountingPreferences(method);
+                            double spectrumCounting;
+                            if (method == SpectralCountingMethod.NSAF) {
+                                spectrumCounting = estimateNsaf(proteinMatch, methodPreferences, peptideOccurrences, nSpectra, psParameter);
+                            } else {
+                                spectrumCounting = estimateEmpai(identification, sequenceFactory, proteinMatch, methodPreferences, digestionPreferences, psParameter);
+                            }
+                            identificationFeaturesCache.getSpectrumCountings(method).put(proteinKey, spectrumCounting);
+                        }
+                    }
+                }
+            } catch (Exception e) {
+                if (waitingHandler == null || !waitingHandler.isRunCanceled()) {
+                    exceptionHandler.catchException(e);
+                    if (waitingHandler != null) {
+                        waitingHandler.setRunCanceled();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The sort key of a protein: protein score, then number of peptides
+     * (inverted), then number of spectra (inverted), and then protein key.
+     *
+     * @author Marc Vaudel
+     */
+    private static class ProteinSortKey implements Comparable<ProteinSortKey> {
+
+        /**
+         * The protein score.
+         */
+        private final double score;
+        /**
+         * The numbers of peptides and spectra inverted and packed in a long:
+         * the number of peptides in the high bits, the number of spectra in
+         * the low bits.
+         */
+        private final long counts;
+        /**
+         * The key of the protein match.
+         */
+        private final String proteinKey;
+
+        /**
+         * Constructor.
+         *
+         * @param score the protein score
+         * @param nPeptides the number of peptides
+         * @param nSpectra the number of spectra
+         * @param proteinKey the key of the protein match
+         */
+        public ProteinSortKey(double score, int nPeptides, int nSpectra, String proteinKey) {
+            this.score = score;
+            this.counts = ((long) (Integer.MAX_VALUE - nPeptides) << 32) | (Integer.MAX_VALUE - nSpectra);
+            this.proteinKey = proteinKey;
+        }
+
+        @Override
+        public int compareTo(ProteinSortKey other) {
+            int result = Double.compare(score, other.score);
+            if (result != 0) {
+                return result;
+            }
+            if (counts != other.counts) {
+                return counts < other.counts ? -1 : 1;
+            }
+            return proteinKey.compareTo(other.proteinKey);
+        }
+    }
+
+    /**
+     * Runnable computing and sorting the sort keys of the target proteins which
+     * are not hidden. The maximal values needed by the metrics are gathered on
+     * the way if needed.
+     *
+     * @author Marc Vaudel
+     */
+    private class ProteinSortKeyRunnable implements Runnable {
+
+        /**
+         * An iterator for the protein matches.
+         */
+        private final ProteinMatchesIterator proteinMatchesIterator;
+        /**
+         * Indicates whether the maximal values of the metrics should be
+         * gathered.
+         */
+        private final boolean needMaxValues;
+        /**
+         * The waiting handler.
+         */
+        private final WaitingHandler waitingHandler;
+        /**
+         * The sort keys of the proteins processed by this thread.
+         */
+        private final ArrayList<ProteinSortKey> sortKeys = new ArrayList<ProteinSortKey>();
+        /**
+         * The sorted keys, null until the thread is finished.
+         */
+        private ProteinSortKey[] sortedKeys = null;
+        /**
+         * The exception or error encountered by this thread, null if none.
+         */
+        private Throwable exception = null;
+        /**
+         * The maximal number of peptides.
+         */
+        private int maxPeptides = 0;
+        /**
+         * The maximal number of spectra.
+         */
+        private int maxSpectra = 0;
+        /**
+         * The maximal spectrum counting index.
+         */
+        private double maxSpectrumCounting = 0;
+        /**
+         * The maximal molecular weight.
+         */
+        private double maxMW = 0;
+        /**
+         * The number of validated proteins.
+         */
+        private int nValidatedProteins = 0;
+        /**
+         * The number of confident proteins.
+         */
+        private int nConfidentProteins = 0;
+
+        /**
+         * Constructor.
+         *
+         * @param proteinMatchesIterator a protein matches iterator
+         * @param needMaxValues indicates whether the maximal values of the
+         * metrics should be gathered
+         * @param waitingHandler a waiting handler to display progress and
+         * allow canceling the process
+         */
+        public ProteinSortKeyRunnable(ProteinMatchesIterator proteinMatchesIterator, boolean needMaxValues, WaitingHandler waitingHandler) {
+            this.proteinMatchesIterator = proteinMatchesIterator;
+            this.needMaxValues = needMaxValues;
+            this.waitingHandler = waitingHandler;
+        }
+
+        @Override
+        public void run() {
+            try {
+                PSParameter psParameter = new PSParameter();
+                while (proteinMatchesIterator.hasNext() && (waitingHandler == null || !waitingHandler.isRunCanceled())) {
+                    ProteinMatch proteinMatch = proteinMatchesIterator.next();
+                    if (proteinMatch != null) {
+                        String proteinKey = proteinMatch.getKey();
+                        if (!ProteinMatch.isDecoy(proteinKey)) {
+                            psParameter = (PSParameter) identification.getProteinMatchParameter(proteinKey, psParameter);
+                            if (!psParameter.isHidden()) {
+                                int nPeptides = proteinMatch.getPeptideMatchesKeys().size();
+                                int nSpectra = getNSpectra(proteinKey);
+                                sortKeys.add(new ProteinSortKey(psParameter.getProteinProbabilityScore(), nPeptides, nSpectra, proteinKey));
+                                if (needMaxValues) {
+                                    gatherMaxValues(proteinMatch, psParameter, nPeptides, nSpectra);
+                                }
+                            }
+                        }
+                    }
+                    if (waitingHandler != null) {
+                        waitingHandler.increaseSecondaryProgressCounter();
+                    }
+                }
+                sortedKeys = sortKeys.toArray(new ProteinSortKey[sortKeys.size()]);
+                Arrays.sort(sortedKeys);
+            } catch (Throwable t) {
+                // errors are kept as well, otherwise the protein list would be built from the keys of the other threads only
+                exception = t;
+                if (waitingHandler != null) {
+                    waitingHandler.setRunCanceled();
+                }
+            }
+        }
+
+        /**
+         * Updates the maximal values of the metrics with the given protein.
+         *
+         * @param proteinMatch the protein match
+         * @param psParameter the PeptideShaker parameter of the protein match
+         * @param nPeptides the number of peptides of the protein match
+         * @param nSpectra the number of spectra of the protein match
+         *
+         * @throws Exception exception thrown whenever an error occurred while
+         * estimating the features of the protein
+         */
+        private void gatherMaxValues(ProteinMatch proteinMatch, PSParameter psParameter, int nPeptides, int nSpectra) throws Exception {
+
+            if (nPeptides > maxPeptides) {
+                maxPeptides = nPeptides;
+            }
+            if (nSpectra > maxSpectra) {
+                maxSpectra = nSpectra;
+            }
+
+            double spectrumCounting = getNormalizedSpectrumCounting(proteinMatch.getKey());
+            if (spectrumCounting > maxSpectrumCounting) {
+                maxSpectrumCounting = spectrumCounting;
+            }
+
+            Protein currentProtein = sequenceFactory.getProtein(proteinMatch.getMainMatch());
+            if (currentProtein != null) {
+                double mw = sequenceFactory.computeMolecularWeight(proteinMatch.getMainMatch());
+                if (mw > maxMW) {
+                    maxMW = mw;
+                }
+            }
+
+            if (psParameter.getMatchValidationLevel().isValidated()) {
+                nValidatedProteins++;
+                if (psParameter.getMatchValidationLevel() == MatchValidationLevel.confident) {
+                    nConfidentProteins++;
+                }
+            }
+        }
+
+        /**
+         * Returns the sort keys of the proteins processed by this thread,
+         * sorted.
+         *
+         * @return the sorted keys
+         */
+        public ProteinSortKey[] getSortedKeys() {
+            return sortedKeys == null ? new ProteinSortKey[0] : sortedKeys;
+        }
+
+        /**
+         * Throws the exception encountered by this thread, if any. Errors are
+         * wrapped in an IllegalArgumentException.
+         *
+         * @throws java.sql.SQLException exception thrown whenever an error
+         * occurred while interacting with a database
+         * @throws java.io.IOException exception thrown whenever an error
+         * occurred while reading or writing a file
+         * @throws java.lang.ClassNotFoundException exception thrown whenever an
+         * error occurred while deserializing an object from a database
+         * @throws java.lang.InterruptedException exception thrown whenever a
+         * threading error occurred
+         */
+        public void throwException() throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+            if (exception == null) {
+                return;
+            } else if (exception instanceof SQLException) {
+                throw (SQLException) exception;
+            } else if (exception instanceof IOException) {
+                throw (IOException) exception;
+            } else if (exception instanceof ClassNotFoundException) {
+                throw (ClassNotFoundException) exception;
+            } else if (exception instanceof InterruptedException) {
+                throw (InterruptedException) exception;
+            } else if (exception instanceof RuntimeException) {
+                throw (RuntimeException) exception;
+            }
+            throw new IllegalArgumentException(exception);
+        }
+    }
 }
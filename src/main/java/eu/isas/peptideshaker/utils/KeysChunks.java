@@ -0,0 +1,86 @@
+package eu.isas.peptideshaker.utils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Splits match keys in chunks processed by a pool of threads. The threads take
+ * chunks from a queue until it is empty, so that threads done early take over
+ * the remaining work. Chunks are small enough to give every thread several
+ * chunks and large enough to let the iterators load the matches in batches.
+ *
+ * @author Marc Vaudel
+ */
+public class KeysChunks {
+
+    /**
+     * The number of chunks of keys per thread.
+     */
+    public static final int CHUNKS_PER_THREAD = 4;
+    /**
+     * The minimal number of keys per chunk.
+     */
+    public static final int MIN_CHUNK_SIZE = 1;
+    /**
+     * The maximal number of keys per chunk.
+     */
+    public static final int MAX_CHUNK_SIZE = 1000;
+
+    /**
+     * Empty default constructor.
+     */
+    private KeysChunks() {
+    }
+
+    /**
+     * Returns the number of keys per chunk.
+     *
+     * @param nKeys the number of keys to split
+     * @param nThreads the number of threads processing the chunks
+     *
+     * @return the number of keys per chunk
+     */
+    public static int getChunkSize(int nKeys, int nThreads) {
+        int chunkSize = nKeys / (CHUNKS_PER_THREAD * Math.max(nThreads, 1));
+        return Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, chunkSize));
+    }
+
+    /**
+     * Splits the given keys in chunks, in the iteration order of the
+     * collection.
+     *
+     * @param keys the keys to split
+     * @param nThreads the number of threads processing the chunks
+     *
+     * @return the chunks of keys
+     */
+    public static ArrayList<ArrayList<String>> getChunks(Collection<String> keys, int nThreads) {
+        int chunkSize = getChunkSize(keys.size(), nThreads);
+        ArrayList<ArrayList<String>> chunks = new ArrayList<ArrayList<String>>(keys.size() / chunkSize + 1);
+        ArrayList<String> chunk = new ArrayList<String>(chunkSize);
+        for (String key : keys) {
+            chunk.add(key);
+            if (chunk.size() == chunkSize) {
+                chunks.add(chunk);
+                chunk = new ArrayList<String>(chunkSize);
+            }
+        }
+        if (!chunk.isEmpty()) {
+            chunks.add(chunk);
+        }
+        return chunks;
+    }
+
+    /**
+     * Splits the given keys in chunks and returns them in a queue.
+     *
+     * @param keys the keys to split
+     * @param nThreads the number of threads processing the queue
+     *
+     * @return a queue of the chunks of keys
+     */
+    public static ConcurrentLinkedQueue<ArrayList<String>> getKeysQueue(Collection<String> keys, int nThreads) {
+        return new ConcurrentLinkedQueue<ArrayList<String>>(getChunks(keys, nThreads));
+    }
+}
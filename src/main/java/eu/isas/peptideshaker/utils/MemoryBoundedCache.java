@@ -0,0 +1,111 @@
+package eu.isas.peptideshaker.utils;
+
+import com.compomics.util.memory.MemoryConsumptionStatus;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Concurrent cache emptied when the memory gets short. The memory used is
+ * checked every given number of entries added, and all entries are removed if
+ * it is above the given share of the memory available.
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the values
+ *
+ * @author Marc Vaudel
+ */
+public class MemoryBoundedCache<K, V> {
+
+    /**
+     * The default share of the memory above which the cache is emptied.
+     */
+    public static final double DEFAULT_MEMORY_SHARE = 0.9;
+    /**
+     * The default number of entries added between two memory checks.
+     */
+    public static final int DEFAULT_MEMORY_CHECK_INTERVAL = 1024;
+    /**
+     * The share of the memory above which the cache is emptied.
+     */
+    private final double memoryShare;
+    /**
+     * The number of entries added between two memory checks.
+     */
+    private final int memoryCheckInterval;
+    /**
+     * The cached values indexed by key.
+     */
+    private final ConcurrentHashMap<K, V> values = new ConcurrentHashMap<K, V>();
+    /**
+     * The number of entries added since the last memory check.
+     */
+    private final AtomicInteger nAdded = new AtomicInteger();
+
+    /**
+     * Constructor using the default memory share and check interval.
+     */
+    public MemoryBoundedCache() {
+        this(DEFAULT_MEMORY_SHARE, DEFAULT_MEMORY_CHECK_INTERVAL);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param memoryShare the share of the memory above which the cache is
+     * emptied
+     * @param memoryCheckInterval the number of entries added between two
+     * memory checks
+     */
+    public MemoryBoundedCache(double memoryShare, int memoryCheckInterval) {
+        this.memoryShare = memoryShare;
+        this.memoryCheckInterval = memoryCheckInterval;
+    }
+
+    /**
+     * Returns the value cached for the given key, null if not cached.
+     *
+     * @param key the key
+     *
+     * @return the value cached for the given key
+     */
+    public V get(K key) {
+        return values.get(key);
+    }
+
+    /**
+     * Adds a value to the cache if no value is cached for this key, and
+     * returns the value cached. The cache is emptied before adding the value
+     * if the memory gets short.
+     *
+     * @param key the key
+     * @param value the value
+     *
+     * @return the value cached for the given key
+     */
+    public V putIfAbsent(K key, V value) {
+        if (nAdded.incrementAndGet() >= memoryCheckInterval) {
+            nAdded.set(0);
+            if (MemoryConsumptionStatus.memoryUsed() > memoryShare) {
+                values.clear();
+            }
+        }
+        V previous = values.putIfAbsent(key, value);
+        return previous != null ? previous : value;
+    }
+
+    /**
+     * Returns the number of entries in the cache.
+     *
+     * @return the number of entries in the cache
+     */
+    public int size() {
+        return values.size();
+    }
+
+    /**
+     * Empties the cache.
+     */
+    public void clear() {
+        values.clear();
+    }
+}
@@ -0,0 +1,149 @@
+package eu.isas.peptideshaker.utils;
+
+/**
+ * Statistics recorded on a stage of the processing: wall time, CPU time,
+ * number of items processed and peak heap.
+ *
+ * @author Marc Vaudel
+ */
+public class ProcessingStage {
+
+    /**
+     * The name of the stage.
+     */
+    private final String name;
+    /**
+     * The wall time at the start of the stage in nanoseconds.
+     */
+    private final long startWallTime;
+    /**
+     * The CPU time of the process at the start of the stage in nanoseconds,
+     * -1 if not available.
+     */
+    private final long startCpuTime;
+    /**
+     * The wall time spent in the stage in nanoseconds, -1 while running.
+     */
+    private long wallTime = -1;
+    /**
+     * The CPU time spent in the stage by all threads in nanoseconds, -1 if
+     * not available.
+     */
+    private long cpuTime = -1;
+    /**
+     * The number of items processed.
+     */
+    private long nItems = 0;
+    /**
+     * The peak heap usage during the stage in bytes.
+     */
+    private long peakHeap = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param name the name of the stage
+     * @param startWallTime the wall time at the start of the stage in
+     * nanoseconds
+     * @param startCpuTime the CPU time of the process at the start of the
+     * stage in nanoseconds, -1 if not available
+     */
+    public ProcessingStage(String name, long startWallTime, long startCpuTime) {
+        this.name = name;
+        this.startWallTime = startWallTime;
+        this.startCpuTime = startCpuTime;
+    }
+
+    /**
+     * Marks the end of the stage.
+     *
+     * @param endWallTime the wall time at the end of the stage in nanoseconds
+     * @param endCpuTime the CPU time of the process at the end of the stage in
+     * nanoseconds, -1 if not available
+     * @param nItems the number of items processed
+     * @param peakHeap the peak heap usage during the stage in bytes
+     */
+    public void end(long endWallTime, long endCpuTime, long nItems, long peakHeap) {
+        wallTime = endWallTime - startWallTime;
+        if (startCpuTime >= 0 && endCpuTime >= 0) {
+            cpuTime = endCpuTime - startCpuTime;
+        }
+        this.nItems = nItems;
+        this.peakHeap = peakHeap;
+    }
+
+    /**
+     * Indicates whether the stage is completed.
+     *
+     * @return a boolean indicating whether the stage is completed
+     */
+    public boolean isCompleted() {
+        return wallTime >= 0;
+    }
+
+    /**
+     * Returns the name of the stage.
+     *
+     * @return the name of the stage
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the wall time spent in the stage in milliseconds, -1 if the
+     * stage is not completed.
+     *
+     * @return the wall time spent in the stage in milliseconds
+     */
+    public long getWallTime() {
+        if (wallTime < 0) {
+            return -1;
+        }
+        return wallTime / 1000000;
+    }
+
+    /**
+     * Returns the CPU time spent in the stage by all threads of the process in
+     * milliseconds, -1 if not available.
+     *
+     * @return the CPU time spent in the stage in milliseconds
+     */
+    public long getCpuTime() {
+        if (cpuTime < 0) {
+            return -1;
+        }
+        return cpuTime / 1000000;
+    }
+
+    /**
+     * Returns the number of items processed.
+     *
+     * @return the number of items processed
+     */
+    public long getnItems() {
+        return nItems;
+    }
+
+    /**
+     * Returns the number of items processed per second, 0 if the stage is not
+     * completed.
+     *
+     * @return the number of items processed per second
+     */
+    public double getItemsPerSecond() {
+        if (wallTime <= 0) {
+            return 0;
+        }
+        return 1000000000.0 * nItems / wallTime;
+    }
+
+    /**
+     * Returns the peak heap usage during the stage in bytes.
+     *
+     * @return the peak heap usage during the stage in bytes
+     */
+    public long getPeakHeap() {
+        return peakHeap;
+    }
+}
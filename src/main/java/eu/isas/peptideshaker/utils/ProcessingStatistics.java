@@ -0,0 +1,263 @@
+package eu.isas.peptideshaker.utils;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayList;
+import java.util.Locale;
+
+/**
+ * Records statistics on the named stages of the processing and exports them as
+ * JSON or TSV reports.
+ *
+ * @author Marc Vaudel
+ */
+public class ProcessingStatistics {
+
+    /**
+     * The suffix of the reports written next to the cps file.
+     */
+    public static final String REPORT_SUFFIX = "_processing_statistics";
+    /**
+     * The header of the TSV report.
+     */
+    private static final String[] HEADER = {"stage", "wall_time_ms", "cpu_time_ms", "items", "items_per_s", "peak_heap_bytes"};
+    /**
+     * The stages recorded in order of start.
+     */
+    private final ArrayList<ProcessingStage> stages = new ArrayList<ProcessingStage>();
+
+    /**
+     * Constructor.
+     */
+    public ProcessingStatistics() {
+    }
+
+    /**
+     * Starts recording a new stage. The peak heap usage is reset, stages
+     * should therefore not overlap.
+     *
+     * @param name the name of the stage
+     *
+     * @return the stage
+     */
+    public synchronized ProcessingStage startStage(String name) {
+        resetPeakHeap();
+        ProcessingStage stage = new ProcessingStage(name, System.nanoTime(), getProcessCpuTime());
+        stages.add(stage);
+        return stage;
+    }
+
+    /**
+     * Ends the recording of a stage. To be called in a finally block so that
+     * stages interrupted by an error or a cancellation are recorded as well.
+     *
+     * @param stage the stage
+     * @param nItems the number of items processed in the stage
+     */
+    public synchronized void endStage(ProcessingStage stage, long nItems) {
+        stage.end(System.nanoTime(), getProcessCpuTime(), nItems, getPeakHeap());
+    }
+
+    /**
+     * Returns the stages recorded in order of start.
+     *
+     * @return the stages recorded
+     */
+    public synchronized ArrayList<ProcessingStage> getStages() {
+        return new ArrayList<ProcessingStage>(stages);
+    }
+
+    /**
+     * Returns the last stage recorded with the given name, null if not found.
+     *
+     * @param name the name of the stage
+     *
+     * @return the last stage recorded with the given name
+     */
+    public synchronized ProcessingStage getStage(String name) {
+        for (int i = stages.size() - 1; i >= 0; i--) {
+            ProcessingStage stage = stages.get(i);
+            if (stage.getName().equals(name)) {
+                return stage;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Clears the stages recorded.
+     */
+    public synchronized void clear() {
+        stages.clear();
+    }
+
+    /**
+     * Returns the statistics as a table for display.
+     *
+     * @return the statistics as a table
+     */
+    public synchronized String getReport() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format(Locale.US, "%-55s %12s %12s %12s %12s %12s%n", "Stage", "Wall (s)", "CPU (s)", "Items", "Items/s", "Heap (MB)"));
+        for (ProcessingStage stage : stages) {
+            if (stage.isCompleted()) {
+                report.append(String.format(Locale.US, "%-55s %12.1f %12s %12d %12.1f %12d%n",
+                        stage.getName(),
+                        stage.getWallTime() / 1000.0,
+                        stage.getCpuTime() >= 0 ? String.format(Locale.US, "%.1f", stage.getCpuTime() / 1000.0) : "NA",
+                        stage.getnItems(),
+                        stage.getItemsPerSecond(),
+                        stage.getPeakHeap() / 1048576));
+            }
+        }
+        return report.toString();
+    }
+
+    /**
+     * Writes the statistics as TSV and JSON files next to the given cps file.
+     *
+     * @param cpsFile the cps file
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the files
+     */
+    public void writeReports(File cpsFile) throws IOException {
+        String name = cpsFile.getName();
+        int extensionIndex = name.lastIndexOf('.');
+        if (extensionIndex > 0) {
+            name = name.substring(0, extensionIndex);
+        }
+        File folder = cpsFile.getAbsoluteFile().getParentFile();
+        writeTsv(new File(folder, name + REPORT_SUFFIX + ".tsv"));
+        writeJson(new File(folder, name + REPORT_SUFFIX + ".json"));
+    }
+
+    /**
+     * Writes the statistics to a TSV file.
+     *
+     * @param destinationFile the destination file
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public synchronized void writeTsv(File destinationFile) throws IOException {
+        BufferedWriter bw = new BufferedWriter(new FileWriter(destinationFile));
+        try {
+            for (int i = 0; i < HEADER.length; i++) {
+                if (i > 0) {
+                    bw.write("\t");
+                }
+                bw.write(HEADER[i]);
+            }
+            bw.newLine();
+            for (ProcessingStage stage : stages) {
+                if (stage.isCompleted()) {
+                    bw.write(stage.getName() + "\t" + stage.getWallTime() + "\t" + stage.getCpuTime() + "\t" + stage.getnItems() + "\t"
+                            + String.format(Locale.US, "%.2f", stage.getItemsPerSecond()) + "\t" + stage.getPeakHeap());
+                    bw.newLine();
+                }
+            }
+        } finally {
+            bw.close();
+        }
+    }
+
+    /**
+     * Writes the statistics to a JSON file.
+     *
+     * @param destinationFile the destination file
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public synchronized void writeJson(File destinationFile) throws IOException {
+        BufferedWriter bw = new BufferedWriter(new FileWriter(destinationFile));
+        try {
+            bw.write("{");
+            bw.newLine();
+            bw.write("  \"stages\": [");
+            boolean first = true;
+            for (ProcessingStage stage : stages) {
+                if (stage.isCompleted()) {
+                    if (first) {
+                        first = false;
+                    } else {
+                        bw.write(",");
+                    }
+                    bw.newLine();
+                    bw.write("    {\"" + HEADER[0] + "\": \"" + escapeJson(stage.getName()) + "\", "
+                            + "\"" + HEADER[1] + "\": " + stage.getWallTime() + ", "
+                            + "\"" + HEADER[2] + "\": " + stage.getCpuTime() + ", "
+                            + "\"" + HEADER[3] + "\": " + stage.getnItems() + ", "
+                            + "\"" + HEADER[4] + "\": " + String.format(Locale.US, "%.2f", stage.getItemsPerSecond()) + ", "
+                            + "\"" + HEADER[5] + "\": " + stage.getPeakHeap() + "}");
+                }
+            }
+            bw.newLine();
+            bw.write("  ]");
+            bw.newLine();
+            bw.write("}");
+            bw.newLine();
+        } finally {
+            bw.close();
+        }
+    }
+
+    /**
+     * Escapes the quotes and backslashes of a string for JSON export.
+     *
+     * @param value the string to escape
+     *
+     * @return the escaped string
+     */
+    private static String escapeJson(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    /**
+     * Returns the CPU time used by the process in nanoseconds, -1 if not
+     * available on this virtual machine.
+     *
+     * @return the CPU time used by the process in nanoseconds
+     */
+    private static long getProcessCpuTime() {
+        OperatingSystemMXBean osBean = ManagementFactory.getOperatingSystemMXBean();
+        if (osBean instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) osBean).getProcessCpuTime();
+        }
+        return -1;
+    }
+
+    /**
+     * Resets the peak usage of the heap memory pools.
+     */
+    private static void resetPeakHeap() {
+        for (MemoryPoolMXBean memoryPool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (memoryPool.getType() == MemoryType.HEAP && memoryPool.isValid()) {
+                memoryPool.resetPeakUsage();
+            }
+        }
+    }
+
+    /**
+     * Returns the sum of the peak usages of the heap memory pools since the
+     * last reset in bytes.
+     *
+     * @return the peak heap usage in bytes
+     */
+    private static long getPeakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean memoryPool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (memoryPool.getType() == MemoryType.HEAP && memoryPool.isValid()) {
+                peak += memoryPool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+}
@@ -0,0 +1,203 @@
+package eu.isas.peptideshaker.utils;
+
+import eu.isas.peptideshaker.scoring.MatchValidationLevel;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Compact representation of the coverage of a protein sequence. The sequence
+ * is stored as runs of consecutive amino acids covered by the same best
+ * validation level.
+ *
+ * @author Marc Vaudel
+ */
+public class SequenceCoverage implements Serializable {
+
+    /**
+     * Serial number for backward compatibility.
+     */
+    static final long serialVersionUID = 4390175634117508012L;
+    /**
+     * The length of the protein sequence.
+     */
+    private final int length;
+    /**
+     * The index of the amino acid following every run, 0 is the first amino
+     * acid.
+     */
+    private final int[] runEnds;
+    /**
+     * The validation level index of every run.
+     */
+    private final byte[] runLevels;
+
+    /**
+     * Constructor.
+     *
+     * @param length the length of the protein sequence
+     * @param runEnds the index of the amino acid following every run
+     * @param runLevels the validation level index of every run
+     */
+    public SequenceCoverage(int length, int[] runEnds, byte[] runLevels) {
+        this.length = length;
+        this.runEnds = runEnds;
+        this.runLevels = runLevels;
+    }
+
+    /**
+     * Returns the coverage of a sequence from the peptide coverage of every
+     * validation level. For every validation level index, the coverage array
+     * is incremented at the start of every peptide and decremented after its
+     * end, 0 being the first amino acid. Arrays of length sequence length + 1
+     * are expected, null if no peptide was found at this validation level.
+     * Amino acids not covered by any peptide get the validation level none.
+     *
+     * @param length the length of the protein sequence
+     * @param peptideCoverage the peptide coverage indexed by validation level
+     * index
+     *
+     * @return the coverage of the sequence
+     */
+    public static SequenceCoverage getSequenceCoverage(int length, int[][] peptideCoverage) {
+
+        int[] nPeptides = new int[peptideCoverage.length];
+        int[] runEnds = new int[4];
+        byte[] runLevels = new byte[4];
+        int nRuns = 0;
+        int currentLevel = MatchValidationLevel.none.getIndex();
+
+        for (int aa = 0; aa < length; aa++) {
+            int level = MatchValidationLevel.none.getIndex();
+            for (int levelIndex = peptideCoverage.length - 1; levelIndex >= 0; levelIndex--) {
+                int[] levelCoverage = peptideCoverage[levelIndex];
+                if (levelCoverage != null) {
+                    nPeptides[levelIndex] += levelCoverage[aa];
+                    if (nPeptides[levelIndex] > 0 && level == MatchValidationLevel.none.getIndex()) {
+                        level = levelIndex;
+                    }
+                }
+            }
+            if (aa > 0 && level != currentLevel) {
+                if (nRuns == runEnds.length) {
+                    runEnds = Arrays.copyOf(runEnds, 2 * nRuns);
+                    runLevels = Arrays.copyOf(runLevels, 2 * nRuns);
+                }
+                runEnds[nRuns] = aa;
+                runLevels[nRuns] = (byte) currentLevel;
+                nRuns++;
+            }
+            currentLevel = level;
+        }
+        if (length > 0) {
+            if (nRuns == runEnds.length) {
+                runEnds = Arrays.copyOf(runEnds, nRuns + 1);
+                runLevels = Arrays.copyOf(runLevels, nRuns + 1);
+            }
+            runEnds[nRuns] = length;
+            runLevels[nRuns] = (byte) currentLevel;
+            nRuns++;
+        }
+
+        return new SequenceCoverage(length, Arrays.copyOf(runEnds, nRuns), Arrays.copyOf(runLevels, nRuns));
+    }
+
+    /**
+     * Returns the length of the protein sequence.
+     *
+     * @return the length of the protein sequence
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Returns the number of runs.
+     *
+     * @return the number of runs
+     */
+    public int getnRuns() {
+        return runEnds.length;
+    }
+
+    /**
+     * Returns the amino acid coverage in an array where the index of the best
+     * validation level of every peptide covering a given amino acid is given.
+     * 0 is the first amino acid.
+     *
+     * @return the amino acid coverage
+     */
+    public int[] getAACoverage() {
+        int[] result = new int[length];
+        int start = 0;
+        for (int i = 0; i < runEnds.length; i++) {
+            int end = runEnds[i];
+            int level = runLevels[i];
+            for (int aa = start; aa < end; aa++) {
+                result[aa] = level;
+            }
+            start = end;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the best validation level of the peptides covering a given amino
+     * acid.
+     *
+     * @param aa the index of the amino acid, 0 is the first amino acid
+     *
+     * @return the validation level index
+     */
+    public int getValidationLevel(int aa) {
+        int index = Arrays.binarySearch(runEnds, aa + 1);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return runLevels[index];
+    }
+
+    /**
+     * Returns the share of the sequence covered by every validation level:
+     * validation level &gt; share of the sequence uniquely covered by this
+     * validation level.
+     *
+     * @return the share of the sequence covered by every validation level
+     */
+    public HashMap<Integer, Double> getSequenceCoverage() {
+        HashMap<Integer, Double> result = new HashMap<Integer, Double>();
+        for (int validationLevel : MatchValidationLevel.getValidationLevelIndexes()) {
+            result.put(validationLevel, 0.0);
+        }
+        int start = 0;
+        for (int i = 0; i < runEnds.length; i++) {
+            int level = runLevels[i];
+            result.put(level, result.get(level) + runEnds[i] - start);
+            start = runEnds[i];
+        }
+        for (int validationLevel : MatchValidationLevel.getValidationLevelIndexes()) {
+            result.put(validationLevel, result.get(validationLevel) / length);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the share of the sequence covered by validated peptides, i.e.
+     * doubtful or confident.
+     *
+     * @return the share of the sequence covered by validated peptides
+     */
+    public double getValidatedSequenceCoverage() {
+        double nAAValidated = 0;
+        int start = 0;
+        for (int i = 0; i < runEnds.length; i++) {
+            int level = runLevels[i];
+            if (level == MatchValidationLevel.doubtful.getIndex()
+                    || level == MatchValidationLevel.confident.getIndex()) {
+                nAAValidated += runEnds[i] - start;
+            }
+            start = runEnds[i];
+        }
+        return nAAValidated / length;
+    }
+}
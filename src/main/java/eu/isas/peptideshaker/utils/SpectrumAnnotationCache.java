@@ -0,0 +1,126 @@
+package eu.isas.peptideshaker.utils;
+
+import com.compomics.util.experiment.identification.spectrum_annotation.AnnotationSettings;
+import com.compomics.util.experiment.identification.spectrum_annotation.SpecificAnnotationSettings;
+import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
+import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
+import com.compomics.util.experiment.massspectrometry.SpectrumFactory;
+import com.compomics.util.preferences.IdentificationParameters;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.HashMap;
+import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException;
+
+/**
+ * Cache of the spectrum processed by a thread and of the specific annotation
+ * settings of its peptide assumptions. When the PSMs are processed in a single
+ * pass, the best match selection and the probabilistic PTM scoring annotate
+ * the same spectrum one after the other, the spectrum and the specific
+ * annotation settings of the best hit are then only loaded once. The specific
+ * annotation settings are indexed by the values of the annotation settings
+ * used, intensity limit and fragment ion accuracy, so that callers annotating
+ * with other values never share them. Only the last spectrum is kept. The
+ * cache is not thread safe, every thread should use its own instance.
+ *
+ * @author Marc Vaudel
+ */
+public class SpectrumAnnotationCache {
+
+    /**
+     * The separator used for the keys of the cache.
+     */
+    private static final String SEPARATOR = "_cc_";
+    /**
+     * The key of the cached spectrum.
+     */
+    private String spectrumKey = null;
+    /**
+     * The cached spectrum.
+     */
+    private MSnSpectrum spectrum = null;
+    /**
+     * The specific annotation settings of the peptide assumptions of the
+     * cached spectrum indexed by peptide, charge and annotation settings.
+     */
+    private final HashMap<String, SpecificAnnotationSettings> specificAnnotationSettingsMap = new HashMap<String, SpecificAnnotationSettings>();
+
+    /**
+     * Returns the spectrum of the given key. The spectrum is read from the
+     * spectrum factory if it is not the one cached, in which case the
+     * annotation settings of the previous spectrum are discarded.
+     *
+     * @param spectrumKey the key of the spectrum
+     *
+     * @return the spectrum
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the spectrum
+     * @throws InterruptedException exception thrown whenever a threading
+     * error occurred while reading the spectrum
+     * @throws MzMLUnmarshallerException exception thrown whenever an error
+     * occurred while reading an mzML file
+     */
+    public MSnSpectrum getSpectrum(String spectrumKey) throws IOException, InterruptedException, MzMLUnmarshallerException {
+        if (!spectrumKey.equals(this.spectrumKey)) {
+            spectrum = (MSnSpectrum) SpectrumFactory.getInstance().getSpectrum(spectrumKey);
+            this.spectrumKey = spectrumKey;
+            specificAnnotationSettingsMap.clear();
+        }
+        return spectrum;
+    }
+
+    /**
+     * Returns the specific annotation settings of the given peptide assumption
+     * on the given spectrum according to the annotation settings of the
+     * identification parameters, see
+     * AnnotationSettings.getSpecificAnnotationPreferences.
+     *
+     * @param spectrumKey the key of the spectrum
+     * @param peptideAssumption the peptide assumption
+     * @param identificationParameters the identification parameters
+     *
+     * @return the specific annotation settings
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the spectrum
+     * @throws InterruptedException exception thrown whenever a threading
+     * error occurred while reading the spectrum
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interacting with the protein tree
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing an object
+     * @throws MzMLUnmarshallerException exception thrown whenever an error
+     * occurred while reading an mzML file
+     */
+    public SpecificAnnotationSettings getSpecificAnnotationSettings(String spectrumKey, PeptideAssumption peptideAssumption,
+            IdentificationParameters identificationParameters) throws IOException, InterruptedException, SQLException, ClassNotFoundException, MzMLUnmarshallerException {
+        getSpectrum(spectrumKey);
+        AnnotationSettings annotationSettings = identificationParameters.getAnnotationPreferences();
+        String key = getKey(peptideAssumption, annotationSettings);
+        SpecificAnnotationSettings specificAnnotationSettings = specificAnnotationSettingsMap.get(key);
+        if (specificAnnotationSettings == null) {
+            specificAnnotationSettings = annotationSettings.getSpecificAnnotationPreferences(spectrumKey, peptideAssumption,
+                    identificationParameters.getSequenceMatchingPreferences(), identificationParameters.getPtmScoringPreferences().getSequenceMatchingPreferences());
+            specificAnnotationSettingsMap.put(key, specificAnnotationSettings);
+        }
+        return specificAnnotationSettings;
+    }
+
+    /**
+     * Returns the key of the specific annotation settings of a peptide
+     * assumption annotated using the given annotation settings.
+     *
+     * @param peptideAssumption the peptide assumption
+     * @param annotationSettings the annotation settings
+     *
+     * @return the key of the specific annotation settings
+     */
+    private static String getKey(PeptideAssumption peptideAssumption, AnnotationSettings annotationSettings) {
+        StringBuilder key = new StringBuilder();
+        key.append(peptideAssumption.getPeptide().getKey());
+        key.append(SEPARATOR).append(peptideAssumption.getIdentificationCharge().value);
+        key.append(SEPARATOR).append(annotationSettings.getAnnotationIntensityLimit());
+        key.append(SEPARATOR).append(annotationSettings.getFragmentIonAccuracy());
+        return key.toString();
+    }
+}
@@ -113,6 +113,9 @@ public class StarHider {
                         throw new InterruptedException("Hiding/Starring matches timed out. Please contact the developers.");
                     }
 
+                    // the lists of matches depend on the hidden matches
+                    peptideShakerGUI.getIdentificationFeaturesGenerator().getIdentificationFeaturesCache().clearFilterDependentObjects();
+
                     HashMap<String, ArrayList<Double>> fractionMW = new HashMap<String, ArrayList<Double>>();
                     for (StarHiderRunnable starHiderRunnable : runnables) {
                         HashMap<String, ArrayList<Double>> threadFractionMW = starHiderRunnable.getThreadFractionMW();
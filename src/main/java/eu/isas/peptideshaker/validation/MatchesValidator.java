@@ -46,16 +46,22 @@ import eu.isas.peptideshaker.scoring.maps.PsmSpecificMap;
 import eu.isas.peptideshaker.scoring.targetdecoy.TargetDecoyMap;
 import eu.isas.peptideshaker.scoring.targetdecoy.TargetDecoyResults;
 import eu.isas.peptideshaker.utils.IdentificationFeaturesGenerator;
+import eu.isas.peptideshaker.utils.KeysChunks;
 import eu.isas.peptideshaker.utils.Metrics;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import org.apache.commons.math.MathException;
 import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException;
@@ -244,9 +250,6 @@ public class MatchesValidator {
             SpectrumCountingPreferences spectrumCountingPreferences, ProcessingPreferences processingPreferences)
             throws SQLException, IOException, ClassNotFoundException, MzMLUnmarshallerException, InterruptedException {
 
-        PSParameter psParameter = new PSParameter();
-        ArrayList<UrParameter> parameters = new ArrayList<UrParameter>(1);
-        parameters.add(psParameter);
         ValidationQCPreferences validationQCPreferences = identificationParameters.getIdValidationPreferences().getValidationQCPreferences();
 
         if (waitingHandler != null) {
@@ -258,183 +261,541 @@ public class MatchesValidator {
                     + 2 * identification.getSpectrumIdentificationSize());
         }
 
+        int nThreads = processingPreferences.getnThreads();
         HashMap<String, ArrayList<String>> spectrumKeysMap = metrics.getOrderedSpectrumKeys();
 
-        // validate the spectrum matches
-        if (inputMap != null) {
-            inputMap.resetAdvocateContributions();
-        }
-        for (String spectrumFileName : identification.getSpectrumFiles()) {
+        // the cached features, e.g. the coverage and spectrum counting of the proteins, depend on the validation level of the matches
+        identificationFeaturesGenerator.clearValidationDependentFeatures();
+
+        // all levels are validated on the same pool, the threads take chunks of keys from a queue
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+
+        try {
+
+            // validate the spectrum matches
+            if (inputMap != null) {
+                inputMap.resetAdvocateContributions();
+            }
 
             AnnotationSettings annotationPreferences = identificationParameters.getAnnotationPreferences();
             Double intensityLimit = annotationPreferences.getAnnotationIntensityLimit();
             annotationPreferences.setIntensityLimit(0);
 
-            ExecutorService pool = Executors.newFixedThreadPool(processingPreferences.getnThreads());
+            try {
+
+                // the first pass of the next file runs while the mass error distribution of the current file is estimated
+                ArrayList<String> spectrumFileNames = new ArrayList<String>(identification.getSpectrumFiles());
+                int nFiles = spectrumFileNames.size();
+                ArrayList<Collection<String>> spectrumKeysList = new ArrayList<Collection<String>>(nFiles);
+                ArrayList<ArrayList<PsmValidatorRunnable>> firstPassRunnables = new ArrayList<ArrayList<PsmValidatorRunnable>>(nFiles);
+                ArrayList<ArrayList<Future<?>>> firstPassFutures = new ArrayList<ArrayList<Future<?>>>(nFiles);
+                ArrayList<Future<?>> secondPassFutures = new ArrayList<Future<?>>();
+
+                for (int fileIndex = 0; fileIndex < nFiles; fileIndex++) {
+
+                    while (firstPassFutures.size() < Math.min(fileIndex + 2, nFiles)) {
+                        String spectrumFileName = spectrumFileNames.get(firstPassFutures.size());
+                        Collection<String> spectrumKeys = null;
+                        if (spectrumKeysMap != null) {
+                            spectrumKeys = spectrumKeysMap.get(spectrumFileName);
+                        }
+                        if (spectrumKeys == null) {
+                            spectrumKeys = identification.getSpectrumIdentification(spectrumFileName);
+                        }
+                        spectrumKeysList.add(spectrumKeys);
+                        ConcurrentLinkedQueue<ArrayList<String>> keysQueue = KeysChunks.getKeysQueue(spectrumKeys, nThreads);
+                        ArrayList<PsmValidatorRunnable> psmRunnables = new ArrayList<PsmValidatorRunnable>(nThreads);
+                        for (int i = 1; i <= nThreads; i++) {
+                            psmRunnables.add(new PsmValidatorRunnable(keysQueue, identification, identificationFeaturesGenerator, geneMaps, identificationParameters, waitingHandler, exceptionHandler, inputMap, false, true, false));
+                        }
+                        firstPassRunnables.add(psmRunnables);
+                        firstPassFutures.add(submit(pool, psmRunnables));
+                    }
 
-            ArrayList<String> spectrumKeys = null;
-            if (spectrumKeysMap != null) {
-                spectrumKeys = spectrumKeysMap.get(spectrumFileName);
-            }
-            PsmIterator psmIterator = identification.getPsmIterator(spectrumFileName, spectrumKeys, parameters, false, waitingHandler);
+                    String spectrumFileName = spectrumFileNames.get(fileIndex);
+                    waitForTasks(firstPassFutures.get(fileIndex));
+                    if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                        return;
+                    }
+
+                    ArrayList<Double> precursorMzDeviations = new ArrayList<Double>();
+                    for (PsmValidatorRunnable runnable : firstPassRunnables.get(fileIndex)) {
+                        precursorMzDeviations.addAll(runnable.getThreadPrecursorMzDeviations());
+                    }
+                    firstPassRunnables.set(fileIndex, null);
 
-            ArrayList<PsmValidatorRunnable> psmRunnables = new ArrayList<PsmValidatorRunnable>(processingPreferences.getnThreads());
-            for (int i = 1; i <= processingPreferences.getnThreads(); i++) {
-                PsmValidatorRunnable runnable = new PsmValidatorRunnable(psmIterator, identification, identificationFeaturesGenerator, geneMaps, identificationParameters, waitingHandler, exceptionHandler, inputMap, false, true);
-                pool.submit(runnable);
-                psmRunnables.add(runnable);
+                    if (precursorMzDeviations.size() >= 100) {
+                        Collections.sort(precursorMzDeviations);
+                        identificationFeaturesGenerator.setMassErrorDistribution(spectrumFileName, precursorMzDeviations);
+                    } else {
+                        // the filters are shared by all files, the files already queued must be validated with the current filters
+                        waitForTasks(secondPassFutures);
+                        if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                            return;
+                        }
+                        // There are not enough precursors, disable probabilistic precursor filter
+                        disableProbabilisticPrecursorFilter(validationQCPreferences, identificationParameters.getSearchParameters());
+                    }
+
+                    ConcurrentLinkedQueue<ArrayList<String>> keysQueue = KeysChunks.getKeysQueue(spectrumKeysList.get(fileIndex), nThreads);
+                    ArrayList<PsmValidatorRunnable> psmRunnables = new ArrayList<PsmValidatorRunnable>(nThreads);
+                    for (int i = 1; i <= nThreads; i++) {
+                        psmRunnables.add(new PsmValidatorRunnable(keysQueue, identification, identificationFeaturesGenerator, geneMaps, identificationParameters, waitingHandler, exceptionHandler, inputMap, true, false, false));
+                    }
+                    secondPassFutures.addAll(submit(pool, psmRunnables));
+                }
+
+                waitForTasks(secondPassFutures);
                 if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-                    break;
+                    return;
                 }
+
+            } finally {
+                annotationPreferences.setIntensityLimit(intensityLimit);
+            }
+
+            // validate the peptides
+            ConcurrentLinkedQueue<ArrayList<String>> peptideKeysQueue = KeysChunks.getKeysQueue(identification.getPeptideIdentification(), nThreads);
+            ArrayList<PeptideValidatorRunnable> peptideRunnables = new ArrayList<PeptideValidatorRunnable>(nThreads);
+            for (int i = 1; i <= nThreads; i++) {
+                peptideRunnables.add(new PeptideValidatorRunnable(peptideKeysQueue, identification, identificationFeaturesGenerator, geneMaps, identificationParameters, waitingHandler, exceptionHandler, metrics));
             }
+            waitForTasks(submit(pool, peptideRunnables));
             if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-                pool.shutdownNow();
                 return;
             }
-            pool.shutdown();
-            if (!pool.awaitTermination(7, TimeUnit.DAYS)) {
-                throw new InterruptedException("PSM validation timed out. Please contact the developers.");
+
+            HashMap<String, Integer> validatedTotalPeptidesPerFraction = new HashMap<String, Integer>();
+            ArrayList<Double> validatedPeptideLengths = new ArrayList<Double>();
+            for (PeptideValidatorRunnable runnable : peptideRunnables) {
+                HashMap<String, Integer> threadValidatedTotalPeptidesPerFraction = runnable.getValidatedTotalPeptidesPerFraction();
+                for (String fraction : threadValidatedTotalPeptidesPerFraction.keySet()) {
+                    Integer nValidated = validatedTotalPeptidesPerFraction.get(fraction);
+                    if (nValidated == null) {
+                        nValidated = 0;
+                    }
+                    nValidated += threadValidatedTotalPeptidesPerFraction.get(fraction);
+                    validatedTotalPeptidesPerFraction.put(fraction, nValidated);
+                }
+                validatedPeptideLengths.addAll(runnable.getValidatedPeptideLengths());
+            }
+            if (validatedPeptideLengths.size() >= 100) {
+                NonSymmetricalNormalDistribution lengthDistribution = NonSymmetricalNormalDistribution.getRobustNonSymmetricalNormalDistribution(validatedPeptideLengths);
+                metrics.setPeptideLengthDistribution(lengthDistribution);
             }
+            metrics.setTotalPeptidesPerFraction(validatedTotalPeptidesPerFraction);
 
-            ArrayList<Double> precursorMzDeviations = new ArrayList<Double>();
-            for (PsmValidatorRunnable runnable : psmRunnables) {
-                precursorMzDeviations.addAll(runnable.getThreadPrecursorMzDeviations());
+            // estimate the spectrum counting of the proteins
+            identificationFeaturesGenerator.estimateSpectrumCountings(nThreads, waitingHandler, exceptionHandler);
+            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                return;
             }
 
-            if (precursorMzDeviations.size() >= 100) {
-                Collections.sort(precursorMzDeviations);
-                identificationFeaturesGenerator.setMassErrorDistribution(spectrumFileName, precursorMzDeviations);
-            } else {
-                // There are not enough precursors, disable probabilistic precursor filter
-                for (Filter filter : validationQCPreferences.getPsmFilters()) {
-                    PsmFilter psmFilter = (PsmFilter) filter;
-                    if (psmFilter.getItemsNames().contains(AssumptionFilterItem.precrusorMzErrorStat.name)) {
-                        psmFilter.removeFilterItem(AssumptionFilterItem.precrusorMzErrorStat.name);
-                        SearchParameters searchParameters = identificationParameters.getSearchParameters();
-                        if (searchParameters.isPrecursorAccuracyTypePpm()) {
-                            psmFilter.setFilterItem(AssumptionFilterItem.precrusorMzErrorPpm.name, FilterItemComparator.lowerOrEqual, searchParameters.getPrecursorAccuracy());
-                        } else {
-                            psmFilter.setFilterItem(AssumptionFilterItem.precrusorMzErrorDa.name, FilterItemComparator.lowerOrEqual, searchParameters.getPrecursorAccuracy());
+            // validate the proteins
+            ConcurrentLinkedQueue<ArrayList<String>> proteinKeysQueue = KeysChunks.getKeysQueue(identification.getProteinIdentification(), nThreads);
+            ArrayList<ProteinValidatorRunnable> proteinRunnables = new ArrayList<ProteinValidatorRunnable>(nThreads);
+            for (int i = 1; i <= nThreads; i++) {
+                proteinRunnables.add(new ProteinValidatorRunnable(proteinKeysQueue, identification, identificationFeaturesGenerator, geneMaps, metrics, identificationParameters, spectrumCountingPreferences, waitingHandler, exceptionHandler));
+            }
+            waitForTasks(submit(pool, proteinRunnables));
+            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                return;
+            }
+
+            double totalSpectrumCounting = 0;
+            double totalSpectrumCountingMass = 0;
+            for (ProteinValidatorRunnable runnable : proteinRunnables) {
+                totalSpectrumCounting += runnable.getTotalSpectrumCounting();
+                totalSpectrumCountingMass += runnable.getTotalSpectrumCountingMass();
+            }
+            metrics.setTotalSpectrumCounting(totalSpectrumCounting);
+            metrics.setTotalSpectrumCountingMass(totalSpectrumCountingMass);
+
+        } finally {
+            pool.shutdownNow();
+        }
+        if (!pool.awaitTermination(7, TimeUnit.DAYS)) {
+            throw new InterruptedException("Match validation timed out. Please contact the developers.");
+        }
+
+        // estimate the coverage of the validated proteins
+        if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+            return;
+        }
+        identificationFeaturesGenerator.estimateSequenceCoverages(nThreads, waitingHandler, exceptionHandler);
+    }
+
+    /**
+     * Validates the identification matches after the target/decoy thresholds
+     * changed, re-evaluating only the matches whose validation level can
+     * change: the matches on the other side of the new score or confidence
+     * thresholds, the peptides of the re-evaluated PSMs and the proteins of
+     * the re-evaluated peptides. The quality control filters must be the same
+     * as for the last validation, otherwise the matches must be validated
+     * using validateIdentifications. The precursor mass error distributions
+     * of the last complete validation are kept. The validation levels of the
+     * index are updated.
+     *
+     * @param validationIndex the index of the matches and of their validation
+     * levels as of the last validation
+     * @param identification the identification class containing the matches to
+     * validate
+     * @param metrics the metrics on fractions and spectrum counting to update
+     * @param geneMaps the gene maps
+     * @param inputMap the target decoy map of all search engine scores
+     * @param waitingHandler a waiting handler displaying progress to the user
+     * and allowing canceling the process
+     * @param exceptionHandler a handler for exceptions
+     * @param identificationFeaturesGenerator an identification features
+     * generator computing information about the identification matches
+     * @param identificationParameters the identification parameters
+     * @param spectrumCountingPreferences the spectrum counting preferences
+     * @param processingPreferences the processing preferences
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing a file.
+     * @throws InterruptedException exception thrown whenever a threading issue
+     * occurred while mapping the peptides to the proteins.
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interacting with the database.
+     * @throws uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException exception thrown
+     * whenever an error occurred while reading an mzML file.
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing an object from the database.
+     */
+    public void validateIdentificationsIncrementally(ValidationIndex validationIndex, Identification identification, Metrics metrics, GeneMaps geneMaps, InputMap inputMap,
+            WaitingHandler waitingHandler, ExceptionHandler exceptionHandler, IdentificationFeaturesGenerator identificationFeaturesGenerator,
+            IdentificationParameters identificationParameters,
+            SpectrumCountingPreferences spectrumCountingPreferences, ProcessingPreferences processingPreferences)
+            throws SQLException, IOException, ClassNotFoundException, MzMLUnmarshallerException, InterruptedException {
+
+        PSParameter psParameter = new PSParameter();
+        ValidationQCPreferences validationQCPreferences = identificationParameters.getIdValidationPreferences().getValidationQCPreferences();
+        int nThreads = processingPreferences.getnThreads();
+        ValidationIndex.MatchLevels psms = validationIndex.getPsms();
+        ValidationIndex.MatchLevels peptides = validationIndex.getPeptides();
+        ValidationIndex.MatchLevels proteins = validationIndex.getProteins();
+
+        if (waitingHandler != null) {
+            waitingHandler.setWaitingText("Match Validation and Quality Control. Please Wait...");
+            waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+        }
+
+        // all levels are validated on the same pool, the threads take chunks of keys from a queue
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+        ArrayList<String> proteinKeys;
+
+        try {
+
+            // validate the spectrum matches which can change
+            boolean[] psmSelection = psms.getCandidates(validationQCPreferences, false, false);
+            ArrayList<String> spectrumKeys = psms.getKeys(psmSelection);
+            boolean[] changedPsms = new boolean[psms.size()];
+
+            if (!spectrumKeys.isEmpty()) {
+
+                if (waitingHandler != null) {
+                    waitingHandler.resetSecondaryProgressCounter();
+                    waitingHandler.setMaxSecondaryProgressCounter(spectrumKeys.size());
+                }
+
+                AnnotationSettings annotationPreferences = identificationParameters.getAnnotationPreferences();
+                Double intensityLimit = annotationPreferences.getAnnotationIntensityLimit();
+                annotationPreferences.setIntensityLimit(0);
+
+                // the search engine contributions of the PSMs whose validation status changes are updated
+                boolean updateContributions = inputMap != null && inputMap.hasAdvocateContribution();
+
+                try {
+                    ConcurrentLinkedQueue<ArrayList<String>> keysQueue = KeysChunks.getKeysQueue(spectrumKeys, nThreads);
+                    ArrayList<PsmValidatorRunnable> psmRunnables = new ArrayList<PsmValidatorRunnable>(nThreads);
+                    for (int i = 1; i <= nThreads; i++) {
+                        psmRunnables.add(new PsmValidatorRunnable(keysQueue, identification, identificationFeaturesGenerator, geneMaps, identificationParameters, waitingHandler, exceptionHandler, inputMap, true, false, updateContributions));
+                    }
+                    waitForTasks(submit(pool, psmRunnables));
+                } finally {
+                    annotationPreferences.setIntensityLimit(intensityLimit);
+                }
+                if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                    return;
+                }
+
+                changedPsms = validationIndex.updatePsmLevels(psmSelection);
+            }
+            boolean psmsChanged = contains(changedPsms);
+
+            // the features of the peptides depend on the validation level of the PSMs
+            if (psmsChanged) {
+                identificationFeaturesGenerator.clearValidationDependentFeatures(new ArrayList<String>(0));
+            }
+
+            // validate the peptides which can change and the peptides of the PSMs which changed
+            boolean[] peptideSelection = peptides.getCandidates(validationQCPreferences, false, false);
+            validationIndex.selectPeptidesOfPsms(changedPsms, peptideSelection);
+            ArrayList<String> peptideKeys = peptides.getKeys(peptideSelection);
+            boolean[] changedPeptides = new boolean[peptides.size()];
+
+            if (!peptideKeys.isEmpty()) {
+
+                if (waitingHandler != null) {
+                    waitingHandler.resetSecondaryProgressCounter();
+                    waitingHandler.setMaxSecondaryProgressCounter(peptideKeys.size());
+                }
+
+                // remove the peptides to validate from the number of validated peptides per fraction
+                HashMap<String, Integer> validatedTotalPeptidesPerFraction = new HashMap<String, Integer>();
+                if (metrics.getTotalPeptidesPerFraction() != null) {
+                    validatedTotalPeptidesPerFraction.putAll(metrics.getTotalPeptidesPerFraction());
+                }
+                identification.loadPeptideMatchParameters(peptideKeys, psParameter, waitingHandler, false);
+                for (int i = 0; i < peptideSelection.length; i++) {
+                    if (peptideSelection[i] && isValidated(peptides.getLevel(i))) {
+                        psParameter = (PSParameter) identification.getPeptideMatchParameter(peptides.getKey(i), psParameter);
+                        for (String fraction : psParameter.getFractions()) {
+                            Integer nValidated = validatedTotalPeptidesPerFraction.get(fraction);
+                            if (nValidated != null) {
+                                validatedTotalPeptidesPerFraction.put(fraction, nValidated - 1);
+                            }
                         }
                     }
-                    AssumptionFilter assumptionFilter = psmFilter.getAssumptionFilter();
-                    if (assumptionFilter.getItemsNames().contains(AssumptionFilterItem.precrusorMzErrorStat.name)) {
-                        assumptionFilter.removeFilterItem(AssumptionFilterItem.precrusorMzErrorStat.name);
-                        SearchParameters searchParameters = identificationParameters.getSearchParameters();
-                        if (searchParameters.isPrecursorAccuracyTypePpm()) {
-                            assumptionFilter.setFilterItem(AssumptionFilterItem.precrusorMzErrorPpm.name, FilterItemComparator.lowerOrEqual, searchParameters.getPrecursorAccuracy());
-                        } else {
-                            assumptionFilter.setFilterItem(AssumptionFilterItem.precrusorMzErrorDa.name, FilterItemComparator.lowerOrEqual, searchParameters.getPrecursorAccuracy());
+                }
+
+                ConcurrentLinkedQueue<ArrayList<String>> keysQueue = KeysChunks.getKeysQueue(peptideKeys, nThreads);
+                ArrayList<PeptideValidatorRunnable> peptideRunnables = new ArrayList<PeptideValidatorRunnable>(nThreads);
+                for (int i = 1; i <= nThreads; i++) {
+                    peptideRunnables.add(new PeptideValidatorRunnable(keysQueue, identification, identificationFeaturesGenerator, geneMaps, identificationParameters, waitingHandler, exceptionHandler, metrics));
+                }
+                waitForTasks(submit(pool, peptideRunnables));
+                if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                    return;
+                }
+
+                // add the peptides validated to the number of validated peptides per fraction
+                for (PeptideValidatorRunnable runnable : peptideRunnables) {
+                    HashMap<String, Integer> threadValidatedTotalPeptidesPerFraction = runnable.getValidatedTotalPeptidesPerFraction();
+                    for (String fraction : threadValidatedTotalPeptidesPerFraction.keySet()) {
+                        Integer nValidated = validatedTotalPeptidesPerFraction.get(fraction);
+                        if (nValidated == null) {
+                            nValidated = 0;
                         }
+                        nValidated += threadValidatedTotalPeptidesPerFraction.get(fraction);
+                        validatedTotalPeptidesPerFraction.put(fraction, nValidated);
                     }
                 }
-            }
+                metrics.setTotalPeptidesPerFraction(validatedTotalPeptidesPerFraction);
 
-            pool = Executors.newFixedThreadPool(processingPreferences.getnThreads());
+                changedPeptides = validationIndex.updatePeptideLevels(peptideSelection);
+            }
+            boolean peptidesChanged = contains(changedPeptides);
+
+            if (peptidesChanged) {
+                ArrayList<Double> validatedPeptideLengths = new ArrayList<Double>();
+                for (int i = 0; i < peptides.size(); i++) {
+                    if (isValidated(peptides.getLevel(i))) {
+                        double length = Peptide.getSequence(peptides.getKey(i)).length();
+                        validatedPeptideLengths.add(length);
+                    }
+                }
+                if (validatedPeptideLengths.size() >= 100) {
+                    NonSymmetricalNormalDistribution lengthDistribution = NonSymmetricalNormalDistribution.getRobustNonSymmetricalNormalDistribution(validatedPeptideLengths);
+                    metrics.setPeptideLengthDistribution(lengthDistribution);
+                }
+            }
 
-            spectrumKeys = null;
-            if (spectrumKeysMap != null) {
-                spectrumKeys = spectrumKeysMap.get(spectrumFileName);
+            // select the proteins which can change and the proteins of the peptides validated
+            boolean[] proteinSelection = proteins.getCandidates(validationQCPreferences, true, true);
+            validationIndex.selectProteinsOfPeptides(peptideSelection, proteinSelection);
+            if ((psmsChanged || peptidesChanged) && usesSpectrumCounting(validationQCPreferences)) {
+                // the normalized spectrum counting of all proteins changes
+                Arrays.fill(proteinSelection, true);
             }
-            psmIterator = identification.getPsmIterator(spectrumFileName, spectrumKeys, parameters, false, waitingHandler);
+            proteinKeys = proteins.getKeys(proteinSelection);
 
-            for (int i = 1; i <= processingPreferences.getnThreads(); i++) {
-                PsmValidatorRunnable runnable = new PsmValidatorRunnable(psmIterator, identification, identificationFeaturesGenerator, geneMaps, identificationParameters, waitingHandler, exceptionHandler, inputMap, true, false);
-                pool.submit(runnable);
+            identificationFeaturesGenerator.clearValidationDependentFeatures(proteinKeys);
+
+            // estimate the spectrum counting of the proteins
+            if (psmsChanged || peptidesChanged) {
+                identificationFeaturesGenerator.clearSpectrumCounting();
+                identificationFeaturesGenerator.estimateSpectrumCountings(nThreads, waitingHandler, exceptionHandler);
                 if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-                    break;
+                    return;
                 }
             }
-            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-                pool.shutdownNow();
-                return;
-            }
-            pool.shutdown();
-            if (!pool.awaitTermination(7, TimeUnit.DAYS)) {
-                throw new InterruptedException("PSM validation timed out. Please contact the developers.");
-            }
 
-            annotationPreferences.setIntensityLimit(intensityLimit);
-        }
+            // validate the selected proteins
+            boolean proteinsChanged = false;
 
-        // validate the peptides
-        ExecutorService pool = Executors.newFixedThreadPool(processingPreferences.getnThreads());
-        ArrayList<PeptideValidatorRunnable> peptideRunnables = new ArrayList<PeptideValidatorRunnable>(processingPreferences.getnThreads());
+            if (!proteinKeys.isEmpty()) {
 
-        PeptideMatchesIterator peptideMatchesIterator = identification.getPeptideMatchesIterator(parameters, false, parameters, waitingHandler);
+                if (waitingHandler != null) {
+                    waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+                    waitingHandler.resetSecondaryProgressCounter();
+                    waitingHandler.setMaxSecondaryProgressCounter(proteinKeys.size());
+                }
 
-        for (int i = 1; i <= processingPreferences.getnThreads(); i++) {
-            PeptideValidatorRunnable runnable = new PeptideValidatorRunnable(peptideMatchesIterator, identification, identificationFeaturesGenerator, geneMaps, identificationParameters, waitingHandler, exceptionHandler, metrics);
-            pool.submit(runnable);
-            peptideRunnables.add(runnable);
-            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-                break;
+                ConcurrentLinkedQueue<ArrayList<String>> keysQueue = KeysChunks.getKeysQueue(proteinKeys, nThreads);
+                ArrayList<ProteinValidatorRunnable> proteinRunnables = new ArrayList<ProteinValidatorRunnable>(nThreads);
+                for (int i = 1; i <= nThreads; i++) {
+                    proteinRunnables.add(new ProteinValidatorRunnable(keysQueue, identification, identificationFeaturesGenerator, geneMaps, metrics, identificationParameters, spectrumCountingPreferences, waitingHandler, exceptionHandler));
+                }
+                waitForTasks(submit(pool, proteinRunnables));
+                if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                    return;
+                }
+
+                proteinsChanged = contains(validationIndex.updateProteinLevels(proteinSelection));
             }
-        }
-        if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+
+            // update the spectrum counting totals of the validated proteins
+            if (psmsChanged || peptidesChanged || proteinsChanged) {
+                double totalSpectrumCounting = 0;
+                double totalSpectrumCountingMass = 0;
+                for (int i = 0; i < proteins.size(); i++) {
+                    if (!validationIndex.isProteinDecoy(i) && proteins.getLevel(i) >= spectrumCountingPreferences.getMatchValidationLevel()) {
+                        double spectrumCounting = identificationFeaturesGenerator.getSpectrumCounting(proteins.getKey(i));
+                        totalSpectrumCounting += spectrumCounting;
+                        double molecularWeight = sequenceFactory.computeMolecularWeight(validationIndex.getProteinMainAccession(i));
+                        totalSpectrumCountingMass += molecularWeight * spectrumCounting;
+                    }
+                }
+                metrics.setTotalSpectrumCounting(totalSpectrumCounting);
+                metrics.setTotalSpectrumCountingMass(totalSpectrumCountingMass);
+            }
+
+        } finally {
             pool.shutdownNow();
-            return;
         }
-        pool.shutdown();
         if (!pool.awaitTermination(7, TimeUnit.DAYS)) {
-            throw new InterruptedException("PSM validation timed out. Please contact the developers.");
+            throw new InterruptedException("Match validation timed out. Please contact the developers.");
         }
 
-        HashMap<String, Integer> validatedTotalPeptidesPerFraction = new HashMap<String, Integer>();
-        ArrayList<Double> validatedPeptideLengths = new ArrayList<Double>();
-        for (PeptideValidatorRunnable runnable : peptideRunnables) {
-            HashMap<String, Integer> threadValidatedTotalPeptidesPerFraction = runnable.getValidatedTotalPeptidesPerFraction();
-            for (String fraction : threadValidatedTotalPeptidesPerFraction.keySet()) {
-                Integer nValidated = validatedTotalPeptidesPerFraction.get(fraction);
-                if (nValidated == null) {
-                    nValidated = 0;
-                }
-                nValidated += threadValidatedTotalPeptidesPerFraction.get(fraction);
-                validatedTotalPeptidesPerFraction.put(fraction, nValidated);
-            }
-            validatedPeptideLengths.addAll(runnable.getValidatedPeptideLengths());
+        // estimate the coverage of the selected proteins
+        if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+            return;
         }
-        if (validatedPeptideLengths.size() >= 100) {
-            NonSymmetricalNormalDistribution lengthDistribution = NonSymmetricalNormalDistribution.getRobustNonSymmetricalNormalDistribution(validatedPeptideLengths);
-            metrics.setPeptideLengthDistribution(lengthDistribution);
+        if (!proteinKeys.isEmpty()) {
+            identificationFeaturesGenerator.estimateSequenceCoverages(proteinKeys, nThreads, waitingHandler, exceptionHandler);
         }
-        metrics.setTotalPeptidesPerFraction(validatedTotalPeptidesPerFraction);
-
-//        ObjectsDB.setDebugInteractions(true);
-        
-        // validate the proteins
-        pool = Executors.newFixedThreadPool(processingPreferences.getnThreads());
-
-        ProteinMatchesIterator proteinMatchesIterator = identification.getProteinMatchesIterator(parameters, true, parameters, false, null, waitingHandler);
-        ArrayList<ProteinValidatorRunnable> proteinRunnables = new ArrayList<ProteinValidatorRunnable>(processingPreferences.getnThreads());
-        for (int i = 1; i <= processingPreferences.getnThreads(); i++) {
-            ProteinValidatorRunnable runnable = new ProteinValidatorRunnable(proteinMatchesIterator, identification, identificationFeaturesGenerator, geneMaps, metrics, identificationParameters, spectrumCountingPreferences, waitingHandler, exceptionHandler);
-            pool.submit(runnable);
-            proteinRunnables.add(runnable);
-            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-                break;
+    }
+
+    /**
+     * Indicates whether a validation level index corresponds to a validated
+     * match, i.e. doubtful or confident.
+     *
+     * @param level the validation level index
+     *
+     * @return a boolean indicating whether the match is validated
+     */
+    private static boolean isValidated(int level) {
+        return level == MatchValidationLevel.doubtful.getIndex() || level == MatchValidationLevel.confident.getIndex();
+    }
+
+    /**
+     * Indicates whether a selection contains at least one match.
+     *
+     * @param selection the selection
+     *
+     * @return a boolean indicating whether a selection contains at least one
+     * match
+     */
+    private static boolean contains(boolean[] selection) {
+        for (boolean selected : selection) {
+            if (selected) {
+                return true;
             }
         }
-        if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-            pool.shutdownNow();
-            return;
+        return false;
+    }
+
+    /**
+     * Indicates whether the protein quality control filters use the spectrum
+     * counting, which depends on the validation of all PSMs and peptides.
+     *
+     * @param validationQCPreferences the validation QC preferences
+     *
+     * @return a boolean indicating whether the protein quality control filters
+     * use the spectrum counting
+     */
+    private static boolean usesSpectrumCounting(ValidationQCPreferences validationQCPreferences) {
+        for (Filter filter : validationQCPreferences.getProteinFilters()) {
+            ProteinFilter proteinFilter = (ProteinFilter) filter;
+            if (proteinFilter.getItemsNames().contains(ProteinFilterItem.spectrumCounting.name)) {
+                return true;
+            }
         }
-        pool.shutdown();
-        if (!pool.awaitTermination(7, TimeUnit.DAYS)) {
-            throw new InterruptedException("PSM validation timed out. Please contact the developers.");
+        return false;
+    }
+
+    /**
+     * Replaces the probabilistic precursor m/z error filters of the PSM
+     * quality control filters by filters on the precursor accuracy of the
+     * search.
+     *
+     * @param validationQCPreferences the validation QC preferences
+     * @param searchParameters the search parameters
+     */
+    private static void disableProbabilisticPrecursorFilter(ValidationQCPreferences validationQCPreferences, SearchParameters searchParameters) {
+        for (Filter filter : validationQCPreferences.getPsmFilters()) {
+            PsmFilter psmFilter = (PsmFilter) filter;
+            if (psmFilter.getItemsNames().contains(AssumptionFilterItem.precrusorMzErrorStat.name)) {
+                psmFilter.removeFilterItem(AssumptionFilterItem.precrusorMzErrorStat.name);
+                if (searchParameters.isPrecursorAccuracyTypePpm()) {
+                    psmFilter.setFilterItem(AssumptionFilterItem.precrusorMzErrorPpm.name, FilterItemComparator.lowerOrEqual, searchParameters.getPrecursorAccuracy());
+                } else {
+                    psmFilter.setFilterItem(AssumptionFilterItem.precrusorMzErrorDa.name, FilterItemComparator.lowerOrEqual, searchParameters.getPrecursorAccuracy());
+                }
+            }
+            AssumptionFilter assumptionFilter = psmFilter.getAssumptionFilter();
+            if (assumptionFilter.getItemsNames().contains(AssumptionFilterItem.precrusorMzErrorStat.name)) {
+                assumptionFilter.removeFilterItem(AssumptionFilterItem.precrusorMzErrorStat.name);
+                if (searchParameters.isPrecursorAccuracyTypePpm()) {
+                    assumptionFilter.setFilterItem(AssumptionFilterItem.precrusorMzErrorPpm.name, FilterItemComparator.lowerOrEqual, searchParameters.getPrecursorAccuracy());
+                } else {
+                    assumptionFilter.setFilterItem(AssumptionFilterItem.precrusorMzErrorDa.name, FilterItemComparator.lowerOrEqual, searchParameters.getPrecursorAccuracy());
+                }
+            }
         }
+    }
 
-        double totalSpectrumCounting = 0;
-        for (ProteinValidatorRunnable runnable : proteinRunnables) {
-            totalSpectrumCounting += runnable.getTotalSpectrumCounting();
+    /**
+     * Submits the given runnables to a pool and returns their futures.
+     *
+     * @param pool the pool
+     * @param runnables the runnables to submit
+     *
+     * @return the futures of the runnables
+     */
+    private static ArrayList<Future<?>> submit(ExecutorService pool, ArrayList<? extends Runnable> runnables) {
+        ArrayList<Future<?>> futures = new ArrayList<Future<?>>(runnables.size());
+        for (Runnable runnable : runnables) {
+            futures.add(pool.submit(runnable));
         }
-        metrics.setTotalSpectrumCounting(totalSpectrumCounting);
+        return futures;
+    }
 
-        double totalSpectrumCountingMass = 0;
-        for (ProteinValidatorRunnable runnable : proteinRunnables) {
-            totalSpectrumCountingMass += runnable.getTotalSpectrumCountingMass();
+    /**
+     * Waits for the given tasks to complete. Errors thrown by the tasks are
+     * rethrown.
+     *
+     * @param futures the futures of the tasks
+     *
+     * @throws InterruptedException exception thrown if the thread is
+     * interrupted while waiting
+     */
+    private static void waitForTasks(ArrayList<Future<?>> futures) throws InterruptedException {
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
         }
-        metrics.setTotalSpectrumCountingMass(totalSpectrumCountingMass);
     }
 
     /**
@@ -1387,9 +1748,9 @@ public class MatchesValidator {
     private class PsmValidatorRunnable implements Runnable {
 
         /**
-         * An iterator for the PSMs.
+         * The queue of the chunks of spectrum keys to validate.
          */
-        private PsmIterator psmIterator;
+        private final ConcurrentLinkedQueue<ArrayList<String>> keysQueue;
         /**
          * The identification.
          */
@@ -1437,11 +1798,16 @@ public class MatchesValidator {
          * If true, advocate contributions will be stored in the input map.
          */
         private boolean storeContributions;
+        /**
+         * If true, the advocate contributions of the matches whose validation
+         * status changed will be updated in the input map.
+         */
+        private boolean updateContributions;
 
         /**
          * Constructor.
          *
-         * @param psmIterator a PSM iterator
+         * @param keysQueue the queue of the chunks of spectrum keys to validate
          * @param identification the identification containing the matches
          * @param identificationFeaturesGenerator the identification features
          * generator used to estimate, store and retrieve identification
@@ -1457,10 +1823,14 @@ public class MatchesValidator {
          * filters should be used
          * @param storeContributions boolean indicating whether advocate
          * contributions should be stored.
+         * @param updateContributions boolean indicating whether the advocate
+         * contributions of the matches whose validation status changed should
+         * be updated
          */
-        public PsmValidatorRunnable(PsmIterator psmIterator, Identification identification, IdentificationFeaturesGenerator identificationFeaturesGenerator, GeneMaps geneMaps,
-                IdentificationParameters identificationParameters, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler, InputMap inputMap, boolean applyQCFilters, boolean storeContributions) {
-            this.psmIterator = psmIterator;
+        public PsmValidatorRunnable(ConcurrentLinkedQueue<ArrayList<String>> keysQueue, Identification identification, IdentificationFeaturesGenerator identificationFeaturesGenerator, GeneMaps geneMaps,
+                IdentificationParameters identificationParameters, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler, InputMap inputMap, boolean applyQCFilters,
+                boolean storeContributions, boolean updateContributions) {
+            this.keysQueue = keysQueue;
             this.identification = identification;
             this.identificationFeaturesGenerator = identificationFeaturesGenerator;
             this.geneMaps = geneMaps;
@@ -1470,86 +1840,76 @@ public class MatchesValidator {
             this.inputMap = inputMap;
             this.applyQCFilters = applyQCFilters;
             this.storeContributions = storeContributions;
+            this.updateContributions = updateContributions;
         }
 
         @Override
         public void run() {
             try {
-                while (psmIterator.hasNext() && !waitingHandler.isRunCanceled()) {
-                    SpectrumMatch spectrumMatch = psmIterator.next();
-                    if (spectrumMatch != null) {
-
-                        String spectrumKey = spectrumMatch.getKey();
-
-                        updateSpectrumMatchValidationLevel(identification, identificationFeaturesGenerator, geneMaps, identificationParameters, peptideSpectrumAnnotator, psmMap, spectrumKey, applyQCFilters);
-
-                        // update assumption validation level
-                        HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptions = identification.getAssumptions(spectrumKey);
-                        for (HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> algorithmMap : assumptions.values()) {
-                            for (ArrayList<SpectrumIdentificationAssumption> scoreList : algorithmMap.values()) {
-                                for (SpectrumIdentificationAssumption spectrumIdentificationAssumption : scoreList) {
-                                    if (spectrumIdentificationAssumption instanceof PeptideAssumption) {
-                                        updatePeptideAssumptionValidationLevel(identification, identificationFeaturesGenerator, identificationParameters, peptideSpectrumAnnotator, inputMap, spectrumKey, (PeptideAssumption) spectrumIdentificationAssumption, applyQCFilters);
-                                    } else if (spectrumIdentificationAssumption instanceof TagAssumption) {
-                                        updateTagAssumptionValidationLevel(identificationFeaturesGenerator, identificationParameters, inputMap, spectrumKey, (TagAssumption) spectrumIdentificationAssumption);
-                                    } else {
-                                        throw new UnsupportedOperationException("Validation not implemented for assumption of class " + spectrumIdentificationAssumption.getClass() + ".");
-                                    }
-                                }
+                ArrayList<UrParameter> parameters = new ArrayList<UrParameter>(1);
+                parameters.add(new PSParameter());
+                ArrayList<String> keys;
+                while ((keys = keysQueue.poll()) != null && !waitingHandler.isRunCanceled()) {
+                    PsmIterator psmIterator = identification.getPsmIterator(keys, parameters, false, waitingHandler);
+                    while (psmIterator.hasNext() && !waitingHandler.isRunCanceled()) {
+                        SpectrumMatch spectrumMatch = psmIterator.next();
+                        if (spectrumMatch != null) {
+
+                            String spectrumKey = spectrumMatch.getKey();
+
+                            boolean wasValidated = false;
+                            if (updateContributions) {
+                                PSParameter previousParameter = (PSParameter) identification.getSpectrumMatchParameter(spectrumKey, new PSParameter());
+                                wasValidated = previousParameter.getMatchValidationLevel().isValidated();
                             }
-                        }
 
-                        // update search engine agreement
-                        PSParameter psParameter = new PSParameter();
-                        psParameter = (PSParameter) identification.getSpectrumMatchParameter(spectrumKey, psParameter);
-
-                        PeptideAssumption peptideAssumption = spectrumMatch.getBestPeptideAssumption();
-
-                        if (peptideAssumption != null) {
-
-                            if (psParameter.getMatchValidationLevel().isValidated() && !peptideAssumption.getPeptide().isDecoy(identificationParameters.getSequenceMatchingPreferences())) {
-                                double precursorMz = spectrumFactory.getPrecursorMz(spectrumKey);
-                                SearchParameters searchParameters = identificationParameters.getSearchParameters();
-                                double precursorMzError = peptideAssumption.getDeltaMass(precursorMz, searchParameters.isPrecursorAccuracyTypePpm(), searchParameters.getMinIsotopicCorrection(), searchParameters.getMaxIsotopicCorrection());
-                                threadPrecursorMzDeviations.add(precursorMzError);
-
-                                if (inputMap != null && storeContributions) {
-
-                                    Peptide bestPeptide = peptideAssumption.getPeptide();
-                                    HashSet<Integer> agreementAdvocates = new HashSet<Integer>();
-
-                                    for (int advocateId : assumptions.keySet()) {
-                                        HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> advocateAssumptions = assumptions.get(advocateId);
-                                        if (advocateAssumptions != null) {
-                                            ArrayList<Double> eValues = new ArrayList<Double>(advocateAssumptions.keySet());
-                                            Collections.sort(eValues);
-                                            for (SpectrumIdentificationAssumption firstHit : advocateAssumptions.get(eValues.get(0))) {
-                                                if (firstHit instanceof PeptideAssumption) {
-                                                    Peptide advocatePeptide = ((PeptideAssumption) firstHit).getPeptide();
-                                                    if (bestPeptide.isSameSequenceAndModificationStatus(advocatePeptide, identificationParameters.getSequenceMatchingPreferences())) {
-                                                        agreementAdvocates.add(advocateId);
-                                                        break;
-                                                    }
-                                                }
-                                            }
+                            updateSpectrumMatchValidationLevel(identification, identificationFeaturesGenerator, geneMaps, identificationParameters, peptideSpectrumAnnotator, psmMap, spectrumKey, applyQCFilters);
+
+                            // update assumption validation level
+                            HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptions = identification.getAssumptions(spectrumKey);
+                            for (HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> algorithmMap : assumptions.values()) {
+                                for (ArrayList<SpectrumIdentificationAssumption> scoreList : algorithmMap.values()) {
+                                    for (SpectrumIdentificationAssumption spectrumIdentificationAssumption : scoreList) {
+                                        if (spectrumIdentificationAssumption instanceof PeptideAssumption) {
+                                            updatePeptideAssumptionValidationLevel(identification, identificationFeaturesGenerator, identificationParameters, peptideSpectrumAnnotator, inputMap, spectrumKey, (PeptideAssumption) spectrumIdentificationAssumption, applyQCFilters);
+                                        } else if (spectrumIdentificationAssumption instanceof TagAssumption) {
+                                            updateTagAssumptionValidationLevel(identificationFeaturesGenerator, identificationParameters, inputMap, spectrumKey, (TagAssumption) spectrumIdentificationAssumption);
+                                        } else {
+                                            throw new UnsupportedOperationException("Validation not implemented for assumption of class " + spectrumIdentificationAssumption.getClass() + ".");
                                         }
                                     }
+                                }
+                            }
+
+                            // update search engine agreement
+                            PSParameter psParameter = new PSParameter();
+                            psParameter = (PSParameter) identification.getSpectrumMatchParameter(spectrumKey, psParameter);
+
+                            PeptideAssumption peptideAssumption = spectrumMatch.getBestPeptideAssumption();
+
+                            if (peptideAssumption != null && !peptideAssumption.getPeptide().isDecoy(identificationParameters.getSequenceMatchingPreferences())) {
 
-                                    boolean unique = agreementAdvocates.size() == 1;
+                                boolean validated = psParameter.getMatchValidationLevel().isValidated();
 
-                                    String spectrumFileName = Spectrum.getSpectrumFile(spectrumKey);
+                                if (validated) {
+                                    double precursorMz = spectrumFactory.getPrecursorMz(spectrumKey);
+                                    SearchParameters searchParameters = identificationParameters.getSearchParameters();
+                                    double precursorMzError = peptideAssumption.getDeltaMass(precursorMz, searchParameters.isPrecursorAccuracyTypePpm(), searchParameters.getMinIsotopicCorrection(), searchParameters.getMaxIsotopicCorrection());
+                                    threadPrecursorMzDeviations.add(precursorMzError);
 
-                                    for (int advocateId : agreementAdvocates) {
-                                        inputMap.addAdvocateContribution(advocateId, spectrumFileName, unique);
+                                    if (inputMap != null && storeContributions) {
+                                        addContributions(spectrumKey, peptideAssumption.getPeptide(), assumptions, 1);
                                     }
+                                }
 
-                                    inputMap.addPeptideShakerHit(spectrumFileName, agreementAdvocates.isEmpty());
+                                if (inputMap != null && updateContributions && validated != wasValidated) {
+                                    addContributions(spectrumKey, peptideAssumption.getPeptide(), assumptions, validated ? 1 : -1);
                                 }
                             }
                         }
-                    }
-                    if (waitingHandler != null) {
-                        waitingHandler.increaseSecondaryProgressCounter();
+                        if (waitingHandler != null) {
+                            waitingHandler.increaseSecondaryProgressCounter();
+                        }
                     }
                 }
             } catch (Exception e) {
@@ -1558,6 +1918,48 @@ public class MatchesValidator {
             }
         }
 
+        /**
+         * Adds the contributions of the advocates agreeing with the best
+         * peptide of a spectrum to the input map. A negative increment removes
+         * the contributions.
+         *
+         * @param spectrumKey the key of the spectrum
+         * @param bestPeptide the best peptide of the spectrum
+         * @param assumptions the assumptions of the spectrum
+         * @param increment the number of contributions to add
+         */
+        private void addContributions(String spectrumKey, Peptide bestPeptide, HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptions, int increment) {
+
+            HashSet<Integer> agreementAdvocates = new HashSet<Integer>();
+
+            for (int advocateId : assumptions.keySet()) {
+                HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> advocateAssumptions = assumptions.get(advocateId);
+                if (advocateAssumptions != null) {
+                    ArrayList<Double> eValues = new ArrayList<Double>(advocateAssumptions.keySet());
+                    Collections.sort(eValues);
+                    for (SpectrumIdentificationAssumption firstHit : advocateAssumptions.get(eValues.get(0))) {
+                        if (firstHit instanceof PeptideAssumption) {
+                            Peptide advocatePeptide = ((PeptideAssumption) firstHit).getPeptide();
+                            if (bestPeptide.isSameSequenceAndModificationStatus(advocatePeptide, identificationParameters.getSequenceMatchingPreferences())) {
+                                agreementAdvocates.add(advocateId);
+                                break;
+                            }
+                        }
+                    }
+                }
+            }
+
+            boolean unique = agreementAdvocates.size() == 1;
+
+            String spectrumFileName = Spectrum.getSpectrumFile(spectrumKey);
+
+            for (int advocateId : agreementAdvocates) {
+                inputMap.addAdvocateContribution(advocateId, spectrumFileName, unique, increment);
+            }
+
+            inputMap.addPeptideShakerHit(spectrumFileName, agreementAdvocates.isEmpty(), increment);
+        }
+
         /**
          * Returns the precursor m/z deviations of the validated PSMs.
          *
@@ -1576,9 +1978,9 @@ public class MatchesValidator {
     private class PeptideValidatorRunnable implements Runnable {
 
         /**
-         * An iterator for the peptide matches.
+         * The queue of the chunks of peptide keys to validate.
          */
-        private PeptideMatchesIterator peptideMatchesIterator;
+        private final ConcurrentLinkedQueue<ArrayList<String>> keysQueue;
         /**
          * The identification.
          */
@@ -1620,7 +2022,7 @@ public class MatchesValidator {
         /**
          * Constructor.
          *
-         * @param psmIterator a peptide matches iterator
+         * @param keysQueue the queue of the chunks of peptide keys to validate
          * @param identification the identification containing the matches
          * @param identificationFeaturesGenerator the identification features
          * generator used to estimate, store and retrieve identification
@@ -1636,9 +2038,9 @@ public class MatchesValidator {
          * of validated peptides per fraction
          * @param metrics the object used to store metrics on the project
          */
-        public PeptideValidatorRunnable(PeptideMatchesIterator peptideMatchesIterator, Identification identification, IdentificationFeaturesGenerator identificationFeaturesGenerator, GeneMaps geneMaps,
+        public PeptideValidatorRunnable(ConcurrentLinkedQueue<ArrayList<String>> keysQueue, Identification identification, IdentificationFeaturesGenerator identificationFeaturesGenerator, GeneMaps geneMaps,
                 IdentificationParameters identificationParameters, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler, Metrics metrics) {
-            this.peptideMatchesIterator = peptideMatchesIterator;
+            this.keysQueue = keysQueue;
             this.identification = identification;
             this.identificationFeaturesGenerator = identificationFeaturesGenerator;
             this.geneMaps = geneMaps;
@@ -1651,77 +2053,83 @@ public class MatchesValidator {
         @Override
         public void run() {
             try {
-                while (peptideMatchesIterator.hasNext() && !waitingHandler.isRunCanceled()) {
+                ArrayList<UrParameter> parameters = new ArrayList<UrParameter>(1);
+                parameters.add(new PSParameter());
+                ArrayList<String> keys;
+                while ((keys = keysQueue.poll()) != null && !waitingHandler.isRunCanceled()) {
+                    PeptideMatchesIterator peptideMatchesIterator = identification.getPeptideMatchesIterator(keys, parameters, false, parameters, waitingHandler);
+                    while (peptideMatchesIterator.hasNext() && !waitingHandler.isRunCanceled()) {
 
-                    PeptideMatch peptideMatch = peptideMatchesIterator.next();
+                        PeptideMatch peptideMatch = peptideMatchesIterator.next();
 
-                    if (peptideMatch != null) {
+                        if (peptideMatch != null) {
 
-                        String peptideKey = peptideMatch.getKey();
+                            String peptideKey = peptideMatch.getKey();
 
-                        updatePeptideMatchValidationLevel(identification, identificationFeaturesGenerator, geneMaps, identificationParameters, peptideMap, peptideKey);
+                            updatePeptideMatchValidationLevel(identification, identificationFeaturesGenerator, geneMaps, identificationParameters, peptideMap, peptideKey);
 
-                        // set the fraction details
-                        PSParameter psParameter = new PSParameter();
-                        psParameter = (PSParameter) identification.getPeptideMatchParameter(peptideKey, psParameter);
+                            // set the fraction details
+                            PSParameter psParameter = new PSParameter();
+                            psParameter = (PSParameter) identification.getPeptideMatchParameter(peptideKey, psParameter);
 
-                        if (psParameter.getMatchValidationLevel().isValidated()) {
-                            double length = Peptide.getSequence(peptideKey).length();
-                            validatedPeptideLengths.add(length);
-                        }
+                            if (psParameter.getMatchValidationLevel().isValidated()) {
+                                double length = Peptide.getSequence(peptideKey).length();
+                                validatedPeptideLengths.add(length);
+                            }
 
-                        // @TODO: could be a better more elegant way of doing this?
-                        HashMap<String, Integer> validatedPsmsPerFraction = new HashMap<String, Integer>(psParameter.getFractions().size());
-                        HashMap<String, ArrayList<Double>> precursorIntensitesPerFractionPeptideLevel = new HashMap<String, ArrayList<Double>>(psParameter.getFractions().size());
+                            // @TODO: could be a better more elegant way of doing this?
+                            HashMap<String, Integer> validatedPsmsPerFraction = new HashMap<String, Integer>(psParameter.getFractions().size());
+                            HashMap<String, ArrayList<Double>> precursorIntensitesPerFractionPeptideLevel = new HashMap<String, ArrayList<Double>>(psParameter.getFractions().size());
 
-                        for (String fractionName : psParameter.getFractions()) {
+                            for (String fractionName : psParameter.getFractions()) {
 
-                            ArrayList<Double> precursorIntensities = new ArrayList<Double>();
+                                ArrayList<Double> precursorIntensities = new ArrayList<Double>();
 
-                            String peptideFractionKey = fractionName + "_" + peptideKey;
-                            if (metrics.getFractionPsmMatches().get(peptideFractionKey) != null) {
-                                ArrayList<String> spectrumKeys = metrics.getFractionPsmMatches().get(peptideFractionKey);
+                                String peptideFractionKey = fractionName + "_" + peptideKey;
+                                if (metrics.getFractionPsmMatches().get(peptideFractionKey) != null) {
+                                    ArrayList<String> spectrumKeys = metrics.getFractionPsmMatches().get(peptideFractionKey);
 
-                                for (String spectrumKey : spectrumKeys) {
+                                    for (String spectrumKey : spectrumKeys) {
 
-                                    PSParameter psParameter2 = (PSParameter) identification.getSpectrumMatchParameter(spectrumKey, psParameter);
-                                    if (psParameter2.getMatchValidationLevel().isValidated()) {
-                                        if (validatedPsmsPerFraction.containsKey(fractionName)) {
-                                            Integer value = validatedPsmsPerFraction.get(fractionName);
-                                            validatedPsmsPerFraction.put(fractionName, value + 1);
-                                        } else {
-                                            validatedPsmsPerFraction.put(fractionName, 1);
-                                        }
-                                        if (SpectrumFactory.getInstance().getPrecursor(spectrumKey).getIntensity() > 0) {
-                                            // @TODO: replace by an mgf index map? (have to add intensity map to the index first...)
-                                            precursorIntensities.add(SpectrumFactory.getInstance().getPrecursor(spectrumKey).getIntensity());
+                                        PSParameter psParameter2 = (PSParameter) identification.getSpectrumMatchParameter(spectrumKey, psParameter);
+                                        if (psParameter2.getMatchValidationLevel().isValidated()) {
+                                            if (validatedPsmsPerFraction.containsKey(fractionName)) {
+                                                Integer value = validatedPsmsPerFraction.get(fractionName);
+                                                validatedPsmsPerFraction.put(fractionName, value + 1);
+                                            } else {
+                                                validatedPsmsPerFraction.put(fractionName, 1);
+                                            }
+                                            if (SpectrumFactory.getInstance().getPrecursor(spectrumKey).getIntensity() > 0) {
+                                                // @TODO: replace by an mgf index map? (have to add intensity map to the index first...)
+                                                precursorIntensities.add(SpectrumFactory.getInstance().getPrecursor(spectrumKey).getIntensity());
+                                            }
                                         }
-                                    }
-                                    if (waitingHandler != null) {
-                                        if (waitingHandler.isRunCanceled()) {
-                                            return;
+                                        if (waitingHandler != null) {
+                                            if (waitingHandler.isRunCanceled()) {
+                                                return;
+                                            }
                                         }
                                     }
                                 }
-                            }
 
-                            precursorIntensitesPerFractionPeptideLevel.put(fractionName, precursorIntensities);
+                                precursorIntensitesPerFractionPeptideLevel.put(fractionName, precursorIntensities);
 
-                            // save the total number of peptides per fraction
-                            if (psParameter.getMatchValidationLevel().isValidated()) {
-                                addValidatedPeptideForFraction(fractionName);
+                                // save the total number of peptides per fraction
+                                if (psParameter.getMatchValidationLevel().isValidated()) {
+                                    addValidatedPeptideForFraction(fractionName);
+                                }
                             }
-                        }
 
-                        // set the number of validated spectra per fraction for each peptide
-                        psParameter.setFractionValidatedSpectra(validatedPsmsPerFraction);
-                        psParameter.setPrecursorIntensityPerFraction(precursorIntensitesPerFractionPeptideLevel);
+                            // set the number of validated spectra per fraction for each peptide
+                            psParameter.setFractionValidatedSpectra(validatedPsmsPerFraction);
+                            psParameter.setPrecursorIntensityPerFraction(precursorIntensitesPerFractionPeptideLevel);
 
-                        identification.updatePeptideMatchParameter(peptideKey, psParameter);
-                        if (waitingHandler != null) {
-                            waitingHandler.increaseSecondaryProgressCounter();
-                        }
+                            identification.updatePeptideMatchParameter(peptideKey, psParameter);
+                            if (waitingHandler != null) {
+                                waitingHandler.increaseSecondaryProgressCounter();
+                            }
 
+                        }
                     }
                 }
             } catch (Exception e) {
@@ -1773,9 +2181,9 @@ public class MatchesValidator {
     private class ProteinValidatorRunnable implements Runnable {
 
         /**
-         * An iterator for the protein matches.
+         * The queue of the chunks of protein keys to validate.
          */
-        private ProteinMatchesIterator proteinMatchesIterator;
+        private final ConcurrentLinkedQueue<ArrayList<String>> keysQueue;
         /**
          * The identification.
          */
@@ -1827,7 +2235,7 @@ public class MatchesValidator {
         /**
          * Constructor.
          *
-         * @param proteinMatchesIterator a protein matches iterator
+         * @param keysQueue the queue of the chunks of protein keys to validate
          * @param identification the identification containing the matches
          * @param identificationFeaturesGenerator the identification features
          * generator used to estimate, store and retrieve identification
@@ -1840,9 +2248,9 @@ public class MatchesValidator {
          * canceling the process
          * @param exceptionHandler handler for exceptions
          */
-        public ProteinValidatorRunnable(ProteinMatchesIterator proteinMatchesIterator, Identification identification, IdentificationFeaturesGenerator identificationFeaturesGenerator, GeneMaps geneMaps, Metrics metrics,
+        public ProteinValidatorRunnable(ConcurrentLinkedQueue<ArrayList<String>> keysQueue, Identification identification, IdentificationFeaturesGenerator identificationFeaturesGenerator, GeneMaps geneMaps, Metrics metrics,
                 IdentificationParameters identificationParameters, SpectrumCountingPreferences spectrumCountingPreferences, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler) {
-            this.proteinMatchesIterator = proteinMatchesIterator;
+            this.keysQueue = keysQueue;
             this.identification = identification;
             this.identificationFeaturesGenerator = identificationFeaturesGenerator;
             this.geneMaps = geneMaps;
@@ -1873,113 +2281,114 @@ public class MatchesValidator {
                 int maxValidatedPeptidesFractionLevel = 0;
                 double maxProteinAveragePrecursorIntensity = 0.0, maxProteinSummedPrecursorIntensity = 0.0;
 
-                while (proteinMatchesIterator.hasNext() && !waitingHandler.isRunCanceled()) {
-                    ProteinMatch proteinMatch = proteinMatchesIterator.next();
-                    if (proteinMatch != null) {
-
-                        String proteinKey = proteinMatch.getKey();
-                        updateProteinMatchValidationLevel(identification, identificationFeaturesGenerator, geneMaps, identificationParameters,
-                                targetDecoyMap, proteinThreshold, nTargetLimit, proteinConfidentThreshold, noValidated, proteinKey);
-
-                        // set the fraction details
-                        PSParameter psParameter = new PSParameter();
-                        psParameter = (PSParameter) identification.getProteinMatchParameter(proteinKey, psParameter);
+                ArrayList<UrParameter> parameters = new ArrayList<UrParameter>(1);
+                parameters.add(new PSParameter());
+                ArrayList<String> keys;
+                while ((keys = keysQueue.poll()) != null && !waitingHandler.isRunCanceled()) {
+                    ProteinMatchesIterator proteinMatchesIterator = identification.getProteinMatchesIterator(keys, parameters, true, parameters, false, null, waitingHandler);
+                    while (proteinMatchesIterator.hasNext() && !waitingHandler.isRunCanceled()) {
+                        ProteinMatch proteinMatch = proteinMatchesIterator.next();
+                        if (proteinMatch != null) {
+
+                            String proteinKey = proteinMatch.getKey();
+                            updateProteinMatchValidationLevel(identification, identificationFeaturesGenerator, geneMaps, identificationParameters,
+                                    targetDecoyMap, proteinThreshold, nTargetLimit, proteinConfidentThreshold, noValidated, proteinKey);
+
+                            // set the fraction details
+                            PSParameter psParameter = new PSParameter();
+                            psParameter = (PSParameter) identification.getProteinMatchParameter(proteinKey, psParameter);
                         
-                        if (psParameter == null) {
-                            System.out.println("Null parameter: " + proteinKey);
-                        } else if (psParameter.getMatchValidationLevel() == null) {
-                            System.out.println("Null validation level: " + proteinKey);
-                        }
-
-                        if (!proteinMatch.isDecoy() && psParameter.getMatchValidationLevel().getIndex() >= spectrumCountingPreferences.getMatchValidationLevel()) {
-                            double tempSpectrumCounting = identificationFeaturesGenerator.getSpectrumCounting(proteinKey);
-                            increaseSpectrumCounting(tempSpectrumCounting);
-                            double molecularWeight = sequenceFactory.computeMolecularWeight(proteinMatch.getMainMatch());
-                            double massContribution = molecularWeight * tempSpectrumCounting;
-                            increaseSpectrumCountingMass(massContribution);
-                        }
-                        // Load the coverage in cache
-                        if (!proteinMatch.isDecoy() && psParameter.getMatchValidationLevel().isValidated()) {
-                            identificationFeaturesGenerator.getSequenceCoverage(proteinKey);
-                        }
+                            if (psParameter == null) {
+                                System.out.println("Null parameter: " + proteinKey);
+                            } else if (psParameter.getMatchValidationLevel() == null) {
+                                System.out.println("Null validation level: " + proteinKey);
+                            }
 
-                        // @TODO: could be a better more elegant way of doing this?
-                        HashMap<String, Integer> validatedPsmsPerFraction = new HashMap<String, Integer>();
-                        HashMap<String, Integer> validatedPeptidesPerFraction = new HashMap<String, Integer>();
-                        HashMap<String, ArrayList<Double>> precursorIntensitesPerFractionProteinLevel = new HashMap<String, ArrayList<Double>>();
-                        ArrayList<String> peptideKeys = identification.getProteinMatch(proteinKey).getPeptideMatchesKeys();
+                            if (!proteinMatch.isDecoy() && psParameter.getMatchValidationLevel().getIndex() >= spectrumCountingPreferences.getMatchValidationLevel()) {
+                                double tempSpectrumCounting = identificationFeaturesGenerator.getSpectrumCounting(proteinKey);
+                                increaseSpectrumCounting(tempSpectrumCounting);
+                                double molecularWeight = sequenceFactory.computeMolecularWeight(proteinMatch.getMainMatch());
+                                double massContribution = molecularWeight * tempSpectrumCounting;
+                                increaseSpectrumCountingMass(massContribution);
+                            }
+                            // @TODO: could be a better more elegant way of doing this?
+                            HashMap<String, Integer> validatedPsmsPerFraction = new HashMap<String, Integer>();
+                            HashMap<String, Integer> validatedPeptidesPerFraction = new HashMap<String, Integer>();
+                            HashMap<String, ArrayList<Double>> precursorIntensitesPerFractionProteinLevel = new HashMap<String, ArrayList<Double>>();
+                            ArrayList<String> peptideKeys = identification.getProteinMatch(proteinKey).getPeptideMatchesKeys();
 
-                        for (String currentPeptideKey : peptideKeys) {
+                            for (String currentPeptideKey : peptideKeys) {
 
-                            PSParameter psParameter2 = (PSParameter) identification.getPeptideMatchParameter(currentPeptideKey, psParameter);
+                                PSParameter psParameter2 = (PSParameter) identification.getPeptideMatchParameter(currentPeptideKey, psParameter);
 
-                            for (String fraction : psParameter2.getFractions()) {
+                                for (String fraction : psParameter2.getFractions()) {
 
-                                if (psParameter2.getFractionValidatedSpectra(fraction) != null) {
-                                    if (validatedPsmsPerFraction.containsKey(fraction)) {
-                                        Integer value = validatedPsmsPerFraction.get(fraction);
-                                        validatedPsmsPerFraction.put(fraction, value + psParameter2.getFractionValidatedSpectra(fraction));
-                                    } else {
-                                        validatedPsmsPerFraction.put(fraction, psParameter2.getFractionValidatedSpectra(fraction));
-                                    }
+                                    if (psParameter2.getFractionValidatedSpectra(fraction) != null) {
+                                        if (validatedPsmsPerFraction.containsKey(fraction)) {
+                                            Integer value = validatedPsmsPerFraction.get(fraction);
+                                            validatedPsmsPerFraction.put(fraction, value + psParameter2.getFractionValidatedSpectra(fraction));
+                                        } else {
+                                            validatedPsmsPerFraction.put(fraction, psParameter2.getFractionValidatedSpectra(fraction));
+                                        }
 
-                                    if (validatedPsmsPerFraction.get(fraction) > maxValidatedSpectraFractionLevel) {
-                                        maxValidatedSpectraFractionLevel = validatedPsmsPerFraction.get(fraction);
+                                        if (validatedPsmsPerFraction.get(fraction) > maxValidatedSpectraFractionLevel) {
+                                            maxValidatedSpectraFractionLevel = validatedPsmsPerFraction.get(fraction);
+                                        }
                                     }
-                                }
 
-                                ArrayList<Double> peptideIntensities = psParameter2.getPrecursorIntensityPerFraction(fraction);
-                                if (peptideIntensities != null) {
-                                    ArrayList<Double> proteinIntensities = precursorIntensitesPerFractionProteinLevel.get(fraction);
-                                    if (proteinIntensities != null) {
-                                        proteinIntensities.addAll(peptideIntensities);
-                                    } else {
-                                        precursorIntensitesPerFractionProteinLevel.put(fraction, new ArrayList<Double>(peptideIntensities));
+                                    ArrayList<Double> peptideIntensities = psParameter2.getPrecursorIntensityPerFraction(fraction);
+                                    if (peptideIntensities != null) {
+                                        ArrayList<Double> proteinIntensities = precursorIntensitesPerFractionProteinLevel.get(fraction);
+                                        if (proteinIntensities != null) {
+                                            proteinIntensities.addAll(peptideIntensities);
+                                        } else {
+                                            precursorIntensitesPerFractionProteinLevel.put(fraction, new ArrayList<Double>(peptideIntensities));
+                                        }
                                     }
-                                }
 
-                                if (psParameter2.getMatchValidationLevel().isValidated()) {
-                                    if (validatedPeptidesPerFraction.containsKey(fraction)) {
-                                        Integer value = validatedPeptidesPerFraction.get(fraction);
-                                        validatedPeptidesPerFraction.put(fraction, value + 1);
-                                    } else {
-                                        validatedPeptidesPerFraction.put(fraction, 1);
-                                    }
+                                    if (psParameter2.getMatchValidationLevel().isValidated()) {
+                                        if (validatedPeptidesPerFraction.containsKey(fraction)) {
+                                            Integer value = validatedPeptidesPerFraction.get(fraction);
+                                            validatedPeptidesPerFraction.put(fraction, value + 1);
+                                        } else {
+                                            validatedPeptidesPerFraction.put(fraction, 1);
+                                        }
 
-                                    if (validatedPeptidesPerFraction.get(fraction) > maxValidatedPeptidesFractionLevel) {
-                                        maxValidatedPeptidesFractionLevel = validatedPeptidesPerFraction.get(fraction);
+                                        if (validatedPeptidesPerFraction.get(fraction) > maxValidatedPeptidesFractionLevel) {
+                                            maxValidatedPeptidesFractionLevel = validatedPeptidesPerFraction.get(fraction);
+                                        }
                                     }
                                 }
-                            }
 
-                            if (waitingHandler != null) {
-                                if (waitingHandler.isRunCanceled()) {
-                                    return;
+                                if (waitingHandler != null) {
+                                    if (waitingHandler.isRunCanceled()) {
+                                        return;
+                                    }
                                 }
                             }
-                        }
 
-                        // set the number of validated spectra and peptides per fraction for each protein
-                        if (psParameter.getFractions().size() > 1) {
-                            psParameter.setFractionValidatedSpectra(validatedPsmsPerFraction);
-                            psParameter.setFractionValidatedPeptides(validatedPeptidesPerFraction);
-                            psParameter.setPrecursorIntensityPerFraction(precursorIntensitesPerFractionProteinLevel);
-                            for (String fraction : psParameter.getFractions()) {
-                                if (psParameter.getPrecursorIntensityAveragePerFraction(fraction) != null) {
-                                    if (psParameter.getPrecursorIntensityAveragePerFraction(fraction) > maxProteinAveragePrecursorIntensity) {
-                                        maxProteinAveragePrecursorIntensity = psParameter.getPrecursorIntensityAveragePerFraction(fraction);
-                                    }
-                                    if (psParameter.getPrecursorIntensitySummedPerFraction(fraction) != null && psParameter.getPrecursorIntensitySummedPerFraction(fraction) > maxProteinSummedPrecursorIntensity) {
-                                        maxProteinAveragePrecursorIntensity = psParameter.getPrecursorIntensitySummedPerFraction(fraction);
+                            // set the number of validated spectra and peptides per fraction for each protein
+                            if (psParameter.getFractions().size() > 1) {
+                                psParameter.setFractionValidatedSpectra(validatedPsmsPerFraction);
+                                psParameter.setFractionValidatedPeptides(validatedPeptidesPerFraction);
+                                psParameter.setPrecursorIntensityPerFraction(precursorIntensitesPerFractionProteinLevel);
+                                for (String fraction : psParameter.getFractions()) {
+                                    if (psParameter.getPrecursorIntensityAveragePerFraction(fraction) != null) {
+                                        if (psParameter.getPrecursorIntensityAveragePerFraction(fraction) > maxProteinAveragePrecursorIntensity) {
+                                            maxProteinAveragePrecursorIntensity = psParameter.getPrecursorIntensityAveragePerFraction(fraction);
+                                        }
+                                        if (psParameter.getPrecursorIntensitySummedPerFraction(fraction) != null && psParameter.getPrecursorIntensitySummedPerFraction(fraction) > maxProteinSummedPrecursorIntensity) {
+                                            maxProteinAveragePrecursorIntensity = psParameter.getPrecursorIntensitySummedPerFraction(fraction);
+                                        }
                                     }
                                 }
                             }
-                        }
 
-                        identification.updateProteinMatchParameter(proteinKey, psParameter);
+                            identification.updateProteinMatchParameter(proteinKey, psParameter);
 
-                        if (waitingHandler != null) {
-                            waitingHandler.increaseSecondaryProgressCounter();
+                            if (waitingHandler != null) {
+                                waitingHandler.increaseSecondaryProgressCounter();
+                            }
                         }
                     }
                 }
@@ -0,0 +1,657 @@
+package eu.isas.peptideshaker.validation;
+
+import com.compomics.util.experiment.identification.Identification;
+import com.compomics.util.experiment.identification.matches.PeptideMatch;
+import com.compomics.util.experiment.identification.matches.ProteinMatch;
+import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import com.compomics.util.experiment.identification.matches_iterators.PeptideMatchesIterator;
+import com.compomics.util.experiment.identification.matches_iterators.ProteinMatchesIterator;
+import com.compomics.util.experiment.identification.matches_iterators.PsmIterator;
+import com.compomics.util.experiment.identification.protein_sequences.SequenceFactory;
+import com.compomics.util.experiment.massspectrometry.Spectrum;
+import com.compomics.util.experiment.personalization.UrParameter;
+import com.compomics.util.preferences.ValidationQCPreferences;
+import com.compomics.util.waiting.WaitingHandler;
+import eu.isas.peptideshaker.parameters.PSParameter;
+import eu.isas.peptideshaker.scoring.MatchValidationLevel;
+import eu.isas.peptideshaker.scoring.maps.PeptideSpecificMap;
+import eu.isas.peptideshaker.scoring.maps.ProteinMap;
+import eu.isas.peptideshaker.scoring.maps.PsmSpecificMap;
+import eu.isas.peptideshaker.scoring.targetdecoy.TargetDecoyMap;
+import eu.isas.peptideshaker.scoring.targetdecoy.TargetDecoyResults;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+/**
+ * In memory index of the scores and validation levels of the PSMs, peptides
+ * and proteins of an identification, and of the dependencies between them.
+ * When only the target/decoy thresholds change, the index allows selecting
+ * the matches whose validation level can change without reading the matches
+ * from the database. The scores and confidences are set when the index is
+ * built, the validation levels must be updated after every validation.
+ *
+ * @author Marc Vaudel
+ */
+public class ValidationIndex {
+
+    /**
+     * The identification indexed.
+     */
+    private final Identification identification;
+    /**
+     * The scores and validation levels of the PSMs.
+     */
+    private final MatchLevels psms;
+    /**
+     * The scores and validation levels of the peptides.
+     */
+    private final MatchLevels peptides;
+    /**
+     * The scores and validation levels of the proteins.
+     */
+    private final MatchLevels proteins;
+    /**
+     * The index of the peptide of every PSM, -1 if none.
+     */
+    private final int[] psmPeptides;
+    /**
+     * The indexes of the proteins of every peptide.
+     */
+    private final int[][] peptideProteins;
+    /**
+     * The main accession of every protein.
+     */
+    private final String[] proteinMainAccessions;
+    /**
+     * Indicates for every protein whether it is a decoy.
+     */
+    private final boolean[] proteinDecoys;
+
+    /**
+     * Constructor. Builds the index from the matches of the identification.
+     *
+     * @param identification the identification containing the matches
+     * @param psmMap the PSM level target/decoy scoring map
+     * @param peptideMap the peptide level target/decoy scoring map
+     * @param proteinMap the protein level target/decoy scoring map
+     * @param waitingHandler the handler displaying feedback to the user, can
+     * be null
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interacting with the back-end database
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing a file
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing an object
+     * @throws InterruptedException exception thrown whenever a threading error
+     * occurred
+     */
+    public ValidationIndex(Identification identification, PsmSpecificMap psmMap, PeptideSpecificMap peptideMap, ProteinMap proteinMap,
+            WaitingHandler waitingHandler) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+
+        this.identification = identification;
+
+        PSParameter psParameter = new PSParameter();
+        ArrayList<UrParameter> parameters = new ArrayList<UrParameter>(1);
+        parameters.add(psParameter);
+
+        // peptides
+        int nPeptides = identification.getPeptideIdentification().size();
+        peptides = new MatchLevels(nPeptides);
+        HashMap<String, Integer> peptideIndexes = new HashMap<String, Integer>(nPeptides);
+        HashMap<String, Integer> spectrumPeptides = new HashMap<String, Integer>(identification.getSpectrumIdentificationSize());
+        PeptideMatchesIterator peptideMatchesIterator = identification.getPeptideMatchesIterator(parameters, false, null, waitingHandler);
+        while (peptideMatchesIterator.hasNext()) {
+            PeptideMatch peptideMatch = peptideMatchesIterator.next();
+            String peptideKey = peptideMatch.getKey();
+            psParameter = (PSParameter) identification.getPeptideMatchParameter(peptideKey, psParameter);
+            TargetDecoyMap targetDecoyMap = peptideMap.getTargetDecoyMap(peptideMap.getCorrectedKey(psParameter.getSpecificMapKey()));
+            int peptideIndex = peptides.add(peptideKey, psParameter.getPeptideProbabilityScore(), psParameter.getPeptideConfidence(),
+                    psParameter.getMatchValidationLevel(), targetDecoyMap, false);
+            peptideIndexes.put(peptideKey, peptideIndex);
+            for (String spectrumKey : peptideMatch.getSpectrumMatchesKeys()) {
+                spectrumPeptides.put(spectrumKey, peptideIndex);
+            }
+            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                break;
+            }
+        }
+        peptides.trim();
+
+        // PSMs
+        psms = new MatchLevels(identification.getSpectrumIdentificationSize());
+        int[] psmPeptidesArray = new int[identification.getSpectrumIdentificationSize()];
+        for (String spectrumFileName : identification.getSpectrumFiles()) {
+            PsmIterator psmIterator = identification.getPsmIterator(spectrumFileName, parameters, false, waitingHandler);
+            while (psmIterator.hasNext()) {
+                SpectrumMatch spectrumMatch = psmIterator.next();
+                String spectrumKey = spectrumMatch.getKey();
+                psParameter = (PSParameter) identification.getSpectrumMatchParameter(spectrumKey, psParameter);
+                TargetDecoyMap targetDecoyMap = psmMap.getTargetDecoyMap(new Integer(psParameter.getSpecificMapKey()), Spectrum.getSpectrumFile(spectrumKey));
+                int psmIndex = psms.add(spectrumKey, psParameter.getPsmProbabilityScore(), psParameter.getPsmConfidence(),
+                        psParameter.getMatchValidationLevel(), targetDecoyMap, false);
+                if (psmIndex == psmPeptidesArray.length) {
+                    psmPeptidesArray = Arrays.copyOf(psmPeptidesArray, 2 * psmIndex + 1);
+                }
+                Integer peptideIndex = spectrumPeptides.get(spectrumKey);
+                psmPeptidesArray[psmIndex] = peptideIndex == null ? -1 : peptideIndex;
+                if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                    break;
+                }
+            }
+        }
+        psms.trim();
+        psmPeptides = Arrays.copyOf(psmPeptidesArray, psms.size());
+
+        // proteins
+        int nProteins = identification.getProteinIdentification().size();
+        proteins = new MatchLevels(nProteins);
+        ArrayList<String> proteinMainAccessionsList = new ArrayList<String>(nProteins);
+        boolean[] proteinDecoysArray = new boolean[nProteins];
+        int[] peptideDegrees = new int[peptides.size()];
+        ArrayList<int[]> proteinPeptides = new ArrayList<int[]>(nProteins);
+        TargetDecoyMap proteinTargetDecoyMap = proteinMap.getTargetDecoyMap();
+        ProteinMatchesIterator proteinMatchesIterator = identification.getProteinMatchesIterator(parameters, false, null, false, null, waitingHandler);
+        while (proteinMatchesIterator.hasNext()) {
+            ProteinMatch proteinMatch = proteinMatchesIterator.next();
+            String proteinKey = proteinMatch.getKey();
+            psParameter = (PSParameter) identification.getProteinMatchParameter(proteinKey, psParameter);
+            int proteinIndex = proteins.add(proteinKey, psParameter.getProteinProbabilityScore(), psParameter.getProteinConfidence(),
+                    psParameter.getMatchValidationLevel(), proteinTargetDecoyMap, psParameter.isManualValidation());
+            proteinMainAccessionsList.add(proteinMatch.getMainMatch());
+            if (proteinIndex == proteinDecoysArray.length) {
+                proteinDecoysArray = Arrays.copyOf(proteinDecoysArray, 2 * proteinIndex + 1);
+            }
+            proteinDecoysArray[proteinIndex] = proteinMatch.isDecoy();
+            ArrayList<String> peptideKeys = proteinMatch.getPeptideMatchesKeys();
+            int[] peptideNodes = new int[peptideKeys.size()];
+            int nPeptideNodes = 0;
+            for (String peptideKey : peptideKeys) {
+                Integer peptideIndex = peptideIndexes.get(peptideKey);
+                if (peptideIndex != null) {
+                    peptideNodes[nPeptideNodes++] = peptideIndex;
+                    peptideDegrees[peptideIndex]++;
+                }
+            }
+            proteinPeptides.add(Arrays.copyOf(peptideNodes, nPeptideNodes));
+            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                break;
+            }
+        }
+        proteins.trim();
+        proteinMainAccessions = proteinMainAccessionsList.toArray(new String[proteinMainAccessionsList.size()]);
+        proteinDecoys = Arrays.copyOf(proteinDecoysArray, proteins.size());
+
+        // peptide to protein adjacency
+        peptideProteins = new int[peptides.size()][];
+        for (int i = 0; i < peptideProteins.length; i++) {
+            peptideProteins[i] = new int[peptideDegrees[i]];
+            peptideDegrees[i] = 0;
+        }
+        for (int proteinIndex = 0; proteinIndex < proteinPeptides.size(); proteinIndex++) {
+            for (int peptideIndex : proteinPeptides.get(proteinIndex)) {
+                peptideProteins[peptideIndex][peptideDegrees[peptideIndex]++] = proteinIndex;
+            }
+        }
+    }
+
+    /**
+     * Indicates whether the index was built for the given identification.
+     *
+     * @param identification the identification of interest
+     *
+     * @return a boolean indicating whether the index was built for the given
+     * identification
+     */
+    public boolean isIndexing(Identification identification) {
+        return this.identification == identification;
+    }
+
+    /**
+     * Returns the scores and validation levels of the PSMs.
+     *
+     * @return the scores and validation levels of the PSMs
+     */
+    public MatchLevels getPsms() {
+        return psms;
+    }
+
+    /**
+     * Returns the scores and validation levels of the peptides.
+     *
+     * @return the scores and validation levels of the peptides
+     */
+    public MatchLevels getPeptides() {
+        return peptides;
+    }
+
+    /**
+     * Returns the scores and validation levels of the proteins.
+     *
+     * @return the scores and validation levels of the proteins
+     */
+    public MatchLevels getProteins() {
+        return proteins;
+    }
+
+    /**
+     * Updates the validation levels of the selected PSMs from the
+     * identification and returns the PSMs whose level changed.
+     *
+     * @param selection the selected PSMs
+     *
+     * @return the PSMs whose validation level changed
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interacting with the back-end database
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing a file
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing an object
+     * @throws InterruptedException exception thrown whenever a threading error
+     * occurred
+     */
+    public boolean[] updatePsmLevels(boolean[] selection) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+        PSParameter psParameter = new PSParameter();
+        identification.loadSpectrumMatchParameters(psms.getKeys(selection), psParameter, null, false);
+        boolean[] changed = new boolean[psms.size()];
+        for (int i = 0; i < selection.length; i++) {
+            if (selection[i]) {
+                psParameter = (PSParameter) identification.getSpectrumMatchParameter(psms.getKey(i), psParameter);
+                changed[i] = psms.setLevel(i, psParameter.getMatchValidationLevel());
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Updates the validation levels of the selected peptides from the
+     * identification and returns the peptides whose level changed.
+     *
+     * @param selection the selected peptides
+     *
+     * @return the peptides whose validation level changed
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interacting with the back-end database
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing a file
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing an object
+     * @throws InterruptedException exception thrown whenever a threading error
+     * occurred
+     */
+    public boolean[] updatePeptideLevels(boolean[] selection) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+        PSParameter psParameter = new PSParameter();
+        identification.loadPeptideMatchParameters(peptides.getKeys(selection), psParameter, null, false);
+        boolean[] changed = new boolean[peptides.size()];
+        for (int i = 0; i < selection.length; i++) {
+            if (selection[i]) {
+                psParameter = (PSParameter) identification.getPeptideMatchParameter(peptides.getKey(i), psParameter);
+                changed[i] = peptides.setLevel(i, psParameter.getMatchValidationLevel());
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Updates the validation levels of the selected proteins from the
+     * identification and returns the proteins whose level changed.
+     *
+     * @param selection the selected proteins
+     *
+     * @return the proteins whose validation level changed
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interacting with the back-end database
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing a file
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing an object
+     * @throws InterruptedException exception thrown whenever a threading error
+     * occurred
+     */
+    public boolean[] updateProteinLevels(boolean[] selection) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+        PSParameter psParameter = new PSParameter();
+        identification.loadProteinMatchParameters(proteins.getKeys(selection), psParameter, null, false);
+        boolean[] changed = new boolean[proteins.size()];
+        for (int i = 0; i < selection.length; i++) {
+            if (selection[i]) {
+                psParameter = (PSParameter) identification.getProteinMatchParameter(proteins.getKey(i), psParameter);
+                changed[i] = proteins.setLevel(i, psParameter.getMatchValidationLevel());
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Selects the peptides of the selected PSMs.
+     *
+     * @param psmSelection the selected PSMs
+     * @param peptideSelection the peptide selection to complete
+     */
+    public void selectPeptidesOfPsms(boolean[] psmSelection, boolean[] peptideSelection) {
+        for (int i = 0; i < psmSelection.length; i++) {
+            if (psmSelection[i] && psmPeptides[i] >= 0) {
+                peptideSelection[psmPeptides[i]] = true;
+            }
+        }
+    }
+
+    /**
+     * Selects the proteins of the selected peptides.
+     *
+     * @param peptideSelection the selected peptides
+     * @param proteinSelection the protein selection to complete
+     */
+    public void selectProteinsOfPeptides(boolean[] peptideSelection, boolean[] proteinSelection) {
+        for (int i = 0; i < peptideSelection.length; i++) {
+            if (peptideSelection[i]) {
+                for (int proteinIndex : peptideProteins[i]) {
+                    proteinSelection[proteinIndex] = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the main accession of a protein.
+     *
+     * @param proteinIndex the index of the protein
+     *
+     * @return the main accession of the protein
+     */
+    public String getProteinMainAccession(int proteinIndex) {
+        return proteinMainAccessions[proteinIndex];
+    }
+
+    /**
+     * Indicates whether a protein is a decoy.
+     *
+     * @param proteinIndex the index of the protein
+     *
+     * @return a boolean indicating whether the protein is a decoy
+     */
+    public boolean isProteinDecoy(int proteinIndex) {
+        return proteinDecoys[proteinIndex];
+    }
+
+    /**
+     * The scores, confidences, target/decoy maps and validation levels of the
+     * matches of a given type, indexed by match.
+     *
+     * @author Marc Vaudel
+     */
+    public static class MatchLevels {
+
+        /**
+         * The number of matches.
+         */
+        private int size = 0;
+        /**
+         * The keys of the matches.
+         */
+        private String[] keys;
+        /**
+         * The probabilistic scores of the matches.
+         */
+        private double[] scores;
+        /**
+         * The confidences of the matches.
+         */
+        private double[] confidences;
+        /**
+         * The validation level indexes of the matches.
+         */
+        private byte[] levels;
+        /**
+         * The target/decoy maps of the matches, null if not found.
+         */
+        private TargetDecoyMap[] targetDecoyMaps;
+        /**
+         * Indicates for every match whether it was manually validated.
+         */
+        private boolean[] manualValidation;
+
+        /**
+         * Constructor.
+         *
+         * @param expectedSize the expected number of matches
+         */
+        private MatchLevels(int expectedSize) {
+            int capacity = Math.max(expectedSize, 1);
+            keys = new String[capacity];
+            scores = new double[capacity];
+            confidences = new double[capacity];
+            levels = new byte[capacity];
+            targetDecoyMaps = new TargetDecoyMap[capacity];
+            manualValidation = new boolean[capacity];
+        }
+
+        /**
+         * Adds a match and returns its index.
+         *
+         * @param key the key of the match
+         * @param score the probabilistic score of the match
+         * @param confidence the confidence of the match
+         * @param level the validation level of the match
+         * @param targetDecoyMap the target/decoy map of the match
+         * @param manual indicates whether the match was manually validated
+         *
+         * @return the index of the match
+         */
+        private int add(String key, double score, double confidence, MatchValidationLevel level, TargetDecoyMap targetDecoyMap, boolean manual) {
+            if (size == keys.length) {
+                int capacity = 2 * size;
+                keys = Arrays.copyOf(keys, capacity);
+                scores = Arrays.copyOf(scores, capacity);
+                confidences = Arrays.copyOf(confidences, capacity);
+                levels = Arrays.copyOf(levels, capacity);
+                targetDecoyMaps = Arrays.copyOf(targetDecoyMaps, capacity);
+                manualValidation = Arrays.copyOf(manualValidation, capacity);
+            }
+            keys[size] = key;
+            scores[size] = score;
+            confidences[size] = confidence;
+            levels[size] = (byte) level.getIndex();
+            targetDecoyMaps[size] = targetDecoyMap;
+            manualValidation[size] = manual;
+            return size++;
+        }
+
+        /**
+         * Trims the arrays to the number of matches.
+         */
+        private void trim() {
+            keys = Arrays.copyOf(keys, size);
+            scores = Arrays.copyOf(scores, size);
+            confidences = Arrays.copyOf(confidences, size);
+            levels = Arrays.copyOf(levels, size);
+            targetDecoyMaps = Arrays.copyOf(targetDecoyMaps, size);
+            manualValidation = Arrays.copyOf(manualValidation, size);
+        }
+
+        /**
+         * Returns the number of matches.
+         *
+         * @return the number of matches
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Returns the key of a match.
+         *
+         * @param index the index of the match
+         *
+         * @return the key of the match
+         */
+        public String getKey(int index) {
+            return keys[index];
+        }
+
+        /**
+         * Returns the validation level index of a match as of the last
+         * update.
+         *
+         * @param index the index of the match
+         *
+         * @return the validation level index of the match
+         */
+        public int getLevel(int index) {
+            return levels[index];
+        }
+
+        /**
+         * Sets the validation level of a match and returns a boolean
+         * indicating whether it changed.
+         *
+         * @param index the index of the match
+         * @param level the new validation level
+         *
+         * @return a boolean indicating whether the level changed
+         */
+        public boolean setLevel(int index, MatchValidationLevel level) {
+            byte newLevel = (byte) level.getIndex();
+            boolean changed = levels[index] != newLevel;
+            levels[index] = newLevel;
+            return changed;
+        }
+
+        /**
+         * Returns the keys of the selected matches.
+         *
+         * @param selection the selected matches
+         *
+         * @return the keys of the selected matches
+         */
+        public ArrayList<String> getKeys(boolean[] selection) {
+            ArrayList<String> result = new ArrayList<String>();
+            for (int i = 0; i < size; i++) {
+                if (selection[i]) {
+                    result.add(keys[i]);
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Returns the matches whose validation level can change with the
+         * current thresholds of their target/decoy maps, given that the quality
+         * control filters and the validation of the other matches did not
+         * change. A match is selected when its score is on the other side of
+         * the score threshold, or when its confidence is on the other side of
+         * the confidence threshold. Manually validated matches are skipped if
+         * specified.
+         *
+         * @param validationQCPreferences the validation QC preferences
+         * @param userInputTargetLimit if true, the minimal number of target
+         * hits before the first decoy is estimated from the FDR input by the
+         * user, otherwise from the FDR achieved
+         * @param skipManualValidation if true, manually validated matches are
+         * never selected
+         *
+         * @return the matches whose validation level can change
+         */
+        public boolean[] getCandidates(ValidationQCPreferences validationQCPreferences, boolean userInputTargetLimit, boolean skipManualValidation) {
+
+            boolean[] candidates = new boolean[size];
+            SequenceFactory sequenceFactory = SequenceFactory.getInstance();
+
+            if (!sequenceFactory.concatenatedTargetDecoy()) {
+                return candidates;
+            }
+
+            boolean enoughSequences = !validationQCPreferences.isDbSize() || sequenceFactory.hasEnoughSequences();
+            IdentityHashMap<TargetDecoyMap, Thresholds> thresholdsMap = new IdentityHashMap<TargetDecoyMap, Thresholds>();
+            Thresholds noMapThresholds = new Thresholds(null, validationQCPreferences, userInputTargetLimit);
+
+            for (int i = 0; i < size; i++) {
+
+                if (skipManualValidation && manualValidation[i]) {
+                    continue;
+                }
+
+                TargetDecoyMap targetDecoyMap = targetDecoyMaps[i];
+                Thresholds thresholds = noMapThresholds;
+                if (targetDecoyMap != null) {
+                    thresholds = thresholdsMap.get(targetDecoyMap);
+                    if (thresholds == null) {
+                        thresholds = new Thresholds(targetDecoyMap, validationQCPreferences, userInputTargetLimit);
+                        thresholdsMap.put(targetDecoyMap, thresholds);
+                    }
+                }
+
+                int level = levels[i];
+                if (thresholds.noValidated || scores[i] > thresholds.scoreLimit) {
+                    candidates[i] = level != MatchValidationLevel.not_validated.getIndex();
+                } else if (level != MatchValidationLevel.doubtful.getIndex() && level != MatchValidationLevel.confident.getIndex()) {
+                    candidates[i] = true;
+                } else {
+                    boolean confidentPossible = confidences[i] >= thresholds.confidenceThreshold && thresholds.enoughHits && enoughSequences;
+                    candidates[i] = (level == MatchValidationLevel.confident.getIndex()) != confidentPossible;
+                }
+            }
+
+            return candidates;
+        }
+    }
+
+    /**
+     * The validation thresholds of a target/decoy map.
+     *
+     * @author Marc Vaudel
+     */
+    private static class Thresholds {
+
+        /**
+         * Indicates whether no match is validated.
+         */
+        private final boolean noValidated;
+        /**
+         * The score threshold.
+         */
+        private final double scoreLimit;
+        /**
+         * The confidence threshold above which a match can be confident.
+         */
+        private final double confidenceThreshold;
+        /**
+         * Indicates whether enough target hits were found before the first
+         * decoy.
+         */
+        private final boolean enoughHits;
+
+        /**
+         * Constructor.
+         *
+         * @param targetDecoyMap the target/decoy map, null if not found
+         * @param validationQCPreferences the validation QC preferences
+         * @param userInputTargetLimit if true, the minimal number of target
+         * hits before the first decoy is estimated from the FDR input by the
+         * user, otherwise from the FDR achieved
+         */
+        private Thresholds(TargetDecoyMap targetDecoyMap, ValidationQCPreferences validationQCPreferences, boolean userInputTargetLimit) {
+            if (targetDecoyMap == null) {
+                noValidated = true;
+                scoreLimit = 0;
+                confidenceThreshold = 100;
+                enoughHits = !validationQCPreferences.isFirstDecoy();
+            } else {
+                TargetDecoyResults targetDecoyResults = targetDecoyMap.getTargetDecoyResults();
+                double fdrLimit = userInputTargetLimit ? targetDecoyResults.getUserInput() : targetDecoyResults.getFdrLimit();
+                double nTargetLimit = 100.0 / fdrLimit;
+                noValidated = targetDecoyResults.noValidated();
+                scoreLimit = targetDecoyResults.getScoreLimit();
+                double margin = validationQCPreferences.getConfidenceMargin() * targetDecoyMap.getResolution();
+                confidenceThreshold = Math.min(targetDecoyResults.getConfidenceLimit() + margin, 100);
+                enoughHits = !validationQCPreferences.isFirstDecoy() || targetDecoyMap.getnTargetOnly() > nTargetLimit;
+            }
+        }
+    }
+}
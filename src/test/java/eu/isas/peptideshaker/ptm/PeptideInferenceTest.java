@@ -0,0 +1,229 @@
+package eu.isas.peptideshaker.ptm;
+
+import com.compomics.util.Util;
+import com.compomics.util.db.ObjectsCache;
+import com.compomics.util.exceptions.exception_handlers.CommandLineExceptionHandler;
+import com.compomics.util.experiment.biology.PTMFactory;
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.identification.Advocate;
+import com.compomics.util.experiment.identification.Identification;
+import com.compomics.util.experiment.identification.SpectrumIdentificationAssumption;
+import com.compomics.util.experiment.identification.identification_parameters.SearchParameters;
+import com.compomics.util.experiment.identification.identifications.Ms2Identification;
+import com.compomics.util.experiment.identification.matches.ModificationMatch;
+import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
+import com.compomics.util.experiment.massspectrometry.Charge;
+import com.compomics.util.experiment.massspectrometry.Spectrum;
+import com.compomics.util.gui.waiting.waitinghandlers.WaitingHandlerCLIImpl;
+import com.compomics.util.preferences.IdentificationParameters;
+import com.compomics.util.preferences.ProcessingPreferences;
+import com.compomics.util.waiting.WaitingHandler;
+import eu.isas.peptideshaker.parameters.PSPtmScores;
+import eu.isas.peptideshaker.scoring.maps.PsmPTMMap;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Tests the inference of the sites of ambiguously localized PTMs from the
+ * peptides with confidently localized PTMs on a small identification with
+ * PTMs of two masses, phosphorylation and oxidation, using one and several
+ * threads.
+ *
+ * @author Marc Vaudel
+ */
+public class PeptideInferenceTest extends TestCase {
+
+    /**
+     * The name of the phosphorylation of S.
+     */
+    private static final String PHOSPHO_S = "Phosphorylation of S";
+    /**
+     * The name of the phosphorylation of T.
+     */
+    private static final String PHOSPHO_T = "Phosphorylation of T";
+    /**
+     * The name of the oxidation of M.
+     */
+    private static final String OXIDATION_M = "Oxidation of M";
+    /**
+     * The name of the spectrum file.
+     */
+    private static final String SPECTRUM_FILE_NAME = "peptide_inference.mgf";
+    /**
+     * The advocate of the peptide assumptions.
+     */
+    private static final int ADVOCATE = Advocate.xtandem.getIndex();
+
+    /**
+     * Tests the peptide inference using a single thread.
+     *
+     * @throws Exception exception thrown whenever an error occurred while
+     * creating or processing the identification
+     */
+    public void testSingleThread() throws Exception {
+        testPeptideInference(1);
+    }
+
+    /**
+     * Tests the peptide inference using more threads than there are PSMs to
+     * infer.
+     *
+     * @throws Exception exception thrown whenever an error occurred while
+     * creating or processing the identification
+     */
+    public void testSeveralThreads() throws Exception {
+        testPeptideInference(4);
+    }
+
+    /**
+     * Runs the peptide inference on a new identification and checks the
+     * modification sites of every PSM.
+     *
+     * @param nThreads the number of threads to use
+     *
+     * @throws Exception exception thrown whenever an error occurred while
+     * creating or processing the identification
+     */
+    private void testPeptideInference(int nThreads) throws Exception {
+
+        SearchParameters searchParameters = new SearchParameters();
+        PTMFactory ptmFactory = PTMFactory.getInstance();
+        searchParameters.getPtmSettings().addVariableModification(ptmFactory.getPTM(PHOSPHO_S));
+        searchParameters.getPtmSettings().addVariableModification(ptmFactory.getPTM(PHOSPHO_T));
+        searchParameters.getPtmSettings().addVariableModification(ptmFactory.getPTM(OXIDATION_M));
+        IdentificationParameters identificationParameters = new IdentificationParameters(searchParameters);
+
+        File folder = File.createTempFile("peptide_inference_test", "");
+        if (!folder.delete() || !folder.mkdir()) {
+            throw new IllegalStateException("Impossible to create the test folder " + folder + ".");
+        }
+        Identification identification = new Ms2Identification("peptide_inference_test");
+        identification.establishConnection(folder.getAbsolutePath(), true, new ObjectsCache());
+
+        try {
+            HashMap<String, String> expectedSites = new HashMap<String, String>();
+
+            // PSMs with confidently localized PTMs
+            expectedSites.put(addPsm(identification, 0, "ASMDTMSK", new String[]{PHOSPHO_S, OXIDATION_M}, new int[]{7, 6}, new boolean[]{true, true}),
+                    PHOSPHO_S + " 7 confident, " + OXIDATION_M + " 6 confident");
+            expectedSites.put(addPsm(identification, 1, "ASMDTMSK", new String[]{PHOSPHO_S, PHOSPHO_S}, new int[]{2, 7}, new boolean[]{true, true}),
+                    PHOSPHO_S + " 2 confident, " + PHOSPHO_S + " 7 confident");
+            expectedSites.put(addPsm(identification, 2, "DTMEK", new String[]{PHOSPHO_T, OXIDATION_M}, new int[]{2, 3}, new boolean[]{true, true}),
+                    PHOSPHO_T + " 2 confident, " + OXIDATION_M + " 3 confident");
+
+            // Same sequence as a confident PSM, both masses ambiguous, the doubly phosphorylated peptide is not used
+            expectedSites.put(addPsm(identification, 3, "ASMDTMSK", new String[]{PHOSPHO_S, OXIDATION_M}, new int[]{2, 3}, new boolean[]{false, false}),
+                    PHOSPHO_S + " 7 inferred, " + OXIDATION_M + " 6 inferred");
+
+            // Same sequence as a confident PSM, the phosphorylation moves from T to S
+            expectedSites.put(addPsm(identification, 4, "ASMDTMSK", new String[]{PHOSPHO_T, OXIDATION_M}, new int[]{5, 6}, new boolean[]{false, true}),
+                    PHOSPHO_S + " 7 inferred, " + OXIDATION_M + " 6 confident");
+
+            // Sequence containing the sequence of a confident PSM, both masses ambiguous
+            expectedSites.put(addPsm(identification, 5, "SMDTMEK", new String[]{PHOSPHO_S, OXIDATION_M}, new int[]{1, 2}, new boolean[]{false, false}),
+                    PHOSPHO_T + " 4 inferred, " + OXIDATION_M + " 5 inferred");
+
+            // Sequence unrelated to the confident PSMs, nothing to infer
+            expectedSites.put(addPsm(identification, 6, "GMPSTK", new String[]{PHOSPHO_S, OXIDATION_M}, new int[]{4, 2}, new boolean[]{false, false}),
+                    PHOSPHO_S + " 4 ambiguous, " + OXIDATION_M + " 2 ambiguous");
+
+            // Not modified
+            expectedSites.put(addPsm(identification, 7, "PEPTDEK", new String[0], new int[0], new boolean[0]),
+                    "");
+
+            ProcessingPreferences processingPreferences = new ProcessingPreferences();
+            processingPreferences.setnThreads(nThreads);
+            WaitingHandler waitingHandler = new WaitingHandlerCLIImpl();
+            PtmScorer ptmScorer = new PtmScorer(new PsmPTMMap());
+            ptmScorer.peptideInference(identification, identificationParameters, waitingHandler, new CommandLineExceptionHandler(), processingPreferences);
+
+            Assert.assertFalse("Peptide inference canceled", waitingHandler.isRunCanceled());
+            for (String spectrumKey : expectedSites.keySet()) {
+                SpectrumMatch spectrumMatch = identification.getSpectrumMatch(spectrumKey);
+                Assert.assertEquals("Sites of " + spectrumKey, expectedSites.get(spectrumKey), getSites(spectrumMatch.getBestPeptideAssumption().getPeptide()));
+            }
+
+        } finally {
+            identification.close();
+            Util.deleteDir(folder);
+        }
+    }
+
+    /**
+     * Adds a PSM to the identification and returns its spectrum key.
+     *
+     * @param identification the identification
+     * @param index the index of the spectrum
+     * @param sequence the peptide sequence
+     * @param ptmNames the names of the variable PTMs
+     * @param sites the sites of the PTMs, 1 is the first amino acid
+     * @param confident indicates for every PTM whether it is confidently
+     * localized
+     *
+     * @return the spectrum key of the PSM
+     *
+     * @throws Exception exception thrown whenever an error occurred while
+     * saving the PSM
+     */
+    private static String addPsm(Identification identification, int index, String sequence, String[] ptmNames, int[] sites, boolean[] confident) throws Exception {
+
+        ArrayList<ModificationMatch> modificationMatches = new ArrayList<ModificationMatch>(ptmNames.length);
+        for (int i = 0; i < ptmNames.length; i++) {
+            ModificationMatch modificationMatch = new ModificationMatch(ptmNames[i], true, sites[i]);
+            modificationMatch.setConfident(confident[i]);
+            modificationMatches.add(modificationMatch);
+        }
+        Peptide peptide = new Peptide(sequence, modificationMatches);
+        PeptideAssumption peptideAssumption = new PeptideAssumption(peptide, 1, ADVOCATE, new Charge(Charge.PLUS, 2), 1.0);
+
+        String spectrumKey = Spectrum.getSpectrumKey(SPECTRUM_FILE_NAME, "spectrum_" + index);
+        SpectrumMatch spectrumMatch = new SpectrumMatch(spectrumKey);
+        spectrumMatch.setBestPeptideAssumption(peptideAssumption);
+        spectrumMatch.addUrParam(new PSPtmScores());
+
+        ArrayList<SpectrumIdentificationAssumption> assumptionsAtScore = new ArrayList<SpectrumIdentificationAssumption>(1);
+        assumptionsAtScore.add(peptideAssumption);
+        HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> advocateAssumptions = new HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>(1);
+        advocateAssumptions.put(peptideAssumption.getScore(), assumptionsAtScore);
+        HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptions = new HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>>(1);
+        assumptions.put(ADVOCATE, advocateAssumptions);
+
+        identification.addAssumptions(spectrumKey, assumptions, true);
+        identification.addSpectrumMatch(spectrumMatch);
+
+        return spectrumKey;
+    }
+
+    /**
+     * Returns a description of the variable PTMs of a peptide: name, site and
+     * whether the site is confident, inferred or ambiguous, in the order of
+     * the modification matches.
+     *
+     * @param peptide the peptide
+     *
+     * @return a description of the variable PTMs of the peptide
+     */
+    private static String getSites(Peptide peptide) {
+        StringBuilder sites = new StringBuilder();
+        if (peptide.isModified()) {
+            for (ModificationMatch modificationMatch : peptide.getModificationMatches()) {
+                if (sites.length() > 0) {
+                    sites.append(", ");
+                }
+                sites.append(modificationMatch.getTheoreticPtm()).append(" ").append(modificationMatch.getModificationSite()).append(" ");
+                if (modificationMatch.isConfident()) {
+                    sites.append("confident");
+                } else if (modificationMatch.isInferred()) {
+                    sites.append("inferred");
+                } else {
+                    sites.append("ambiguous");
+                }
+            }
+        }
+        return sites.toString();
+    }
+}
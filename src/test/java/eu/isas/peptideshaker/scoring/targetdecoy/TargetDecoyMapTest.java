@@ -0,0 +1,215 @@
+package eu.isas.peptideshaker.scoring.targetdecoy;
+
+import com.compomics.util.gui.waiting.waitinghandlers.WaitingHandlerCLIImpl;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Tests the estimation and lookup of the posterior error probabilities of the
+ * target/decoy map against the original estimator iterating the hash map of
+ * points.
+ *
+ * @author Marc Vaudel
+ */
+public class TargetDecoyMapTest extends TestCase {
+
+    /**
+     * The tolerance on the probabilities.
+     */
+    private static final double TOLERANCE = 1e-12;
+
+    /**
+     * Tests the probabilities of a map with overlapping target and decoy
+     * distributions and several hits per score.
+     */
+    public void testOverlappingDistributions() {
+        TargetDecoyMap targetDecoyMap = getRandomMap(20000, 0.3, 1000, 1);
+        compareEstimators(targetDecoyMap);
+    }
+
+    /**
+     * Tests the probabilities of a map with mostly unique scores.
+     */
+    public void testUniqueScores() {
+        TargetDecoyMap targetDecoyMap = getRandomMap(5000, 0.5, 1000000, 2);
+        compareEstimators(targetDecoyMap);
+    }
+
+    /**
+     * Tests the probabilities of a map using a window smaller than Nmax.
+     */
+    public void testWindowSize() {
+        TargetDecoyMap targetDecoyMap = getRandomMap(10000, 0.2, 100, 3);
+        targetDecoyMap.setWindowSize(10);
+        compareEstimators(targetDecoyMap);
+    }
+
+    /**
+     * Tests the probabilities of a small map where the first hits are
+     * decoys.
+     */
+    public void testSmallMap() {
+        TargetDecoyMap targetDecoyMap = new TargetDecoyMap();
+        double[] scores = {-2.0, -1.5, -1.5, -1.0, 0.0, 0.5, 0.5, 0.5, 1.0, 2.0, 3.0, 3.0};
+        boolean[] decoys = {true, true, false, true, false, true, false, false, false, true, false, false};
+        for (int i = 0; i < scores.length; i++) {
+            targetDecoyMap.put(scores[i], decoys[i]);
+        }
+        targetDecoyMap.setWindowSize(2);
+        compareEstimators(targetDecoyMap);
+    }
+
+    /**
+     * Returns a map filled with target and decoy scores drawn from overlapping
+     * distributions.
+     *
+     * @param nHits the number of hits
+     * @param decoyShare the share of decoy hits
+     * @param precision the precision of the scores
+     * @param seed the seed of the random generator
+     *
+     * @return a map filled with random hits
+     */
+    private static TargetDecoyMap getRandomMap(int nHits, double decoyShare, double precision, long seed) {
+        Random random = new Random(seed);
+        TargetDecoyMap targetDecoyMap = new TargetDecoyMap();
+        for (int i = 0; i < nHits; i++) {
+            boolean decoy = random.nextDouble() < decoyShare;
+            double score = decoy ? 2 * random.nextGaussian() : 6 + 3 * random.nextGaussian();
+            targetDecoyMap.put(Math.round(score * precision) / precision, decoy);
+        }
+        return targetDecoyMap;
+    }
+
+    /**
+     * Estimates the probabilities of the map with both estimators and compares
+     * them at the scores of the map and in between.
+     *
+     * @param targetDecoyMap the target/decoy map
+     */
+    private static void compareEstimators(TargetDecoyMap targetDecoyMap) {
+
+        HashMap<Double, Double> expectedProbabilities = estimateProbabilitiesFromHitMap(targetDecoyMap);
+        targetDecoyMap.estimateProbabilities(new WaitingHandlerCLIImpl());
+
+        ArrayList<Double> scores = targetDecoyMap.getScores();
+        for (double score : scores) {
+            Assert.assertEquals("Probability at " + score, expectedProbabilities.get(score), targetDecoyMap.getProbability(score), TOLERANCE);
+        }
+
+        ArrayList<Double> queries = new ArrayList<Double>();
+        queries.add(scores.get(0) - 1);
+        queries.add(scores.get(scores.size() - 1) + 1);
+        for (int i = 1; i < scores.size(); i++) {
+            queries.add((scores.get(i - 1) + scores.get(i)) / 2);
+        }
+        for (double score : queries) {
+            double expected = getProbabilityFromHitMap(scores, expectedProbabilities, score);
+            Assert.assertEquals("Probability at " + score, expected, targetDecoyMap.getProbability(score), TOLERANCE);
+        }
+    }
+
+    /**
+     * Estimates the posterior error probabilities of the map by iterating the
+     * hash map of points, as done before the sorted representation of the
+     * map.
+     *
+     * @param targetDecoyMap the target/decoy map
+     *
+     * @return the probabilities indexed by score
+     */
+    private static HashMap<Double, Double> estimateProbabilitiesFromHitMap(TargetDecoyMap targetDecoyMap) {
+
+        ArrayList<Double> scores = targetDecoyMap.getScores();
+        int windowSize = targetDecoyMap.getWindowSize();
+        HashMap<Double, Double> probabilities = new HashMap<Double, Double>(scores.size());
+
+        double currentScore = scores.get(0);
+        int previousNTarget = targetDecoyMap.getNTarget(currentScore);
+        double nLimit = 0.5 * windowSize;
+        double nTargetUp = 1.5 * previousNTarget;
+        double nTargetDown = -0.5 * previousNTarget;
+        double nDecoy = targetDecoyMap.getNDecoy(currentScore);
+        int iDown = 0;
+        int iUp = 1;
+        boolean oneReached = false;
+
+        for (int i = 0; i < scores.size(); i++) {
+            currentScore = scores.get(i);
+            int pointNTarget = targetDecoyMap.getNTarget(currentScore);
+            double p;
+            if (!oneReached) {
+                double change = 0.5 * (previousNTarget + pointNTarget);
+                nTargetDown += change;
+                nTargetUp -= change;
+                while (nTargetDown > nLimit) {
+                    if (iDown < i) {
+                        double downScore = scores.get(iDown);
+                        double nTargetDownTemp = nTargetDown - targetDecoyMap.getNTarget(downScore);
+                        if (nTargetDownTemp >= nLimit) {
+                            nDecoy -= targetDecoyMap.getNDecoy(downScore);
+                            nTargetDown = nTargetDownTemp;
+                            iDown++;
+                        } else {
+                            break;
+                        }
+                    } else {
+                        break;
+                    }
+                }
+                while (nTargetUp < nLimit && iUp < scores.size()) {
+                    double upScore = scores.get(iUp);
+                    nTargetUp += targetDecoyMap.getNTarget(upScore);
+                    nDecoy += targetDecoyMap.getNDecoy(upScore);
+                    iUp++;
+                }
+                double nTarget = nTargetDown + nTargetUp;
+                p = Math.max(Math.min(nDecoy / nTarget, 1), 0);
+                if (p >= 0.98) {
+                    oneReached = true;
+                }
+            } else {
+                p = 1;
+            }
+            probabilities.put(currentScore, p);
+            previousNTarget = pointNTarget;
+        }
+
+        return probabilities;
+    }
+
+    /**
+     * Returns the posterior error probability at the given score using the
+     * hash map lookup, as done before the sorted representation of the map.
+     *
+     * @param scores the sorted scores of the map
+     * @param probabilities the probabilities indexed by score
+     * @param score the score
+     *
+     * @return the posterior error probability at the given score
+     */
+    private static double getProbabilityFromHitMap(ArrayList<Double> scores, HashMap<Double, Double> probabilities, double score) {
+        Double p = probabilities.get(score);
+        if (p != null) {
+            return p;
+        } else if (score >= scores.get(scores.size() - 1)) {
+            return probabilities.get(scores.get(scores.size() - 1));
+        } else {
+            int indexDown = 0;
+            int indexUp = scores.size() - 1;
+            int indexTemp;
+            while (indexUp - indexDown > 1) {
+                indexTemp = (indexUp - indexDown) / 2 + indexDown;
+                if (scores.get(indexTemp) > score) {
+                    indexUp = indexTemp;
+                } else {
+                    indexDown = indexTemp;
+                }
+            }
+            return (probabilities.get(scores.get(indexUp)) + probabilities.get(scores.get(indexDown))) / 2;
+        }
+    }
+}
@@ -1,6 +1,9 @@
 package eu.isas.peptideshaker.test;
 
 import eu.isas.peptideshaker.pride.PrideWebServiceTest;
+import eu.isas.peptideshaker.ptm.PeptideInferenceTest;
+import eu.isas.peptideshaker.scoring.targetdecoy.TargetDecoyMapTest;
+import eu.isas.peptideshaker.validation.ValidationIndexTest;
 import junit.framework.Test;
 import junit.framework.TestCase;
 import junit.framework.TestSuite;
@@ -19,6 +22,9 @@ public class FullSuite extends TestCase {
     public static Test suite() {
         TestSuite ts = new TestSuite("Test suite for the PeptideShaker project.");
         ts.addTest(new TestSuite(PrideWebServiceTest.class));
+        ts.addTest(new TestSuite(TargetDecoyMapTest.class));
+        ts.addTest(new TestSuite(PeptideInferenceTest.class));
+        ts.addTest(new TestSuite(ValidationIndexTest.class));
         return ts;
     }
 }
@@ -0,0 +1,500 @@
+package eu.isas.peptideshaker.validation;
+
+import com.compomics.util.Util;
+import com.compomics.util.db.ObjectsCache;
+import com.compomics.util.exceptions.exception_handlers.CommandLineExceptionHandler;
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.biology.genes.GeneMaps;
+import com.compomics.util.experiment.filtering.Filter;
+import com.compomics.util.experiment.identification.Advocate;
+import com.compomics.util.experiment.identification.Identification;
+import com.compomics.util.experiment.identification.SpectrumIdentificationAssumption;
+import com.compomics.util.experiment.identification.identification_parameters.SearchParameters;
+import com.compomics.util.experiment.identification.identifications.Ms2Identification;
+import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import com.compomics.util.experiment.identification.protein_sequences.SequenceFactory;
+import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
+import com.compomics.util.experiment.massspectrometry.Charge;
+import com.compomics.util.experiment.massspectrometry.Spectrum;
+import com.compomics.util.experiment.massspectrometry.SpectrumFactory;
+import com.compomics.util.gui.waiting.waitinghandlers.WaitingHandlerCLIImpl;
+import com.compomics.util.preferences.DigestionPreferences;
+import com.compomics.util.preferences.IdentificationParameters;
+import com.compomics.util.preferences.ProcessingPreferences;
+import com.compomics.util.preferences.ValidationQCPreferences;
+import com.compomics.util.waiting.WaitingHandler;
+import eu.isas.peptideshaker.parameters.PSParameter;
+import eu.isas.peptideshaker.preferences.SpectrumCountingPreferences;
+import eu.isas.peptideshaker.scoring.MatchValidationLevel;
+import eu.isas.peptideshaker.scoring.maps.InputMap;
+import eu.isas.peptideshaker.scoring.maps.PeptideSpecificMap;
+import eu.isas.peptideshaker.scoring.maps.ProteinMap;
+import eu.isas.peptideshaker.scoring.maps.PsmSpecificMap;
+import eu.isas.peptideshaker.scoring.targetdecoy.TargetDecoyMap;
+import eu.isas.peptideshaker.scoring.targetdecoy.TargetDecoyResults;
+import eu.isas.peptideshaker.utils.IdentificationFeaturesGenerator;
+import eu.isas.peptideshaker.utils.Metrics;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Random;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Tests the incremental validation of the matches using the validation index:
+ * after changing the FDR thresholds, the validation levels of the PSMs,
+ * peptides and proteins obtained by validating incrementally must be the ones
+ * obtained by validating all matches.
+ *
+ * @author Marc Vaudel
+ */
+public class ValidationIndexTest extends TestCase {
+
+    /**
+     * The seed of the random generator.
+     */
+    private static final long SEED = 20161018L;
+    /**
+     * The number of target proteins.
+     */
+    private static final int N_PROTEINS = 80;
+    /**
+     * The number of peptides per protein.
+     */
+    private static final int N_PEPTIDES_PER_PROTEIN = 4;
+    /**
+     * The number of spectra.
+     */
+    private static final int N_SPECTRA = 1500;
+    /**
+     * The share of PSMs mapping to decoy peptides.
+     */
+    private static final double DECOY_SHARE = 0.25;
+    /**
+     * The amino acids used to build the sequences, excluding the cleavage
+     * sites, cysteines and isoleucines.
+     */
+    private static final char[] AMINO_ACIDS = "ADEFGHLMNPQSTVWY".toCharArray();
+    /**
+     * The suffix of the decoy accessions.
+     */
+    private static final String DECOY_ACCESSION_SUFFIX = "_REVERSED";
+    /**
+     * The suffix of the decoy descriptions.
+     */
+    private static final String DECOY_DESCRIPTION_SUFFIX = "-REVERSED";
+    /**
+     * The name of the spectrum file.
+     */
+    private static final String SPECTRUM_FILE_NAME = "validation_index.mgf";
+    /**
+     * The mass of a proton.
+     */
+    private static final double PROTON_MASS = 1.007276;
+    /**
+     * The advocate used for the search engine results.
+     */
+    private static final int ADVOCATE = Advocate.xtandem.getIndex();
+
+    /**
+     * The folder where the files are written.
+     */
+    private File folder;
+    /**
+     * The identification.
+     */
+    private Identification identification;
+    /**
+     * The identification parameters.
+     */
+    private IdentificationParameters identificationParameters;
+    /**
+     * The input map.
+     */
+    private InputMap inputMap;
+    /**
+     * The matches validator.
+     */
+    private MatchesValidator matchesValidator;
+    /**
+     * The metrics.
+     */
+    private Metrics metrics;
+    /**
+     * The gene maps.
+     */
+    private GeneMaps geneMaps;
+    /**
+     * The identification features generator.
+     */
+    private IdentificationFeaturesGenerator identificationFeaturesGenerator;
+    /**
+     * The spectrum counting preferences.
+     */
+    private SpectrumCountingPreferences spectrumCountingPreferences;
+    /**
+     * The processing preferences.
+     */
+    private ProcessingPreferences processingPreferences;
+    /**
+     * The waiting handler.
+     */
+    private WaitingHandler waitingHandler;
+
+    /**
+     * Tests the incremental validation when the FDR thresholds increase.
+     *
+     * @throws Exception exception thrown whenever an error occurred while
+     * validating the matches
+     */
+    public void testIncreasedThresholds() throws Exception {
+        compareValidations(1.0, 5.0);
+    }
+
+    /**
+     * Tests the incremental validation when the FDR thresholds decrease.
+     *
+     * @throws Exception exception thrown whenever an error occurred while
+     * validating the matches
+     */
+    public void testDecreasedThresholds() throws Exception {
+        compareValidations(5.0, 1.0);
+    }
+
+    /**
+     * Validates the matches at the initial FDR, changes the thresholds to the
+     * new FDR and validates incrementally, then validates all matches with the
+     * new thresholds and compares the validation levels of both validations.
+     *
+     * @param initialFdr the initial FDR in percent
+     * @param newFdr the new FDR in percent
+     *
+     * @throws Exception exception thrown whenever an error occurred while
+     * validating the matches
+     */
+    private void compareValidations(double initialFdr, double newFdr) throws Exception {
+
+        CommandLineExceptionHandler exceptionHandler = new CommandLineExceptionHandler();
+
+        identificationParameters.getIdValidationPreferences().setDefaultPsmFDR(initialFdr);
+        identificationParameters.getIdValidationPreferences().setDefaultPeptideFDR(initialFdr);
+        identificationParameters.getIdValidationPreferences().setDefaultProteinFDR(initialFdr);
+        matchesValidator.validateIdentifications(identification, metrics, geneMaps, waitingHandler, exceptionHandler,
+                identificationParameters, identificationFeaturesGenerator, inputMap, spectrumCountingPreferences, processingPreferences);
+        Assert.assertFalse("Initial validation canceled", waitingHandler.isRunCanceled());
+        HashMap<String, MatchValidationLevel> initialLevels = getValidationLevels();
+
+        ValidationIndex validationIndex = new ValidationIndex(identification, matchesValidator.getPsmMap(), matchesValidator.getPeptideMap(), matchesValidator.getProteinMap(), waitingHandler);
+        Assert.assertTrue(validationIndex.isIndexing(identification));
+        Assert.assertEquals(identification.getSpectrumIdentificationSize(), validationIndex.getPsms().size());
+        Assert.assertEquals(identification.getPeptideIdentification().size(), validationIndex.getPeptides().size());
+        Assert.assertEquals(identification.getProteinIdentification().size(), validationIndex.getProteins().size());
+
+        setThresholds(newFdr);
+        matchesValidator.validateIdentificationsIncrementally(validationIndex, identification, metrics, geneMaps, inputMap, waitingHandler, exceptionHandler,
+                identificationFeaturesGenerator, identificationParameters, spectrumCountingPreferences, processingPreferences);
+        Assert.assertFalse("Incremental validation canceled", waitingHandler.isRunCanceled());
+        HashMap<String, MatchValidationLevel> incrementalLevels = getValidationLevels();
+
+        matchesValidator.validateIdentifications(identification, metrics, geneMaps, inputMap, waitingHandler, exceptionHandler,
+                identificationFeaturesGenerator, identificationParameters, spectrumCountingPreferences, processingPreferences);
+        Assert.assertFalse("Complete validation canceled", waitingHandler.isRunCanceled());
+        HashMap<String, MatchValidationLevel> completeLevels = getValidationLevels();
+
+        Assert.assertEquals(completeLevels.size(), incrementalLevels.size());
+        int nChanged = 0;
+        for (String key : completeLevels.keySet()) {
+            Assert.assertEquals("Validation level of " + key, completeLevels.get(key), incrementalLevels.get(key));
+            if (completeLevels.get(key) != initialLevels.get(key)) {
+                nChanged++;
+            }
+        }
+        Assert.assertTrue("No validation level changed between " + initialFdr + "% and " + newFdr + "% FDR", nChanged > 0);
+
+        // the index must reflect the levels of the last validation
+        for (int i = 0; i < validationIndex.getPsms().size(); i++) {
+            String key = "PSM " + validationIndex.getPsms().getKey(i);
+            Assert.assertEquals("Indexed level of " + key, completeLevels.get(key).getIndex(), validationIndex.getPsms().getLevel(i));
+        }
+        for (int i = 0; i < validationIndex.getPeptides().size(); i++) {
+            String key = "Peptide " + validationIndex.getPeptides().getKey(i);
+            Assert.assertEquals("Indexed level of " + key, completeLevels.get(key).getIndex(), validationIndex.getPeptides().getLevel(i));
+        }
+        for (int i = 0; i < validationIndex.getProteins().size(); i++) {
+            String key = "Protein " + validationIndex.getProteins().getKey(i);
+            Assert.assertEquals("Indexed level of " + key, completeLevels.get(key).getIndex(), validationIndex.getProteins().getLevel(i));
+        }
+    }
+
+    /**
+     * Sets the FDR thresholds of all target/decoy maps, as done when
+     * validating the identifications with the default FDRs.
+     *
+     * @param fdr the FDR in percent
+     */
+    private void setThresholds(double fdr) {
+        for (TargetDecoyMap targetDecoyMap : matchesValidator.getPsmMap().getTargetDecoyMaps()) {
+            setThreshold(targetDecoyMap, fdr);
+        }
+        for (TargetDecoyMap targetDecoyMap : inputMap.getTargetDecoyMaps()) {
+            setThreshold(targetDecoyMap, fdr);
+        }
+        PeptideSpecificMap peptideMap = matchesValidator.getPeptideMap();
+        for (String mapKey : peptideMap.getKeys()) {
+            setThreshold(peptideMap.getTargetDecoyMap(mapKey), fdr);
+        }
+        setThreshold(matchesValidator.getProteinMap().getTargetDecoyMap(), fdr);
+    }
+
+    /**
+     * Sets the FDR threshold of a target/decoy map.
+     *
+     * @param targetDecoyMap the target/decoy map
+     * @param fdr the FDR in percent
+     */
+    private static void setThreshold(TargetDecoyMap targetDecoyMap, double fdr) {
+        TargetDecoyResults targetDecoyResults = targetDecoyMap.getTargetDecoyResults();
+        targetDecoyResults.setInputType(1);
+        targetDecoyResults.setUserInput(fdr);
+        targetDecoyResults.setClassicalEstimators(true);
+        targetDecoyResults.setClassicalValidation(true);
+        targetDecoyResults.setFdrLimit(fdr);
+        targetDecoyMap.getTargetDecoySeries().getFDRResults(targetDecoyResults);
+    }
+
+    /**
+     * Returns the validation levels of all PSMs, peptides and proteins indexed
+     * by match type and key.
+     *
+     * @return the validation levels of all matches
+     *
+     * @throws Exception exception thrown whenever an error occurred while
+     * reading the matches
+     */
+    private HashMap<String, MatchValidationLevel> getValidationLevels() throws Exception {
+        HashMap<String, MatchValidationLevel> levels = new HashMap<String, MatchValidationLevel>();
+        PSParameter psParameter = new PSParameter();
+        for (String spectrumFileName : identification.getSpectrumFiles()) {
+            for (String spectrumKey : identification.getSpectrumIdentification(spectrumFileName)) {
+                psParameter = (PSParameter) identification.getSpectrumMatchParameter(spectrumKey, psParameter);
+                levels.put("PSM " + spectrumKey, psParameter.getMatchValidationLevel());
+            }
+        }
+        for (String peptideKey : identification.getPeptideIdentification()) {
+            psParameter = (PSParameter) identification.getPeptideMatchParameter(peptideKey, psParameter);
+            levels.put("Peptide " + peptideKey, psParameter.getMatchValidationLevel());
+        }
+        for (String proteinKey : identification.getProteinIdentification()) {
+            psParameter = (PSParameter) identification.getProteinMatchParameter(proteinKey, psParameter);
+            levels.put("Protein " + proteinKey, psParameter.getMatchValidationLevel());
+        }
+        return levels;
+    }
+
+    /**
+     * Writes and loads a concatenated target/decoy FASTA file and an mgf file,
+     * creates the identification and scores the matches at every level.
+     *
+     * @throws Exception exception thrown whenever an error occurred while
+     * creating the project
+     */
+    @Override
+    protected void setUp() throws Exception {
+
+        folder = File.createTempFile("validation_index_test", "");
+        if (!folder.delete() || !folder.mkdir()) {
+            throw new IllegalStateException("Impossible to create the test folder " + folder + ".");
+        }
+        waitingHandler = new WaitingHandlerCLIImpl();
+        Random random = new Random(SEED);
+
+        SearchParameters searchParameters = new SearchParameters();
+        searchParameters.setDigestionPreferences(DigestionPreferences.getDefaultPreferences());
+        identificationParameters = new IdentificationParameters(searchParameters);
+        ValidationQCPreferences validationQCPreferences = identificationParameters.getIdValidationPreferences().getValidationQCPreferences();
+        MatchesValidator.setDefaultMatchesQCFilters(validationQCPreferences);
+        // the spectra are not realistic, only the peptide and protein filters depending on the validation of the other levels are kept
+        validationQCPreferences.setPsmFilters(new ArrayList<Filter>(0));
+
+        // proteins made of peptides specific to every protein
+        HashSet<String> sequences = new HashSet<String>();
+        ArrayList<String> peptides = new ArrayList<String>(N_PROTEINS * N_PEPTIDES_PER_PROTEIN);
+        ArrayList<String> peptideProteins = new ArrayList<String>(N_PROTEINS * N_PEPTIDES_PER_PROTEIN);
+        File fastaFile = new File(folder, "validation_index_concatenated_target_decoy.fasta");
+        BufferedWriter bw = new BufferedWriter(new FileWriter(fastaFile));
+        try {
+            for (int i = 0; i < N_PROTEINS; i++) {
+                String accession = String.format(Locale.US, "VAL%05d", i);
+                StringBuilder sequence = new StringBuilder("M");
+                for (int j = 0; j < N_PEPTIDES_PER_PROTEIN; j++) {
+                    String peptide = getPeptide(random);
+                    while (!sequences.add(peptide)) {
+                        peptide = getPeptide(random);
+                    }
+                    peptides.add(peptide);
+                    peptideProteins.add(accession);
+                    sequence.append(peptide);
+                }
+                bw.write(">sp|" + accession + "|" + accession + "_TEST Test protein " + accession + " OS=Test organism GN=" + accession);
+                bw.newLine();
+                bw.write(sequence.toString());
+                bw.newLine();
+                bw.write(">sp|" + accession + DECOY_ACCESSION_SUFFIX + "|" + accession + "_TEST" + DECOY_DESCRIPTION_SUFFIX + " Test protein " + accession + DECOY_DESCRIPTION_SUFFIX);
+                bw.newLine();
+                bw.write(sequence.reverse().toString());
+                bw.newLine();
+            }
+        } finally {
+            bw.close();
+        }
+        SequenceFactory.getInstance().loadFastaFile(fastaFile, waitingHandler);
+
+        // PSMs with overlapping target and decoy score distributions
+        String[] psmSequences = new String[N_SPECTRA];
+        String[] psmProteins = new String[N_SPECTRA];
+        boolean[] psmDecoys = new boolean[N_SPECTRA];
+        double[] psmScores = new double[N_SPECTRA];
+        int[] psmCharges = new int[N_SPECTRA];
+        for (int i = 0; i < N_SPECTRA; i++) {
+            int peptideIndex = random.nextInt(peptides.size());
+            psmDecoys[i] = random.nextDouble() < DECOY_SHARE;
+            if (psmDecoys[i]) {
+                psmSequences[i] = new StringBuilder(peptides.get(peptideIndex)).reverse().toString();
+                psmProteins[i] = peptideProteins.get(peptideIndex) + DECOY_ACCESSION_SUFFIX;
+            } else {
+                psmSequences[i] = peptides.get(peptideIndex);
+                psmProteins[i] = peptideProteins.get(peptideIndex);
+            }
+            double score = psmDecoys[i] ? 5 * random.nextDouble() : 2 + 10 * random.nextDouble();
+            psmScores[i] = Math.round(score * 100) / 100.0;
+            psmCharges[i] = 2 + random.nextInt(2);
+        }
+
+        File spectrumFile = new File(folder, SPECTRUM_FILE_NAME);
+        bw = new BufferedWriter(new FileWriter(spectrumFile));
+        try {
+            for (int i = 0; i < N_SPECTRA; i++) {
+                double peptideMass = new Peptide(psmSequences[i], null).getMass();
+                bw.write("BEGIN IONS");
+                bw.newLine();
+                bw.write("TITLE=spectrum_" + i);
+                bw.newLine();
+                bw.write(String.format(Locale.US, "PEPMASS=%.6f", (peptideMass + psmCharges[i] * PROTON_MASS) / psmCharges[i]));
+                bw.newLine();
+                bw.write("CHARGE=" + psmCharges[i] + "+");
+                bw.newLine();
+                for (int j = 1; j <= 10; j++) {
+                    bw.write(String.format(Locale.US, "%.5f %.1f", 100 + j * (peptideMass - 100) / 11, 100 + 900 * random.nextDouble()));
+                    bw.newLine();
+                }
+                bw.write("END IONS");
+                bw.newLine();
+                bw.newLine();
+            }
+        } finally {
+            bw.close();
+        }
+        SpectrumFactory.getInstance().addSpectra(spectrumFile, waitingHandler);
+
+        // PSMs
+        identification = new Ms2Identification("validation_index_test");
+        identification.establishConnection(new File(folder, "matches").getAbsolutePath(), true, new ObjectsCache());
+        PsmSpecificMap psmMap = new PsmSpecificMap();
+        inputMap = new InputMap();
+        String[] spectrumKeys = new String[N_SPECTRA];
+        for (int i = 0; i < N_SPECTRA; i++) {
+            Peptide peptide = new Peptide(psmSequences[i], null);
+            ArrayList<String> parentProteins = new ArrayList<String>(1);
+            parentProteins.add(psmProteins[i]);
+            peptide.setParentProteins(parentProteins);
+            double p = Math.pow(10, -psmScores[i]);
+            PeptideAssumption peptideAssumption = new PeptideAssumption(peptide, 1, ADVOCATE, new Charge(Charge.PLUS, psmCharges[i]), p);
+            PSParameter psParameter = new PSParameter();
+            psParameter.setSearchEngineProbability(p);
+            peptideAssumption.addUrParam(psParameter);
+
+            spectrumKeys[i] = Spectrum.getSpectrumKey(SPECTRUM_FILE_NAME, "spectrum_" + i);
+            SpectrumMatch spectrumMatch = new SpectrumMatch(spectrumKeys[i]);
+            spectrumMatch.setBestPeptideAssumption(peptideAssumption);
+
+            ArrayList<SpectrumIdentificationAssumption> assumptionsAtScore = new ArrayList<SpectrumIdentificationAssumption>(1);
+            assumptionsAtScore.add(peptideAssumption);
+            HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> advocateAssumptions = new HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>(1);
+            advocateAssumptions.put(p, assumptionsAtScore);
+            HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptions = new HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>>(1);
+            assumptions.put(ADVOCATE, advocateAssumptions);
+            identification.addAssumptions(spectrumKeys[i], assumptions, true);
+            identification.addSpectrumMatch(spectrumMatch);
+
+            psmMap.addPoint(p, spectrumMatch, identificationParameters.getSequenceMatchingPreferences());
+            inputMap.addEntry(ADVOCATE, SPECTRUM_FILE_NAME, p, psmDecoys[i]);
+        }
+        inputMap.estimateProbabilities(waitingHandler);
+        psmMap.clean(identificationParameters.getIdValidationPreferences().getDefaultPsmFDR() / 100);
+        psmMap.estimateProbabilities(waitingHandler);
+        for (int i = 0; i < N_SPECTRA; i++) {
+            PSParameter psParameter = new PSParameter();
+            double p = Math.pow(10, -psmScores[i]);
+            psParameter.setSpectrumProbabilityScore(p);
+            psParameter.setPsmProbability(psmMap.getProbability(SPECTRUM_FILE_NAME, psmCharges[i], p));
+            psParameter.setSpecificMapKey(psmCharges[i] + "");
+            identification.addSpectrumMatchParameter(spectrumKeys[i], psParameter);
+            identification.buildPeptidesAndProteins(spectrumKeys[i], identificationParameters.getSequenceMatchingPreferences());
+        }
+
+        // peptides and proteins
+        metrics = new Metrics();
+        geneMaps = new GeneMaps();
+        spectrumCountingPreferences = new SpectrumCountingPreferences();
+        processingPreferences = new ProcessingPreferences();
+        processingPreferences.setnThreads(2);
+        matchesValidator = new MatchesValidator(psmMap, new PeptideSpecificMap(), new ProteinMap());
+        matchesValidator.fillPeptideMaps(identification, metrics, waitingHandler, identificationParameters);
+        matchesValidator.getPeptideMap().clean(identificationParameters.getIdValidationPreferences().getDefaultPeptideFDR() / 100);
+        matchesValidator.getPeptideMap().estimateProbabilities(waitingHandler);
+        matchesValidator.attachPeptideProbabilities(identification, waitingHandler);
+        matchesValidator.fillProteinMap(identification, waitingHandler);
+        matchesValidator.getProteinMap().estimateProbabilities(waitingHandler);
+        matchesValidator.attachProteinProbabilities(identification, metrics, waitingHandler, identificationParameters.getFractionSettings());
+        identificationFeaturesGenerator = new IdentificationFeaturesGenerator(identification, identificationParameters, metrics, spectrumCountingPreferences);
+    }
+
+    /**
+     * Returns a random tryptic peptide sequence.
+     *
+     * @param random the random generator
+     *
+     * @return a peptide sequence
+     */
+    private static String getPeptide(Random random) {
+        int length = 8 + random.nextInt(8);
+        char[] sequence = new char[length];
+        for (int i = 0; i < length - 1; i++) {
+            sequence[i] = AMINO_ACIDS[random.nextInt(AMINO_ACIDS.length)];
+        }
+        sequence[length - 1] = random.nextBoolean() ? 'K' : 'R';
+        return new String(sequence);
+    }
+
+    /**
+     * Closes the identification, clears the factories and deletes the files.
+     *
+     * @throws Exception exception thrown whenever an error occurred while
+     * closing the project
+     */
+    @Override
+    protected void tearDown() throws Exception {
+        if (identification != null) {
+            identification.close();
+            identification = null;
+        }
+        SpectrumFactory.getInstance().clearFactory();
+        SequenceFactory.getInstance().clearFactory();
+        Util.deleteDir(folder);
+    }
+}